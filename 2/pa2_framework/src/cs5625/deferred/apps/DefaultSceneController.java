@@ -43,13 +43,23 @@ public class DefaultSceneController extends SceneController
 	{
 		try
 		{
-			/* Load default scene with materials. */
-			mSceneRoot.addGeometry(Geometry.load("models/default-scene.obj", true, true));
+			/* Load default scene with materials, with vertex-cache ordering and compressed vertex data. */
+			mSceneRoot.addGeometry(Geometry.load("models/default-scene.obj", true, true, true, true));
+			
+			/* Give every mesh three coarser versions for when it's small on screen. */
+			mSceneRoot.generateLevelsOfDetailForAllGeometry(3, 0.5f);
+			
+			/* Split big meshes into clusters which can be culled separately. */
+			mSceneRoot.buildMeshletsForAllGeometry();
 			
 			/* Example of manipulating an object by name. */
 			mSceneRoot.findDescendantByName("fighter1").getOrientation().set(new AxisAngle4f(0.0f, 1.0f, 0.0f, -(float)Math.PI / 4.0f));
 			((Geometry)mSceneRoot.findDescendantByName("Cylinder")).getMeshes().get(0).setMaterial(new LambertianMaterial(new Color3f(0.64f, 0.47f, 0.26f)));
 			
+			/* The box and the floor are big, solid and simple, so let them hide whatever is entirely behind them. */
+			((Geometry)mSceneRoot.findDescendantByName("Cube")).setOccluder(true);
+			((Geometry)mSceneRoot.findDescendantByName("Plane")).setOccluder(true);
+			
 			/* Add an unattenuated point light to provide overall illumination. */
 			PointLight light = new PointLight();
 			
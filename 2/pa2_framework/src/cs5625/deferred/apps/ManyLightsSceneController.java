@@ -63,6 +63,9 @@ public class ManyLightsSceneController extends SceneController
 			mLightCloud.getPosition().y = 2.0f;
 			mSceneRoot.addChild(mLightCloud);
 			
+			/* Load the sphere marking each light once; every light gets a clone sharing its vertex data. */
+			Geometry sphereTemplate = Geometry.load("models/lowpolysphere.obj", false, false).get(0);
+			
 			/* Go ahead and create the lights. */
 			for (int i = 0; i < 30; ++i)
 			{
@@ -79,7 +82,9 @@ public class ManyLightsSceneController extends SceneController
 						(rand.nextFloat() - 0.5f) * 8.0f));
 				
 				/* Add a sphere as a child of the light (so we can see where it is), and set the sphere to the same color as the light. */
-				Geometry sphere = Geometry.load("models/lowpolysphere.obj", false, false).get(0);
+				Geometry sphere = new Geometry();
+				sphere.setName(sphereTemplate.getName());
+				sphere.addMesh(sphereTemplate.getMeshes().get(0).clone());
 				sphere.setScale(0.1f);
 				sphere.getMeshes().get(0).setMaterial(new UnshadedMaterial(lightColor));
 				light.addChild(sphere);
@@ -95,6 +100,9 @@ public class ManyLightsSceneController extends SceneController
 			System.exit(-1);
 		}
 		
+		/* Many small lights: shade only the pixels each one reaches. */
+		mRenderer.setLightVolumes(true);
+		
 		/* Initialize camera position. */
 		updateCamera();
 	}
@@ -1,5 +1,6 @@
 package cs5625.deferred.apps;
 
+import java.awt.EventQueue;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -7,12 +8,16 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.media.opengl.GL2;
 import javax.media.opengl.GLAutoDrawable;
 
 import cs5625.deferred.rendering.Camera;
+import cs5625.deferred.rendering.RenderSnapshot;
+import cs5625.deferred.rendering.RenderSnapshotBuffer;
 import cs5625.deferred.rendering.Renderer;
+import cs5625.deferred.scenegraph.ParallelAnimator;
 import cs5625.deferred.scenegraph.SceneObject;
 import cs5625.deferred.ui.MainViewWindow;
 
@@ -38,6 +43,33 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 	protected SceneObject mSceneRoot = new SceneObject();
 	protected Camera mCamera = new Camera();
 	
+	/* Animates the scene on multiple threads. Disable it if your animations change the scenegraph structure. */
+	protected ParallelAnimator mAnimator = new ParallelAnimator();
+	
+	/* 
+	 * Snapshots of the scene and camera, rendered on the OpenGL thread, so input handlers and animation 
+	 * never race with rendering. The buffer allows a single publisher, so snapshots are only ever published 
+	 * on the AWT event thread, by `mPublishTask`; everything else asks for one through `schedulePublish()`. 
+	 */
+	protected RenderSnapshotBuffer mSnapshots = new RenderSnapshotBuffer();
+	
+	/* Set while a scheduled publish is waiting to run, so a burst of input events flattens the scene once 
+	 * rather than once per event, and whether that publish must repaint even if nothing changed. */
+	private AtomicBoolean mPublishPending = new AtomicBoolean(false);
+	private AtomicBoolean mRepaintRequested = new AtomicBoolean(false);
+	private Runnable mPublishTask = new Runnable() {
+		public void run()
+		{
+			mPublishPending.set(false);
+			boolean repaint = mRepaintRequested.getAndSet(false);
+			
+			if (mSnapshots.publish(mSceneRoot, mCamera) || repaint)
+			{
+				mMainWindow.repaint();
+			}
+		}
+	};
+	
 	@SuppressWarnings("unused")
 	private static SceneController globalController = null;
 	
@@ -89,34 +121,69 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 	public abstract void initializeScene();
 	
 	/**
-	 * Can be called by anyone to request a re-render.
+	 * Can be called by anyone to request a re-render. The scene and camera are captured once the AWT 
+	 * event thread has handled the events already queued, so all changes made by a burst of input events 
+	 * land in one snapshot and the scene is flattened once per frame rather than once per event.
 	 */
 	public void requiresRender()
 	{
-		mMainWindow.repaint();
+		mRepaintRequested.set(true);
+		schedulePublish();
+	}
+	
+	/**
+	 * Queues `mPublishTask` on the AWT event thread, unless it is queued already. The task repaints if 
+	 * the scene changed or `requiresRender()` asked for it.
+	 */
+	private void schedulePublish()
+	{
+		if (mPublishPending.compareAndSet(false, true))
+		{
+			EventQueue.invokeLater(mPublishTask);
+		}
 	}
 	
 	/**
 	 * Can be called by anyone to tell a self-animating controller to update and render a new frame.
-	 * Default implementation just calls `mSceneRoot.animate(dt)` and `requiresRender()`.
+	 * Default implementation just calls `mSceneRoot.animate(dt)` (through `mAnimator`, which may split 
+	 * the work across threads) and schedules a publish, but only repaints if the animation changed 
+	 * anything (call `requiresRender()` to repaint regardless). Called off the AWT event thread, it 
+	 * re-posts itself there, since that thread owns the scene.
 	 * 
 	 * @param dt The time (in seconds) since the last frame update. Used for time-based (as opposed to 
 	 *        frame-based) animation.
 	 */
-	public void nextFrame(float dt)
+	public void nextFrame(final float dt)
 	{
-		mSceneRoot.animate(dt);
-		requiresRender();
+		if (!EventQueue.isDispatchThread())
+		{
+			EventQueue.invokeLater(new Runnable() {
+				public void run()
+				{
+					nextFrame(dt);
+				}
+			});
+			return;
+		}
+		
+		mAnimator.animate(mSceneRoot, dt);
+		schedulePublish();
 	}
 	
 	/**
-	 * Called by the OpenGL view to re-render the scene.
+	 * Called by the OpenGL view to re-render the scene. Renders the last snapshot published by 
+	 * `requiresRender()`.
 	 * 
 	 * @param drawable The OpenGL drawable representing the context.
 	 */
 	public void renderGL(GLAutoDrawable drawable)
 	{
-		mRenderer.render(drawable, mSceneRoot, mCamera);
+		RenderSnapshot snapshot = mSnapshots.acquire();
+		
+		if (snapshot != null)
+		{
+			mRenderer.render(drawable, snapshot);
+		}
 	}
 
 	/**
@@ -129,6 +196,9 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 		mRenderer = new Renderer();
 		mRenderer.init(drawable);
 		initializeScene();
+		
+		/* Publish the initial scene on the event thread, so there is something to render. */
+		requiresRender();
 	}
 	
 	/**
@@ -259,6 +329,18 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 			System.out.println("Blur dynamic cube maps: " + mRenderer.getBlurDynamicCubeMaps());
 			requiresRender();
 		}
+		else if (c == 'k')
+		{
+			mRenderer.setCubeMapLevelOfDetailBias(Math.max(0.1f, mRenderer.getCubeMapLevelOfDetailBias() - 0.1f));
+			System.out.println("Cube Map LOD Bias: " + mRenderer.getCubeMapLevelOfDetailBias());
+			requiresRender();
+		}
+		else if (c == 'K')
+		{
+			mRenderer.setCubeMapLevelOfDetailBias(mRenderer.getCubeMapLevelOfDetailBias() + 0.1f);
+			System.out.println("Cube Map LOD Bias: " + mRenderer.getCubeMapLevelOfDetailBias());
+			requiresRender();
+		}
 	}
 
 	/**
@@ -76,8 +76,8 @@ public class TexturesTestSceneController extends SceneController
 			normalMaterial2.setSpecularTexture(brickSpecularTexture);
 			normalMaterial2.setNormalTexture(brickNormalTexture);
 			
-			((Geometry)mSceneRoot.findDescendantByName("Cube")).calculateTangentVectorsForAllGeometry();
 			((Geometry)mSceneRoot.findDescendantByName("Cube")).getMeshes().get(0).setMaterial(normalMaterial2);
+			((Geometry)mSceneRoot.findDescendantByName("Cube")).calculateTangentVectorsForAllGeometry();
 			
 			/* Change the material of the Icosphere to Reflection */			
 			ReflectionMaterial reflectionMaterial1 = new ReflectionMaterial(mRenderer.getStaticCubeMap());
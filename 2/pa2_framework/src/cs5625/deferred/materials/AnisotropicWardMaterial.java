@@ -68,6 +68,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setDiffuseColor(Color3f diffuse)
 	{
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 
 	public Color3f getSpecularColor()
@@ -78,6 +79,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setSpecularColor(Color3f specular)
 	{
 		mSpecularColor = specular;
+		markChanged();
 	}
 	
 	public float getAlphaX()
@@ -88,6 +90,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setAlphaX(float m)
 	{
 		mAlphaX = m;
+		markChanged();
 	}
 	
 	public float getAlphaY()
@@ -98,6 +101,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setAlphaY(float m)
 	{
 		mAlphaY = m;
+		markChanged();
 	}
 
 	public Texture2D getDiffuseTexture()
@@ -108,6 +112,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setDiffuseTexture(Texture2D texture)
 	{
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getSpecularTexture()
@@ -118,6 +123,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setSpecularTexture(Texture2D texture)
 	{
 		mSpecularTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getAlphaXTexture()
@@ -128,6 +134,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setAlphaXTexture(Texture2D texture)
 	{
 		mAlphaXTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getAlphaYTexture()
@@ -138,6 +145,7 @@ public class AnisotropicWardMaterial extends Material
 	public void setAlphaYTexture(Texture2D texture)
 	{
 		mAlphaYTexture = texture;
+		markChanged();
 	}	
 
 	@Override
@@ -145,6 +153,20 @@ public class AnisotropicWardMaterial extends Material
 		return new String[] {"VertexTangent"};
 	}
 	
+	@Override
+	protected void copyProperties()
+	{
+		mDiffuseColor = new Color3f(mDiffuseColor);
+		mSpecularColor = new Color3f(mSpecularColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues()
+	{
+		return new Object[] { mDiffuseColor, mSpecularColor, mAlphaX, mAlphaY, mDiffuseTexture, mSpecularTexture, mAlphaXTexture,
+				mAlphaYTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier()
 	{
@@ -55,6 +55,7 @@ public class BlinnPhongMaterial extends Material
 	public void setDiffuseColor(Color3f diffuse)
 	{
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 
 	public Color3f getSpecularColor()
@@ -65,6 +66,7 @@ public class BlinnPhongMaterial extends Material
 	public void setSpecularColor(Color3f specular)
 	{
 		mSpecularColor = specular;
+		markChanged();
 	}
 	
 	public float getPhongExponent()
@@ -75,6 +77,7 @@ public class BlinnPhongMaterial extends Material
 	public void setPhongExponent(float exponent)
 	{
 		mPhongExponent = exponent;
+		markChanged();
 	}
 
 	public Texture2D getDiffuseTexture()
@@ -85,6 +88,7 @@ public class BlinnPhongMaterial extends Material
 	public void setDiffuseTexture(Texture2D texture)
 	{
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getSpecularTexture()
@@ -95,6 +99,7 @@ public class BlinnPhongMaterial extends Material
 	public void setSpecularTexture(Texture2D texture)
 	{
 		mSpecularTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getExponentTexture()
@@ -105,8 +110,22 @@ public class BlinnPhongMaterial extends Material
 	public void setExponentTexture(Texture2D texture)
 	{
 		mExponentTexture = texture;
+		markChanged();
 	}
 
+	@Override
+	protected void copyProperties()
+	{
+		mDiffuseColor = new Color3f(mDiffuseColor);
+		mSpecularColor = new Color3f(mSpecularColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues()
+	{
+		return new Object[] { mDiffuseColor, mSpecularColor, mPhongExponent, mDiffuseTexture, mSpecularTexture, mExponentTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier()
 	{
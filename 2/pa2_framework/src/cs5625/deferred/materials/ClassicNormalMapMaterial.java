@@ -58,6 +58,7 @@ public class ClassicNormalMapMaterial extends Material {
 
 	public void setDiffuseColor(Color3f diffuse) {
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 
 	public Color3f getSpecularColor() {
@@ -66,6 +67,7 @@ public class ClassicNormalMapMaterial extends Material {
 
 	public void setSpecularColor(Color3f specular) {
 		mSpecularColor = specular;
+		markChanged();
 	}
 
 	public Texture2D getDiffuseTexture() {
@@ -74,6 +76,7 @@ public class ClassicNormalMapMaterial extends Material {
 
 	public void setDiffuseTexture(Texture2D texture) {
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getSpecularTexture() {
@@ -82,6 +85,7 @@ public class ClassicNormalMapMaterial extends Material {
 
 	public void setSpecularTexture(Texture2D texture) {
 		mSpecularTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getExponentTexture() {
@@ -90,6 +94,7 @@ public class ClassicNormalMapMaterial extends Material {
 
 	public void setExponentTexture(Texture2D texture) {
 		mExponentTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getNormalTexture() {
@@ -98,6 +103,7 @@ public class ClassicNormalMapMaterial extends Material {
 
 	public void setNormalTexture(Texture2D texture) {
 		mNormalTexture = texture;
+		markChanged();
 	}
 
 	@Override
@@ -190,6 +196,18 @@ public class ClassicNormalMapMaterial extends Material {
 
 	}
 
+	@Override
+	protected void copyProperties() {
+		mDiffuseColor = new Color3f(mDiffuseColor);
+		mSpecularColor = new Color3f(mSpecularColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues() {
+		return new Object[] { mDiffuseColor, mSpecularColor, mPhongExponent, mDiffuseTexture, mSpecularTexture, mExponentTexture,
+				mNormalTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier() {
 		return "shaders/material_classic_normal_map";
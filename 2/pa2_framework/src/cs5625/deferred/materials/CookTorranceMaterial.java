@@ -64,6 +64,7 @@ public class CookTorranceMaterial extends Material
 	public void setDiffuseColor(Color3f diffuse)
 	{
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 
 	public Color3f getSpecularColor()
@@ -74,6 +75,7 @@ public class CookTorranceMaterial extends Material
 	public void setSpecularColor(Color3f specular)
 	{
 		mSpecularColor = specular;
+		markChanged();
 	}
 	
 	public float getM()
@@ -84,6 +86,7 @@ public class CookTorranceMaterial extends Material
 	public void setM(float m)
 	{
 		mMVal = m;
+		markChanged();
 	}
 	
 	public float getN()
@@ -94,6 +97,7 @@ public class CookTorranceMaterial extends Material
 	public void setN(float n)
 	{
 		mNVal = n;
+		markChanged();
 	}
 
 	public Texture2D getDiffuseTexture()
@@ -104,6 +108,7 @@ public class CookTorranceMaterial extends Material
 	public void setDiffuseTexture(Texture2D texture)
 	{
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getSpecularTexture()
@@ -114,6 +119,7 @@ public class CookTorranceMaterial extends Material
 	public void setSpecularTexture(Texture2D texture)
 	{
 		mSpecularTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getMTexture()
@@ -124,6 +130,7 @@ public class CookTorranceMaterial extends Material
 	public void setMTexture(Texture2D texture)
 	{
 		mMTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getNTexture()
@@ -134,6 +141,7 @@ public class CookTorranceMaterial extends Material
 	public void setNTexture(Texture2D texture)
 	{
 		mNTexture = texture;
+		markChanged();
 	}
 	
 	public TextureCubeMap getCubeMapTexture() 
@@ -144,8 +152,23 @@ public class CookTorranceMaterial extends Material
 	public void setCubeMapTexture(TextureCubeMap cubeMapTexture) 
 	{
 		mCubeMapTexture = cubeMapTexture;
+		markChanged();
 	}
 
+	@Override
+	protected void copyProperties()
+	{
+		mDiffuseColor = new Color3f(mDiffuseColor);
+		mSpecularColor = new Color3f(mSpecularColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues()
+	{
+		return new Object[] { mDiffuseColor, mSpecularColor, mMVal, mNVal, mDiffuseTexture, mSpecularTexture, mMTexture, mNTexture,
+				mCubeMapTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier()
 	{
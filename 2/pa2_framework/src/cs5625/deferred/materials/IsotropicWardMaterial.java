@@ -63,6 +63,7 @@ public class IsotropicWardMaterial extends Material
 	public void setDiffuseColor(Color3f diffuse)
 	{
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 
 	public Color3f getSpecularColor()
@@ -73,6 +74,7 @@ public class IsotropicWardMaterial extends Material
 	public void setSpecularColor(Color3f specular)
 	{
 		mSpecularColor = specular;
+		markChanged();
 	}
 	
 	public float getAlpha()
@@ -83,6 +85,7 @@ public class IsotropicWardMaterial extends Material
 	public void setAlpha(float m)
 	{
 		mAlpha = m;
+		markChanged();
 	}		
 
 	public Texture2D getDiffuseTexture()
@@ -93,6 +96,7 @@ public class IsotropicWardMaterial extends Material
 	public void setDiffuseTexture(Texture2D texture)
 	{
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getSpecularTexture()
@@ -103,6 +107,7 @@ public class IsotropicWardMaterial extends Material
 	public void setSpecularTexture(Texture2D texture)
 	{
 		mSpecularTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getAlphaTexture()
@@ -113,8 +118,22 @@ public class IsotropicWardMaterial extends Material
 	public void setAlphaTexture(Texture2D texture)
 	{
 		mAlphaTexture = texture;
+		markChanged();
 	}			
 	
+	@Override
+	protected void copyProperties()
+	{
+		mDiffuseColor = new Color3f(mDiffuseColor);
+		mSpecularColor = new Color3f(mSpecularColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues()
+	{
+		return new Object[] { mDiffuseColor, mSpecularColor, mAlpha, mDiffuseTexture, mSpecularTexture, mAlphaTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier()
 	{
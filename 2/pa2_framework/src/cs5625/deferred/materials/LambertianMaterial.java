@@ -45,6 +45,7 @@ public class LambertianMaterial extends Material
 	public void setDiffuseColor(Color3f diffuse)
 	{
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 	
 	public Texture2D getDiffuseTexture()
@@ -55,6 +56,7 @@ public class LambertianMaterial extends Material
 	public void setDiffuseTexture(Texture2D texture)
 	{
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	@Override
@@ -97,6 +99,18 @@ public class LambertianMaterial extends Material
 		shader.unbind(gl);
 	}
 
+	@Override
+	protected void copyProperties()
+	{
+		mDiffuseColor = new Color3f(mDiffuseColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues()
+	{
+		return new Object[] { mDiffuseColor, mDiffuseTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier()
 	{
@@ -15,6 +15,7 @@ import cs5625.deferred.misc.OpenGLException;
 import cs5625.deferred.misc.OpenGLResourceObject;
 import cs5625.deferred.misc.Util;
 import cs5625.deferred.rendering.ShaderProgram;
+import cs5625.deferred.scenegraph.FlattenedScene;
 import cs5625.deferred.scenegraph.Geometry;
 
 /**
@@ -28,11 +29,14 @@ import cs5625.deferred.scenegraph.Geometry;
  * @author Asher Dunn (ad488)
  * @date 2012-03-23
  */
-public abstract class Material implements OpenGLResourceObject
+public abstract class Material implements OpenGLResourceObject, Cloneable
 {
 	/** This material's shader, if any. */
 	private ShaderProgram mShaderProgram = null;
 	
+	/** Version of this material's properties, so renderers can tell whether it changed since the last frame. */
+	private int mVersion = 0;
+	
 	/**
 	 * Activates this material, causing it to be applied to all subsequent rendering until deactivated.
 	 * 
@@ -63,6 +67,86 @@ public abstract class Material implements OpenGLResourceObject
 		return mShaderProgram;
 	}
 	
+	/**
+	 * Returns the version of this material's properties. It is set to a new `FlattenedScene.nextVersion()`
+	 * whenever one of them is set, so it only ever grows.
+	 */
+	public int getVersion()
+	{
+		return mVersion;
+	}
+	
+	/**
+	 * Records that this material's properties changed. All setters call this; code which modifies a 
+	 * property in place (e.g. a color returned by a getter) must call it too, or renderers which skip 
+	 * unchanged frames may keep showing the old values.
+	 */
+	public void markChanged()
+	{
+		mVersion = FlattenedScene.nextVersion();
+	}
+	
+	/**
+	 * Returns a copy of this material, for renderers which draw a snapshot of the scene on another thread 
+	 * than the one changing it. The copy has this material's current property values and version, and 
+	 * shares its textures and shader; it is never changed afterwards, except for retrieving its shader.
+	 */
+	public Material copy()
+	{
+		try
+		{
+			Material copy = (Material)super.clone();
+			copy.copyProperties();
+			return copy;
+		}
+		catch (CloneNotSupportedException err)
+		{
+			throw new RuntimeException(err);
+		}
+	}
+	
+	/**
+	 * Called on a new copy (see `copy()`) to replace properties it shares with the original and which can 
+	 * be modified in place, such as colors, with copies of its own. The default does nothing; subclasses 
+	 * with such properties must override it.
+	 */
+	protected void copyProperties()
+	{
+		/* Nothing to copy by default. */
+	}
+	
+	/**
+	 * Returns the values of everything `bind()` sends to the shader (uniform values and textures), in a 
+	 * fixed order, so that renderers can merge the draws of different materials of the same class (and 
+	 * so the same shader) whose values are equal. Such materials must render identically. Returns null, 
+	 * the default, for materials which don't list their values; those only match themselves.
+	 */
+	public Object[] getPropertyValues()
+	{
+		return null;
+	}
+	
+	/**
+	 * Returns true if meshes with `other` can be drawn in the same instanced draw as meshes with 
+	 * this material, binding only this one: either it is this material, or all its properties 
+	 * which differ are passed per instance (see `getInstanceParameters()`).
+	 */
+	public boolean isInstanceCompatible(Material other)
+	{
+		return other == this;
+	}
+	
+	/**
+	 * Writes up to 4 floats of this material's properties into `parameters` at `offset`, for 
+	 * instanced draws. The shader receives them in its "InstanceParameters" attribute when its 
+	 * "IsInstanced" uniform is true. The default writes nothing, for materials whose instances 
+	 * are only compatible with themselves.
+	 */
+	public void getInstanceParameters(float parameters[], int offset)
+	{
+		/* Nothing varies per instance by default. */
+	}
+	
 	/**
 	 * Returns an array of names of vertex attributes which a mesh must have to render correctly
 	 * using this material, or an empty array if none are required.
@@ -58,6 +58,7 @@ public class NormalMapMaterial extends Material{
 	public void setDiffuseColor(Color3f diffuse)
 	{
 		mDiffuseColor = diffuse;
+		markChanged();
 	}
 
 	public Color3f getSpecularColor()
@@ -68,6 +69,7 @@ public class NormalMapMaterial extends Material{
 	public void setSpecularColor(Color3f specular)
 	{
 		mSpecularColor = specular;
+		markChanged();
 	}
 
 	public Texture2D getDiffuseTexture()
@@ -78,6 +80,7 @@ public class NormalMapMaterial extends Material{
 	public void setDiffuseTexture(Texture2D texture)
 	{
 		mDiffuseTexture = texture;
+		markChanged();
 	}
 
 	public Texture2D getSpecularTexture()
@@ -88,6 +91,7 @@ public class NormalMapMaterial extends Material{
 	public void setSpecularTexture(Texture2D texture)
 	{
 		mSpecularTexture = texture;
+		markChanged();
 	}
 	
 	public Texture2D getExponentTexture()
@@ -98,6 +102,7 @@ public class NormalMapMaterial extends Material{
 	public void setExponentTexture(Texture2D texture)
 	{
 		mExponentTexture = texture;
+		markChanged();
 	}
 
 	
@@ -109,6 +114,7 @@ public class NormalMapMaterial extends Material{
 	public void setNormalTexture(Texture2D texture)
 	{
 		mNormalTexture = texture;
+		markChanged();
 	}
 	
 	@Override
@@ -214,6 +220,18 @@ public class NormalMapMaterial extends Material{
 		return new String[] {"VertexTangent"};
 	}
 	
+	@Override
+	protected void copyProperties() {
+		mDiffuseColor = new Color3f(mDiffuseColor);
+		mSpecularColor = new Color3f(mSpecularColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues() {
+		return new Object[] { mDiffuseColor, mSpecularColor, mPhongExponent, mDiffuseTexture, mSpecularTexture, mExponentTexture,
+				mNormalTexture };
+	}
+	
 	@Override
 	public String getShaderIdentifier() {
 		return "shaders/material_normal_map";
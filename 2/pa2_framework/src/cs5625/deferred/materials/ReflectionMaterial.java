@@ -39,6 +39,7 @@ public class ReflectionMaterial extends Material {
 
 	public void setCubeMap(TextureCubeMap cubeMap) {
 		mCubeMap = cubeMap;
+		markChanged();
 	}
 
 	@Override
@@ -74,6 +75,11 @@ public class ReflectionMaterial extends Material {
 				"CubeMapIndex");
 	}
 
+	@Override
+	public Object[] getPropertyValues() {
+		return new Object[] { mCubeMap };
+	}
+	
 	@Override
 	public String getShaderIdentifier() {
 		return "shaders/material_reflection";
@@ -48,14 +48,18 @@ public abstract class Texture implements OpenGLResourceObject
 	}
 
 	/**
-	 * The Format enum specifies what color or depth channels a texture contains.
+	 * The Format enum specifies what color or depth channels a texture contains. DEPTH_STENCIL and
+	 * RGB10_A2 pack all their channels into 32 bits, so they go with Datatype.INT32.
 	 */
 	public enum Format
 	{
 		RGB, 
 		RGBA, 
+		RG,
+		RGB10_A2,
 		LUMINANCE, 
-		DEPTH;
+		DEPTH,
+		DEPTH_STENCIL;
 		
 		public int toGLformat() throws OpenGLException
 		{
@@ -63,13 +67,30 @@ public abstract class Texture implements OpenGLResourceObject
 			{
 			case RGB:       return GL2.GL_RGB;
 			case RGBA:      return GL2.GL_RGBA;
+			case RG:        return GL2GL3.GL_RG;
+			case RGB10_A2:  return GL2.GL_RGBA;
 			case LUMINANCE: return GL2.GL_LUMINANCE;
 			case DEPTH:     return GL2.GL_DEPTH_COMPONENT;
+			case DEPTH_STENCIL: return GL2.GL_DEPTH_STENCIL;
 			}
 			
 			throw new OpenGLException("Unknown Format enum: " + this + ".");
 		}
 
+		/**
+		 * Returns the GL type of pixel data of this format and the given datatype. Depth and stencil
+		 * are packed together into one 32-bit integer per pixel, and so are the four channels of RGB10_A2.
+		 */
+		public int toGLtype(Datatype type) throws OpenGLException
+		{
+			switch(this)
+			{
+			case DEPTH_STENCIL: return GL2.GL_UNSIGNED_INT_24_8;
+			case RGB10_A2:      return GL2GL3.GL_UNSIGNED_INT_2_10_10_10_REV;
+			default:            return type.toGLtype();
+			}
+		}
+
 		public int toGLinternalformat(Datatype type) throws OpenGLException
 		{
 			switch(type)
@@ -79,6 +100,7 @@ public abstract class Texture implements OpenGLResourceObject
 				{
 				case RGB:  		return GL2.GL_RGB8;
 				case RGBA: 		return GL2.GL_RGBA8;
+				case RG:   		return GL2GL3.GL_RG8;
 				case LUMINANCE: return GL2.GL_LUMINANCE8;
 				default:        break;
 				}
@@ -89,6 +111,7 @@ public abstract class Texture implements OpenGLResourceObject
 				{
 				case RGB:  		return GL2.GL_RGB16;
 				case RGBA: 		return GL2.GL_RGBA16;
+				case RG:   		return GL2GL3.GL_RG16;
 				case LUMINANCE: return GL2.GL_LUMINANCE16;
 				case DEPTH:		return GL2.GL_DEPTH_COMPONENT16;
 				}
@@ -98,6 +121,8 @@ public abstract class Texture implements OpenGLResourceObject
 				switch(this)
 				{
 				case DEPTH:		return GL2.GL_DEPTH_COMPONENT32;
+				case DEPTH_STENCIL: return GL2.GL_DEPTH24_STENCIL8;
+				case RGB10_A2:  return GL2GL3.GL_RGB10_A2;
 				default:        break;
 				}
 				break;
@@ -107,6 +132,7 @@ public abstract class Texture implements OpenGLResourceObject
 				{
 				case RGB:  		return GL2GL3.GL_RGB16F; // Use GL2GL3 to resolve ambiguous member.
 				case RGBA: 		return GL2.GL_RGBA16F;
+				case RG:   		return GL2GL3.GL_RG16F;
 				case LUMINANCE: return GL2.GL_LUMINANCE16F;
 				default:        break;
 				}
@@ -117,6 +143,7 @@ public abstract class Texture implements OpenGLResourceObject
 				{
 				case RGB:  		return GL2.GL_RGB32F;
 				case RGBA: 		return GL2.GL_RGBA32F;
+				case RG:   		return GL2GL3.GL_RG32F;
 				case LUMINANCE: return GL2.GL_LUMINANCE32F;
 				case DEPTH:		return GL2.GL_DEPTH_COMPONENT32F;
 				}
@@ -181,7 +181,7 @@ public class Texture2D extends Texture
 		try
 		{
 			/* Get GL formats first, in case something is invalid. */
-			int gltype = datatype.toGLtype();
+			int gltype = format.toGLtype(datatype);
 			int glformat = format.toGLformat();
 			int glinternalformat = format.toGLinternalformat(datatype);
 			
@@ -273,6 +273,49 @@ public class Texture2D extends Texture
 		return mHeight;
 	}
 	
+	/**
+	 * Replaces the texture image, keeping the texture's size, format and datatype.
+	 * 
+	 * @param data The new pixel data, in the texture's format and datatype.
+	 */
+	public void setData(GL2 gl, Buffer data) throws OpenGLException
+	{
+		bind(gl, 0);
+
+		int previousActive[] = new int[1];
+		gl.glGetIntegerv(GL2.GL_ACTIVE_TEXTURE, previousActive, 0);
+		gl.glActiveTexture(GL2.GL_TEXTURE0 + getBoundTextureUnit());
+
+		gl.glTexSubImage2D(mTarget, 0, 0, 0, mWidth, mHeight, getFormat().toGLformat(), getFormat().toGLtype(getDatatype()), data);
+
+		gl.glActiveTexture(previousActive[0]);
+
+		unbind(gl);
+		OpenGLException.checkOpenGLError(gl);
+	}
+	
+	/**
+	 * Sets whether the texture is sampled with linear filtering (the default) or from the nearest
+	 * texel, e.g. for textures holding indices, which mustn't be blended.
+	 */
+	public void setLinearFiltering(GL2 gl, boolean linear) throws OpenGLException
+	{
+		bind(gl, 0);
+
+		int previousActive[] = new int[1];
+		gl.glGetIntegerv(GL2.GL_ACTIVE_TEXTURE, previousActive, 0);
+		gl.glActiveTexture(GL2.GL_TEXTURE0 + getBoundTextureUnit());
+
+		int filter = (linear ? GL2.GL_LINEAR : GL2.GL_NEAREST);
+		gl.glTexParameteri(mTarget, GL2.GL_TEXTURE_MIN_FILTER, filter);
+		gl.glTexParameteri(mTarget, GL2.GL_TEXTURE_MAG_FILTER, filter);
+
+		gl.glActiveTexture(previousActive[0]);
+
+		unbind(gl);
+		OpenGLException.checkOpenGLError(gl);
+	}
+	
 	/**
 	 * Returns true if this is a rectangular (GL_TEXTURE_RECTANGLE) texture.
 	 */
@@ -307,8 +350,11 @@ public class Texture2D extends Texture
 		{
 		case RGB:       numChannels = 3; break;
 		case RGBA:      numChannels = 4; break;
+		case RG:        numChannels = 2; break;
+		case RGB10_A2:  numChannels = 1; break;
 		case LUMINANCE: numChannels = 1; break; 
 		case DEPTH:     numChannels = 1; break;
+		case DEPTH_STENCIL: numChannels = 1; break;
 		default:		throw new OpenGLException("Invalid Format enum " + format + ".");
 		}
 		
@@ -338,7 +384,7 @@ public class Texture2D extends Texture
 		gl.glGetIntegerv(GL2.GL_ACTIVE_TEXTURE, previousActive, 0);
 		gl.glActiveTexture(GL2.GL_TEXTURE0 + getBoundTextureUnit());
 
-		gl.glGetTexImage(getTextureTarget(), 0, mFormat.toGLformat(), mDatatype.toGLtype(), result);
+		gl.glGetTexImage(getTextureTarget(), 0, mFormat.toGLformat(), mFormat.toGLtype(mDatatype), result);
 		
 		gl.glActiveTexture(GL2.GL_TEXTURE0 + getBoundTextureUnit());
 		
@@ -40,6 +40,7 @@ public class UnshadedMaterial extends Material
 	public void setColor(Color3f color)
 	{
 		mColor = color;
+		markChanged();
 	}
 
 	@Override
@@ -63,6 +64,33 @@ public class UnshadedMaterial extends Material
 		mUniformLocation = shader.getUniformLocation(gl, "Color");
 	}
 
+	@Override
+	public boolean isInstanceCompatible(Material other)
+	{
+		/* The color is all there is, and it is passed per instance. */
+		return other instanceof UnshadedMaterial;
+	}
+	
+	@Override
+	public void getInstanceParameters(float parameters[], int offset)
+	{
+		parameters[offset + 0] = mColor.x;
+		parameters[offset + 1] = mColor.y;
+		parameters[offset + 2] = mColor.z;
+	}
+
+	@Override
+	protected void copyProperties()
+	{
+		mColor = new Color3f(mColor);
+	}
+	
+	@Override
+	public Object[] getPropertyValues()
+	{
+		return new Object[] { mColor };
+	}
+	
 	@Override
 	public String getShaderIdentifier()
 	{
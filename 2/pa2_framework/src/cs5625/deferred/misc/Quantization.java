@@ -0,0 +1,201 @@
+package cs5625.deferred.misc;
+
+/**
+ * Quantization.java
+ *
+ * Helper functions for packing vertex attributes into fewer bits: signed/unsigned normalized
+ * 16-bit integers, IEEE half floats, and octahedral encoding of unit vectors.
+ *
+ * The octahedral mapping projects a unit vector onto the octahedron |x| + |y| + |z| = 1 and
+ * unfolds the lower hemisphere over the upper one, giving a 2D parameterization of the sphere
+ * with nearly uniform error. Source: Cigolle, Z. et al. "A Survey of Efficient Representations
+ * for Independent Unit Vectors." JCGT 3(2), 2014.
+ *
+ * The decoding functions here mirror the GLSL decoders in the material vertex shaders, so
+ * anything changed here must be changed there as well.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class Quantization
+{
+	/**
+	 * Converts a float in [-1, 1] to a signed normalized 16-bit integer, clamping out-of-range values.
+	 */
+	public static short toSnorm16(float value)
+	{
+		float clamped = Math.max(-1.0f, Math.min(1.0f, value));
+		return (short)Math.round(clamped * 32767.0f);
+	}
+
+	/**
+	 * Converts a signed normalized 16-bit integer back to a float in [-1, 1], following the
+	 * OpenGL conversion rules for normalized GL_SHORT attributes.
+	 */
+	public static float fromSnorm16(short value)
+	{
+		return Math.max(-1.0f, value / 32767.0f);
+	}
+
+	/**
+	 * Converts a 32-bit float into the bit pattern of an IEEE 754 half float (GL_HALF_FLOAT).
+	 * Values too large for a half are clamped to infinity and values too small are flushed
+	 * to (signed) zero or a denormal. Rounding is to nearest.
+	 */
+	public static short floatToHalf(float value)
+	{
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+
+		/* NaN and infinity. */
+		if (exponent == 0xff)
+		{
+			return (short)(sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+		}
+
+		/* Re-bias the exponent from 127 to 15. */
+		int halfExponent = exponent - 127 + 15;
+
+		if (halfExponent >= 0x1f)
+		{
+			/* Overflow, so clamp to infinity. */
+			return (short)(sign | 0x7c00);
+		}
+		else if (halfExponent <= 0)
+		{
+			/* Too small for a normalized half; make a denormal, or zero if even that underflows. */
+			if (halfExponent < -10)
+			{
+				return (short)sign;
+			}
+
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int rounded = (mantissa + (1 << (shift - 1))) >> shift;
+			return (short)(sign | rounded);
+		}
+
+		/* Normalized half; round the mantissa to 10 bits. A carry into the exponent is correct. */
+		int result = sign | (halfExponent << 10) | (mantissa >> 13);
+
+		if ((mantissa & 0x1000) != 0)
+		{
+			result += 1;
+		}
+
+		return (short)result;
+	}
+
+	/**
+	 * Converts the bit pattern of an IEEE 754 half float back into a 32-bit float.
+	 */
+	public static float halfToFloat(short half)
+	{
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+
+		if (exponent == 0)
+		{
+			/* Zero or denormal. */
+			float magnitude = mantissa * (1.0f / (1 << 24));
+			return (sign != 0 ? -magnitude : magnitude);
+		}
+		else if (exponent == 0x1f)
+		{
+			/* Infinity or NaN. */
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		}
+
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+	}
+
+	/**
+	 * Encodes a unit vector into two components in [-1, 1] using the octahedral mapping.
+	 *
+	 * @param x, y, z The vector to encode. Need not be exactly unit length, but must not be zero.
+	 * @param result Receives the two encoded components in result[0] and result[1].
+	 */
+	public static void encodeOctahedral(float x, float y, float z, float result[])
+	{
+		float invL1 = 1.0f / (Math.abs(x) + Math.abs(y) + Math.abs(z));
+		float u = x * invL1;
+		float v = y * invL1;
+
+		/* Fold the lower hemisphere over the diagonals. */
+		if (z < 0.0f)
+		{
+			float foldedU = (1.0f - Math.abs(v)) * (u >= 0.0f ? 1.0f : -1.0f);
+			float foldedV = (1.0f - Math.abs(u)) * (v >= 0.0f ? 1.0f : -1.0f);
+			u = foldedU;
+			v = foldedV;
+		}
+
+		result[0] = u;
+		result[1] = v;
+	}
+
+	/**
+	 * Decodes a vector encoded by `encodeOctahedral()`. The result is normalized.
+	 *
+	 * @param u, v The two encoded components.
+	 * @param result Receives the decoded unit vector in result[0..2].
+	 */
+	public static void decodeOctahedral(float u, float v, float result[])
+	{
+		float z = 1.0f - Math.abs(u) - Math.abs(v);
+		float x = u;
+		float y = v;
+
+		if (z < 0.0f)
+		{
+			x = (1.0f - Math.abs(v)) * (u >= 0.0f ? 1.0f : -1.0f);
+			y = (1.0f - Math.abs(u)) * (v >= 0.0f ? 1.0f : -1.0f);
+		}
+
+		float invLength = 1.0f / (float)Math.sqrt(x * x + y * y + z * z);
+		result[0] = x * invLength;
+		result[1] = y * invLength;
+		result[2] = z * invLength;
+	}
+
+	/**
+	 * Encodes a tangent 4-vector (unit xyz direction, w = +/-1 handedness) into two snorm16 values.
+	 * The direction is octahedrally encoded; the handedness is folded into the sign of both components
+	 * by first remapping the octahedral coordinates from [-1, 1] into (0, 1]. This costs one bit of
+	 * precision per component but keeps the whole tangent frame in 2x16 bits.
+	 *
+	 * @param scratch Array of at least 2 floats used for the intermediate octahedral coordinates, 
+	 *        so encoding a whole mesh doesn't allocate per vertex.
+	 * @param result Receives the two packed components in result[0] and result[1].
+	 */
+	public static void encodeTangent(float x, float y, float z, float w, float scratch[], short result[])
+	{
+		encodeOctahedral(x, y, z, scratch);
+
+		float sign = (w < 0.0f ? -1.0f : 1.0f);
+		float minMagnitude = 1.0f / 32767.0f;
+
+		result[0] = toSnorm16(sign * Math.max(minMagnitude, scratch[0] * 0.5f + 0.5f));
+		result[1] = toSnorm16(sign * Math.max(minMagnitude, scratch[1] * 0.5f + 0.5f));
+	}
+
+	/**
+	 * Decodes a tangent packed by `encodeTangent()`.
+	 *
+	 * @param result Receives the unit tangent in result[0..2] and the handedness in result[3].
+	 */
+	public static void decodeTangent(short packedU, short packedV, float result[])
+	{
+		float u = fromSnorm16(packedU);
+		float v = fromSnorm16(packedV);
+
+		decodeOctahedral(Math.abs(u) * 2.0f - 1.0f, Math.abs(v) * 2.0f - 1.0f, result);
+		result[3] = (u < 0.0f ? -1.0f : 1.0f);
+	}
+}
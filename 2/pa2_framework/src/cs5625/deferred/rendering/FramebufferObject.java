@@ -1,5 +1,7 @@
 package cs5625.deferred.rendering;
 
+import java.util.Arrays;
+
 import javax.media.opengl.GL2;
 
 import cs5625.deferred.materials.Texture.Datatype;
@@ -50,12 +52,51 @@ public class FramebufferObject implements OpenGLResourceObject
 	 */
 	public FramebufferObject(GL2 gl, Texture2D.Format format, Texture2D.Datatype datatype, int width, int height, int colorTextureCount, boolean makeDepthTexture, boolean rectTextures) throws OpenGLException
 	{
+		this(gl, format, datatype, width, height, colorTextureCount, makeDepthTexture, false, rectTextures);
+	}
+	
+	/**
+	 * Creates a new FBO with the passed attributes and number of render targets, and optionally a stencil buffer.
+	 * 
+	 * @param makeStencil True if the depth texture should also hold an 8-bit stencil buffer. Requires `makeDepthTexture`.
+	 * 
+	 * See the constructor above for the other parameters.
+	 */
+	public FramebufferObject(GL2 gl, Texture2D.Format format, Texture2D.Datatype datatype, int width, int height, int colorTextureCount, boolean makeDepthTexture, boolean makeStencil, boolean rectTextures) throws OpenGLException
+	{
+		this(gl, repeat(format, colorTextureCount), repeat(datatype, colorTextureCount), width, height, makeDepthTexture, makeStencil, rectTextures);
+	}
+	
+	/**
+	 * Creates a new FBO whose color textures each have their own format and datatype, e.g. to store each
+	 * render target at no more precision than its data needs. Mixing formats requires OpenGL 3.0 or
+	 * ARB_framebuffer_object; older drivers report the FBO incomplete, and this throws.
+	 * 
+	 * @param formats The format of each color texture. Its length is the number of color textures.
+	 * @param datatypes The datatype of each color texture. Must be as long as `formats`.
+	 * 
+	 * See the constructors above for the other parameters.
+	 */
+	public FramebufferObject(GL2 gl, Texture2D.Format formats[], Texture2D.Datatype datatypes[], int width, int height, boolean makeDepthTexture, boolean makeStencil, boolean rectTextures) throws OpenGLException
+	{
+		int colorTextureCount = formats.length;
+		
 		/* Sanity check. */
+		if (datatypes.length != colorTextureCount)
+		{
+			throw new OpenGLException("Got " + colorTextureCount + " color texture formats but " + datatypes.length + " datatypes.");
+		}
+		
 		if (colorTextureCount == 0 && !makeDepthTexture)
 		{
 			throw new OpenGLException("It is not valid to make an FBO with no color buffers and no depth buffer.");
 		}
 		
+		if (makeStencil && !makeDepthTexture)
+		{
+			throw new OpenGLException("A stencil buffer is only made along with a depth buffer.");
+		}
+		
 		int maxColorTextures[] = new int[1];
 		gl.glGetIntegerv(GL2.GL_MAX_COLOR_ATTACHMENTS, maxColorTextures, 0);
 		if (colorTextureCount > maxColorTextures[0])
@@ -81,21 +122,29 @@ public class FramebufferObject implements OpenGLResourceObject
 		
 		for (int i = 0; i < colorTextureCount; ++i)
 		{
-			mColorTextures[i] = new Texture2D(gl, format, datatype, width, height, null, rectTextures);
+			mColorTextures[i] = new Texture2D(gl, formats[i], datatypes[i], width, height, null, rectTextures);
 			gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0 + i, mColorTextures[i].getTextureTarget(), mColorTextures[i].getHandle(), 0);
 		}
 		
-		/* Create and attach depth texture, if requested. */
+		/* Create and attach depth texture, if requested. With stencil, one packed texture serves both attachments. */
 		if (makeDepthTexture)
 		{
-			mDepthTexture = new Texture2D(gl, Format.DEPTH, Datatype.INT32, width, height, null, rectTextures);
+			mDepthTexture = new Texture2D(gl, (makeStencil ? Format.DEPTH_STENCIL : Format.DEPTH), Datatype.INT32, width, height, null, rectTextures);
 			gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_DEPTH_ATTACHMENT, mDepthTexture.getTextureTarget(), mDepthTexture.getHandle(), 0);
+			
+			if (makeStencil)
+			{
+				gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_STENCIL_ATTACHMENT, mDepthTexture.getTextureTarget(), mDepthTexture.getHandle(), 0);
+			}
 		}
 
 		/* Make sure everything is set up properly. */
 		int status = gl.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER);
 		if (status != GL2.GL_FRAMEBUFFER_COMPLETE)
 		{
+			/* Don't leak the textures, since the caller never gets this object to release them. */
+			gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, previousBinding[0]);
+			releaseGPUResources(gl);
 			throw new OpenGLException("Framebuffer incomplete: " + status + ".");
 		}
 		
@@ -103,6 +152,26 @@ public class FramebufferObject implements OpenGLResourceObject
 		gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, previousBinding[0]);
 	}
 	
+	/**
+	 * Returns an array holding `count` copies of a color texture format.
+	 */
+	private static Texture2D.Format[] repeat(Texture2D.Format format, int count)
+	{
+		Texture2D.Format result[] = new Texture2D.Format[count];
+		Arrays.fill(result, format);
+		return result;
+	}
+	
+	/**
+	 * Returns an array holding `count` copies of a color texture datatype.
+	 */
+	private static Texture2D.Datatype[] repeat(Texture2D.Datatype datatype, int count)
+	{
+		Texture2D.Datatype result[] = new Texture2D.Datatype[count];
+		Arrays.fill(result, datatype);
+		return result;
+	}
+	
 	/**
 	 * Destroys this framebuffer object. 
 	 * 
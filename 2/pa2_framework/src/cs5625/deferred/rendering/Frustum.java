@@ -0,0 +1,116 @@
+package cs5625.deferred.rendering;
+
+import javax.vecmath.Matrix4f;
+
+import cs5625.deferred.scenegraph.SceneBVH;
+
+/**
+ * Frustum.java
+ *
+ * The view frustum of a symmetric perspective projection, stored as six world-space planes
+ * for culling bounding volumes. Each plane is (a, b, c, d) with unit normal (a, b, c) pointing
+ * into the frustum, so a point p is on the inside of it if a*p.x + b*p.y + c*p.z + d >= 0.
+ *
+ * The tests are conservative: they may report a volume which just misses the frustum near a
+ * corner as intersecting it, but never the other way around. As a `SceneBVH.BoundsTest`, it
+ * selects the objects to draw from a scene hierarchy.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class Frustum implements SceneBVH.BoundsTest
+{
+	/* Left, right, bottom, top, near, far; 4 floats each. */
+	private float mPlanes[] = new float[24];
+
+	/**
+	 * Sets the frustum from a camera's view transform and projection.
+	 *
+	 * @param worldToEye The world to eye space transform. The camera looks down -z in eye space.
+	 * @param tanX Half the width of the frustum at unit distance from the eye.
+	 * @param tanY Half the height of the frustum at unit distance from the eye.
+	 * @param near The near plane distance.
+	 * @param far The far plane distance.
+	 */
+	public void set(Matrix4f worldToEye, float tanX, float tanY, float near, float far)
+	{
+		/* Eye-space planes. */
+		setPlane(0, worldToEye, 1.0f, 0.0f, -tanX, 0.0f);
+		setPlane(1, worldToEye, -1.0f, 0.0f, -tanX, 0.0f);
+		setPlane(2, worldToEye, 0.0f, 1.0f, -tanY, 0.0f);
+		setPlane(3, worldToEye, 0.0f, -1.0f, -tanY, 0.0f);
+		setPlane(4, worldToEye, 0.0f, 0.0f, -1.0f, -near);
+		setPlane(5, worldToEye, 0.0f, 0.0f, 1.0f, far);
+	}
+
+	/**
+	 * Transforms an eye-space plane into world space and stores it, normalized.
+	 * A point p is inside the eye-space plane if n . (M p) + d >= 0, which is (M^T n) . p + d' >= 0.
+	 */
+	private void setPlane(int index, Matrix4f m, float nx, float ny, float nz, float d)
+	{
+		float a = m.m00 * nx + m.m10 * ny + m.m20 * nz;
+		float b = m.m01 * nx + m.m11 * ny + m.m21 * nz;
+		float c = m.m02 * nx + m.m12 * ny + m.m22 * nz;
+		float w = m.m03 * nx + m.m13 * ny + m.m23 * nz + d;
+		float invLength = 1.0f / (float)Math.sqrt(a * a + b * b + c * c);
+
+		mPlanes[4 * index + 0] = a * invLength;
+		mPlanes[4 * index + 1] = b * invLength;
+		mPlanes[4 * index + 2] = c * invLength;
+		mPlanes[4 * index + 3] = w * invLength;
+	}
+
+	/**
+	 * Returns false if the given axis-aligned box is certainly outside the frustum.
+	 *
+	 * @param bounds Array holding the box as (minX, minY, minZ, maxX, maxY, maxZ).
+	 * @param offset Index of minX in `bounds`.
+	 */
+	@Override
+	public boolean intersectsBox(float bounds[], int offset)
+	{
+		float minX = bounds[offset + 0], minY = bounds[offset + 1], minZ = bounds[offset + 2];
+		float maxX = bounds[offset + 3], maxY = bounds[offset + 4], maxZ = bounds[offset + 5];
+
+		/* Empty boxes are outside everything. */
+		if (minX > maxX)
+		{
+			return false;
+		}
+
+		for (int p = 0; p < 24; p += 4)
+		{
+			float a = mPlanes[p], b = mPlanes[p + 1], c = mPlanes[p + 2];
+
+			/* Test the corner furthest along the plane normal. */
+			float distance = a * (a >= 0.0f ? maxX : minX) + b * (b >= 0.0f ? maxY : minY) +
+					c * (c >= 0.0f ? maxZ : minZ) + mPlanes[p + 3];
+
+			if (distance < 0.0f)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns false if the given sphere is certainly outside the frustum.
+	 */
+	public boolean intersectsSphere(float x, float y, float z, float radius)
+	{
+		for (int p = 0; p < 24; p += 4)
+		{
+			if (mPlanes[p] * x + mPlanes[p + 1] * y + mPlanes[p + 2] * z + mPlanes[p + 3] < -radius)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
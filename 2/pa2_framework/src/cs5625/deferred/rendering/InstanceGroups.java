@@ -0,0 +1,264 @@
+package cs5625.deferred.rendering;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import cs5625.deferred.materials.Material;
+import cs5625.deferred.scenegraph.Mesh;
+
+/**
+ * InstanceGroups.java
+ *
+ * Collects the meshes of a pass into groups which can be drawn with one instanced draw call: meshes
+ * sharing all their vertex and index data (e.g. copies made with `Mesh.clone()`, at the same level of
+ * detail) whose materials are compatible (see `Material.isInstanceCompatible()`). Each instance
+ * records its modelview matrix and material parameters; the renderer uploads those into an instance
+ * buffer and draws the whole group at once with `glDrawElementsInstanced()`.
+ *
+ * Instance data is laid out as INSTANCE_FLOATS floats per instance: the first three rows of the
+ * modelview matrix (12 floats, row by row), then 4 floats of material parameters.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class InstanceGroups
+{
+	/* Floats per instance, and where the material parameters start. */
+	public static final int INSTANCE_FLOATS = 16;
+	public static final int PARAMETERS_OFFSET = 12;
+
+	/**
+	 * Meshes sharing their data and a compatible material.
+	 */
+	private static class Group
+	{
+		/* The first mesh added and the material it was added with, which are drawn, and the level of detail. */
+		Mesh mesh;
+		Material material;
+		int level;
+
+		/* Node and matrix slot of the first instance, so a group of one can be drawn normally. */
+		int node, slot;
+		float depth;
+
+		float instances[] = new float[INSTANCE_FLOATS * 4];
+		int instanceCount = 0;
+	}
+
+	/* All groups, and the groups whose meshes draw each index buffer. */
+	private ArrayList<Group> mGroups = new ArrayList<Group>();
+	private IdentityHashMap<Buffer, ArrayList<Group>> mGroupsByPolygons = new IdentityHashMap<Buffer, ArrayList<Group>>();
+
+	/* Groups no longer used, kept to reuse their instance arrays. */
+	private ArrayList<Group> mFreeGroups = new ArrayList<Group>();
+
+	/**
+	 * Removes all groups.
+	 */
+	public void clear()
+	{
+		for (Group group : mGroups)
+		{
+			group.mesh = null;
+			group.material = null;
+			group.instanceCount = 0;
+			mFreeGroups.add(group);
+		}
+
+		mGroups.clear();
+		mGroupsByPolygons.clear();
+	}
+
+	/**
+	 * Adds a mesh instance.
+	 *
+	 * @param mesh The mesh to draw.
+	 * @param material The material to draw it with: the render snapshot's copy of its own.
+	 * @param level Its level of detail.
+	 * @param node The index of its object in the flattened scene.
+	 * @param slot Where the renderer keeps the matrices of its object.
+	 * @param depth Distance of its object in front of the camera, from 0 (near) to 1 (far).
+	 * @param modelView The mesh's column-major modelview matrix.
+	 */
+	public void add(Mesh mesh, Material material, int level, int node, int slot, float depth, float modelView[])
+	{
+		Buffer polygons = (mesh.isQuantized() ? mesh.getLevelOfDetailQuantizedPolygonData(level) : mesh.getLevelOfDetailPolygonData(level));
+		ArrayList<Group> groups = mGroupsByPolygons.get(polygons);
+
+		if (groups == null)
+		{
+			groups = new ArrayList<Group>(1);
+			mGroupsByPolygons.put(polygons, groups);
+		}
+
+		Group group = null;
+
+		for (Group candidate : groups)
+		{
+			if (candidate.level == level && sharesVertexData(candidate.mesh, candidate.material, mesh)
+					&& candidate.material.isInstanceCompatible(material))
+			{
+				group = candidate;
+				break;
+			}
+		}
+
+		if (group == null)
+		{
+			group = (mFreeGroups.isEmpty() ? new Group() : mFreeGroups.remove(mFreeGroups.size() - 1));
+			group.mesh = mesh;
+			group.material = material;
+			group.level = level;
+			group.node = node;
+			group.slot = slot;
+			group.depth = depth;
+
+			groups.add(group);
+			mGroups.add(group);
+		}
+
+		if (group.instances.length < INSTANCE_FLOATS * (group.instanceCount + 1))
+		{
+			group.instances = Arrays.copyOf(group.instances, 2 * group.instances.length);
+		}
+
+		/* Rows of the column-major matrix, then the material's parameters. */
+		float instances[] = group.instances;
+		int offset = INSTANCE_FLOATS * group.instanceCount;
+
+		for (int row = 0; row < 3; ++row)
+		{
+			for (int column = 0; column < 4; ++column)
+			{
+				instances[offset + 4 * row + column] = modelView[4 * column + row];
+			}
+		}
+
+		Arrays.fill(instances, offset + PARAMETERS_OFFSET, offset + INSTANCE_FLOATS, 0.0f);
+		material.getInstanceParameters(instances, offset + PARAMETERS_OFFSET);
+
+		++group.instanceCount;
+	}
+
+	/**
+	 * Returns the number of groups.
+	 */
+	public int getGroupCount()
+	{
+		return mGroups.size();
+	}
+
+	/**
+	 * Returns the mesh drawn by a group.
+	 */
+	public Mesh getMesh(int group)
+	{
+		return mGroups.get(group).mesh;
+	}
+
+	/**
+	 * Returns the material of a group's first mesh, which is the one to bind.
+	 */
+	public Material getMaterial(int group)
+	{
+		return mGroups.get(group).material;
+	}
+
+	/**
+	 * Returns the level of detail drawn by a group.
+	 */
+	public int getLevel(int group)
+	{
+		return mGroups.get(group).level;
+	}
+
+	/**
+	 * Returns the number of instances in a group.
+	 */
+	public int getInstanceCount(int group)
+	{
+		return mGroups.get(group).instanceCount;
+	}
+
+	/**
+	 * Returns the instance data of a group, INSTANCE_FLOATS floats per instance. Don't modify it.
+	 */
+	public float[] getInstances(int group)
+	{
+		return mGroups.get(group).instances;
+	}
+
+	/**
+	 * Returns the node index of the first instance of a group.
+	 */
+	public int getNode(int group)
+	{
+		return mGroups.get(group).node;
+	}
+
+	/**
+	 * Returns the matrix slot of the first instance of a group.
+	 */
+	public int getSlot(int group)
+	{
+		return mGroups.get(group).slot;
+	}
+
+	/**
+	 * Returns the depth of the first instance of a group.
+	 */
+	public float getDepth(int group)
+	{
+		return mGroups.get(group).depth;
+	}
+
+	/**
+	 * Returns true if two meshes draw from the same vertex data, so that one draw can stand for both.
+	 * `materialA` is the material `a` is drawn with, whose custom attributes are the ones sent.
+	 */
+	private static boolean sharesVertexData(Mesh a, Material materialA, Mesh b)
+	{
+		if (a == b)
+		{
+			return true;
+		}
+
+		if (a.isQuantized() != b.isQuantized() || a.getVerticesPerPolygon() != b.getVerticesPerPolygon())
+		{
+			return false;
+		}
+
+		if (a.isQuantized())
+		{
+			if (a.getQuantizedVertexData() != b.getQuantizedVertexData()
+					|| a.getQuantizedNormalData() != b.getQuantizedNormalData()
+					|| a.getQuantizedTexCoordData() != b.getQuantizedTexCoordData()
+					|| a.getQuantizedTangentData() != b.getQuantizedTangentData()
+					|| a.getNormalData() != b.getNormalData())
+			{
+				return false;
+			}
+		}
+		else if (a.getVertexData() != b.getVertexData()
+				|| a.getNormalData() != b.getNormalData()
+				|| a.getTexCoordData() != b.getTexCoordData())
+		{
+			return false;
+		}
+
+		/* Custom attributes are sent as the first mesh's material requires them. */
+		for (String attrib : materialA.getRequiredVertexAttributes())
+		{
+			if (a.vertexAttribData.get(attrib) != b.vertexAttribData.get(attrib))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
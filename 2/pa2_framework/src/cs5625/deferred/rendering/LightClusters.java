@@ -0,0 +1,331 @@
+package cs5625.deferred.rendering;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * LightClusters.java
+ *
+ * Bins point lights into a grid of view-space clusters ("froxels") on the CPU, for clustered deferred
+ * lighting. The view frustum is split into CLUSTERS_X x CLUSTERS_Y screen cells and CLUSTERS_Z depth
+ * slices, spaced exponentially between the near and far planes so clusters stay roughly cube-shaped.
+ * Each cluster lists the lights whose sphere of influence may reach it, so a pixel only has to be lit
+ * by the lights of its cluster. Nothing here touches OpenGL; the renderer uploads the lists.
+ *
+ * Building takes two passes over the lights. The first counts the lights of each cluster, the second
+ * writes light indices into each cluster's range of one shared index array, found from the counts by
+ * a prefix sum in between. Both passes run across threads for many lights; clusters are shared
+ * between lights, so their counters and write cursors are atomic rather than locked. The order of the
+ * lights within a cluster is therefore not fixed.
+ *
+ * A light is binned into every cluster its bounding box overlaps, computed per slice, which is
+ * conservative.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LightClusters
+{
+	/* Grid resolution; 16 x 9 suits 16:9 screens. The ubershader has to agree on these. */
+	public static final int CLUSTERS_X = 16;
+	public static final int CLUSTERS_Y = 9;
+	public static final int CLUSTERS_Z = 24;
+	public static final int CLUSTER_COUNT = CLUSTERS_X * CLUSTERS_Y * CLUSTERS_Z;
+
+	/* Frames with fewer lights than this are binned on the calling thread; tasks bin at most LIGHTS_PER_TASK lights. */
+	private static final int PARALLEL_LIGHT_COUNT = 256;
+	private static final int LIGHTS_PER_TASK = 64;
+
+	/* Lights of the frame: eyespace x, y, z and range at the start of each `mStride` floats. */
+	private float mLights[];
+	private int mStride, mLightCount;
+
+	/* Projection of the frame: ndc = scale * eye / depth - offset, per axis. */
+	private float mScaleX, mScaleY, mOffsetX, mOffsetY;
+
+	/* Near and far planes, depths where the slices start (CLUSTERS_Z + 1 values), and the log depth to slice scale. */
+	private float mNear, mFar;
+	private float mSliceDepths[] = new float[CLUSTERS_Z + 1];
+	private float mDepthScale;
+
+	/* Lights per cluster, where each cluster's indices start (CLUSTER_COUNT + 1 values), and write cursors. */
+	private AtomicIntegerArray mCounts = new AtomicIntegerArray(CLUSTER_COUNT);
+	private int mOffsets[] = new int[CLUSTER_COUNT + 1];
+	private AtomicIntegerArray mCursors = new AtomicIntegerArray(CLUSTER_COUNT);
+
+	/* Light indices of all clusters, one cluster after another. */
+	private int mIndices[] = new int[1024];
+
+	private boolean mParallel = true;
+
+	/**
+	 * Bins lights into clusters for a new frame.
+	 *
+	 * @param lights Eyespace x, y, z and range of each light, at the start of each `stride` floats.
+	 *        Lights with a range of 0 reach nothing and are skipped.
+	 * @param stride Floats per light.
+	 * @param count Number of lights.
+	 * @param projection Column-major projection matrix of the frame, as built by glFrustum.
+	 * @param near The near plane distance.
+	 * @param far The far plane distance.
+	 */
+	public void build(float lights[], int stride, int count, float projection[], float near, float far)
+	{
+		mLights = lights;
+		mStride = stride;
+		mLightCount = count;
+
+		mScaleX = projection[0];
+		mScaleY = projection[5];
+		mOffsetX = projection[8];
+		mOffsetY = projection[9];
+
+		mNear = near;
+		mFar = far;
+		mDepthScale = CLUSTERS_Z / (float)Math.log(far / near);
+
+		for (int z = 0; z <= CLUSTERS_Z; ++z)
+		{
+			mSliceDepths[z] = near * (float)Math.pow(far / near, (double)z / CLUSTERS_Z);
+		}
+
+		/* Count, then lay the clusters out one after another. */
+		for (int cluster = 0; cluster < CLUSTER_COUNT; ++cluster)
+		{
+			mCounts.set(cluster, 0);
+		}
+
+		binLights(false);
+
+		for (int cluster = 0; cluster < CLUSTER_COUNT; ++cluster)
+		{
+			mOffsets[cluster + 1] = mOffsets[cluster] + mCounts.get(cluster);
+			mCursors.set(cluster, mOffsets[cluster]);
+		}
+
+		if (mIndices.length < mOffsets[CLUSTER_COUNT])
+		{
+			mIndices = new int[Math.max(mOffsets[CLUSTER_COUNT], 2 * mIndices.length)];
+		}
+
+		/* Then write the indices. */
+		binLights(true);
+
+		mLights = null;
+	}
+
+	/**
+	 * Runs one binning pass over all lights.
+	 *
+	 * @param write False to count the lights of each cluster, true to write their indices.
+	 */
+	private void binLights(boolean write)
+	{
+		if (mParallel && mLightCount >= PARALLEL_LIGHT_COUNT)
+		{
+			ForkJoinPool.commonPool().invoke(new BinTask(0, mLightCount, write));
+		}
+		else
+		{
+			for (int light = 0; light < mLightCount; ++light)
+			{
+				binLight(light, write);
+			}
+		}
+	}
+
+	/**
+	 * Bins a range of lights, splitting it across tasks while it is large.
+	 */
+	private class BinTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int mStart, mEnd;
+		private boolean mWrite;
+
+		public BinTask(int start, int end, boolean write)
+		{
+			mStart = start;
+			mEnd = end;
+			mWrite = write;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (mEnd - mStart <= LIGHTS_PER_TASK)
+			{
+				for (int light = mStart; light < mEnd; ++light)
+				{
+					binLight(light, mWrite);
+				}
+				return;
+			}
+
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new BinTask(mStart, middle, mWrite), new BinTask(middle, mEnd, mWrite));
+		}
+	}
+
+	/**
+	 * Counts a light in, or writes its index into, every cluster its bounding box overlaps. Both passes
+	 * visit the same clusters.
+	 */
+	private void binLight(int light, boolean write)
+	{
+		int base = mStride * light;
+		float x = mLights[base];
+		float y = mLights[base + 1];
+		float depth = -mLights[base + 2];
+		float range = mLights[base + 3];
+
+		/* Depths the light reaches inside the frustum. */
+		float nearDepth = Math.max(depth - range, mNear);
+		float farDepth = Math.min(depth + range, mFar);
+
+		if (range <= 0.0f || nearDepth > farDepth)
+		{
+			return;
+		}
+
+		int cells[] = new int[4];
+
+		for (int z = getSlice(nearDepth); z <= getSlice(farDepth); ++z)
+		{
+			/* The part of the light's box inside this slice, projected onto the screen. */
+			float sliceNear = Math.max(nearDepth, mSliceDepths[z]);
+			float sliceFar = Math.min(farDepth, mSliceDepths[z + 1]);
+
+			if (!getCellRange(x - range, x + range, sliceNear, sliceFar, mScaleX, mOffsetX, CLUSTERS_X, cells, 0)
+					|| !getCellRange(y - range, y + range, sliceNear, sliceFar, mScaleY, mOffsetY, CLUSTERS_Y, cells, 2))
+			{
+				continue;
+			}
+
+			for (int cellY = cells[2]; cellY <= cells[3]; ++cellY)
+			{
+				for (int cellX = cells[0]; cellX <= cells[1]; ++cellX)
+				{
+					int cluster = getCluster(cellX, cellY, z);
+
+					if (write)
+					{
+						mIndices[mCursors.getAndIncrement(cluster)] = light;
+					}
+					else
+					{
+						mCounts.incrementAndGet(cluster);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the screen cells along one axis covered by an eyespace interval [low, high] over the
+	 * depths [nearDepth, farDepth].
+	 *
+	 * @param cells Receives the first and last cell, at `offset`.
+	 * @return False if the interval is entirely off screen.
+	 */
+	private static boolean getCellRange(float low, float high, float nearDepth, float farDepth, float scale, float offset,
+			int cellCount, int cells[], int index)
+	{
+		/* low / depth and high / depth are extreme at one of the two depths. */
+		float min = Math.min(low / nearDepth, low / farDepth);
+		float max = Math.max(high / nearDepth, high / farDepth);
+
+		float ndc0 = scale * min - offset;
+		float ndc1 = scale * max - offset;
+		float ndcMin = Math.min(ndc0, ndc1);
+		float ndcMax = Math.max(ndc0, ndc1);
+
+		if (ndcMax < -1.0f || ndcMin > 1.0f)
+		{
+			return false;
+		}
+
+		cells[index] = Math.max(0, (int)Math.floor((0.5f * ndcMin + 0.5f) * cellCount));
+		cells[index + 1] = Math.min(cellCount - 1, (int)Math.floor((0.5f * ndcMax + 0.5f) * cellCount));
+		return true;
+	}
+
+	/**
+	 * Returns the slice holding a depth (distance in front of the eye), clamped to the grid.
+	 */
+	private int getSlice(float depth)
+	{
+		int slice = (int)Math.floor(Math.log(depth / mNear) * mDepthScale);
+		return Math.min(Math.max(slice, 0), CLUSTERS_Z - 1);
+	}
+
+	/**
+	 * Returns the index of a cluster. Clusters are ordered by x, then y, then slice, so a texture
+	 * CLUSTERS_X wide holds slice after slice.
+	 */
+	public static int getCluster(int x, int y, int z)
+	{
+		return (z * CLUSTERS_Y + y) * CLUSTERS_X + x;
+	}
+
+	/**
+	 * Returns the scale from log(depth / near) to slices, which the ubershader needs to find the slice of
+	 * a pixel.
+	 */
+	public float getDepthScale()
+	{
+		return mDepthScale;
+	}
+
+	/**
+	 * Returns where a cluster's light indices start in `getIndices()`.
+	 */
+	public int getOffset(int cluster)
+	{
+		return mOffsets[cluster];
+	}
+
+	/**
+	 * Returns the number of lights in a cluster.
+	 */
+	public int getCount(int cluster)
+	{
+		return mOffsets[cluster + 1] - mOffsets[cluster];
+	}
+
+	/**
+	 * Returns the light indices of all clusters; see `getOffset()` and `getCount()`. Don't modify it.
+	 */
+	public int[] getIndices()
+	{
+		return mIndices;
+	}
+
+	/**
+	 * Returns the number of light indices of all clusters.
+	 */
+	public int getIndexCount()
+	{
+		return mOffsets[CLUSTER_COUNT];
+	}
+
+	/**
+	 * Returns whether many lights are binned across threads. True by default.
+	 */
+	public boolean getParallel()
+	{
+		return mParallel;
+	}
+
+	/**
+	 * Sets whether many lights are binned across threads.
+	 */
+	public void setParallel(boolean parallel)
+	{
+		mParallel = parallel;
+	}
+}
@@ -0,0 +1,199 @@
+package cs5625.deferred.rendering;
+
+import cs5625.deferred.scenegraph.FlattenedScene;
+import cs5625.deferred.scenegraph.LooseOctree;
+import cs5625.deferred.scenegraph.PointLight;
+import cs5625.deferred.scenegraph.SceneBVH;
+import cs5625.deferred.scenegraph.SceneObject;
+
+/**
+ * LightOctree.java
+ *
+ * World-space boxes around the range of every light of a snapshot, in a loose octree, so that lights
+ * whose range misses a view frustum can be culled. A light's range is the distance at which its
+ * contribution falls below a cutoff; lights which never do get infinite boxes, which the octree keeps
+ * in its root cell.
+ *
+ * `update()` re-inserts only the lights whose world position or parameters changed since it last saw
+ * them, so a frame costs time in the number of lights which did. Positions are read from the world
+ * matrices of the snapshot rather than from transform versions, since a light also moves when any of
+ * its ancestors does. The octree belongs to one scenegraph root and structure version, since the light
+ * indices are only stable for those, and is rebuilt when either changes.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LightOctree
+{
+	/* Contribution below which a light is taken to reach nothing. */
+	private float mCutoff;
+
+	/* The octree, and the scenegraph and structure version it was built for. */
+	private LooseOctree mOctree = null;
+	private SceneObject mRoot = null;
+	private int mStructureVersion = -1;
+
+	/* Per light, its box, the world-space position and parameter version it was inserted with. */
+	private float mBounds[] = new float[0];
+	private float mPositions[] = new float[0];
+	private int mParameterVersions[] = new int[0];
+
+	/* Number of lights (re)inserted by the last update. */
+	private int mUpdatedCount = 0;
+
+	/**
+	 * Creates an empty light octree.
+	 *
+	 * @param cutoff Contribution at which a light's range ends, as in `PointLight.getRange()`.
+	 */
+	public LightOctree(float cutoff)
+	{
+		mCutoff = cutoff;
+	}
+
+	/**
+	 * Brings the octree up to date with the lights of a snapshot, moving only the lights whose world
+	 * position or parameters changed since the last update, or rebuilding it if the snapshot is of
+	 * another scenegraph or structure.
+	 */
+	public void update(RenderSnapshot snapshot)
+	{
+		FlattenedScene scene = snapshot.getScene();
+		float world[] = scene.getWorldMatrices();
+		int versions[] = snapshot.getLightVersions();
+		int count = scene.getLightCount();
+		boolean rebuild = (mOctree == null || mRoot != scene.getRoot() || mStructureVersion != scene.getStructureVersion());
+
+		if (rebuild)
+		{
+			mBounds = new float[6 * count];
+			mPositions = new float[3 * count];
+			mParameterVersions = new int[count];
+		}
+
+		mUpdatedCount = 0;
+
+		for (int i = 0; i < count; ++i)
+		{
+			/* Lights sit at the origin of their node. */
+			int o = 16 * scene.getLightIndex(i);
+
+			if (!rebuild && mParameterVersions[i] == versions[i] && mPositions[3 * i + 0] == world[o + 12] &&
+					mPositions[3 * i + 1] == world[o + 13] && mPositions[3 * i + 2] == world[o + 14])
+			{
+				continue;
+			}
+
+			computeBounds(snapshot, i, mBounds, 6 * i);
+			mPositions[3 * i + 0] = world[o + 12];
+			mPositions[3 * i + 1] = world[o + 13];
+			mPositions[3 * i + 2] = world[o + 14];
+			mParameterVersions[i] = versions[i];
+			++mUpdatedCount;
+
+			if (!rebuild)
+			{
+				mOctree.update(i, mBounds, 6 * i);
+			}
+		}
+
+		if (rebuild)
+		{
+			mOctree = createOctree(mBounds, count);
+			mRoot = scene.getRoot();
+			mStructureVersion = scene.getStructureVersion();
+
+			for (int i = 0; i < count; ++i)
+			{
+				mOctree.update(i, mBounds, 6 * i);
+			}
+		}
+	}
+
+	/**
+	 * Finds the lights whose range passes the given test, as of the last update, and stores their
+	 * indices (in `FlattenedScene.getLightIndex()` order, but not sorted) in `result`, which must have
+	 * room for every light.
+	 *
+	 * @return The number of lights found.
+	 */
+	public int query(SceneBVH.BoundsTest test, int result[])
+	{
+		return (mOctree == null ? 0 : mOctree.query(test, result));
+	}
+
+	/**
+	 * Returns the box around the range of each light as of the last update, as (minX, minY, minZ, maxX,
+	 * maxY, maxZ) per light. Don't modify it.
+	 */
+	public float[] getBounds()
+	{
+		return mBounds;
+	}
+
+	/**
+	 * Returns the number of lights the last update inserted or moved.
+	 */
+	public int getUpdatedCount()
+	{
+		return mUpdatedCount;
+	}
+
+	/**
+	 * Creates an empty octree whose root cell covers the finite ones among the given light boxes.
+	 */
+	private static LooseOctree createOctree(float bounds[], int count)
+	{
+		float min[] = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		float max[] = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+		for (int i = 0; i < count; ++i)
+		{
+			if (bounds[6 * i + 3] - bounds[6 * i] >= Float.MAX_VALUE)
+			{
+				continue;
+			}
+
+			for (int c = 0; c < 3; ++c)
+			{
+				min[c] = Math.min(min[c], bounds[6 * i + c]);
+				max[c] = Math.max(max[c], bounds[6 * i + 3 + c]);
+			}
+		}
+
+		if (min[0] > max[0])
+		{
+			return new LooseOctree(0.0f, 0.0f, 0.0f, 1.0f);
+		}
+
+		float halfSize = 0.5f * Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+
+		return new LooseOctree(0.5f * (min[0] + max[0]), 0.5f * (min[1] + max[1]), 0.5f * (min[2] + max[2]),
+				Math.max(halfSize, 1.0f));
+	}
+
+	/**
+	 * Stores the world-space box around a light's range in `result`.
+	 */
+	private void computeBounds(RenderSnapshot snapshot, int light, float result[], int offset)
+	{
+		FlattenedScene scene = snapshot.getScene();
+		float world[] = scene.getWorldMatrices();
+		float colors[] = snapshot.getLightColors();
+		float attenuations[] = snapshot.getLightAttenuations();
+
+		float intensity = Math.max(colors[3 * light + 0], Math.max(colors[3 * light + 1], colors[3 * light + 2]));
+		float range = PointLight.getRange(intensity, attenuations[3 * light + 0], attenuations[3 * light + 1],
+				attenuations[3 * light + 2], mCutoff);
+
+		int o = 16 * scene.getLightIndex(light);
+
+		for (int c = 0; c < 3; ++c)
+		{
+			result[offset + c] = world[o + 12 + c] - range;
+			result[offset + 3 + c] = world[o + 12 + c] + range;
+		}
+	}
+}
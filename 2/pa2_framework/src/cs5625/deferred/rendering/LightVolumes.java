@@ -0,0 +1,357 @@
+package cs5625.deferred.rendering;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+import cs5625.deferred.misc.OpenGLResourceObject;
+
+/**
+ * LightVolumes.java
+ *
+ * Draws a bounding volume around each point light, for lighting the g-buffer with light volumes: a
+ * low-poly sphere (a subdivided icosahedron) centered on the light, scaled to the light's range, so
+ * that the pixels it covers are the only ones the light can reach. The sphere's vertices are pushed
+ * out until its faces enclose the unit sphere, so the volume never cuts off a lit pixel.
+ *
+ * Each light is given to the shader as three vertex attributes, matching the packed lights of the
+ * renderer: eyespace position and range (LightPositionRange), color (LightColor) and attenuation
+ * (LightAttenuation). With instanced arrays all volumes are drawn with one instanced call, reading
+ * the lights from a buffer; otherwise each volume is drawn on its own, with the lights set as
+ * constant attributes.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LightVolumes implements OpenGLResourceObject
+{
+	/* Floats per light, and the names of the vertex attributes receiving each vec4 of a light. */
+	public static final int LIGHT_FLOATS = 12;
+	public static final String LIGHT_ATTRIBUTES[] = { "LightPositionRange", "LightColor", "LightAttenuation" };
+
+	/* Times the icosahedron is subdivided; once gives 80 triangles. */
+	private static final int SUBDIVISIONS = 1;
+
+	/* Buffers holding the sphere, and its number of indices. */
+	private int mVertexBuffer = 0, mIndexBuffer = 0;
+	private int mIndexCount = 0;
+
+	/* Lights to draw, and the buffer they are uploaded into for instanced drawing. */
+	private float mLights[] = new float[LIGHT_FLOATS * 64];
+	private int mLightCount = 0;
+	private boolean mInstanced = false;
+	private int mLightBuffer = 0;
+	private FloatBuffer mLightData = Buffers.newDirectFloatBuffer(LIGHT_FLOATS * 64);
+
+	/**
+	 * Sets the lights whose volumes are drawn, and uploads them if they are drawn instanced.
+	 *
+	 * @param gl The OpenGL state.
+	 * @param lights Eyespace position and range, color, and attenuation of each light, as three
+	 *        vec4s. Lights with a range of 0 reach nothing and are skipped.
+	 * @param count Number of lights.
+	 * @param reach Distance from the eye to the farthest point of the view frustum. Volumes are
+	 *        shrunk to what they need to cover the frustum, since ranges may be huge.
+	 * @param instanced True to draw with one instanced call; requires instanced arrays.
+	 */
+	public void setLights(GL2 gl, float lights[], int count, float reach, boolean instanced)
+	{
+		if (mLights.length < LIGHT_FLOATS * count)
+		{
+			mLights = new float[LIGHT_FLOATS * count];
+		}
+
+		mLightCount = 0;
+		mInstanced = instanced;
+
+		for (int light = 0; light < count; ++light)
+		{
+			int base = LIGHT_FLOATS * light;
+			float range = lights[base + 3];
+
+			if (range <= 0.0f)
+			{
+				continue;
+			}
+
+			float distance = (float)Math.sqrt(lights[base] * lights[base] + lights[base + 1] * lights[base + 1]
+					+ lights[base + 2] * lights[base + 2]);
+
+			System.arraycopy(lights, base, mLights, LIGHT_FLOATS * mLightCount, LIGHT_FLOATS);
+			mLights[LIGHT_FLOATS * mLightCount + 3] = Math.min(range, distance + reach);
+			++mLightCount;
+		}
+
+		if (!instanced || mLightCount == 0)
+		{
+			return;
+		}
+
+		if (mLightData.capacity() < LIGHT_FLOATS * mLightCount)
+		{
+			mLightData = Buffers.newDirectFloatBuffer(LIGHT_FLOATS * mLightCount);
+		}
+
+		mLightData.clear();
+		mLightData.put(mLights, 0, LIGHT_FLOATS * mLightCount);
+		mLightData.flip();
+
+		if (mLightBuffer == 0)
+		{
+			int handle[] = new int[1];
+			gl.glGenBuffers(1, handle, 0);
+			mLightBuffer = handle[0];
+		}
+
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mLightBuffer);
+		gl.glBufferData(GL2.GL_ARRAY_BUFFER, 4L * mLightData.remaining(), mLightData, GL2.GL_STREAM_DRAW);
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Returns the number of volumes which will be drawn.
+	 */
+	public int getLightCount()
+	{
+		return mLightCount;
+	}
+
+	/**
+	 * Draws the volumes of the lights set by `setLights()` with the current OpenGL state. The sphere's
+	 * vertices are given as gl_Vertex, on or outside the unit sphere; the shader places them around
+	 * each light.
+	 *
+	 * @param gl The OpenGL state.
+	 * @param shader The bound shader, which receives the light attributes.
+	 */
+	public void draw(GL2 gl, ShaderProgram shader)
+	{
+		if (mLightCount == 0)
+		{
+			return;
+		}
+
+		if (mVertexBuffer == 0)
+		{
+			createSphere(gl);
+		}
+
+		gl.glPushClientAttrib((int)GL2.GL_CLIENT_ALL_ATTRIB_BITS);
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mVertexBuffer);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL2.GL_FLOAT, 0, 0L);
+
+		int locations[] = new int[LIGHT_ATTRIBUTES.length];
+		for (int i = 0; i < LIGHT_ATTRIBUTES.length; ++i)
+		{
+			locations[i] = shader.getAttribLocation(gl, LIGHT_ATTRIBUTES[i]);
+		}
+
+		if (mInstanced)
+		{
+			/* One light per instance. */
+			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mLightBuffer);
+
+			for (int i = 0; i < locations.length; ++i)
+			{
+				if (locations[i] >= 0)
+				{
+					gl.glEnableVertexAttribArray(locations[i]);
+					gl.glVertexAttribPointer(locations[i], 4, GL2.GL_FLOAT, false, 4 * LIGHT_FLOATS, 16L * i);
+					gl.glVertexAttribDivisor(locations[i], 1);
+				}
+			}
+
+			gl.glDrawElementsInstanced(GL2.GL_TRIANGLES, mIndexCount, GL2.GL_UNSIGNED_SHORT, 0L, mLightCount);
+
+			/* Divisors aren't client state, so reset them by hand. */
+			for (int i = 0; i < locations.length; ++i)
+			{
+				if (locations[i] >= 0)
+				{
+					gl.glVertexAttribDivisor(locations[i], 0);
+				}
+			}
+		}
+		else
+		{
+			/* One draw per light, with the light as constant attributes. */
+			for (int light = 0; light < mLightCount; ++light)
+			{
+				for (int i = 0; i < locations.length; ++i)
+				{
+					if (locations[i] >= 0)
+					{
+						int base = LIGHT_FLOATS * light + 4 * i;
+						gl.glVertexAttrib4f(locations[i], mLights[base], mLights[base + 1], mLights[base + 2], mLights[base + 3]);
+					}
+				}
+
+				gl.glDrawElements(GL2.GL_TRIANGLES, mIndexCount, GL2.GL_UNSIGNED_SHORT, 0L);
+			}
+		}
+
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glPopClientAttrib();
+	}
+
+	@Override
+	public void releaseGPUResources(GL2 gl)
+	{
+		if (mVertexBuffer != 0)
+		{
+			gl.glDeleteBuffers(2, new int[] { mVertexBuffer, mIndexBuffer }, 0);
+			mVertexBuffer = mIndexBuffer = 0;
+		}
+
+		if (mLightBuffer != 0)
+		{
+			gl.glDeleteBuffers(1, new int[] { mLightBuffer }, 0);
+			mLightBuffer = 0;
+		}
+	}
+
+	/**
+	 * Builds the sphere and uploads it into mVertexBuffer and mIndexBuffer.
+	 */
+	private void createSphere(GL2 gl)
+	{
+		/* Start from an icosahedron: the corners of three orthogonal golden rectangles. */
+		float t = (1.0f + (float)Math.sqrt(5.0)) / 2.0f;
+		ArrayList<float[]> vertices = new ArrayList<float[]>();
+		float corners[][] = {
+				{ -1, t, 0 }, { 1, t, 0 }, { -1, -t, 0 }, { 1, -t, 0 },
+				{ 0, -1, t }, { 0, 1, t }, { 0, -1, -t }, { 0, 1, -t },
+				{ t, 0, -1 }, { t, 0, 1 }, { -t, 0, -1 }, { -t, 0, 1 } };
+
+		for (float corner[] : corners)
+		{
+			vertices.add(normalize(corner));
+		}
+
+		int triangles[] = {
+				0, 11, 5, 0, 5, 1, 0, 1, 7, 0, 7, 10, 0, 10, 11,
+				1, 5, 9, 5, 11, 4, 11, 10, 2, 10, 7, 6, 7, 1, 8,
+				3, 9, 4, 3, 4, 2, 3, 2, 6, 3, 6, 8, 3, 8, 9,
+				4, 9, 5, 2, 4, 11, 6, 2, 10, 8, 6, 7, 9, 8, 1 };
+
+		/* Split each triangle into four, sharing the new vertex of each edge. */
+		for (int level = 0; level < SUBDIVISIONS; ++level)
+		{
+			HashMap<Long, Integer> midpoints = new HashMap<Long, Integer>();
+			int subdivided[] = new int[4 * triangles.length];
+
+			for (int i = 0; i < triangles.length; i += 3)
+			{
+				int a = triangles[i], b = triangles[i + 1], c = triangles[i + 2];
+				int ab = getMidpoint(vertices, midpoints, a, b);
+				int bc = getMidpoint(vertices, midpoints, b, c);
+				int ca = getMidpoint(vertices, midpoints, c, a);
+
+				int faces[] = { a, ab, ca, b, bc, ab, c, ca, bc, ab, bc, ca };
+				System.arraycopy(faces, 0, subdivided, 4 * i, faces.length);
+			}
+
+			triangles = subdivided;
+		}
+
+		/* Scale the vertices so the face nearest the center touches the unit sphere, and make faces counterclockwise seen from outside. */
+		float inradius = Float.MAX_VALUE;
+
+		for (int i = 0; i < triangles.length; i += 3)
+		{
+			float a[] = vertices.get(triangles[i]), b[] = vertices.get(triangles[i + 1]), c[] = vertices.get(triangles[i + 2]);
+			float normal[] = normalize(cross(a, b, c));
+			float distance = normal[0] * a[0] + normal[1] * a[1] + normal[2] * a[2];
+
+			if (distance < 0.0f)
+			{
+				int swap = triangles[i + 1];
+				triangles[i + 1] = triangles[i + 2];
+				triangles[i + 2] = swap;
+			}
+
+			inradius = Math.min(inradius, Math.abs(distance));
+		}
+
+		FloatBuffer vertexData = Buffers.newDirectFloatBuffer(3 * vertices.size());
+		for (float vertex[] : vertices)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				vertexData.put(vertex[k] / inradius);
+			}
+		}
+		vertexData.flip();
+
+		short indices[] = new short[triangles.length];
+		for (int i = 0; i < triangles.length; ++i)
+		{
+			indices[i] = (short)triangles[i];
+		}
+
+		int handles[] = new int[2];
+		gl.glGenBuffers(2, handles, 0);
+		mVertexBuffer = handles[0];
+		mIndexBuffer = handles[1];
+		mIndexCount = indices.length;
+
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mVertexBuffer);
+		gl.glBufferData(GL2.GL_ARRAY_BUFFER, 4L * vertexData.remaining(), vertexData, GL2.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+		gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, 2L * indices.length, Buffers.newDirectShortBuffer(indices), GL2.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Returns the index of the vertex halfway along an edge, pushed out onto the unit sphere, adding
+	 * it the first time the edge is seen.
+	 */
+	private static int getMidpoint(ArrayList<float[]> vertices, HashMap<Long, Integer> midpoints, int a, int b)
+	{
+		long key = ((long)Math.min(a, b) << 32) | Math.max(a, b);
+		Integer index = midpoints.get(key);
+
+		if (index == null)
+		{
+			float va[] = vertices.get(a), vb[] = vertices.get(b);
+			index = vertices.size();
+			vertices.add(normalize(new float[] { va[0] + vb[0], va[1] + vb[1], va[2] + vb[2] }));
+			midpoints.put(key, index);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Returns the (unnormalized) normal of the triangle abc, facing the side it winds counterclockwise on.
+	 */
+	private static float[] cross(float a[], float b[], float c[])
+	{
+		float u0 = b[0] - a[0], u1 = b[1] - a[1], u2 = b[2] - a[2];
+		float v0 = c[0] - a[0], v1 = c[1] - a[1], v2 = c[2] - a[2];
+		return new float[] { u1 * v2 - u2 * v1, u2 * v0 - u0 * v2, u0 * v1 - u1 * v0 };
+	}
+
+	/**
+	 * Scales a vector to unit length in place, and returns it.
+	 */
+	private static float[] normalize(float v[])
+	{
+		float length = (float)Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+		v[0] /= length;
+		v[1] /= length;
+		v[2] /= length;
+		return v;
+	}
+}
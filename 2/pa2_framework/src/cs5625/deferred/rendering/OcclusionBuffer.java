@@ -0,0 +1,565 @@
+package cs5625.deferred.rendering;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * OcclusionBuffer.java
+ *
+ * A small software depth buffer for occlusion culling. The triangles of designated occluders
+ * (walls, floors, ...) are rasterized into it on the CPU, then the world-space bounding boxes of
+ * other objects are tested against it, and objects entirely hidden behind occluders are not drawn.
+ * Nothing here touches OpenGL.
+ *
+ * The buffer stores inverse eye-space depth (1 / distance along the view direction), which is
+ * affine in screen space and so can be interpolated directly; larger values are closer, and 0 means
+ * nothing was drawn. It is stored conservatively: each pixel holds the farthest depth its triangle
+ * reaches anywhere inside the pixel, so an object is only reported hidden if it is behind the
+ * occluder everywhere. Coverage is sampled at pixel centers, as on the GPU, so an object peeking out
+ * from behind an occluder's silhouette by less than a pixel of this buffer may be culled; occluder
+ * proxies should sit slightly inside the geometry they stand for.
+ *
+ * Occluder triangles are transformed and binned into screen tiles first, then the tiles are
+ * rasterized independently, across threads for large occluder sets. Tiles are stored contiguously
+ * and each keeps its farthest depth, so most box tests are answered per tile without visiting pixels.
+ *
+ * Occluder triangles are clipped to the near plane. Boxes crossing it are always reported visible.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class OcclusionBuffer
+{
+	/* Default resolution. Occlusion needs only a coarse picture of the screen. */
+	public static final int DEFAULT_WIDTH = 256;
+	public static final int DEFAULT_HEIGHT = 128;
+
+	/* Tile size in pixels; tiles are the unit of binning and of parallel work. */
+	public static final int TILE_SIZE = 32;
+
+	/* Frames with fewer binned triangles than this are rasterized on the calling thread. */
+	private static final int PARALLEL_TRIANGLE_COUNT = 512;
+
+	private int mWidth, mHeight;
+	private int mTilesX, mTilesY;
+
+	/* Depth, one tile after another, each TILE_SIZE x TILE_SIZE pixels row by row, and the farthest value in each tile. */
+	private float mDepth[];
+	private float mTileFarthest[];
+
+	/* World to eye transform and projection of the frame. */
+	private Matrix4f mWorldToEye = new Matrix4f();
+	private float mScaleX, mScaleY, mNear;
+
+	/* Screen-space occluder triangles: x, y, and inverse depth of each corner, 9 floats per triangle. */
+	private float mTriangles[] = new float[9 * 256];
+	private int mTriangleCount = 0;
+
+	/* Triangles overlapping each tile. */
+	private int mBins[][];
+	private int mBinSizes[];
+
+	/* Scratch space: occluder vertices in eye space (x, y, and distance in front of the eye), and
+	 * one triangle clipped to the near plane, projected (at most 4 vertices of x, y, inverse depth). */
+	private float mEyeVertices[] = new float[0];
+	private float mClipped[] = new float[12];
+
+	private boolean mParallel = true;
+
+	/**
+	 * Creates a buffer with the default resolution.
+	 */
+	public OcclusionBuffer()
+	{
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+	}
+
+	/**
+	 * Creates a buffer with the given resolution. It need not match the screen's, but should have
+	 * roughly the same aspect ratio.
+	 */
+	public OcclusionBuffer(int width, int height)
+	{
+		mWidth = width;
+		mHeight = height;
+		mTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		mTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+		int tileCount = mTilesX * mTilesY;
+		mDepth = new float[tileCount * TILE_SIZE * TILE_SIZE];
+		mTileFarthest = new float[tileCount];
+		mBins = new int[tileCount][64];
+		mBinSizes = new int[tileCount];
+	}
+
+	/**
+	 * Clears the buffer and sets the view for a new frame.
+	 *
+	 * @param worldToEye The world to eye space transform. The camera looks down -z in eye space.
+	 * @param tanX Half the width of the view frustum at unit distance from the eye.
+	 * @param tanY Half the height of the view frustum at unit distance from the eye.
+	 * @param near The near plane distance.
+	 */
+	public void begin(Matrix4f worldToEye, float tanX, float tanY, float near)
+	{
+		mWorldToEye.set(worldToEye);
+		mScaleX = 0.5f * mWidth / tanX;
+		mScaleY = 0.5f * mHeight / tanY;
+		mNear = near;
+
+		mTriangleCount = 0;
+
+		for (int tile = 0; tile < mBinSizes.length; ++tile)
+		{
+			mBinSizes[tile] = 0;
+		}
+	}
+
+	/**
+	 * Transforms the polygons of an occluder to the screen and bins them into tiles. Call between
+	 * `begin()` and `rasterize()`. Polygons with more than 3 vertices are split into a fan of triangles.
+	 *
+	 * @param objectToWorld Array holding the occluder's world matrix in OpenGL (column-major) order.
+	 * @param offset Index of the matrix in `objectToWorld`.
+	 * @param vertices Vertex positions, 3 floats per vertex.
+	 * @param polygons Vertex indices, `verticesPerPolygon` per polygon.
+	 * @param verticesPerPolygon Number of vertices of each polygon.
+	 */
+	public void addOccluder(float objectToWorld[], int offset, FloatBuffer vertices, IntBuffer polygons, int verticesPerPolygon)
+	{
+		/* Object to eye transform, M = V * W, rows of its upper 3x4. */
+		Matrix4f v = mWorldToEye;
+		float w[] = objectToWorld;
+		int o = offset;
+
+		float m00 = v.m00 * w[o + 0] + v.m01 * w[o + 1] + v.m02 * w[o + 2];
+		float m01 = v.m00 * w[o + 4] + v.m01 * w[o + 5] + v.m02 * w[o + 6];
+		float m02 = v.m00 * w[o + 8] + v.m01 * w[o + 9] + v.m02 * w[o + 10];
+		float m03 = v.m00 * w[o + 12] + v.m01 * w[o + 13] + v.m02 * w[o + 14] + v.m03;
+		float m10 = v.m10 * w[o + 0] + v.m11 * w[o + 1] + v.m12 * w[o + 2];
+		float m11 = v.m10 * w[o + 4] + v.m11 * w[o + 5] + v.m12 * w[o + 6];
+		float m12 = v.m10 * w[o + 8] + v.m11 * w[o + 9] + v.m12 * w[o + 10];
+		float m13 = v.m10 * w[o + 12] + v.m11 * w[o + 13] + v.m12 * w[o + 14] + v.m13;
+		float m20 = v.m20 * w[o + 0] + v.m21 * w[o + 1] + v.m22 * w[o + 2];
+		float m21 = v.m20 * w[o + 4] + v.m21 * w[o + 5] + v.m22 * w[o + 6];
+		float m22 = v.m20 * w[o + 8] + v.m21 * w[o + 9] + v.m22 * w[o + 10];
+		float m23 = v.m20 * w[o + 12] + v.m21 * w[o + 13] + v.m22 * w[o + 14] + v.m23;
+
+		/* Transform every vertex once. */
+		int vertexCount = vertices.capacity() / 3;
+
+		if (mEyeVertices.length < 3 * vertexCount)
+		{
+			mEyeVertices = new float[3 * vertexCount];
+		}
+
+		for (int i = 0; i < vertexCount; ++i)
+		{
+			float x = vertices.get(3 * i), y = vertices.get(3 * i + 1), z = vertices.get(3 * i + 2);
+			mEyeVertices[3 * i + 0] = m00 * x + m01 * y + m02 * z + m03;
+			mEyeVertices[3 * i + 1] = m10 * x + m11 * y + m12 * z + m13;
+			mEyeVertices[3 * i + 2] = -(m20 * x + m21 * y + m22 * z + m23);
+		}
+
+		int polygonCount = polygons.capacity() / verticesPerPolygon;
+
+		for (int p = 0; p < polygonCount; ++p)
+		{
+			int base = p * verticesPerPolygon;
+
+			for (int k = 1; k + 1 < verticesPerPolygon; ++k)
+			{
+				addTriangle(polygons.get(base), polygons.get(base + k), polygons.get(base + k + 1));
+			}
+		}
+	}
+
+	/**
+	 * Clips one triangle of eye-space vertices to the near plane, projects what is left, and adds it.
+	 */
+	private void addTriangle(int i0, int i1, int i2)
+	{
+		float ev[] = mEyeVertices;
+		int corners[] = {3 * i0, 3 * i1, 3 * i2};
+		int clippedCount = 0;
+
+		/* Sutherland-Hodgman against depth >= near: keep inside corners, and add the crossing point of each crossing edge. */
+		for (int k = 0; k < 3; ++k)
+		{
+			int a = corners[k];
+			int b = corners[(k + 1) % 3];
+			float depthA = ev[a + 2], depthB = ev[b + 2];
+
+			if (depthA >= mNear)
+			{
+				project(ev[a], ev[a + 1], depthA, clippedCount++);
+			}
+
+			if ((depthA >= mNear) != (depthB >= mNear))
+			{
+				float t = (mNear - depthA) / (depthB - depthA);
+				project(ev[a] + t * (ev[b] - ev[a]), ev[a + 1] + t * (ev[b + 1] - ev[a + 1]), mNear, clippedCount++);
+			}
+		}
+
+		for (int k = 1; k + 1 < clippedCount; ++k)
+		{
+			storeTriangle(0, 3 * k, 3 * (k + 1));
+		}
+	}
+
+	/**
+	 * Projects an eye-space point in front of the near plane to vertex `index` of the clipped triangle.
+	 */
+	private void project(float x, float y, float depth, int index)
+	{
+		float invDepth = 1.0f / depth;
+		mClipped[3 * index + 0] = 0.5f * mWidth + x * invDepth * mScaleX;
+		mClipped[3 * index + 1] = 0.5f * mHeight + y * invDepth * mScaleY;
+		mClipped[3 * index + 2] = invDepth;
+	}
+
+	/**
+	 * Stores a triangle of projected vertices from the clipped triangle and adds it to the bins of the
+	 * tiles its bounding rectangle overlaps.
+	 */
+	private void storeTriangle(int v0, int v1, int v2)
+	{
+		float cv[] = mClipped;
+		float x0 = cv[v0], y0 = cv[v0 + 1];
+		float x1 = cv[v1], y1 = cv[v1 + 1];
+		float x2 = cv[v2], y2 = cv[v2 + 1];
+
+		/* Pixel centers the triangle could cover are at (px + 0.5, py + 0.5) for px in [minX, maxX]. */
+		int minX = Math.max(0, (int)Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f));
+		int maxX = Math.min(mWidth - 1, (int)Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f));
+		int minY = Math.max(0, (int)Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+		int maxY = Math.min(mHeight - 1, (int)Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+
+		float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+
+		if (minX > maxX || minY > maxY || area == 0.0f)
+		{
+			return;
+		}
+
+		if (mTriangles.length < 9 * (mTriangleCount + 1))
+		{
+			float grown[] = new float[2 * mTriangles.length];
+			System.arraycopy(mTriangles, 0, grown, 0, mTriangles.length);
+			mTriangles = grown;
+		}
+
+		int t = 9 * mTriangleCount;
+		System.arraycopy(cv, v0, mTriangles, t, 3);
+		System.arraycopy(cv, v1, mTriangles, t + 3, 3);
+		System.arraycopy(cv, v2, mTriangles, t + 6, 3);
+
+		for (int ty = minY / TILE_SIZE; ty <= maxY / TILE_SIZE; ++ty)
+		{
+			for (int tx = minX / TILE_SIZE; tx <= maxX / TILE_SIZE; ++tx)
+			{
+				int tile = ty * mTilesX + tx;
+
+				if (mBinSizes[tile] == mBins[tile].length)
+				{
+					int grown[] = new int[2 * mBins[tile].length];
+					System.arraycopy(mBins[tile], 0, grown, 0, mBins[tile].length);
+					mBins[tile] = grown;
+				}
+
+				mBins[tile][mBinSizes[tile]++] = mTriangleCount;
+			}
+		}
+
+		++mTriangleCount;
+	}
+
+	/**
+	 * Rasterizes all occluders added since `begin()`. Must be called before testing boxes.
+	 */
+	public void rasterize()
+	{
+		int tileCount = mBinSizes.length;
+
+		if (mParallel && mTriangleCount >= PARALLEL_TRIANGLE_COUNT)
+		{
+			ForkJoinPool.commonPool().invoke(new RasterizeTask(0, tileCount));
+		}
+		else
+		{
+			for (int tile = 0; tile < tileCount; ++tile)
+			{
+				rasterizeTile(tile);
+			}
+		}
+	}
+
+	/**
+	 * Rasterizes the range of tiles [start, end), splitting it in half until it is a single tile.
+	 */
+	private class RasterizeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int mStart, mEnd;
+
+		public RasterizeTask(int start, int end)
+		{
+			mStart = start;
+			mEnd = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (mEnd - mStart == 1)
+			{
+				rasterizeTile(mStart);
+				return;
+			}
+
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new RasterizeTask(mStart, middle), new RasterizeTask(middle, mEnd));
+		}
+	}
+
+	/**
+	 * Clears one tile and rasterizes the triangles binned into it. Only writes that tile's pixels,
+	 * so tiles can be rasterized at the same time.
+	 */
+	private void rasterizeTile(int tile)
+	{
+		int tileX = (tile % mTilesX) * TILE_SIZE;
+		int tileY = (tile / mTilesX) * TILE_SIZE;
+		int tileEndX = Math.min(mWidth, tileX + TILE_SIZE);
+		int tileEndY = Math.min(mHeight, tileY + TILE_SIZE);
+		int base = tile * TILE_SIZE * TILE_SIZE;
+		float depth[] = mDepth;
+
+		for (int i = base; i < base + TILE_SIZE * TILE_SIZE; ++i)
+		{
+			depth[i] = 0.0f;
+		}
+
+		int bin[] = mBins[tile];
+
+		for (int b = 0; b < mBinSizes[tile]; ++b)
+		{
+			int t = 9 * bin[b];
+			float x0 = mTriangles[t + 0], y0 = mTriangles[t + 1], z0 = mTriangles[t + 2];
+			float x1 = mTriangles[t + 3], y1 = mTriangles[t + 4], z1 = mTriangles[t + 5];
+			float x2 = mTriangles[t + 6], y2 = mTriangles[t + 7], z2 = mTriangles[t + 8];
+
+			/* Make the winding counterclockwise, so all edge functions are positive inside. */
+			float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+
+			if (area < 0.0f)
+			{
+				float swap = x1; x1 = x2; x2 = swap;
+				swap = y1; y1 = y2; y2 = swap;
+				swap = z1; z1 = z2; z2 = swap;
+				area = -area;
+			}
+
+			/* Depth plane z = zx * x + zy * y + zc, and the most it drops from a pixel's center to its corners. */
+			float invArea = 1.0f / area;
+			float zx = ((z1 - z0) * (y2 - y0) - (z2 - z0) * (y1 - y0)) * invArea;
+			float zy = ((z2 - z0) * (x1 - x0) - (z1 - z0) * (x2 - x0)) * invArea;
+			float zc = z0 - zx * x0 - zy * y0;
+			float zPixelDrop = 0.5f * (Math.abs(zx) + Math.abs(zy));
+			float zMin = Math.min(z0, Math.min(z1, z2));
+
+			/* Edge functions e(x, y) = a x + b y + c, each zero on one edge and positive inside. */
+			float a0 = y1 - y2, b0 = x2 - x1, c0 = x1 * y2 - x2 * y1;
+			float a1 = y2 - y0, b1 = x0 - x2, c1 = x2 * y0 - x0 * y2;
+			float a2 = y0 - y1, b2 = x1 - x0, c2 = x0 * y1 - x1 * y0;
+
+			int minX = Math.max(tileX, (int)Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f));
+			int maxX = Math.min(tileEndX - 1, (int)Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f));
+			int minY = Math.max(tileY, (int)Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+			int maxY = Math.min(tileEndY - 1, (int)Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+
+			for (int py = minY; py <= maxY; ++py)
+			{
+				float cy = py + 0.5f;
+				float cx = minX + 0.5f;
+				float e0 = a0 * cx + b0 * cy + c0;
+				float e1 = a1 * cx + b1 * cy + c1;
+				float e2 = a2 * cx + b2 * cy + c2;
+				float z = zx * cx + zy * cy + zc - zPixelDrop;
+				int row = base + (py - tileY) * TILE_SIZE - tileX;
+
+				for (int px = minX; px <= maxX; ++px)
+				{
+					if (e0 >= 0.0f && e1 >= 0.0f && e2 >= 0.0f)
+					{
+						float conservative = Math.max(z, zMin);
+
+						if (conservative > depth[row + px])
+						{
+							depth[row + px] = conservative;
+						}
+					}
+
+					e0 += a0;
+					e1 += a1;
+					e2 += a2;
+					z += zx;
+				}
+			}
+		}
+
+		float farthest = Float.POSITIVE_INFINITY;
+
+		for (int py = tileY; py < tileEndY; ++py)
+		{
+			int row = base + (py - tileY) * TILE_SIZE - tileX;
+
+			for (int px = tileX; px < tileEndX; ++px)
+			{
+				farthest = Math.min(farthest, depth[row + px]);
+			}
+		}
+
+		mTileFarthest[tile] = farthest;
+	}
+
+	/**
+	 * Returns false if the given world-space box is certainly hidden behind the rasterized occluders,
+	 * or entirely off the screen. Empty boxes are never visible.
+	 *
+	 * @param bounds Array holding the box as (minX, minY, minZ, maxX, maxY, maxZ).
+	 * @param offset Index of minX in `bounds`.
+	 */
+	public boolean isVisible(float bounds[], int offset)
+	{
+		if (bounds[offset] > bounds[offset + 3])
+		{
+			return false;
+		}
+
+		/* Project the corners, tracking their screen rectangle and the closest inverse depth. */
+		Matrix4f v = mWorldToEye;
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		float nearest = 0.0f;
+
+		for (int corner = 0; corner < 8; ++corner)
+		{
+			float x = bounds[offset + ((corner & 1) == 0 ? 0 : 3)];
+			float y = bounds[offset + ((corner & 2) == 0 ? 1 : 4)];
+			float z = bounds[offset + ((corner & 4) == 0 ? 2 : 5)];
+			float depth = -(v.m20 * x + v.m21 * y + v.m22 * z + v.m23);
+
+			/* Boxes reaching behind the near plane can't be projected; they might cover the whole screen. */
+			if (depth < mNear)
+			{
+				return true;
+			}
+
+			float invDepth = 1.0f / depth;
+			float sx = 0.5f * mWidth + (v.m00 * x + v.m01 * y + v.m02 * z + v.m03) * invDepth * mScaleX;
+			float sy = 0.5f * mHeight + (v.m10 * x + v.m11 * y + v.m12 * z + v.m13) * invDepth * mScaleY;
+
+			minX = Math.min(minX, sx);
+			maxX = Math.max(maxX, sx);
+			minY = Math.min(minY, sy);
+			maxY = Math.max(maxY, sy);
+			nearest = Math.max(nearest, invDepth);
+		}
+
+		/* Every pixel the rectangle touches. */
+		int x0 = Math.max(0, (int)Math.floor(minX));
+		int x1 = Math.min(mWidth - 1, (int)Math.floor(maxX));
+		int y0 = Math.max(0, (int)Math.floor(minY));
+		int y1 = Math.min(mHeight - 1, (int)Math.floor(maxY));
+
+		if (x0 > x1 || y0 > y1)
+		{
+			return false;
+		}
+
+		for (int ty = y0 / TILE_SIZE; ty <= y1 / TILE_SIZE; ++ty)
+		{
+			for (int tx = x0 / TILE_SIZE; tx <= x1 / TILE_SIZE; ++tx)
+			{
+				int tile = ty * mTilesX + tx;
+
+				/* The whole tile is in front of the box. */
+				if (mTileFarthest[tile] >= nearest)
+				{
+					continue;
+				}
+
+				int tileX = tx * TILE_SIZE;
+				int tileY = ty * TILE_SIZE;
+				int base = tile * TILE_SIZE * TILE_SIZE;
+
+				for (int py = Math.max(y0, tileY); py <= Math.min(y1, tileY + TILE_SIZE - 1); ++py)
+				{
+					int row = base + (py - tileY) * TILE_SIZE - tileX;
+
+					for (int px = Math.max(x0, tileX); px <= Math.min(x1, tileX + TILE_SIZE - 1); ++px)
+					{
+						if (mDepth[row + px] < nearest)
+						{
+							return true;
+						}
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the stored inverse depth of a pixel, 0 if no occluder covers it. (0, 0) is the bottom left.
+	 */
+	public float getInverseDepth(int x, int y)
+	{
+		int tile = (y / TILE_SIZE) * mTilesX + x / TILE_SIZE;
+		return mDepth[tile * TILE_SIZE * TILE_SIZE + (y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+	}
+
+	/**
+	 * Returns the number of occluder triangles binned since `begin()`.
+	 */
+	public int getTriangleCount()
+	{
+		return mTriangleCount;
+	}
+
+	public int getWidth()
+	{
+		return mWidth;
+	}
+
+	public int getHeight()
+	{
+		return mHeight;
+	}
+
+	/**
+	 * Returns whether large occluder sets are rasterized across threads. True by default.
+	 */
+	public boolean getParallel()
+	{
+		return mParallel;
+	}
+
+	/**
+	 * Sets whether large occluder sets are rasterized across threads.
+	 */
+	public void setParallel(boolean parallel)
+	{
+		mParallel = parallel;
+	}
+}
@@ -0,0 +1,288 @@
+package cs5625.deferred.rendering;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import cs5625.deferred.materials.Material;
+import cs5625.deferred.scenegraph.Mesh;
+
+/**
+ * RenderQueue.java
+ *
+ * Collects the draws of a pass (a mesh, the material to draw it with, and where its object's matrices
+ * are), then sorts them so draws sharing state end up next to each other. Each draw gets a 64-bit sort
+ * key holding, from most to least significant:
+ *
+ *   - the pass (2 bits), so e.g. wireframes are drawn after all meshes,
+ *   - the shader program (10 bits),
+ *   - the material instance (20 bits), which also fixes the textures bound,
+ *   - the depth of the object in front of the camera (32 bits), so draws of one material go front to back.
+ *
+ * Programs and materials are numbered per pass, in the order they are first added to that pass since
+ * the last `clear()`, so the numbers stay small: each pass's numbering starts again from 0, and only
+ * has to tell apart the programs and materials of that pass. Keys are sorted with an LSD radix sort, one byte at a time, skipping bytes
+ * which are the same in every key (usually most of the program and material bytes).
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class RenderQueue
+{
+	/* Number of passes, and field widths of the sort key. */
+	private static final int PASS_COUNT = 4;
+	private static final int PROGRAM_BITS = 10;
+	private static final int MATERIAL_BITS = 20;
+	private static final int DEPTH_BITS = 32;
+
+	/* The draws: sort key and what to draw, in the order they were added. */
+	private long mKeys[] = new long[256];
+	private Mesh mMeshes[] = new Mesh[256];
+	private Material mMaterials[] = new Material[256];
+	private int mPasses[] = new int[256];
+	private int mLevels[] = new int[256];
+	private int mNodes[] = new int[256];
+	private int mSlots[] = new int[256];
+	private int mCount = 0;
+
+	/* Draw indices in sorted order, and scratch space for sorting. */
+	private int mOrder[] = new int[256];
+	private int mScratchOrder[] = new int[256];
+	private long mScratchKeys[] = new long[256];
+	private long mSortedKeys[] = new long[256];
+	private int mDigitCounts[] = new int[256];
+
+	/* Numbers given to the programs and materials added to each pass since the last clear. */
+	private IdentityHashMap<ShaderProgram, Integer> mProgramNumbers[] = createNumberings(PASS_COUNT);
+	private IdentityHashMap<Material, Integer> mMaterialNumbers[] = createNumberings(PASS_COUNT);
+
+	/**
+	 * Removes all draws.
+	 */
+	public void clear()
+	{
+		Arrays.fill(mMeshes, 0, mCount, null);
+		Arrays.fill(mMaterials, 0, mCount, null);
+		for (int pass = 0; pass < PASS_COUNT; ++pass)
+		{
+			mProgramNumbers[pass].clear();
+			mMaterialNumbers[pass].clear();
+		}
+
+		mCount = 0;
+	}
+
+	/**
+	 * Adds a draw.
+	 *
+	 * @param pass Pass to draw in; all draws of a pass come before those of the next. 0 to 3.
+	 * @param mesh The mesh to draw.
+	 * @param material The material to draw it with. Its shader must have been retrieved.
+	 * @param level The mesh's level of detail to draw.
+	 * @param node The index of the mesh's object in the flattened scene.
+	 * @param slot Where the renderer keeps the matrices of the mesh's object.
+	 * @param depth Distance of the object in front of the camera, from 0 (near) to 1 (far); clamped.
+	 */
+	public void add(int pass, Mesh mesh, Material material, int level, int node, int slot, float depth)
+	{
+		if (mCount == mKeys.length)
+		{
+			grow(2 * mCount);
+		}
+
+		long program = getNumber(mProgramNumbers[pass], material.getShaderProgram()) & ((1L << PROGRAM_BITS) - 1);
+		long instance = getNumber(mMaterialNumbers[pass], material) & ((1L << MATERIAL_BITS) - 1);
+		long quantizedDepth = (long)(Math.min(Math.max(depth, 0.0f), 1.0f) * (double)((1L << DEPTH_BITS) - 1));
+
+		mKeys[mCount] = ((long)pass << (PROGRAM_BITS + MATERIAL_BITS + DEPTH_BITS))
+				| (program << (MATERIAL_BITS + DEPTH_BITS))
+				| (instance << DEPTH_BITS)
+				| quantizedDepth;
+		mMeshes[mCount] = mesh;
+		mMaterials[mCount] = material;
+		mPasses[mCount] = pass;
+		mLevels[mCount] = level;
+		mNodes[mCount] = node;
+		mSlots[mCount] = slot;
+		++mCount;
+	}
+
+	/**
+	 * Sorts the draws by key. Draws with equal keys keep the order they were added in.
+	 */
+	public void sort()
+	{
+		int order[] = mOrder, scratchOrder[] = mScratchOrder;
+		long keys[] = mSortedKeys, scratchKeys[] = mScratchKeys;
+		int counts[] = mDigitCounts;
+
+		for (int i = 0; i < mCount; ++i)
+		{
+			order[i] = i;
+			keys[i] = mKeys[i];
+		}
+
+		for (int shift = 0; shift < 64; shift += 8)
+		{
+			Arrays.fill(counts, 0);
+
+			for (int i = 0; i < mCount; ++i)
+			{
+				++counts[(int)(keys[i] >>> shift) & 0xFF];
+			}
+
+			/* Every key has the same byte here, so this pass wouldn't move anything. */
+			if (mCount == 0 || counts[(int)(keys[0] >>> shift) & 0xFF] == mCount)
+			{
+				continue;
+			}
+
+			/* Turn counts into starting offsets, then scatter stably. */
+			int offset = 0;
+			for (int digit = 0; digit < 256; ++digit)
+			{
+				int count = counts[digit];
+				counts[digit] = offset;
+				offset += count;
+			}
+
+			for (int i = 0; i < mCount; ++i)
+			{
+				int destination = counts[(int)(keys[i] >>> shift) & 0xFF]++;
+				scratchKeys[destination] = keys[i];
+				scratchOrder[destination] = order[i];
+			}
+
+			long swapKeys[] = keys;
+			keys = scratchKeys;
+			scratchKeys = swapKeys;
+
+			int swapOrder[] = order;
+			order = scratchOrder;
+			scratchOrder = swapOrder;
+		}
+
+		mOrder = order;
+		mScratchOrder = scratchOrder;
+		mSortedKeys = keys;
+		mScratchKeys = scratchKeys;
+	}
+
+	/**
+	 * Returns the number of draws.
+	 */
+	public int size()
+	{
+		return mCount;
+	}
+
+	/**
+	 * Returns the index (in the order added) of the i-th draw in sorted order. Only valid after `sort()`.
+	 */
+	public int getDraw(int i)
+	{
+		return mOrder[i];
+	}
+
+	/**
+	 * Returns the pass of a draw.
+	 *
+	 * @param draw The index of the draw, in the order added.
+	 */
+	public int getPass(int draw)
+	{
+		return mPasses[draw];
+	}
+
+	/**
+	 * Returns the mesh of a draw.
+	 */
+	public Mesh getMesh(int draw)
+	{
+		return mMeshes[draw];
+	}
+
+	/**
+	 * Returns the material of a draw.
+	 */
+	public Material getMaterial(int draw)
+	{
+		return mMaterials[draw];
+	}
+
+	/**
+	 * Returns the level of detail of a draw.
+	 */
+	public int getLevel(int draw)
+	{
+		return mLevels[draw];
+	}
+
+	/**
+	 * Returns the index of a draw's object in the flattened scene.
+	 */
+	public int getNode(int draw)
+	{
+		return mNodes[draw];
+	}
+
+	/**
+	 * Returns where the renderer keeps the matrices of a draw's object.
+	 */
+	public int getSlot(int draw)
+	{
+		return mSlots[draw];
+	}
+
+	/**
+	 * Returns an array of the given number of empty numberings.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> IdentityHashMap<T, Integer>[] createNumberings(int count)
+	{
+		IdentityHashMap<T, Integer> numberings[] = new IdentityHashMap[count];
+
+		for (int i = 0; i < count; ++i)
+		{
+			numberings[i] = new IdentityHashMap<T, Integer>();
+		}
+
+		return numberings;
+	}
+
+	/**
+	 * Returns the number of an object in a numbering, giving it the next one if it has none yet.
+	 */
+	private static <T> int getNumber(IdentityHashMap<T, Integer> numbers, T object)
+	{
+		Integer number = numbers.get(object);
+
+		if (number == null)
+		{
+			number = numbers.size();
+			numbers.put(object, number);
+		}
+
+		return number;
+	}
+
+	/**
+	 * Grows all arrays to hold the given number of draws.
+	 */
+	private void grow(int capacity)
+	{
+		mKeys = Arrays.copyOf(mKeys, capacity);
+		mMeshes = Arrays.copyOf(mMeshes, capacity);
+		mMaterials = Arrays.copyOf(mMaterials, capacity);
+		mPasses = Arrays.copyOf(mPasses, capacity);
+		mLevels = Arrays.copyOf(mLevels, capacity);
+		mNodes = Arrays.copyOf(mNodes, capacity);
+		mSlots = Arrays.copyOf(mSlots, capacity);
+
+		mOrder = new int[capacity];
+		mScratchOrder = new int[capacity];
+		mSortedKeys = new long[capacity];
+		mScratchKeys = new long[capacity];
+	}
+}
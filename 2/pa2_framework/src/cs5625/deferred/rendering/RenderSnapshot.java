@@ -0,0 +1,360 @@
+package cs5625.deferred.rendering;
+
+import java.util.IdentityHashMap;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Quat4f;
+
+import cs5625.deferred.materials.Material;
+import cs5625.deferred.scenegraph.FlattenedScene;
+import cs5625.deferred.scenegraph.Light;
+import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.PointLight;
+import cs5625.deferred.scenegraph.SceneBVH;
+import cs5625.deferred.scenegraph.SceneObject;
+
+/**
+ * RenderSnapshot.java
+ *
+ * A copy of everything per-frame the renderer reads from a scene: a flattened copy of the scenegraph
+ * (node order, visibility, world matrices and bounds), the camera, the color and attenuation of
+ * every light, and the material each mesh is drawn with. It is filled in by `capture()` on the thread
+ * which changes the scene, and rendered on the OpenGL thread, so the two never touch the same
+ * transforms or material properties (see `RenderSnapshotBuffer`).
+ *
+ * Materials are captured as copies (see `Material.copy()`), made only when a material's version
+ * changed since the previous capture and otherwise shared with it, since copies never change.
+ * The flattened scene copies each geometry node's list of meshes and its occluder and static settings,
+ * so the renderer never reads them from the live Geometry. Meshes themselves are captured by reference:
+ * their vertex data is set up when the scene is loaded and is not copied, so changes to it must still be
+ * made on the OpenGL thread.
+ *
+ * Snapshots are reused: capturing again overwrites the previous contents in place, and only rebuilds
+ * the node order when the scenegraph structure changed. Like the flattened scene, the camera and the
+ * lights are compared with the previous capture (which may be another snapshot), and get new version
+ * numbers when they differ, so `getVersion()` tells a renderer whether it already drew exactly this.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class RenderSnapshot
+{
+	/* Flattened copy of the scene, and a BVH over it created by the first thread rendering it. */
+	private FlattenedScene mScene = null;
+	private SceneBVH mSceneBVH = null;
+
+	/* Detached copy of the camera, with its world-space transform as its local transform. */
+	private Camera mCamera = new Camera();
+
+	/* Color and (constant, linear, quadratic) attenuation of each light, 3 floats each, in
+	 * `FlattenedScene.getLightIndex()` order. */
+	private float mLightColors[] = new float[0];
+	private float mLightAttenuations[] = new float[0];
+
+	/* Number of lights in the arrays above. */
+	private int mLightCount = 0;
+
+	/* Versions of the camera and light parameters, from `FlattenedScene.nextVersion()`, and of each
+	 * light's parameters. */
+	private int mCameraVersion = 0;
+	private int mLightVersion = 0;
+	private int mLightVersions[] = new int[0];
+
+	/* Copy of each mesh's material, and the copy made of each material, by the original. The second map
+	 * alternates with mScratchMaterialCopies so the previous capture's copies can be looked up while
+	 * this one's are collected, even when the previous capture is this snapshot. */
+	private IdentityHashMap<Mesh, Material> mMeshMaterials = new IdentityHashMap<Mesh, Material>();
+	private IdentityHashMap<Material, Material> mMaterialCopies = new IdentityHashMap<Material, Material>();
+	private IdentityHashMap<Material, Material> mScratchMaterialCopies = new IdentityHashMap<Material, Material>();
+
+	/* Number of times this was captured. */
+	private int mCaptureCount = 0;
+
+	/**
+	 * Copies the state of the scene below `root`, seen from `camera`, into this snapshot. Must be called
+	 * on the thread which modifies the scene, while it isn't modifying it.
+	 */
+	public void capture(SceneObject root, Camera camera)
+	{
+		capture(root, camera, this);
+	}
+
+	/**
+	 * Same as `capture(SceneObject, Camera)`, but finds out what changed by comparing with another
+	 * snapshot, which must not be captured meanwhile.
+	 *
+	 * @param previous The snapshot captured last, or this snapshot.
+	 */
+	public void capture(SceneObject root, Camera camera, RenderSnapshot previous)
+	{
+		if (mScene == null || mScene.getRoot() != root)
+		{
+			mScene = new FlattenedScene(root);
+			mSceneBVH = null;
+		}
+
+		/* Without a previous capture of the same scene, everything is new. */
+		if (previous.mScene == null || previous.mScene.getRoot() != root)
+		{
+			previous = null;
+		}
+
+		mScene.update(previous == null ? null : previous.mScene);
+		captureCamera(camera, previous);
+		captureLights(previous);
+		captureMaterials(previous);
+
+		++mCaptureCount;
+	}
+
+	/**
+	 * Copies the camera's world-space transform and projection parameters, and gives them a new
+	 * version if they differ from `previous`'s.
+	 */
+	private void captureCamera(Camera camera, RenderSnapshot previous)
+	{
+		/* The camera may be nested inside other objects, so flatten its transform into world space. */
+		Point3f position = camera.transformPointToWorldSpace(new Point3f(0.0f, 0.0f, 0.0f));
+		Quat4f orientation = camera.transformOrientationToWorldSpace(new Quat4f(0.0f, 0.0f, 0.0f, 1.0f));
+		float scale = camera.transformDistanceToWorldSpace(1.0f);
+
+		Camera last = (previous == null ? null : previous.mCamera);
+
+		if (last != null
+				&& position.equals(last.getPosition())
+				&& orientation.equals(last.getOrientation())
+				&& scale == last.getScale()
+				&& camera.getFOV() == last.getFOV()
+				&& camera.getNear() == last.getNear()
+				&& camera.getFar() == last.getFar()
+				&& camera.getIsCubeMapCamera() == last.getIsCubeMapCamera())
+		{
+			mCameraVersion = previous.mCameraVersion;
+		}
+		else
+		{
+			mCameraVersion = FlattenedScene.nextVersion();
+		}
+
+		mCamera.setPosition(position);
+		mCamera.setOrientation(orientation);
+		mCamera.setScale(scale);
+		mCamera.setFOV(camera.getFOV());
+		mCamera.setNear(camera.getNear());
+		mCamera.setFar(camera.getFar());
+		mCamera.setIsCubeMapCamera(camera.getIsCubeMapCamera());
+	}
+
+	/**
+	 * Copies the color and attenuation of every light, and gives them a new version if any differ
+	 * from `previous`'s. Each light whose own parameters differ gets the new version too.
+	 */
+	private void captureLights(RenderSnapshot previous)
+	{
+		int lightCount = mScene.getLightCount();
+		boolean changed = (previous == null || lightCount != previous.mLightCount);
+		boolean allChanged = changed;
+
+		if (mLightColors.length < 3 * lightCount)
+		{
+			mLightColors = new float[3 * lightCount];
+			mLightAttenuations = new float[3 * lightCount];
+			mLightVersions = new int[lightCount];
+		}
+
+		float lastColors[] = (changed ? mLightColors : previous.mLightColors);
+		float lastAttenuations[] = (changed ? mLightAttenuations : previous.mLightAttenuations);
+		int lastVersions[] = (changed ? mLightVersions : previous.mLightVersions);
+		int version = 0;
+
+		for (int i = 0; i < lightCount; ++i)
+		{
+			Light light = (Light)mScene.getNode(mScene.getLightIndex(i));
+			float constant = 1.0f, linear = 0.0f, quadratic = 0.0f;
+
+			if (light instanceof PointLight)
+			{
+				PointLight pointLight = (PointLight)light;
+				constant = pointLight.getConstantAttenuation();
+				linear = pointLight.getLinearAttenuation();
+				quadratic = pointLight.getQuadraticAttenuation();
+			}
+
+			boolean lightChanged = allChanged;
+			lightChanged |= setLightParameter(lastColors, mLightColors, 3 * i + 0, light.getColor().x);
+			lightChanged |= setLightParameter(lastColors, mLightColors, 3 * i + 1, light.getColor().y);
+			lightChanged |= setLightParameter(lastColors, mLightColors, 3 * i + 2, light.getColor().z);
+			lightChanged |= setLightParameter(lastAttenuations, mLightAttenuations, 3 * i + 0, constant);
+			lightChanged |= setLightParameter(lastAttenuations, mLightAttenuations, 3 * i + 1, linear);
+			lightChanged |= setLightParameter(lastAttenuations, mLightAttenuations, 3 * i + 2, quadratic);
+
+			/* All lights changing in this capture share one new version. */
+			if (lightChanged && version == 0)
+			{
+				version = FlattenedScene.nextVersion();
+			}
+
+			mLightVersions[i] = (lightChanged ? version : lastVersions[i]);
+			changed |= lightChanged;
+		}
+
+		mLightCount = lightCount;
+		mLightVersion = (changed ? (version != 0 ? version : FlattenedScene.nextVersion()) : previous.mLightVersion);
+	}
+
+	/**
+	 * Records the material of every mesh in the scene, as a copy. Copies made by `previous` are reused
+	 * for materials whose version didn't change since.
+	 */
+	private void captureMaterials(RenderSnapshot previous)
+	{
+		IdentityHashMap<Material, Material> lastCopies = (previous == null ? null : previous.mMaterialCopies);
+		IdentityHashMap<Material, Material> copies = mScratchMaterialCopies;
+
+		copies.clear();
+		mMeshMaterials.clear();
+
+		for (int i = 0; i < mScene.getGeometryCount(); ++i)
+		{
+			int node = mScene.getGeometryIndex(i);
+
+			for (int m = 0; m < mScene.getMeshCount(node); ++m)
+			{
+				Mesh mesh = mScene.getMesh(node, m);
+				Material material = mesh.getMaterial();
+
+				if (material == null)
+				{
+					continue;
+				}
+
+				Material copy = copies.get(material);
+
+				if (copy == null)
+				{
+					copy = (lastCopies == null ? null : lastCopies.get(material));
+
+					if (copy == null || copy.getVersion() != material.getVersion())
+					{
+						copy = material.copy();
+					}
+
+					copies.put(material, copy);
+				}
+
+				mMeshMaterials.put(mesh, copy);
+			}
+		}
+
+		mScratchMaterialCopies = mMaterialCopies;
+		mMaterialCopies = copies;
+	}
+
+	/**
+	 * Stores a value in a light parameter array, returning whether it differs from the previous value
+	 * (which `last` may hold in place).
+	 */
+	private static boolean setLightParameter(float last[], float parameters[], int index, float value)
+	{
+		boolean changed = (last[index] != value);
+		parameters[index] = value;
+		return changed;
+	}
+
+	/**
+	 * Returns the root of the captured scene, or null if nothing was captured yet.
+	 */
+	public SceneObject getRoot()
+	{
+		return (mScene == null ? null : mScene.getRoot());
+	}
+
+	/**
+	 * Returns the flattened copy of the scene. Don't update it; `capture()` does.
+	 */
+	public FlattenedScene getScene()
+	{
+		return mScene;
+	}
+
+	/**
+	 * Returns a BVH over the captured scene, creating it on first use. It is kept with the snapshot so
+	 * it only needs refitting as the snapshot is recaptured. Only the thread rendering the snapshot may
+	 * call this, and it must call `SceneBVH.update()` before querying.
+	 */
+	public SceneBVH getSceneBVH()
+	{
+		if (mSceneBVH == null)
+		{
+			mSceneBVH = new SceneBVH(mScene);
+		}
+
+		return mSceneBVH;
+	}
+
+	/**
+	 * Returns the captured camera. It has no parent; its position, orientation and scale are
+	 * the original camera's world-space ones. Don't modify it.
+	 */
+	public Camera getCamera()
+	{
+		return mCamera;
+	}
+
+	/**
+	 * Returns the light colors, 3 floats per light in `FlattenedScene.getLightIndex()` order. Don't modify it.
+	 */
+	public float[] getLightColors()
+	{
+		return mLightColors;
+	}
+
+	/**
+	 * Returns the (constant, linear, quadratic) light attenuations, laid out as in `getLightColors()`.
+	 * Lights other than point lights don't attenuate. Don't modify it.
+	 */
+	public float[] getLightAttenuations()
+	{
+		return mLightAttenuations;
+	}
+
+	/**
+	 * Returns the version of each light's color and attenuation, laid out as one int per light in
+	 * `FlattenedScene.getLightIndex()` order. A light's version changes whenever a capture found its
+	 * parameters different from the previous one. Don't modify it.
+	 */
+	public int[] getLightVersions()
+	{
+		return mLightVersions;
+	}
+
+	/**
+	 * Returns the copy of a mesh's material made by the last capture, which the renderer must draw the
+	 * mesh with instead of `mesh.getMaterial()`. Returns null for meshes which weren't in the scene or had
+	 * no material. Don't modify it, other than retrieving its shader.
+	 */
+	public Material getMaterial(Mesh mesh)
+	{
+		return mMeshMaterials.get(mesh);
+	}
+
+	/**
+	 * Returns the version of everything captured: the largest of the scene's, the camera's and the
+	 * lights' versions. It changes whenever a capture found anything different from the previous one,
+	 * so snapshots captured one after another with equal versions hold the same scene.
+	 */
+	public int getVersion()
+	{
+		return Math.max(mScene.getVersion(), Math.max(mCameraVersion, mLightVersion));
+	}
+
+	/**
+	 * Returns the number of times this snapshot was captured.
+	 */
+	public int getCaptureCount()
+	{
+		return mCaptureCount;
+	}
+}
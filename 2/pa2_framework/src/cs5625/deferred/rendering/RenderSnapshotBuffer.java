@@ -0,0 +1,114 @@
+package cs5625.deferred.rendering;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cs5625.deferred.scenegraph.SceneObject;
+
+/**
+ * RenderSnapshotBuffer.java
+ *
+ * Hands render snapshots from the thread which changes the scene (e.g. the AWT event thread running
+ * input handlers, or an animation thread) to the OpenGL thread, without locks. One thread calls
+ * `publish()` after each batch of changes; the OpenGL thread calls `acquire()` once per frame and
+ * renders what it returns.
+ *
+ * Two snapshots aren't enough when neither side waits: the publisher must never write into the
+ * snapshot being rendered, and the renderer must always have a complete one to switch to. So there
+ * are three. The publisher owns one (back), the renderer owns one (front), and the third (ready)
+ * holds the latest complete capture. Publishing swaps back and ready; acquiring swaps ready and front
+ * if ready is newer. Both swaps are a single compare-and-set on one packed integer, so neither side
+ * can see the other half-way through. If the publisher runs faster than the renderer, intermediate
+ * captures are simply never rendered.
+ *
+ * Each capture is compared with the previously published one, so the three snapshots share one version
+ * history: a snapshot with the same version as one rendered before holds the same scene (see
+ * `RenderSnapshot.getVersion()`).
+ *
+ * Only one thread may publish, and only one thread may acquire.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class RenderSnapshotBuffer
+{
+	/* State bits: the back, ready and front snapshot indices (2 bits each), and whether ready is newer than front. */
+	private static final int BACK_SHIFT = 0;
+	private static final int READY_SHIFT = 2;
+	private static final int FRONT_SHIFT = 4;
+	private static final int FRESH_BIT = 1 << 6;
+
+	private RenderSnapshot mSnapshots[] = { new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot() };
+	private AtomicInteger mState = new AtomicInteger(pack(0, 1, 2, false));
+
+	/* Index of the snapshot published last, or -1; only used by the publishing thread. */
+	private int mPublished = -1;
+
+	/* Whether the renderer acquired a snapshot yet; only read and written by the acquiring thread. */
+	private boolean mAcquired = false;
+
+	/**
+	 * Captures the scene below `root`, seen from `camera`, and makes it the snapshot the next
+	 * `acquire()` returns. Must be called on the thread which modifies the scene.
+	 *
+	 * @return False if nothing changed since the last publish.
+	 */
+	public boolean publish(SceneObject root, Camera camera)
+	{
+		/* Only this thread changes the back index, so it stays valid while capturing. The snapshot published
+		 * last is never the back one, so it can't change while it is compared with. */
+		int back = (mState.get() >> BACK_SHIFT) & 3;
+		RenderSnapshot previous = (mPublished < 0 ? null : mSnapshots[mPublished]);
+
+		mSnapshots[back].capture(root, camera, (previous == null ? mSnapshots[back] : previous));
+		boolean changed = (previous == null || previous.getVersion() != mSnapshots[back].getVersion());
+		mPublished = back;
+
+		while (true)
+		{
+			int state = mState.get();
+			int ready = (state >> READY_SHIFT) & 3;
+			int front = (state >> FRONT_SHIFT) & 3;
+
+			if (mState.compareAndSet(state, pack(ready, back, front, true)))
+			{
+				return changed;
+			}
+		}
+	}
+
+	/**
+	 * Returns the most recently published snapshot, which stays untouched until the next call.
+	 * Returns null if nothing was published yet.
+	 */
+	public RenderSnapshot acquire()
+	{
+		while (true)
+		{
+			int state = mState.get();
+			int back = (state >> BACK_SHIFT) & 3;
+			int ready = (state >> READY_SHIFT) & 3;
+			int front = (state >> FRONT_SHIFT) & 3;
+
+			if ((state & FRESH_BIT) == 0)
+			{
+				return (mAcquired ? mSnapshots[front] : null);
+			}
+
+			if (mState.compareAndSet(state, pack(back, front, ready, false)))
+			{
+				mAcquired = true;
+				return mSnapshots[ready];
+			}
+		}
+	}
+
+	/**
+	 * Packs snapshot indices and the fresh flag into a state value.
+	 */
+	private static int pack(int back, int ready, int front, boolean fresh)
+	{
+		return (back << BACK_SHIFT) | (ready << READY_SHIFT) | (front << FRONT_SHIFT) | (fresh ? FRESH_BIT : 0);
+	}
+}
@@ -1,29 +1,41 @@
 package cs5625.deferred.rendering;
 
+import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import javax.media.opengl.GL2;
+import javax.media.opengl.GL2GL3;
+import javax.media.opengl.GL4;
+import javax.media.opengl.GL4bc;
 import javax.media.opengl.GLAutoDrawable;
 import javax.vecmath.AxisAngle4f;
 import javax.vecmath.Color3f;
+import javax.vecmath.Matrix4f;
 import javax.vecmath.Point3f;
 import javax.vecmath.Quat4f;
 
+import com.jogamp.common.nio.Buffers;
+
 import cs5625.deferred.materials.Material;
 import cs5625.deferred.materials.Texture.Datatype;
 import cs5625.deferred.materials.Texture.Format;
+import cs5625.deferred.materials.Texture2D;
 import cs5625.deferred.materials.TextureCubeMap;
 import cs5625.deferred.materials.TextureDynamicCubeMap;
 import cs5625.deferred.materials.UnshadedMaterial;
 import cs5625.deferred.misc.OpenGLException;
 import cs5625.deferred.misc.ScenegraphException;
 import cs5625.deferred.misc.Util;
-import cs5625.deferred.scenegraph.Geometry;
-import cs5625.deferred.scenegraph.Light;
+import cs5625.deferred.scenegraph.FlattenedScene;
 import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.MeshletSet;
 import cs5625.deferred.scenegraph.PointLight;
+import cs5625.deferred.scenegraph.SceneBVH;
 import cs5625.deferred.scenegraph.SceneObject;
 
 //import javax.media.opengl.glu.GLU;
@@ -35,17 +47,20 @@ import cs5625.deferred.scenegraph.SceneObject;
  * This happens in 4 stages, described below. In this description, numbers in
  * {curly braces} indicate g-buffer texture indices.
  * 
- * 1. Render into gbuffer {0 = diffuse/normal.x, 1 = position/normal.y, 2&3 =
- * material info} of each fragment. 2. Render into gbuffer {4 = gradients} based
- * on the positions and normals in 0&1, for edge detection. 3. Render into
- * gbuffer {5 = shaded scene} the final opaque scene, using all previous
- * buffers. 4. Output {5} to window.
+ * 1. Render into gbuffer {0 = diffuse, 1 = normal, 2&3 = material info} of
+ * each fragment, and its depth buffer. 2. Render into gbuffer {4 = gradients}
+ * based on the depths and normals, for edge detection. 3. Render into gbuffer
+ * {5 = shaded scene} the final opaque scene, using all previous buffers. 4.
+ * Output {5} to window.
  * 
- * Note that the eyespace normal is stored in a compressed form. The alpha
- * values of the diffuse and position buffers are the x and y values of the
- * compressed normal. The algorithm used to do this is from Cry Engine 3.
- * Source: Mittring, M. "A bit more deferred - CryEngine3." Triangle Game
- * Conference 2009.
+ * Eyespace positions aren't stored; shaders reconstruct them from the depth
+ * buffer and the inverse projection matrix. The eyespace normal is stored
+ * octahedrally encoded into two values in [0, 1] (see Quantization.java).
+ * Everything in {0-3} lies in [0, 1]: material IDs are stored divided by 255,
+ * plus 128 / 255 where an anisotropic Ward bitangent is flipped, and so are
+ * cube map indices and Cook-Torrance's m and n; Phong exponents are stored as
+ * log2(exponent + 1) / 10. So {0-3} can be stored as 8 and 10 bit normalized
+ * integers, as the compact gbuffer does (see `createGBuffer()`).
  * 
  * Written for Cornell CS 5625 (Interactive Computer Graphics). Copyright (c)
  * 2012, Computer Science Department, Cornell University.
@@ -65,19 +80,27 @@ public class Renderer {
 
 	/* Name the indices in the GBuffer so code is easier to read. */
 	protected final int GBuffer_DiffuseIndex = 0;
-	protected final int GBuffer_PositionIndex = 1;
+	protected final int GBuffer_NormalIndex = 1;
 	protected final int GBuffer_MaterialIndex1 = 2;
 	protected final int GBuffer_MaterialIndex2 = 3;
 	protected final int GBuffer_GradientsIndex = 4;
 	protected final int GBuffer_FinalSceneIndex = 5;
 	protected final int GBuffer_Count = 6;
 
+	/*
+	 * Whether the gbuffer stores each texture at just the precision its data
+	 * needs, whether the OpenGL context allows that, and whether the current
+	 * gbuffer does. Shaders sample the gbuffer's depth texture from its own
+	 * unit, past the cube maps and clustered lighting's textures.
+	 */
+	private boolean mEnableCompactGBuffer = true;
+	private boolean mCompactGBufferSupported = true;
+	private boolean mGBufferIsCompact = false;
+	private static final int GBUFFER_DEPTH_TEXTURE_UNIT = 12;
+
 	/* The index of the texture to preview in GBufferFBO, or -1 for no preview. */
 	protected int mPreviewIndex = -1;
 
-	/* List of lights in the scene, assembled every frame. */
-	private ArrayList<Light> mLights = new ArrayList<Light>();
-
 	/*
 	 * Cache of shaders used by all the materials in the scene. Storing the
 	 * shaders here instead of in the Material classes themselves allows the
@@ -111,16 +134,84 @@ public class Renderer {
 	private ShaderProgram mVisShader = null;
 
 	/* Locations of uniforms in the ubershader. */
-	private int mLightPositionsUniformLocation = -1;
-	private int mLightColorsUniformLocation = -1;
-	private int mLightAttenuationsUniformLocation = -1;
+	private int mLightsUniformLocation = -1;
 	private int mNumLightsUniformLocation = -1;
-	private int mEnableToonShadingUniformLocation = -1;
-	private int mCameraInverseRotationUniformLocation = -1;
+
+	/* Version of the packed lights the ubershader's Lights uniform holds. */
+	private int mUberShaderLightsVersion = -1;
 
 	/* The size of the light uniform arrays in the ubershader. */
 	private int mMaxLightsInUberShader = 40;
 
+	/*
+	 * Tiled lighting (see `shaders/tiled_light_culling.cp`): whether it is
+	 * used when the OpenGL context has compute shaders, the light culling
+	 * shader, the ubershader variant reading its per-tile light lists, and
+	 * the storage buffers holding the lights and the lists. Without it, the
+	 * ubershader's light uniform arrays limit the number of lights.
+	 */
+	private boolean mEnableTiledLighting = true;
+	private boolean mTiledLightingSupported = false;
+	private ShaderProgram mLightCullingShader = null;
+	private ShaderProgram mTiledUberShader = null;
+	private int mLightBuffer = 0, mTileLightBuffer = 0;
+	private long mLightBufferSize = 0, mTileLightBufferSize = 0;
+	private int mLightBufferVersion = -1;
+	private FloatBuffer mLightData = Buffers.newDirectFloatBuffer(12 * 64);
+	private static final int TILE_SIZE = 16;
+	private static final int MAX_LIGHTS_PER_TILE = 255;
+
+	/*
+	 * Clustered lighting (see `LightClusters`), used instead when tiled
+	 * lighting isn't: whether it is on, the ubershader variant reading the
+	 * cluster lists, the clusters, and the float textures they and the
+	 * lights are uploaded into, with their texture units.
+	 */
+	private boolean mEnableClusteredLighting = true;
+	private ShaderProgram mClusteredUberShader = null;
+	private LightClusters mLightClusters = new LightClusters();
+	private Texture2D mClusterTexture = null;
+	private Texture2D mClusterLightIndexTexture = null;
+	private Texture2D mLightTexture = null;
+	private float mClusterData[] = new float[4 * LightClusters.CLUSTER_COUNT];
+	private float mClusterLightIndexData[] = new float[0];
+	private float mLightTextureData[] = new float[0];
+	private int mLightTextureVersion = -1;
+	private static final int LIGHTS_PER_ROW = 256;
+	private static final int INDICES_PER_ROW = 1024;
+	private static final int CLUSTER_TEXTURE_UNIT = 9;
+
+	/*
+	 * Light volumes (see `LightVolumes`), used instead of either when on: the
+	 * ubershader variant shading one light per volume, the program marking
+	 * the volumes in the stencil buffer, the volumes, and whether depths can
+	 * be clamped, so volumes reaching past the far plane are still marked.
+	 */
+	private boolean mEnableLightVolumes = false;
+	private ShaderProgram mLightVolumeUberShader = null;
+	private ShaderProgram mLightVolumeStencilShader = null;
+	private LightVolumes mLightVolumes = new LightVolumes();
+	private boolean mDepthClampSupported = false;
+	private int mLightVolumesVersion = -1;
+	private float mLightVolumesReach = 0.0f;
+
+	/*
+	 * The visible lights packed as three vec4s each: eyespace position and
+	 * range, color, and attenuation; every lighting mode reads them from
+	 * here. Each slot remembers which light it holds and the version of that
+	 * light's parameters, so unchanged parameters aren't packed again, and
+	 * mPackedLightsVersion changes whenever the packed data does, so the
+	 * buffers it is uploaded into know when they are out of date.
+	 */
+	private float mPackedLights[] = new float[0];
+	private int mPackedLightSources[] = new int[0];
+	private int mPackedLightVersions[] = new int[0];
+	private int mPackedLightCount = 0;
+	private int mPackedLightsVersion = 0;
+
+	/* Contribution below which a light is taken not to reach a surface. */
+	private static final float LIGHT_CUTOFF = 1.0f / 256.0f;
+
 	/* The size of the dynamic cube map uniform arrays in the ubershader. */
 	private int mMaxDynamicCubeMapsUberShader = 3;
 
@@ -144,10 +235,201 @@ public class Renderer {
 	private float mBlurVarianceX = 128.0f;
 	private float mBlurVarianceY = 128.0f;
 
+	/* Level of detail selection settings. */
+	private boolean mEnableLevelsOfDetail = true;
+	private float mCubeMapLevelOfDetailBias = 0.5f;
+
+	/*
+	 * Camera world position and 1 / tan(fov / 2) for the pass being rendered,
+	 * used to estimate projected mesh sizes.
+	 */
+	private Point3f mLevelOfDetailCameraPosition = new Point3f();
+	private float mLevelOfDetailProjectionScale = 1.0f;
+
+	/*
+	 * Which viewer the pass being rendered selects levels of detail for: 0
+	 * for the main camera, 1 + index for each dynamic cube map (all six faces
+	 * share a position, so they share a selection).
+	 */
+	private int mLevelOfDetailViewer = 0;
+
+	/*
+	 * Level of detail last selected for each mesh of each node by each
+	 * viewer, for hysteresis, and the mesh it was selected for. Meshes are
+	 * numbered as in `FlattenedScene.getMeshStart()`, and viewer v's
+	 * selections start at v * mSelectedLevelStride. Kept here rather than in
+	 * the scene, which the renderer only reads through snapshots.
+	 */
+	private int mSelectedLevels[] = new int[0];
+	private Mesh mSelectedLevelMeshes[] = new Mesh[0];
+	private int mSelectedLevelStride = 0;
+
+	/* Whether clustered meshes are culled cluster by cluster. */
+	private boolean mEnableMeshletCulling = true;
+
+	/*
+	 * Whether objects and subtrees outside the view frustum are skipped, and
+	 * the world-space frustum of the pass being rendered.
+	 */
+	private boolean mEnableFrustumCulling = true;
+	private Frustum mFrustum = new Frustum();
+
+	/*
+	 * Whether frustum culling queries a BVH over the scene's geometry rather
+	 * than following the scenegraph hierarchy (the BVH is kept with each
+	 * snapshot), and the query results.
+	 */
+	private boolean mUseSceneBVH = true;
+	private int mVisibleObjects[] = new int[0];
+
+	/*
+	 * Whether objects hidden behind occluders (see `Geometry.setOccluder()`)
+	 * are skipped, and the software depth buffer used to find them.
+	 */
+	private boolean mEnableOcclusionCulling = true;
+	private OcclusionBuffer mOcclusionBuffer = new OcclusionBuffer();
+
+	/*
+	 * World to eye space transform and view frustum of the pass being
+	 * rendered, used for cluster culling.
+	 */
+	private Matrix4f mViewMatrix = new Matrix4f();
+	private Matrix4f mObjectToEyeMatrix = new Matrix4f();
+	private Point3f mLevelOfDetailCenter = new Point3f();
+	private float mFrustumTanX, mFrustumTanY, mFrustumNear, mFrustumFar;
+
+	/*
+	 * Projection matrix of the pass being rendered and its inverse, and the
+	 * modelview (16 floats each) and normal (9 floats each) matrices of the
+	 * objects drawn by `renderObjects()`, in drawing order. All are
+	 * column-major, as sent to the "ProjectionMatrix", "ModelViewMatrix" and
+	 * "NormalMatrix" uniforms of the material shaders; the inverse goes to the
+	 * shaders reading positions back from the gbuffer's depths.
+	 */
+	private float mProjectionMatrix[] = new float[16];
+	private float mInverseProjectionMatrix[] = new float[16];
+	private float mModelViewMatrices[] = new float[16 * 64];
+	private float mNormalMatrices[] = new float[9 * 64];
+
+	/*
+	 * Draws of the pass being rendered, sorted by pass, shader, material and
+	 * depth before drawing, and the passes of the G-buffer.
+	 */
+	private RenderQueue mRenderQueue = new RenderQueue();
+	private static final int PASS_MESHES = 0;
+	private static final int PASS_WIREFRAMES = 1;
+	private static final int PASS_MARKED_EDGES = 2;
+
+	/*
+	 * Whether static objects are drawn from merged buffers (see
+	 * `StaticBatches`), whether that is on for the frame being rendered, and
+	 * the batches.
+	 */
+	private boolean mEnableStaticBatching = true;
+	private boolean mUseStaticBatches = false;
+	private StaticBatches mStaticBatches = new StaticBatches();
+
+	/*
+	 * Whether meshes sharing their data are drawn with one instanced call per
+	 * group (see `InstanceGroups`), whether the OpenGL context supports that,
+	 * the groups of the pass being rendered, and the buffer their per-instance
+	 * data is streamed through.
+	 */
+	private boolean mEnableInstancing = true;
+	private boolean mInstancingSupported = false;
+	private InstanceGroups mInstanceGroups = new InstanceGroups();
+	private int mInstanceBuffer = 0;
+	private FloatBuffer mInstanceData = Buffers.newDirectFloatBuffer(
+			InstanceGroups.INSTANCE_FLOATS * 64);
+
+	/* Names of the vertex attributes holding the per-instance data. */
+	private static final String INSTANCE_ATTRIBUTES[] = {
+			"InstanceModelViewRow0", "InstanceModelViewRow1",
+			"InstanceModelViewRow2", "InstanceParameters" };
+
+	/* Column-major identity matrix, the world matrix of batched vertices. */
+	private static final float IDENTITY_MATRIX[] = { 1.0f, 0.0f, 0.0f, 0.0f,
+			0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
+			1.0f };
+
+	/* Modelview and normal matrices of the mesh being rendered. */
+	private float mMeshModelViewMatrix[] = new float[16];
+	private float mMeshNormalMatrix[] = new float[9];
+
+	/*
+	 * Ranges of the index buffer (offset and count, in indices) holding the
+	 * visible clusters of the mesh being rendered. Consecutive visible
+	 * clusters are merged into one range.
+	 */
+	private int mVisibleRunOffsets[] = new int[64];
+	private int mVisibleRunCounts[] = new int[64];
+	private int mVisibleRunCount = 0;
+
+	/*
+	 * Snapshot captured by `render()` when it is given the live scene, rather
+	 * than a snapshot.
+	 */
+	private RenderSnapshot mImmediateSnapshot = new RenderSnapshot();
+
+	/*
+	 * The snapshot being rendered. Meshes are drawn with its copies of their
+	 * materials (see `getMaterial()`), never with the live ones.
+	 */
+	private RenderSnapshot mSnapshot = null;
+
+	/*
+	 * The camera of the pass being rendered: a copy of the snapshot's camera,
+	 * which cube map passes move around.
+	 */
+	private Camera mPassCamera = new Camera();
+
+	/*
+	 * Range of node indices [mHiddenNode, mHiddenEnd) not rendered in this
+	 * pass; the subtree of the object a dynamic cube map is rendered from.
+	 */
+	private int mHiddenNode = -1, mHiddenEnd = -1;
+
+	/*
+	 * Indices (in `FlattenedScene.getLightIndex()` order) of the lights in
+	 * the pass being rendered, assembled every pass.
+	 */
+	private int mVisibleLights[] = new int[0];
+	private int mVisibleLightCount = 0;
+
+	/*
+	 * World-space boxes around the range of every light, in a loose octree
+	 * so that lights whose range misses the view frustum can be culled.
+	 */
+	private LightOctree mLightOctree = new LightOctree(LIGHT_CUTOFF);
+
+	/*
+	 * Whether frames are only rendered when something changed, and the
+	 * version of the settings the scene passes depend on, bumped by their
+	 * setters. Post-processing settings aren't included, since finalPass()
+	 * runs for every frame anyway.
+	 */
+	private boolean mRenderOnDemand = true;
+	private volatile int mSettingsVersion = 0;
+
+	/*
+	 * What the g-buffer's final scene texture was last rendered from, if it
+	 * still holds that frame (resize() discards it).
+	 */
+	private boolean mHasCachedFrame = false;
+	private int mCachedSnapshotVersion, mCachedSettingsVersion;
+
+	/* Numbers of frames fully rendered and of frames re-presented. */
+	private int mRenderedFrameCount = 0, mPresentedFrameCount = 0;
+
 	/**
 	 * Renders a single frame of the scene. This is the main method of the
 	 * Renderer class.
 	 * 
+	 * The scene is captured into a snapshot on the calling thread, so nothing
+	 * may modify it concurrently. Applications changing the scene on other
+	 * threads should publish snapshots through a `RenderSnapshotBuffer` and
+	 * call `render(GLAutoDrawable, RenderSnapshot)` instead.
+	 * 
 	 * @param drawable
 	 *            The drawable to render into.
 	 * @param sceneRoot
@@ -157,18 +439,71 @@ public class Renderer {
 	 */
 	public void render(GLAutoDrawable drawable, SceneObject sceneRoot,
 			Camera camera) {
+		mImmediateSnapshot.capture(sceneRoot, camera);
+		render(drawable, mImmediateSnapshot);
+	}
+
+	/**
+	 * Renders a single frame of a captured scene. Only reads the snapshot, so
+	 * the scene it was captured from may be modified meanwhile.
+	 * 
+	 * @param drawable
+	 *            The drawable to render into.
+	 * @param snapshot
+	 *            The scene and camera to render.
+	 */
+	public void render(GLAutoDrawable drawable, RenderSnapshot snapshot) {
 		GL2 gl = drawable.getGL().getGL2();
+		FlattenedScene scene = snapshot.getScene();
+		mSnapshot = snapshot;
+
+		/*
+		 * If neither the scene nor any setting the scene passes depend on
+		 * changed since the last frame, the g-buffer still holds that frame.
+		 * Just present it again, through post-processing in case that
+		 * changed (the window's back buffer doesn't survive a swap, so
+		 * something has to be drawn).
+		 */
+		int settingsVersion = mSettingsVersion;
+
+		if (mRenderOnDemand && mHasCachedFrame
+				&& snapshot.getVersion() == mCachedSnapshotVersion
+				&& settingsVersion == mCachedSettingsVersion) {
+			try {
+				presentCachedFrame(gl);
+				++mPresentedFrameCount;
+			} catch (Exception err) {
+				err.printStackTrace();
+			}
+
+			return;
+		}
+
+		mHasCachedFrame = false;
 
 		try {
+			/* Recreate the gbuffer if its layout was changed. */
+			if (mGBufferIsCompact != (mEnableCompactGBuffer
+					&& mCompactGBufferSupported)) {
+				createGBuffer(gl);
+			}
+
+			/*
+			 * Static objects are merged into batches, rebuilt when they moved.
+			 * Wireframes are drawn per mesh, so they turn batching off.
+			 */
+			mUseStaticBatches = mEnableStaticBatching && !mRenderWireframes;
+
+			if (mUseStaticBatches) {
+				mStaticBatches.update(gl, snapshot);
+			}
+
 			/* The number of times we should render the scene */
 			int numPasses = 1;
 			boolean isFinalPass = false;
 
-			/* Save the original camera parameters and view port size */
+			/* Save the original view port size */
 			float originalWidth = mViewportWidth, originalHeight = mViewportHeight;
-			Point3f originalPosition = camera.getPosition();
-			Quat4f originalOrientation = camera.getOrientation();
-			float originalFov = camera.getFOV();
 
 			if (mPreviewIndex != -1) {
 				/*
@@ -189,10 +524,12 @@ public class Renderer {
 			for (int i = 0; i < numPasses; ++i) {
 
 				/*
-				 * Reset lights array. It will be re-filled as the scene is
-				 * traversed.
+				 * Start every pass from the snapshot's camera, with nothing
+				 * hidden.
 				 */
-				mLights.clear();
+				setPassCamera(snapshot.getCamera());
+				mHiddenNode = mHiddenEnd = -1;
+				mLevelOfDetailViewer = 0;
 
 				int dynamicCubeMapIndex = -1; /* Index of the dynamic cube map */
 				int dynamicCubeMapFace = -1; /* The face of the dynamic cube map */
@@ -221,11 +558,7 @@ public class Renderer {
 
 					resize(drawable, (int) (originalWidth),
 							(int) (originalHeight));
-					camera.setFOV(originalFov);
-					camera.setOrientation(originalOrientation);
-					camera.setPosition(originalPosition);
-					camera.setIsCubeMapCamera(false);
-					
+
 					if (mBlurDynamicCubeMaps) {
 						for (TextureDynamicCubeMap map : mDynamicCubeMaps) {
 							map.setBlurVarianceX(mBlurVarianceX);
@@ -251,12 +584,20 @@ public class Renderer {
 
 					/*
 					 * Hide the object (if any) attached to the dynamic cube
-					 * map.
+					 * map, and render from its position in the snapshot.
 					 */
-					if (mDynamicCubeMaps.get(dynamicCubeMapIndex)
-							.getCenterObject() != null) {
-						mDynamicCubeMaps.get(dynamicCubeMapIndex)
-								.getCenterObject().setVisible(false);
+					Point3f centerPoint = null;
+
+					if (map.getCenterObject() != null) {
+						mHiddenNode = scene.indexOf(map.getCenterObject());
+					}
+
+					if (mHiddenNode >= 0) {
+						mHiddenEnd = scene.getSubtreeEnd(mHiddenNode);
+						centerPoint = scene.transformPointToWorldSpace(
+								mHiddenNode, new Point3f(), new Point3f());
+					} else {
+						centerPoint = new Point3f(map.getCenterPoint());
 					}
 
 					// DONE PA2: Prepare the camera for a cube map rendering
@@ -268,11 +609,12 @@ public class Renderer {
 					// renders the environment for the given face
 					// (dynamicCubeMapFace).
 
-					camera.setIsCubeMapCamera(true);
-					camera.setFOV(90);
+					mPassCamera.setIsCubeMapCamera(true);
+					mPassCamera.setFOV(90);
+					mLevelOfDetailViewer = 1 + dynamicCubeMapIndex;
 				
 
-					camera.setPosition(map.getCenterPoint());
+					mPassCamera.setPosition(centerPoint);
 					Quat4f orient = new Quat4f();
 
 					switch (dynamicCubeMapFace) {
@@ -302,14 +644,14 @@ public class Renderer {
 					}
 				
 
-					camera.setOrientation(orient);
+					mPassCamera.setOrientation(orient);
 					
 					
 
 				}
 
 				/* 1. Fill the gbuffer given this scene and camera. */
-				fillGBuffer(gl, sceneRoot, camera);
+				fillGBuffer(gl, snapshot, mPassCamera);
 
 				/*
 				 * 2. Compute gradient buffer based on positions and normals,
@@ -321,7 +663,7 @@ public class Renderer {
 				 * 3. Apply deferred lighting to the g-buffer. At this point,
 				 * the opaque scene has been rendered.
 				 */
-				lightGBuffer(gl, camera);
+				lightGBuffer(gl, snapshot, mPassCamera);
 
 				/*
 				 * 4. If we're supposed to preview one gbuffer texture, do that
@@ -356,29 +698,50 @@ public class Renderer {
 						//	mDynamicCubeMaps.get(0));
 					}
 				}
-
-				if (!isFinalPass) {
-					/*
-					 * Show the object (if any) attached to the dynamic cube
-					 * map.
-					 */
-					if (mDynamicCubeMaps.get(dynamicCubeMapIndex)
-							.getCenterObject() != null) {
-						mDynamicCubeMaps.get(dynamicCubeMapIndex)
-								.getCenterObject().setVisible(true);
-					}
-				}
-
 			}
+
+			/* Remember what the g-buffer now holds. */
+			mHasCachedFrame = true;
+			mCachedSnapshotVersion = snapshot.getVersion();
+			mCachedSettingsVersion = settingsVersion;
+			++mRenderedFrameCount;
 		} catch (Exception err) {
 			/*
 			 * If an error occurs in all that, print it, but don't kill the
 			 * whole program.
 			 */
 			err.printStackTrace();
+		} finally {
+			mHiddenNode = mHiddenEnd = -1;
+		}
+	}
+
+	/**
+	 * Presents the frame left in the g-buffer by the last full render, as
+	 * the final pass of `render()` does.
+	 */
+	private void presentCachedFrame(GL2 gl) throws OpenGLException {
+		if (mPreviewIndex >= 0 && mPreviewIndex < GBuffer_FinalSceneIndex) {
+			Util.renderTextureFullscreen(gl,
+					mGBufferFBO.getColorTexture(mPreviewIndex));
+		} else {
+			finalPass(gl);
 		}
 	}
 
+	/**
+	 * Sets mPassCamera to a copy of a camera without a parent.
+	 */
+	private void setPassCamera(Camera camera) {
+		mPassCamera.setPosition(new Point3f(camera.getPosition()));
+		mPassCamera.setOrientation(new Quat4f(camera.getOrientation()));
+		mPassCamera.setScale(camera.getScale());
+		mPassCamera.setFOV(camera.getFOV());
+		mPassCamera.setNear(camera.getNear());
+		mPassCamera.setFar(camera.getFar());
+		mPassCamera.setIsCubeMapCamera(camera.getIsCubeMapCamera());
+	}
+
 	/**
 	 * All post-processing should be done in this method. If no post-processing
 	 * is required it should display the final scene buffer.
@@ -445,7 +808,7 @@ public class Renderer {
 
 			/* Bind the first four sections of the gbuffer. */
 			mGBufferFBO.getColorTexture(GBuffer_DiffuseIndex).bind(gl, 0);
-			mGBufferFBO.getColorTexture(GBuffer_PositionIndex).bind(gl, 1);
+			mGBufferFBO.getColorTexture(GBuffer_NormalIndex).bind(gl, 1);
 			mGBufferFBO.getColorTexture(GBuffer_MaterialIndex1).bind(gl, 2);
 			mGBufferFBO.getColorTexture(GBuffer_MaterialIndex2).bind(gl, 3);
 
@@ -460,7 +823,7 @@ public class Renderer {
 			/* Unbind everything. */
 			mVisShader.unbind(gl);
 			mGBufferFBO.getColorTexture(GBuffer_DiffuseIndex).unbind(gl);
-			mGBufferFBO.getColorTexture(GBuffer_PositionIndex).unbind(gl);
+			mGBufferFBO.getColorTexture(GBuffer_NormalIndex).unbind(gl);
 			mGBufferFBO.getColorTexture(GBuffer_MaterialIndex1).unbind(gl);
 			mGBufferFBO.getColorTexture(GBuffer_MaterialIndex2).unbind(gl);
 
@@ -484,30 +847,25 @@ public class Renderer {
 	 * 
 	 * @param gl
 	 *            The OpenGL state
-	 * @param sceneRoot
-	 *            The root node of the scene to render.
+	 * @param snapshot
+	 *            The captured scene to render.
 	 * @param camera
 	 *            The camera describing the perspective to render from.
-	 * @param dcm
-	 *            The dynamic cube map
 	 */
-	private void fillGBuffer(GL2 gl, SceneObject sceneRoot, Camera camera)
+	private void fillGBuffer(GL2 gl, RenderSnapshot snapshot, Camera camera)
 			throws OpenGLException {
 		/* First, bind and clear the gbuffer. */
 		mGBufferFBO.bindSome(gl, new int[] { GBuffer_DiffuseIndex,
-				GBuffer_PositionIndex, GBuffer_MaterialIndex1,
+				GBuffer_NormalIndex, GBuffer_MaterialIndex1,
 				GBuffer_MaterialIndex2 });
 		gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 		gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
 
-		/* Update the projection matrix with this camera's projection matrix. */
-		gl.glMatrixMode(GL2.GL_PROJECTION);
-		gl.glLoadIdentity();
-
-		// GLU glu = GLU.createGLU(gl);
-		// glu.gluPerspective(camera.getFOV(), mViewportWidth / mViewportHeight,
-		// camera.getNear(), camera.getFar());
-
+		/*
+		 * Compute this camera's projection matrix (what glFrustum would build).
+		 * It is sent to each material shader with the object's modelview
+		 * matrix, rather than through the fixed-function matrix stack.
+		 */
 		float zNear = camera.getNear();
 		float zFar = camera.getFar();
 		float aspect = mViewportWidth / mViewportHeight;
@@ -516,40 +874,52 @@ public class Renderer {
 		float fW = fH * aspect;
 		if (camera.getIsCubeMapCamera()) {
 			/* Swap the top and bottom, when we render from a perspective camera */
-			gl.glFrustum(fW, -fW, -fH, fH, zNear, zFar);
+			setFrustumMatrix(mProjectionMatrix, fW, -fW, -fH, fH, zNear, zFar);
+			setInverseFrustumMatrix(mInverseProjectionMatrix, fW, -fW, -fH,
+					fH, zNear, zFar);
 		} else {
-			gl.glFrustum(-fW, fW, -fH, fH, zNear, zFar);
+			setFrustumMatrix(mProjectionMatrix, -fW, fW, -fH, fH, zNear, zFar);
+			setInverseFrustumMatrix(mInverseProjectionMatrix, -fW, fW, -fH,
+					fH, zNear, zFar);
 		}
 
-		/* Update the modelview matrix with this camera's eye transform. */
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
-		gl.glLoadIdentity();
-
 		/*
-		 * Find the inverse of the camera scale, position, and orientation in
-		 * world space, accounting for the fact that the camera might be nested
-		 * inside other objects in the scenegraph.
+		 * The camera's world position; its eye transform is the inverse world
+		 * matrix, set into mViewMatrix below.
 		 */
-		float cameraScale = 1.0f / camera.transformDistanceToWorldSpace(1.0f);
 		Point3f cameraPosition = camera.transformPointToWorldSpace(new Point3f(
 				0.0f, 0.0f, 0.0f));
-		AxisAngle4f cameraOrientation = new AxisAngle4f();
-		cameraOrientation.set(camera
-				.transformOrientationToWorldSpace(new Quat4f(0.0f, 0.0f, 0.0f,
-						1.0f)));
-
-		/* Apply the camera transform to OpenGL. */
-		gl.glScalef(cameraScale, cameraScale, cameraScale);
-		gl.glRotatef(cameraOrientation.angle * 180.0f / (float) Math.PI,
-				-cameraOrientation.x, -cameraOrientation.y,
-				-cameraOrientation.z);
-		gl.glTranslatef(-cameraPosition.x, -cameraPosition.y, -cameraPosition.z);
+
+		/* Remember what level of detail selection needs from the camera. */
+		mLevelOfDetailCameraPosition.set(cameraPosition);
+		mLevelOfDetailProjectionScale = 1.0f / (float) Math.tan(camera
+				.getFOV() / 360.0f * (float) Math.PI);
+
+		/* Same for object matrices and cluster culling. */
+		mViewMatrix.set(camera.getInverseWorldMatrix());
+		mFrustumTanX = fW / zNear;
+		mFrustumTanY = fH / zNear;
+		mFrustumNear = zNear;
+		mFrustumFar = zFar;
+		mFrustum.set(mViewMatrix, mFrustumTanX, mFrustumTanY, zNear, zFar);
 
 		/* Check for errors before rendering, to help isolate. */
 		OpenGLException.checkOpenGLError(gl);
 
-		/* Render the scene. */
-		renderObject(gl, camera, sceneRoot);
+		/*
+		 * Render the scene from the snapshot's flattened copy. Its BVH only
+		 * rebuilds or refits when the snapshot was recaptured since.
+		 */
+		FlattenedScene scene = snapshot.getScene();
+		collectLights(snapshot);
+
+		if (mEnableFrustumCulling && mUseSceneBVH) {
+			SceneBVH bvh = snapshot.getSceneBVH();
+			bvh.update();
+			renderSceneFromBVH(gl, camera, scene, bvh);
+		} else {
+			renderScene(gl, camera, scene);
+		}
 
 		/* GBuffer is filled, so unbind it. */
 		mGBufferFBO.unbind(gl);
@@ -559,7 +929,7 @@ public class Renderer {
 	}
 
 	/**
-	 * Computes position and normal gradients based on the position and normal
+	 * Computes depth and normal gradients based on the depth and normal
 	 * textures of the GBuffer, for use in edge detection (e.g. toon rendering).
 	 */
 	private void computeGradientBuffer(GL2 gl) throws OpenGLException {
@@ -581,20 +951,21 @@ public class Renderer {
 		gl.glDisable(GL2.GL_BLEND);
 
 		/*
-		 * Bind the diffuse and position textures so the edge-detection shader
-		 * can read out position and normal data.
+		 * Bind the normal and depth textures so the edge-detection shader can
+		 * read out normal and position data.
 		 */
-		mGBufferFBO.getColorTexture(GBuffer_DiffuseIndex).bind(gl, 0);
-		mGBufferFBO.getColorTexture(GBuffer_PositionIndex).bind(gl, 1);
+		mGBufferFBO.getColorTexture(GBuffer_NormalIndex).bind(gl, 1);
+		mGBufferFBO.getDepthTexture().bind(gl, GBUFFER_DEPTH_TEXTURE_UNIT);
 
 		/* Bind silhouette shader and render. */
 		mSilhouetteShader.bind(gl);
+		setPositionReconstructionUniforms(gl, mSilhouetteShader);
 		Util.drawFullscreenQuad(gl, mViewportWidth, mViewportHeight);
 
 		/* Unbind everything. */
 		mSilhouetteShader.unbind(gl);
-		mGBufferFBO.getColorTexture(GBuffer_DiffuseIndex).unbind(gl);
-		mGBufferFBO.getColorTexture(GBuffer_PositionIndex).unbind(gl);
+		mGBufferFBO.getColorTexture(GBuffer_NormalIndex).unbind(gl);
+		mGBufferFBO.getDepthTexture().unbind(gl);
 
 		mGBufferFBO.unbind(gl);
 
@@ -605,30 +976,62 @@ public class Renderer {
 		gl.glPopAttrib();
 	}
 
+	/**
+	 * Sets the uniforms a bound shader needs to reconstruct eyespace positions
+	 * from the gbuffer's depth texture: the inverse projection matrix of the
+	 * pass, and the viewport size to turn pixels into normalized device
+	 * coordinates.
+	 */
+	private void setPositionReconstructionUniforms(GL2 gl,
+			ShaderProgram shader) {
+		gl.glUniformMatrix4fv(
+				shader.getUniformLocation(gl, "InverseProjectionMatrix"), 1,
+				false, mInverseProjectionMatrix, 0);
+		gl.glUniform2f(shader.getUniformLocation(gl, "ViewportSize"),
+				mViewportWidth, mViewportHeight);
+	}
+
 	/**
 	 * Applies lighting to an already-filled gbuffer to produce the final scene.
 	 * Output is sent to the main framebuffer of the view/window.
 	 * 
 	 * @param gl
 	 *            The OpenGL state.
+	 * @param snapshot
+	 *            The captured scene, for light parameters.
 	 * @param camera
 	 *            Camera from whose perspective we are rendering.
 	 */
-	private void lightGBuffer(GL2 gl, Camera camera) throws OpenGLException,
-			ScenegraphException {
-		/* Need some lights, otherwise it will just be black! */
-		if (mLights.size() == 0) {
+	private void lightGBuffer(GL2 gl, RenderSnapshot snapshot, Camera camera)
+			throws OpenGLException, ScenegraphException {
+		/*
+		 * Need some lights, otherwise it will just be black! Lights culled
+		 * because nothing in view is in range are fine, though.
+		 */
+		if (snapshot.getScene().getLightCount() == 0) {
 			throw new ScenegraphException(
 					"Must have at least one light in the scene!");
 		}
 
-		/* Can't have more lights than the shader supports. */
-		if (mLights.size() > mMaxLightsInUberShader) {
-			throw new ScenegraphException(mLights.size()
+		/*
+		 * Can't have more lights than the shader supports, unless they are
+		 * drawn as volumes or culled per tile or per cluster.
+		 */
+		boolean volumes = mEnableLightVolumes;
+		boolean tiled = !volumes && mEnableTiledLighting
+				&& mTiledLightingSupported;
+		boolean clustered = !volumes && !tiled && mEnableClusteredLighting;
+
+		if (!volumes && !tiled && !clustered
+				&& mVisibleLightCount > mMaxLightsInUberShader) {
+			throw new ScenegraphException(mVisibleLightCount
 					+ " is too many lights; ubershader only supports "
 					+ mMaxLightsInUberShader + ".");
 		}
 
+		/* Pack the lights once, for whichever way they are uploaded. */
+		packLights(snapshot);
+
 		/* Bind final scene buffer as output target for this pass. */
 		mGBufferFBO.bindOne(gl, GBuffer_FinalSceneIndex);
 
@@ -643,42 +1046,77 @@ public class Renderer {
 		gl.glDisable(GL2.GL_DEPTH_TEST);
 		gl.glDisable(GL2.GL_BLEND);
 
+		/*
+		 * Bin the lights into clusters, if we're doing that. Uploading the
+		 * textures uses texture unit 0, so this goes first.
+		 */
+		if (clustered) {
+			buildLightClusters(gl, camera);
+		}
+
 		/* Bind all GBuffer source textures so the ubershader can read them. */
 		for (int i = 0; i < GBuffer_FinalSceneIndex; ++i) {
 			mGBufferFBO.getColorTexture(i).bind(gl, i);
 		}
+		mGBufferFBO.getDepthTexture().bind(gl, GBUFFER_DEPTH_TEXTURE_UNIT);
+
+		/* Find the lights reaching each tile, if we're culling per tile. */
+		if (tiled) {
+			cullLightsPerTile(gl);
+		}
 
 		/* Bind ubershader. */
-		mUberShader.bind(gl);
-
-		/* Update all the ubershader uniforms with up-to-date light information. */
-		for (int i = 0; i < mLights.size(); ++i) {
-			/* Transform each light position to eye space. */
-			Light light = mLights.get(i);
-			Point3f eyespacePosition = camera
-					.transformPointFromWorldSpace(light
-							.transformPointToWorldSpace(new Point3f()));
-
-			/* Send light color and eyespace position to the ubershader. */
-			gl.glUniform3f(mLightPositionsUniformLocation + i,
-					eyespacePosition.x, eyespacePosition.y, eyespacePosition.z);
-			gl.glUniform3f(mLightColorsUniformLocation + i, light.getColor().x,
-					light.getColor().y, light.getColor().z);
-
-			if (light instanceof PointLight) {
-				gl.glUniform3f(mLightAttenuationsUniformLocation + i,
-						((PointLight) light).getConstantAttenuation(),
-						((PointLight) light).getLinearAttenuation(),
-						((PointLight) light).getQuadraticAttenuation());
-			} else {
-				gl.glUniform3f(mLightAttenuationsUniformLocation + i, 1.0f,
-						0.0f, 0.0f);
+		ShaderProgram uberShader = (volumes ? mLightVolumeUberShader
+				: (tiled ? mTiledUberShader
+						: (clustered ? mClusteredUberShader : mUberShader)));
+		uberShader.bind(gl);
+		setPositionReconstructionUniforms(gl, uberShader);
+
+		if (volumes) {
+			/* The fullscreen pass adds no light; the volumes do. */
+			float reach = getFrustumReach();
+
+			if (mLightVolumesVersion != mPackedLightsVersion
+					|| mLightVolumesReach != reach) {
+				mLightVolumes.setLights(gl, mPackedLights, mVisibleLightCount,
+						reach, mInstancingSupported);
+				mLightVolumesVersion = mPackedLightsVersion;
+				mLightVolumesReach = reach;
+			}
+
+			gl.glUniform1i(
+					uberShader.getUniformLocation(gl, "LightVolumePass"), 0);
+		} else if (tiled) {
+			/* The tile lists are indexed by tile row and column. */
+			gl.glUniform1i(uberShader.getUniformLocation(gl, "TileCountX"),
+					((int) mViewportWidth + TILE_SIZE - 1) / TILE_SIZE);
+		} else if (clustered) {
+			/* Pixels find their cluster from their position and depth. */
+			mClusterTexture.bind(gl, CLUSTER_TEXTURE_UNIT);
+			mClusterLightIndexTexture.bind(gl, CLUSTER_TEXTURE_UNIT + 1);
+			mLightTexture.bind(gl, CLUSTER_TEXTURE_UNIT + 2);
+
+			gl.glUniform1f(uberShader.getUniformLocation(gl, "ClusterNear"),
+					camera.getNear());
+			gl.glUniform1f(
+					uberShader.getUniformLocation(gl, "ClusterDepthScale"),
+					mLightClusters.getDepthScale());
+		} else {
+			/*
+			 * The ubershader's Lights array is laid out like the packed
+			 * lights, so they go up in one call, unless it already has them.
+			 */
+			if (mUberShaderLightsVersion != mPackedLightsVersion) {
+				gl.glUniform4fv(mLightsUniformLocation,
+						3 * mVisibleLightCount, mPackedLights, 0);
+				mUberShaderLightsVersion = mPackedLightsVersion;
 			}
+
+			/* Ubershader needs to know how many lights. */
+			gl.glUniform1i(mNumLightsUniformLocation, mVisibleLightCount);
 		}
 
-		/* Ubershader needs to know how many lights. */
-		gl.glUniform1i(mNumLightsUniformLocation, mLights.size());
-		gl.glUniform1i(mEnableToonShadingUniformLocation,
+		gl.glUniform1i(uberShader.getUniformLocation(gl, "EnableToonShading"),
 				(mEnableToonShading ? 1 : 0));
 
 		// DONE PA2: Set the inverse camera rotation matrix uniform and bind the
@@ -708,14 +1146,29 @@ public class Renderer {
 				camMat1[0], camMat1[1], camMat1[2], camMat2[0], camMat2[1],
 				camMat2[2] };
 
-		gl.glUniformMatrix3fv(mCameraInverseRotationUniformLocation, 1, true,
-				camMat, 0);
+		gl.glUniformMatrix3fv(
+				uberShader.getUniformLocation(gl, "CameraInverseRotation"), 1,
+				true, camMat, 0);
 
 		/* Let there be light! */
 		Util.drawFullscreenQuad(gl, mViewportWidth, mViewportHeight);
 
+		if (volumes) {
+			drawLightVolumes(gl, uberShader);
+		}
+
 		/* Unbind everything. */
-		mUberShader.unbind(gl);
+		uberShader.unbind(gl);
+
+		if (tiled) {
+			GL4bc gl4 = gl.getGL4bc();
+			gl4.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 0, 0);
+			gl4.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 1, 0);
+		} else if (clustered) {
+			mClusterTexture.unbind(gl);
+			mClusterLightIndexTexture.unbind(gl);
+			mLightTexture.unbind(gl);
+		}
 
 		// DONE PA2: Unbind the static and active dynamic cube maps.
 
@@ -727,6 +1180,7 @@ public class Renderer {
 		for (int i = 0; i < GBuffer_FinalSceneIndex; ++i) {
 			mGBufferFBO.getColorTexture(i).unbind(gl);
 		}
+		mGBufferFBO.getDepthTexture().unbind(gl);
 
 		/* Unbind rendering target. */
 		mGBufferFBO.unbind(gl);
@@ -739,178 +1193,1423 @@ public class Renderer {
 	}
 
 	/**
-	 * Renders a scenegraph node and its children.
-	 * 
-	 * @param gl
-	 *            The OpenGL state.
-	 * @param camera
-	 *            The camera rendering the scene.
-	 * @param obj
-	 *            The object to render. If this is a Geometry object, its meshes
-	 *            are rendered. If this is a Light object, it is added to the
-	 *            list of lights. Other objects are ignored.
-	 * @param dcm
-	 *            The dynamic cub map that we are rendering to. If it is not
-	 *            equal to null, we check to see if the object being rendered is
-	 *            the same as the one stored in the DCM. If it is, then we don't
-	 *            render it.
-	 */
-	private void renderObject(GL2 gl, Camera camera, SceneObject obj)
+	 * Adds the light of each visible light to the final scene buffer by
+	 * drawing its volume with the bound light volume ubershader. A stencil
+	 * pass first marks the pixels whose g-buffer surface is inside a volume,
+	 * counting the volume's back faces behind the surface up and its front
+	 * faces behind the surface down. The light pass then only shades marked
+	 * pixels, drawing back faces so volumes containing the camera still
+	 * draw, and blends each light in additively.
+	 */
+	private void drawLightVolumes(GL2 gl, ShaderProgram uberShader)
 			throws OpenGLException {
-		/*
-		 * If the object is not visible, we skip the rendition of it and all its
-		 * children
-		 */
-		if (!obj.isVisible()) {
-			return;
-		}
+		gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_COLOR_BUFFER_BIT
+				| GL2.GL_DEPTH_BUFFER_BIT | GL2.GL_STENCIL_BUFFER_BIT
+				| GL2.GL_POLYGON_BIT);
 
-		/* Save matrix before applying this object's transformation. */
-		gl.glPushMatrix();
+		/* Cube map cameras mirror the image, which flips the winding. */
+		boolean mirrored = (mProjectionMatrix[0] * mProjectionMatrix[5] < 0.0f);
+		gl.glFrontFace(mirrored ? GL2.GL_CW : GL2.GL_CCW);
 
-		/* Get this object's transformation. */
-		float scale = obj.getScale();
-		Point3f position = obj.getPosition();
-		AxisAngle4f orientation = new AxisAngle4f();
-		orientation.set(obj.getOrientation());
+		/* Stencil pass: test against the g-buffer depths, writing no more. */
+		gl.glStencilMask(0xFF);
+		gl.glClearStencil(0);
+		gl.glClear(GL2.GL_STENCIL_BUFFER_BIT);
 
-		/* Apply this object's transformation. */
-		gl.glTranslatef(position.x, position.y, position.z);
-		gl.glRotatef(orientation.angle * 180.0f / (float) Math.PI,
-				orientation.x, orientation.y, orientation.z);
-		gl.glScalef(scale, scale, scale);
+		gl.glColorMask(false, false, false, false);
+		gl.glEnable(GL2.GL_DEPTH_TEST);
+		gl.glDepthFunc(GL2.GL_LESS);
+		gl.glDepthMask(false);
+		gl.glDisable(GL2.GL_CULL_FACE);
 
-		/* Render this object as appropriate for its type. */
-		if (obj instanceof Geometry) {
-			for (Mesh mesh : ((Geometry) obj).getMeshes()) {
-				renderMesh(gl, mesh);
-			}
-		} else if (obj instanceof Light) {
-			mLights.add((Light) obj);
+		if (mDepthClampSupported) {
+			gl.glEnable(GL2.GL_DEPTH_CLAMP);
 		}
 
-		/* Render this object's children. */
-		for (SceneObject child : obj.getChildren()) {
-			renderObject(gl, camera, child);
-		}
+		gl.glEnable(GL2.GL_STENCIL_TEST);
+		gl.glStencilFunc(GL2.GL_ALWAYS, 0, 0xFF);
+		gl.glStencilOpSeparate(GL2.GL_BACK, GL2.GL_KEEP, GL2.GL_INCR_WRAP,
+				GL2.GL_KEEP);
+		gl.glStencilOpSeparate(GL2.GL_FRONT, GL2.GL_KEEP, GL2.GL_DECR_WRAP,
+				GL2.GL_KEEP);
+
+		mLightVolumeStencilShader.bind(gl);
+		gl.glUniformMatrix4fv(mLightVolumeStencilShader.getUniformLocation(gl,
+				"ProjectionMatrix"), 1, false, mProjectionMatrix, 0);
+		mLightVolumes.draw(gl, mLightVolumeStencilShader);
+		mLightVolumeStencilShader.unbind(gl);
+
+		/* Light pass: shade the marked pixels, adding to the fullscreen pass. */
+		gl.glColorMask(true, true, true, true);
+		gl.glDisable(GL2.GL_DEPTH_TEST);
+		gl.glEnable(GL2.GL_CULL_FACE);
+		gl.glCullFace(GL2.GL_FRONT);
+
+		gl.glStencilFunc(GL2.GL_NOTEQUAL, 0, 0xFF);
+		gl.glStencilOp(GL2.GL_KEEP, GL2.GL_KEEP, GL2.GL_KEEP);
+
+		gl.glEnable(GL2.GL_BLEND);
+		gl.glBlendEquation(GL2.GL_FUNC_ADD);
+		gl.glBlendFuncSeparate(GL2.GL_ONE, GL2.GL_ONE, GL2.GL_ZERO,
+				GL2.GL_ONE);
+
+		gl.glUniform1i(uberShader.getUniformLocation(gl, "LightVolumePass"), 1);
+		gl.glUniformMatrix4fv(
+				uberShader.getUniformLocation(gl, "ProjectionMatrix"), 1,
+				false, mProjectionMatrix, 0);
+		mLightVolumes.draw(gl, uberShader);
+		gl.glUniform1i(uberShader.getUniformLocation(gl, "LightVolumePass"), 0);
+
+		gl.glPopAttrib();
 
-		/* Restore transformation matrix and check for errors. */
-		gl.glPopMatrix();
 		OpenGLException.checkOpenGLError(gl);
 	}
 
 	/**
-	 * Renders a single trimesh.
-	 * 
-	 * @param gl
-	 *            The OpenGL state.
-	 * @param mesh
-	 *            The mesh to render.
+	 * Returns the distance from the eye to the farthest corner of the view
+	 * frustum of the pass being rendered.
 	 */
-	private void renderMesh(GL2 gl, Mesh mesh) throws OpenGLException {
-		/* Save all state to isolate any changes made by this mesh's material. */
-		gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
-		gl.glPushClientAttrib((int) GL2.GL_CLIENT_ALL_ATTRIB_BITS);
-
-		/* Activate the material. */
-		mesh.getMaterial().retrieveShader(gl, mShaderCache);
-		mesh.getMaterial().bind(gl);
+	private float getFrustumReach() {
+		return mFrustumFar
+				* (float) Math.sqrt(1.0f + mFrustumTanX * mFrustumTanX
+						+ mFrustumTanY * mFrustumTanY);
+	}
 
-		/* Enable the required vertex arrays and send data. */
-		if (mesh.getVertexData() == null) {
-			throw new OpenGLException(
-					"Mesh must have non-null vertex data to render!");
-		} else {
-			gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-			gl.glVertexPointer(3, GL2.GL_FLOAT, 0, mesh.getVertexData());
+	/**
+	 * Uploads the packed lights into mLightBuffer if they changed, then runs
+	 * the light culling compute shader over the g-buffer, which writes the
+	 * indices of the lights reaching each 16x16 tile into mTileLightBuffer.
+	 * Both buffers are left bound for the tiled ubershader.
+	 */
+	private void cullLightsPerTile(GL2 gl) throws OpenGLException {
+		GL4bc gl4 = gl.getGL4bc();
+
+		if (mLightBuffer == 0) {
+			int handles[] = new int[2];
+			gl.glGenBuffers(2, handles, 0);
+			mLightBuffer = handles[0];
+			mTileLightBuffer = handles[1];
 		}
 
-		if (mesh.getNormalData() == null) {
-			gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
-		} else {
-			gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-			gl.glNormalPointer(GL2.GL_FLOAT, 0, mesh.getNormalData());
+		if (mLightBufferVersion != mPackedLightsVersion) {
+			if (mLightData.capacity() < 12 * mVisibleLightCount) {
+				mLightData = Buffers
+						.newDirectFloatBuffer(12 * mVisibleLightCount);
+			}
+
+			mLightData.clear();
+			mLightData.put(mPackedLights, 0, 12 * mVisibleLightCount);
+			mLightData.flip();
+
+			/* Rewrite the buffer in place unless it has to grow. */
+			long size = 4L * mLightData.remaining();
+			gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, mLightBuffer);
+
+			if (size > mLightBufferSize) {
+				gl.glBufferData(GL4.GL_SHADER_STORAGE_BUFFER, size,
+						mLightData, GL2.GL_DYNAMIC_DRAW);
+				mLightBufferSize = size;
+			} else {
+				gl.glBufferSubData(GL4.GL_SHADER_STORAGE_BUFFER, 0L, size,
+						mLightData);
+			}
+
+			mLightBufferVersion = mPackedLightsVersion;
 		}
 
-		if (mesh.getTexCoordData() == null) {
-			gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-		} else {
-			gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-			gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, mesh.getTexCoordData());
+		/* One count and MAX_LIGHTS_PER_TILE indices per tile. */
+		int tilesX = ((int) mViewportWidth + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = ((int) mViewportHeight + TILE_SIZE - 1) / TILE_SIZE;
+		long size = 4L * tilesX * tilesY * (MAX_LIGHTS_PER_TILE + 1);
+
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, mTileLightBuffer);
+		if (size != mTileLightBufferSize) {
+			gl.glBufferData(GL4.GL_SHADER_STORAGE_BUFFER, size, null,
+					GL2.GL_DYNAMIC_COPY);
+			mTileLightBufferSize = size;
 		}
 
-		/* Send custom vertex attributes (if any) to OpenGL. */
-		bindRequiredMeshAttributes(gl, mesh);
+		gl.glBindBuffer(GL4.GL_SHADER_STORAGE_BUFFER, 0);
+		gl4.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 0, mLightBuffer);
+		gl4.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, 1, mTileLightBuffer);
+
+		/* One work group per tile; the g-buffer textures are already bound. */
+		mLightCullingShader.bind(gl);
+		gl.glUniform2i(
+				mLightCullingShader.getUniformLocation(gl, "ViewportSize"),
+				(int) mViewportWidth, (int) mViewportHeight);
+		gl.glUniformMatrix4fv(
+				mLightCullingShader.getUniformLocation(gl, "ProjectionMatrix"),
+				1, false, mProjectionMatrix, 0);
+		gl.glUniform1i(mLightCullingShader.getUniformLocation(gl, "NumLights"),
+				mVisibleLightCount);
 
-		/* Render polygons. */
-		gl.glDrawElements(getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()),
-				mesh.getVerticesPerPolygon() * mesh.getPolygonCount(),
-				GL2.GL_UNSIGNED_INT, mesh.getPolygonData());
+		gl4.glDispatchCompute(tilesX, tilesY, 1);
+		mLightCullingShader.unbind(gl);
 
-		/* Deactivate material and restore state. */
-		mesh.getMaterial().unbind(gl);
+		/* Make the lists visible to the ubershader's reads. */
+		gl4.glMemoryBarrier(GL4.GL_SHADER_STORAGE_BARRIER_BIT);
 
-		/* Render mesh wireframe if we're supposed to. */
-		if (mRenderWireframes && mesh.getVerticesPerPolygon() > 2) {
-			mWireframeMaterial.retrieveShader(gl, mShaderCache);
-			mWireframeMaterial.bind(gl);
+		OpenGLException.checkOpenGLError(gl);
+	}
 
-			gl.glLineWidth(1.0f);
-			gl.glPolygonOffset(0.0f, 1.0f);
-			gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
-			gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_LINE);
+	/**
+	 * Bins the visible lights into mLightClusters, then uploads the clusters'
+	 * light counts and offsets, their light indices and (if they changed) the
+	 * packed lights into the float textures the clustered ubershader reads.
+	 */
+	private void buildLightClusters(GL2 gl, Camera camera)
+			throws OpenGLException {
+		mLightClusters.build(mPackedLights, 12, mVisibleLightCount,
+				mProjectionMatrix, camera.getNear(), camera.getFar());
 
-			/* Render polygons. */
-			gl.glDrawElements(
-					getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()),
-					mesh.getVerticesPerPolygon() * mesh.getPolygonCount(),
-					GL2.GL_UNSIGNED_INT, mesh.getPolygonData());
+		/* One texel of (offset, count) per cluster, slice after slice. */
+		for (int cluster = 0; cluster < LightClusters.CLUSTER_COUNT; ++cluster) {
+			mClusterData[4 * cluster + 0] = mLightClusters.getOffset(cluster);
+			mClusterData[4 * cluster + 1] = mLightClusters.getCount(cluster);
+		}
 
-			mWireframeMaterial.unbind(gl);
+		mClusterTexture = uploadDataTexture(gl, mClusterTexture, Format.RGBA,
+				LightClusters.CLUSTERS_X, LightClusters.CLUSTERS_Y
+						* LightClusters.CLUSTERS_Z, mClusterData);
+
+		/* Light indices, INDICES_PER_ROW per row. */
+		int indexCount = mLightClusters.getIndexCount();
+		int indexRows = getTextureRows(mClusterLightIndexTexture, indexCount,
+				INDICES_PER_ROW);
+
+		if (mClusterLightIndexData.length < INDICES_PER_ROW * indexRows) {
+			mClusterLightIndexData = new float[INDICES_PER_ROW * indexRows];
 		}
 
-		/*
-		 * Render marked edges (e.g. for subdiv creases), if we're supposed to
-		 * and if they exist.
-		 */
-		if (mRenderWireframes && mesh.getEdgeData() != null) {
-			mWireframeMarkedEdgeMaterial.retrieveShader(gl, mShaderCache);
-			mWireframeMarkedEdgeMaterial.bind(gl);
+		int indices[] = mLightClusters.getIndices();
+		for (int i = 0; i < indexCount; ++i) {
+			mClusterLightIndexData[i] = indices[i];
+		}
 
-			gl.glLineWidth(5.0f);
-			gl.glPolygonOffset(0.0f, 1.0f);
-			gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
-			gl.glDrawElements(GL2.GL_LINES, mesh.getEdgeData().capacity(),
-					GL2.GL_UNSIGNED_INT, mesh.getEdgeData());
+		mClusterLightIndexTexture = uploadDataTexture(gl,
+				mClusterLightIndexTexture, Format.LUMINANCE, INDICES_PER_ROW,
+				indexRows, mClusterLightIndexData);
+
+		/* Lights as three texels each, LIGHTS_PER_ROW per row. */
+		int lightRows = getTextureRows(mLightTexture, mVisibleLightCount,
+				LIGHTS_PER_ROW);
 
-			mWireframeMarkedEdgeMaterial.unbind(gl);
+		if (mLightTexture != null && mLightTexture.getHeight() == lightRows
+				&& mLightTextureVersion == mPackedLightsVersion) {
+			return;
 		}
 
-		gl.glPopClientAttrib();
-		gl.glPopAttrib();
+		if (mLightTextureData.length < 12 * LIGHTS_PER_ROW * lightRows) {
+			mLightTextureData = new float[12 * LIGHTS_PER_ROW * lightRows];
+		}
 
-		/* Check for errors. */
-		OpenGLException.checkOpenGLError(gl);
+		System.arraycopy(mPackedLights, 0, mLightTextureData, 0,
+				12 * mVisibleLightCount);
+		mLightTexture = uploadDataTexture(gl, mLightTexture, Format.RGBA,
+				3 * LIGHTS_PER_ROW, lightRows, mLightTextureData);
+		mLightTextureVersion = mPackedLightsVersion;
 	}
 
 	/**
-	 * Binds all custom vertex attributes required by a mesh's material to
-	 * buffers provided by that mesh.
+	 * Returns the number of rows a data texture needs to hold `count` items
+	 * at `perRow` items per row. Textures only grow, doubling, so they are
+	 * rarely recreated.
+	 */
+	private static int getTextureRows(Texture2D texture, int count, int perRow) {
+		int rows = Math.max(1, (count + perRow - 1) / perRow);
+
+		if (texture != null && texture.getHeight() >= rows) {
+			return texture.getHeight();
+		}
+
+		return Math.max(rows,
+				(texture == null ? 1 : 2 * texture.getHeight()));
+	}
+
+	/**
+	 * Uploads data into a float rectangle texture sampled from the nearest
+	 * texel, creating it (and releasing the old one) if it doesn't have the
+	 * given size.
 	 * 
-	 * @param gl
-	 *            The OpenGL state.
+	 * @return The texture holding the data.
+	 */
+	private static Texture2D uploadDataTexture(GL2 gl, Texture2D texture,
+			Format format, int width, int height, float data[])
+			throws OpenGLException {
+		FloatBuffer buffer = FloatBuffer.wrap(data);
+
+		if (texture != null && texture.getWidth() == width
+				&& texture.getHeight() == height) {
+			texture.setData(gl, buffer);
+			return texture;
+		}
+
+		if (texture != null) {
+			texture.releaseGPUResources(gl);
+		}
+
+		texture = new Texture2D(gl, format, Datatype.FLOAT32, width, height,
+				buffer, true);
+		texture.setLinearFiltering(gl, false);
+		return texture;
+	}
+
+	/**
+	 * Packs the visible lights into mPackedLights as three vec4s each:
+	 * eyespace position and range, color, and attenuation. The range is where
+	 * the light's contribution falls below LIGHT_CUTOFF.
+	 * 
+	 * The eyespace positions of all lights are computed in one loop, from the
+	 * translations of their world matrices and the view matrix of the pass.
+	 * Colors, attenuations and ranges are only rewritten for slots now
+	 * holding another light, or a light whose parameters changed (see
+	 * `RenderSnapshot.getLightVersions()`). mPackedLightsVersion changes if
+	 * anything packed did.
+	 */
+	private void packLights(RenderSnapshot snapshot) {
+		FlattenedScene scene = snapshot.getScene();
+		float world[] = scene.getWorldMatrices();
+		float colors[] = snapshot.getLightColors();
+		float attenuations[] = snapshot.getLightAttenuations();
+		int versions[] = snapshot.getLightVersions();
+		int count = mVisibleLightCount;
+
+		if (mPackedLightSources.length < count) {
+			int capacity = Math.max(count, 2 * mPackedLightSources.length);
+			int previous = mPackedLightSources.length;
+
+			mPackedLights = Arrays.copyOf(mPackedLights, 12 * capacity);
+			mPackedLightSources = Arrays.copyOf(mPackedLightSources, capacity);
+			mPackedLightVersions = Arrays
+					.copyOf(mPackedLightVersions, capacity);
+			Arrays.fill(mPackedLightSources, previous, capacity, -1);
+		}
+
+		float packed[] = mPackedLights;
+		boolean changed = (count != mPackedLightCount);
+
+		/* The top three rows of the view matrix. */
+		Matrix4f v = mViewMatrix;
+		float v00 = v.m00, v01 = v.m01, v02 = v.m02, v03 = v.m03;
+		float v10 = v.m10, v11 = v.m11, v12 = v.m12, v13 = v.m13;
+		float v20 = v.m20, v21 = v.m21, v22 = v.m22, v23 = v.m23;
+
+		for (int i = 0; i < count; ++i) {
+			int light = mVisibleLights[i];
+			int p = 12 * i;
+
+			/* Lights sit at the origin of their node. */
+			int o = 16 * scene.getLightIndex(light);
+			float x = world[o + 12], y = world[o + 13], z = world[o + 14];
+
+			float eyeX = v00 * x + v01 * y + v02 * z + v03;
+			float eyeY = v10 * x + v11 * y + v12 * z + v13;
+			float eyeZ = v20 * x + v21 * y + v22 * z + v23;
+
+			if (packed[p + 0] != eyeX || packed[p + 1] != eyeY
+					|| packed[p + 2] != eyeZ) {
+				packed[p + 0] = eyeX;
+				packed[p + 1] = eyeY;
+				packed[p + 2] = eyeZ;
+				changed = true;
+			}
+
+			if (mPackedLightSources[i] == light
+					&& mPackedLightVersions[i] == versions[light]) {
+				continue;
+			}
+
+			float intensity = Math.max(colors[3 * light + 0],
+					Math.max(colors[3 * light + 1], colors[3 * light + 2]));
+
+			packed[p + 3] = PointLight.getRange(intensity,
+					attenuations[3 * light + 0], attenuations[3 * light + 1],
+					attenuations[3 * light + 2], LIGHT_CUTOFF);
+
+			for (int c = 0; c < 3; ++c) {
+				packed[p + 4 + c] = colors[3 * light + c];
+				packed[p + 8 + c] = attenuations[3 * light + c];
+			}
+
+			packed[p + 7] = 0.0f;
+			packed[p + 11] = 0.0f;
+
+			mPackedLightSources[i] = light;
+			mPackedLightVersions[i] = versions[light];
+			changed = true;
+		}
+
+		mPackedLightCount = count;
+
+		if (changed) {
+			++mPackedLightsVersion;
+		}
+	}
+
+	/**
+	 * Collects the visible lights of a snapshot into mVisibleLights. With
+	 * frustum culling on, lights whose range doesn't reach the view frustum
+	 * are skipped, as they can't light anything in view; lights outside the
+	 * frustum whose range reaches into it are kept.
+	 */
+	private void collectLights(RenderSnapshot snapshot) {
+		FlattenedScene scene = snapshot.getScene();
+
+		if (mVisibleLights.length < scene.getLightCount()) {
+			mVisibleLights = new int[scene.getLightCount()];
+		}
+
+		int candidateCount = scene.getLightCount();
+
+		if (mEnableFrustumCulling) {
+			mLightOctree.update(snapshot);
+			candidateCount = mLightOctree.query(mFrustum, mVisibleLights);
+
+			/*
+			 * Keep light order stable however the octree lists them, so the
+			 * packed lights only change when the lights do.
+			 */
+			Arrays.sort(mVisibleLights, 0, candidateCount);
+		} else {
+			for (int i = 0; i < candidateCount; ++i) {
+				mVisibleLights[i] = i;
+			}
+		}
+
+		mVisibleLightCount = 0;
+
+		for (int i = 0; i < candidateCount; ++i) {
+			int node = scene.getLightIndex(mVisibleLights[i]);
+
+			if (scene.isVisible(node) && !isHidden(node)) {
+				mVisibleLights[mVisibleLightCount++] = mVisibleLights[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a node is inside the subtree hidden in this pass.
+	 */
+	private boolean isHidden(int node) {
+		return node >= mHiddenNode && node < mHiddenEnd;
+	}
+
+	/**
+	 * Renders all visible objects of a flattened scene, in order. Invisible
+	 * objects are skipped along with all their descendants, as are subtrees
+	 * entirely outside the view frustum and objects hidden behind occluders.
+	 * 
+	 * @param gl
+	 *            The OpenGL state.
+	 * @param camera
+	 *            The camera rendering the scene. Its view matrix must already
+	 *            be in mViewMatrix, and mFrustum set from it; objects'
+	 *            modelview matrices are computed from those (see
+	 *            `computeObjectMatrices()`), not read from the OpenGL matrix
+	 *            stacks.
+	 * @param scene
+	 *            The scene to render, already up to date.
+	 */
+	private void renderScene(GL2 gl, Camera camera, FlattenedScene scene)
+			throws OpenGLException {
+		float bounds[] = scene.getBounds();
+		float subtreeBounds[] = scene.getSubtreeBounds();
+		int visibleCount = 0;
+		int node = 0;
+
+		if (mVisibleObjects.length < scene.getGeometryCount()) {
+			mVisibleObjects = new int[scene.getGeometryCount()];
+		}
+
+		while (node < scene.getNodeCount()) {
+			if (!scene.isVisible(node) || node == mHiddenNode) {
+				node = scene.getSubtreeEnd(node);
+				continue;
+			}
+
+			if (mEnableFrustumCulling
+					&& !mFrustum.intersectsBox(subtreeBounds, 6 * node)) {
+				node = scene.getSubtreeEnd(node);
+				continue;
+			}
+
+			if (scene.getKind(node) == FlattenedScene.KIND_GEOMETRY
+					&& (!mEnableFrustumCulling || mFrustum.intersectsBox(
+							bounds, 6 * node))) {
+				mVisibleObjects[visibleCount++] = node;
+			}
+
+			++node;
+		}
+
+		renderObjects(gl, camera, scene, visibleCount);
+	}
+
+	/**
+	 * Same as `renderScene()`, but finds the objects inside the view frustum
+	 * by querying a BVH over the scene (which must be up to date) instead of
+	 * walking the scenegraph hierarchy.
+	 */
+	private void renderSceneFromBVH(GL2 gl, Camera camera,
+			FlattenedScene scene, SceneBVH bvh) throws OpenGLException {
+		if (mVisibleObjects.length < bvh.getObjectCount()) {
+			mVisibleObjects = new int[bvh.getObjectCount()];
+		}
+
+		int queryCount = bvh.query(mFrustum, mVisibleObjects);
+		int visibleCount = 0;
+
+		for (int i = 0; i < queryCount; ++i) {
+			int node = mVisibleObjects[i];
+
+			if (scene.isVisible(node) && !isHidden(node)) {
+				mVisibleObjects[visibleCount++] = node;
+			}
+		}
+
+		renderObjects(gl, camera, scene, visibleCount);
+	}
+
+	/**
+	 * Renders the first `count` Geometry nodes in mVisibleObjects, which have
+	 * passed visibility and frustum tests. If occlusion culling is on, the
+	 * occluders among them are rasterized into mOcclusionBuffer first, and
+	 * other objects entirely hidden behind them are skipped.
+	 */
+	private void renderObjects(GL2 gl, Camera camera, FlattenedScene scene,
+			int count) throws OpenGLException {
+		float worldMatrices[] = scene.getWorldMatrices();
+		float bounds[] = scene.getBounds();
+		boolean occlusion = mEnableOcclusionCulling
+				&& rasterizeOccluders(scene, count);
+
+		/* One more slot for the matrices of static batches. */
+		if (mModelViewMatrices.length < 16 * (count + 1)) {
+			mModelViewMatrices = new float[16 * (count + 1)];
+			mNormalMatrices = new float[9 * (count + 1)];
+		}
+
+		if (mUseStaticBatches) {
+			mStaticBatches.beginPass();
+		}
+
+		/*
+		 * Keep the objects which aren't hidden behind occluders, and compute
+		 * all their matrices in one go before drawing. Batched objects are
+		 * only marked visible in their batches.
+		 */
+		int drawCount = 0;
+
+		for (int i = 0; i < count; ++i) {
+			int node = mVisibleObjects[i];
+
+			if (occlusion && !scene.isOccluder(node)
+					&& !mOcclusionBuffer.isVisible(bounds, 6 * node)) {
+				continue;
+			}
+
+			if (mUseStaticBatches && mStaticBatches.markVisible(node)) {
+				continue;
+			}
+
+			computeObjectMatrices(worldMatrices, node, drawCount);
+			mVisibleObjects[drawCount++] = node;
+		}
+
+		/*
+		 * Queue their meshes, then draw them sorted so each material is bound
+		 * once. Meshes which can be instanced are grouped first; groups of
+		 * one are queued like any other mesh.
+		 */
+		mRenderQueue.clear();
+		mInstanceGroups.clear();
+
+		for (int i = 0; i < drawCount; ++i) {
+			queueGeometry(gl, camera, scene, mVisibleObjects[i], i);
+		}
+
+		for (int group = 0; group < mInstanceGroups.getGroupCount(); ++group) {
+			if (mInstanceGroups.getInstanceCount(group) == 1) {
+				Mesh mesh = mInstanceGroups.getMesh(group);
+				mRenderQueue.add(PASS_MESHES, mesh,
+						mInstanceGroups.getMaterial(group),
+						mInstanceGroups.getLevel(group),
+						mInstanceGroups.getNode(group),
+						mInstanceGroups.getSlot(group),
+						mInstanceGroups.getDepth(group));
+			}
+		}
+
+		mRenderQueue.sort();
+		drawRenderQueue(gl, scene);
+		drawInstanceGroups(gl);
+
+		if (mUseStaticBatches) {
+			drawStaticBatches(gl, drawCount);
+		}
+
+		OpenGLException.checkOpenGLError(gl);
+	}
+
+	/**
+	 * Draws the static batches holding objects marked visible in this pass,
+	 * one call per batch.
+	 * 
+	 * @param slot
+	 *            A free slot for the batches' matrices; their vertices are in
+	 *            world space, so only the view matrix applies.
+	 */
+	private void drawStaticBatches(GL2 gl, int slot) throws OpenGLException {
+		computeObjectMatrices(IDENTITY_MATRIX, 0, slot);
+		setMeshMatrices(null, slot);
+
+		for (int batch = 0; batch < mStaticBatches.getBatchCount(); ++batch) {
+			if (!mStaticBatches.hasVisibleDraws(batch)) {
+				continue;
+			}
+
+			/* Save all state to isolate any changes made by the material. */
+			Material material = mStaticBatches.getMaterial(batch);
+			material.retrieveShader(gl, mShaderCache);
+
+			gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+			material.bind(gl);
+			bindMeshMatrices(gl, material.getShaderProgram());
+
+			mStaticBatches.draw(gl, batch, material.getShaderProgram());
+
+			material.unbind(gl);
+			gl.glPopAttrib();
+		}
+
+		OpenGLException.checkOpenGLError(gl);
+	}
+
+	/**
+	 * Rasterizes the occluders among the first `count` nodes in
+	 * mVisibleObjects into mOcclusionBuffer, from the current pass's view.
+	 * 
+	 * @return False if there were no occluders, so nothing can be culled.
+	 */
+	private boolean rasterizeOccluders(FlattenedScene scene, int count) {
+		float worldMatrices[] = scene.getWorldMatrices();
+		boolean anyOccluders = false;
+
+		mOcclusionBuffer.begin(mViewMatrix, mFrustumTanX, mFrustumTanY,
+				mFrustumNear);
+
+		for (int i = 0; i < count; ++i) {
+			int node = mVisibleObjects[i];
+
+			if (!scene.isOccluder(node)) {
+				continue;
+			}
+
+			anyOccluders = true;
+
+			if (scene.getOccluderProxy(node) != null) {
+				addOccluder(worldMatrices, node, scene.getOccluderProxy(node));
+			} else {
+				for (int m = 0; m < scene.getMeshCount(node); ++m) {
+					addOccluder(worldMatrices, node, scene.getMesh(node, m));
+				}
+			}
+		}
+
+		if (anyOccluders) {
+			mOcclusionBuffer.rasterize();
+		}
+
+		return anyOccluders;
+	}
+
+	/**
+	 * Adds the full-detail polygons of one mesh to mOcclusionBuffer.
+	 */
+	private void addOccluder(float worldMatrices[], int node, Mesh mesh) {
+		if (mesh.getVertexData() == null || mesh.getPolygonData() == null) {
+			return;
+		}
+
+		mOcclusionBuffer.addOccluder(worldMatrices, 16 * node,
+				mesh.getVertexData(), mesh.getPolygonData(),
+				mesh.getVerticesPerPolygon());
+	}
+
+	/**
+	 * Computes the modelview and normal matrices of an object, and stores
+	 * them in mModelViewMatrices and mNormalMatrices.
+	 * 
+	 * @param worldMatrices
+	 *            The flattened scene's world matrices.
+	 * @param node
+	 *            The index of the object in the flattened scene.
+	 * @param slot
+	 *            Where to store the matrices, in matrices.
+	 */
+	private void computeObjectMatrices(float worldMatrices[], int node,
+			int slot) {
+		Matrix4f v = mViewMatrix;
+		float m[] = mModelViewMatrices;
+		int w = 16 * node, o = 16 * slot;
+
+		/* Modelview = view * world, one column at a time. */
+		for (int c = 0; c < 16; c += 4) {
+			float x = worldMatrices[w + c + 0];
+			float y = worldMatrices[w + c + 1];
+			float z = worldMatrices[w + c + 2];
+			float h = worldMatrices[w + c + 3];
+
+			m[o + c + 0] = v.m00 * x + v.m01 * y + v.m02 * z + v.m03 * h;
+			m[o + c + 1] = v.m10 * x + v.m11 * y + v.m12 * z + v.m13 * h;
+			m[o + c + 2] = v.m20 * x + v.m21 * y + v.m22 * z + v.m23 * h;
+			m[o + c + 3] = v.m30 * x + v.m31 * y + v.m32 * z + v.m33 * h;
+		}
+
+		/*
+		 * The normal matrix is the inverse transpose of the upper 3x3 of the
+		 * modelview matrix (like gl_NormalMatrix), i.e. its cofactors over its
+		 * determinant.
+		 */
+		float a00 = m[o + 0], a01 = m[o + 4], a02 = m[o + 8];
+		float a10 = m[o + 1], a11 = m[o + 5], a12 = m[o + 9];
+		float a20 = m[o + 2], a21 = m[o + 6], a22 = m[o + 10];
+
+		float c00 = a11 * a22 - a12 * a21;
+		float c01 = a12 * a20 - a10 * a22;
+		float c02 = a10 * a21 - a11 * a20;
+		float invDet = 1.0f / (a00 * c00 + a01 * c01 + a02 * c02);
+
+		float n[] = mNormalMatrices;
+		int p = 9 * slot;
+
+		n[p + 0] = c00 * invDet;
+		n[p + 3] = c01 * invDet;
+		n[p + 6] = c02 * invDet;
+		n[p + 1] = (a02 * a21 - a01 * a22) * invDet;
+		n[p + 4] = (a00 * a22 - a02 * a20) * invDet;
+		n[p + 7] = (a01 * a20 - a00 * a21) * invDet;
+		n[p + 2] = (a01 * a12 - a02 * a11) * invDet;
+		n[p + 5] = (a02 * a10 - a00 * a12) * invDet;
+		n[p + 8] = (a00 * a11 - a01 * a10) * invDet;
+	}
+
+	/**
+	 * Fills a column-major perspective projection matrix, as built by
+	 * glFrustum.
+	 */
+	private static void setFrustumMatrix(float m[], float left, float right,
+			float bottom, float top, float zNear, float zFar) {
+		Arrays.fill(m, 0.0f);
+		m[0] = 2.0f * zNear / (right - left);
+		m[5] = 2.0f * zNear / (top - bottom);
+		m[8] = (right + left) / (right - left);
+		m[9] = (top + bottom) / (top - bottom);
+		m[10] = -(zFar + zNear) / (zFar - zNear);
+		m[11] = -1.0f;
+		m[14] = -2.0f * zFar * zNear / (zFar - zNear);
+	}
+
+	/**
+	 * Fills a column-major matrix with the inverse of what
+	 * `setFrustumMatrix()` builds from the same arguments.
+	 */
+	private static void setInverseFrustumMatrix(float m[], float left,
+			float right, float bottom, float top, float zNear, float zFar) {
+		Arrays.fill(m, 0.0f);
+		m[0] = (right - left) / (2.0f * zNear);
+		m[5] = (top - bottom) / (2.0f * zNear);
+		m[11] = -(zFar - zNear) / (2.0f * zFar * zNear);
+		m[12] = (right + left) / (2.0f * zNear);
+		m[13] = (top + bottom) / (2.0f * zNear);
+		m[14] = -1.0f;
+		m[15] = (zFar + zNear) / (2.0f * zFar * zNear);
+	}
+
+	/**
+	 * Returns the material to draw a mesh of the snapshot being rendered
+	 * with: the snapshot's copy of the mesh's material.
+	 */
+	private Material getMaterial(Mesh mesh) {
+		return mSnapshot.getMaterial(mesh);
+	}
+
+	/**
+	 * Adds the meshes of one Geometry node of a flattened scene to
+	 * mRenderQueue, along with their wireframes if those are shown.
+	 * 
+	 * @param slot
+	 *            Where `computeObjectMatrices()` stored the node's matrices.
+	 */
+	private void queueGeometry(GL2 gl, Camera camera, FlattenedScene scene,
+			int node, int slot) {
+		/* Distance of the object's origin in front of the camera. */
+		float depth = -mModelViewMatrices[16 * slot + 14] / mFrustumFar;
+		boolean instancing = mEnableInstancing && mInstancingSupported;
+
+		for (int meshIndex = 0; meshIndex < scene.getMeshCount(node); ++meshIndex) {
+			Mesh mesh = scene.getMesh(node, meshIndex);
+			int level = selectLevelOfDetail(camera, scene, node, meshIndex);
+
+			Material material = getMaterial(mesh);
+			material.retrieveShader(gl, mShaderCache);
+
+			if (instancing) {
+				setMeshMatrices(mesh, slot);
+				mInstanceGroups.add(mesh, material, level, node, slot, depth,
+						mMeshModelViewMatrix);
+			} else {
+				mRenderQueue.add(PASS_MESHES, mesh, material, level, node,
+						slot, depth);
+			}
+
+			if (mRenderWireframes && mesh.getVerticesPerPolygon() > 2) {
+				mWireframeMaterial.retrieveShader(gl, mShaderCache);
+				mRenderQueue.add(PASS_WIREFRAMES, mesh, mWireframeMaterial,
+						level, node, slot, depth);
+			}
+
+			/*
+			 * Marked edges (e.g. for subdiv creases), if we're supposed to
+			 * render them and they exist.
+			 */
+			if (mRenderWireframes && mesh.getEdgeData() != null) {
+				mWireframeMarkedEdgeMaterial.retrieveShader(gl, mShaderCache);
+				mRenderQueue.add(PASS_MARKED_EDGES, mesh,
+						mWireframeMarkedEdgeMaterial, level, node, slot, depth);
+			}
+		}
+	}
+
+	/**
+	 * Draws everything in mRenderQueue, in sorted order. Consecutive draws
+	 * with the same material share one bind, and all state is saved around
+	 * them to isolate any changes made by the material.
+	 */
+	private void drawRenderQueue(GL2 gl, FlattenedScene scene)
+			throws OpenGLException {
+		Material boundMaterial = null;
+		int boundPass = -1;
+
+		for (int i = 0; i < mRenderQueue.size(); ++i) {
+			int draw = mRenderQueue.getDraw(i);
+			Material material = mRenderQueue.getMaterial(draw);
+			int pass = mRenderQueue.getPass(draw);
+
+			if (material != boundMaterial || pass != boundPass) {
+				if (boundMaterial != null) {
+					boundMaterial.unbind(gl);
+					gl.glPopAttrib();
+				}
+
+				gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+				material.bind(gl);
+
+				if (pass == PASS_WIREFRAMES) {
+					gl.glLineWidth(1.0f);
+					gl.glPolygonOffset(0.0f, 1.0f);
+					gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
+					gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_LINE);
+				} else if (pass == PASS_MARKED_EDGES) {
+					gl.glLineWidth(5.0f);
+					gl.glPolygonOffset(0.0f, 1.0f);
+					gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
+				}
+
+				boundMaterial = material;
+				boundPass = pass;
+			}
+
+			Mesh mesh = mRenderQueue.getMesh(draw);
+			int level = mRenderQueue.getLevel(draw);
+
+			/*
+			 * Clusters only cover the full-detail polygons, so coarser levels
+			 * are always drawn whole.
+			 */
+			boolean clustered = pass != PASS_MARKED_EDGES
+					&& mEnableMeshletCulling && level == 0
+					&& mesh.getMeshlets() != null;
+
+			if (clustered) {
+				cullMeshlets(mesh.getMeshlets(),
+						getObjectToEyeMatrix(scene, mRenderQueue.getNode(draw)));
+
+				if (mVisibleRunCount == 0) {
+					continue;
+				}
+			}
+
+			renderMesh(gl, mesh, material, pass, level, clustered,
+					mRenderQueue.getSlot(draw));
+		}
+
+		if (boundMaterial != null) {
+			boundMaterial.unbind(gl);
+			gl.glPopAttrib();
+		}
+	}
+
+	/**
+	 * Draws the groups in mInstanceGroups holding more than one instance, one
+	 * instanced call per group. The per-instance modelview rows and material
+	 * parameters are streamed into mInstanceBuffer and read by the shader's
+	 * instance attributes while its "IsInstanced" uniform is set. Instanced
+	 * groups are drawn whole, without meshlet culling.
+	 */
+	private void drawInstanceGroups(GL2 gl) throws OpenGLException {
+		for (int group = 0; group < mInstanceGroups.getGroupCount(); ++group) {
+			int instanceCount = mInstanceGroups.getInstanceCount(group);
+
+			if (instanceCount < 2) {
+				continue;
+			}
+
+			Mesh mesh = mInstanceGroups.getMesh(group);
+			int level = mInstanceGroups.getLevel(group);
+			Material material = mInstanceGroups.getMaterial(group);
+			ShaderProgram shader = material.getShaderProgram();
+
+			/* Save all state to isolate any changes made by the material. */
+			gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+			material.bind(gl);
+
+			/* Only the projection matrix applies; instances carry the rest. */
+			setMeshMatrices(mesh, mInstanceGroups.getSlot(group));
+			bindMeshMatrices(gl, shader);
+			gl.glUniform1i(shader.getUniformLocation(gl, "IsInstanced"), 1);
+
+			gl.glPushClientAttrib((int) GL2.GL_CLIENT_ALL_ATTRIB_BITS);
+			bindMeshVertexArrays(gl, mesh, material, true);
+
+			/* Stream this group's instance data. */
+			int floats = InstanceGroups.INSTANCE_FLOATS * instanceCount;
+			if (mInstanceData.capacity() < floats) {
+				mInstanceData = Buffers.newDirectFloatBuffer(floats);
+			}
+
+			mInstanceData.clear();
+			mInstanceData.put(mInstanceGroups.getInstances(group), 0, floats);
+			mInstanceData.flip();
+
+			if (mInstanceBuffer == 0) {
+				int handle[] = new int[1];
+				gl.glGenBuffers(1, handle, 0);
+				mInstanceBuffer = handle[0];
+			}
+
+			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mInstanceBuffer);
+			gl.glBufferData(GL2.GL_ARRAY_BUFFER, 4L * floats, mInstanceData,
+					GL2.GL_STREAM_DRAW);
+
+			int locations[] = new int[INSTANCE_ATTRIBUTES.length];
+			for (int i = 0; i < INSTANCE_ATTRIBUTES.length; ++i) {
+				locations[i] = shader.getAttribLocation(gl,
+						INSTANCE_ATTRIBUTES[i]);
+
+				if (locations[i] >= 0) {
+					gl.glEnableVertexAttribArray(locations[i]);
+					gl.glVertexAttribPointer(locations[i], 4, GL2.GL_FLOAT,
+							false, 4 * InstanceGroups.INSTANCE_FLOATS, 16L * i);
+					gl.glVertexAttribDivisor(locations[i], 1);
+				}
+			}
+
+			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+			/* Draw every instance of the chosen level of detail at once. */
+			Buffer polygons = (mesh.isQuantized() ? mesh
+					.getLevelOfDetailQuantizedPolygonData(level) : mesh
+					.getLevelOfDetailPolygonData(level));
+			int indexCount = mesh.getVerticesPerPolygon()
+					* mesh.getLevelOfDetailPolygonCount(level);
+			int indexType = (polygons instanceof ShortBuffer ? GL2.GL_UNSIGNED_SHORT
+					: GL2.GL_UNSIGNED_INT);
+
+			gl.glDrawElementsInstanced(
+					getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()),
+					indexCount, indexType, polygons, instanceCount);
+
+			/* Divisors aren't client state, so reset them by hand. */
+			for (int i = 0; i < locations.length; ++i) {
+				if (locations[i] >= 0) {
+					gl.glVertexAttribDivisor(locations[i], 0);
+				}
+			}
+
+			gl.glPopClientAttrib();
+
+			gl.glUniform1i(shader.getUniformLocation(gl, "IsInstanced"), 0);
+			material.unbind(gl);
+			gl.glPopAttrib();
+		}
+
+		OpenGLException.checkOpenGLError(gl);
+	}
+
+	/**
+	 * Picks the level of detail to render a mesh at, based on the size of its
+	 * bounding sphere projected onto the screen. Cube map passes scale that
+	 * size by the cube map level of detail bias. The hysteresis state is kept
+	 * per object, mesh and viewer (see `selectLevel()`), so the main camera
+	 * and each dynamic cube map select independently.
+	 * 
+	 * @param camera
+	 *            The camera rendering the scene.
+	 * @param scene
+	 *            The flattened scene being rendered.
+	 * @param node
+	 *            The index of the Geometry node owning the mesh in `scene`.
+	 * @param meshIndex
+	 *            The index of the mesh about to be rendered in the node's
+	 *            meshes.
+	 * 
+	 * @return The level to pass to `renderMesh()`.
+	 */
+	private int selectLevelOfDetail(Camera camera, FlattenedScene scene,
+			int node, int meshIndex) {
+		Mesh mesh = scene.getMesh(node, meshIndex);
+
+		if (!mEnableLevelsOfDetail || mesh.getLevelOfDetailCount() == 1) {
+			return 0;
+		}
+
+		Point3f center = scene.transformPointToWorldSpace(node,
+				mesh.getBoundingSphereCenter(), mLevelOfDetailCenter);
+		float radius = scene.transformDistanceToWorldSpace(node,
+				mesh.getBoundingSphereRadius());
+		float distance = center.distance(mLevelOfDetailCameraPosition);
+
+		/* Inside the bounding sphere, always use full detail. */
+		if (distance <= radius) {
+			return selectLevel(scene, node, meshIndex,
+					Float.POSITIVE_INFINITY);
+		}
+
+		/* Diameter over the height of the view frustum at that distance. */
+		float screenSize = radius * mLevelOfDetailProjectionScale / distance;
+
+		if (camera.getIsCubeMapCamera()) {
+			screenSize *= mCubeMapLevelOfDetailBias;
+		}
+
+		return selectLevel(scene, node, meshIndex, screenSize);
+	}
+
+	/**
+	 * Picks the level of detail to draw one mesh of a node at, given its
+	 * screen size, with hysteresis (see `Mesh.selectLevelOfDetail()`) against
+	 * the level last selected for the same mesh of the same node by the same
+	 * viewer (mLevelOfDetailViewer). Selections are kept in mSelectedLevels,
+	 * so neither sharing a mesh between objects nor rendering it from several
+	 * viewers makes them fight.
+	 */
+	private int selectLevel(FlattenedScene scene, int node, int meshIndex,
+			float screenSize) {
+		int meshCount = scene.getTotalMeshCount();
+
+		/* Another mesh numbering; start over. */
+		if (meshCount != mSelectedLevelStride) {
+			mSelectedLevelStride = meshCount;
+			mSelectedLevels = new int[0];
+			mSelectedLevelMeshes = new Mesh[0];
+		}
+
+		int slot = mLevelOfDetailViewer * meshCount
+				+ scene.getMeshStart(node) + meshIndex;
+
+		if (slot >= mSelectedLevels.length) {
+			int capacity = Math.max(slot + 1, 2 * mSelectedLevels.length);
+			mSelectedLevels = Arrays.copyOf(mSelectedLevels, capacity);
+			mSelectedLevelMeshes = Arrays.copyOf(mSelectedLevelMeshes,
+					capacity);
+		}
+
+		/* Selections made for another mesh in this slot don't carry over. */
+		Mesh mesh = scene.getMesh(node, meshIndex);
+		int previous = 0;
+
+		if (mSelectedLevelMeshes[slot] == mesh) {
+			previous = mSelectedLevels[slot];
+		}
+
+		mSelectedLevels[slot] = mesh.selectLevelOfDetail(screenSize, previous);
+		mSelectedLevelMeshes[slot] = mesh;
+
+		return mSelectedLevels[slot];
+	}
+
+	/**
+	 * Returns the transform from an object's space to the eye space of the
+	 * pass being rendered, matching the modelview matrix sent to the shaders.
+	 * The result is overwritten by the next call.
+	 */
+	private Matrix4f getObjectToEyeMatrix(FlattenedScene scene, int node) {
+		scene.getWorldMatrix(node, mObjectToEyeMatrix);
+		mObjectToEyeMatrix.mul(mViewMatrix, mObjectToEyeMatrix);
+		return mObjectToEyeMatrix;
+	}
+
+	/**
+	 * Finds the clusters of a mesh which are inside the view frustum and, for
+	 * closed meshes, not entirely back-facing, and stores their index ranges
+	 * in mVisibleRunOffsets/Counts (merging consecutive ones).
+	 * 
+	 * @param meshlets
+	 *            The clusters to test, in object space.
+	 * @param objectToEye
+	 *            The mesh's object to eye space transform. Must be a rigid
+	 *            transform with uniform scale.
+	 */
+	private void cullMeshlets(MeshletSet meshlets, Matrix4f objectToEye) {
+		Matrix4f m = objectToEye;
+		float bounds[] = meshlets.getBounds();
+		float cones[] = meshlets.getCones();
+		boolean cullBackFaces = meshlets.isClosed();
+
+		float scale = (float) Math.sqrt(m.m00 * m.m00 + m.m10 * m.m10 + m.m20
+				* m.m20);
+
+		/* Normalizers for the distances to the side planes of the frustum. */
+		float sideX = 1.0f / (float) Math.sqrt(1.0f + mFrustumTanX
+				* mFrustumTanX);
+		float sideY = 1.0f / (float) Math.sqrt(1.0f + mFrustumTanY
+				* mFrustumTanY);
+
+		mVisibleRunCount = 0;
+		int runEnd = -1;
+
+		for (int c = 0; c < meshlets.getClusterCount(); ++c) {
+			float bx = bounds[4 * c + 0], by = bounds[4 * c + 1], bz = bounds[4 * c + 2];
+
+			/* Bounding sphere in eye space; the camera looks down -z. */
+			float x = m.m00 * bx + m.m01 * by + m.m02 * bz + m.m03;
+			float y = m.m10 * bx + m.m11 * by + m.m12 * bz + m.m13;
+			float z = m.m20 * bx + m.m21 * by + m.m22 * bz + m.m23;
+			float radius = bounds[4 * c + 3] * scale;
+			float depth = -z;
+
+			if (depth + radius < mFrustumNear || depth - radius > mFrustumFar) {
+				continue;
+			}
+
+			if ((Math.abs(x) - depth * mFrustumTanX) * sideX > radius
+					|| (Math.abs(y) - depth * mFrustumTanY) * sideY > radius) {
+				continue;
+			}
+
+			/*
+			 * Normal cone: with the camera at the origin, the cluster faces
+			 * away if dot(center, axis) >= cutoff * |center| + radius.
+			 */
+			float cutoff = cones[4 * c + 3];
+
+			if (cullBackFaces && cutoff <= 1.0f) {
+				float ax = cones[4 * c + 0], ay = cones[4 * c + 1], az = cones[4 * c + 2];
+				float ex = (m.m00 * ax + m.m01 * ay + m.m02 * az) / scale;
+				float ey = (m.m10 * ax + m.m11 * ay + m.m12 * az) / scale;
+				float ez = (m.m20 * ax + m.m21 * ay + m.m22 * az) / scale;
+
+				float distance = (float) Math.sqrt(x * x + y * y + z * z);
+
+				if (x * ex + y * ey + z * ez >= cutoff * distance + radius) {
+					continue;
+				}
+			}
+
+			/* Visible; extend the last range if it ends where this begins. */
+			int offset = meshlets.getIndexOffset(c);
+			int count = meshlets.getIndexCount(c);
+
+			if (mVisibleRunCount > 0 && runEnd == offset) {
+				mVisibleRunCounts[mVisibleRunCount - 1] += count;
+			} else {
+				if (mVisibleRunCount == mVisibleRunOffsets.length) {
+					mVisibleRunOffsets = Arrays.copyOf(mVisibleRunOffsets,
+							2 * mVisibleRunCount);
+					mVisibleRunCounts = Arrays.copyOf(mVisibleRunCounts,
+							2 * mVisibleRunCount);
+				}
+
+				mVisibleRunOffsets[mVisibleRunCount] = offset;
+				mVisibleRunCounts[mVisibleRunCount] = count;
+				++mVisibleRunCount;
+			}
+
+			runEnd = offset + count;
+		}
+	}
+
+	/**
+	 * Draws indexed polygons, either all of them or only the visible cluster
+	 * ranges found by `cullMeshlets()`.
+	 * 
+	 * The renderer uses client-side index arrays, whose ranges can't be handed
+	 * to glMultiDrawElements as offsets, so each merged range is drawn with
+	 * its own glDrawElements from the index buffer's position instead.
+	 */
+	private void drawPolygons(GL2 gl, int primitiveType, int indexCount,
+			int indexType, Buffer polygons, boolean visibleRunsOnly) {
+		if (!visibleRunsOnly) {
+			gl.glDrawElements(primitiveType, indexCount, indexType, polygons);
+			return;
+		}
+
+		for (int run = 0; run < mVisibleRunCount; ++run) {
+			polygons.position(mVisibleRunOffsets[run]);
+			gl.glDrawElements(primitiveType, mVisibleRunCounts[run],
+					indexType, polygons);
+		}
+
+		polygons.position(0);
+	}
+
+	/**
+	 * Renders a single trimesh with an already bound material.
+	 * 
+	 * @param gl
+	 *            The OpenGL state.
+	 * @param mesh
+	 *            The mesh to render.
+	 * @param material
+	 *            The bound material: the mesh's own, or a wireframe material.
+	 * @param pass
+	 *            PASS_MESHES, PASS_WIREFRAMES or PASS_MARKED_EDGES.
+	 * @param level
+	 *            The level of detail to render (0 for full detail).
+	 * @param visibleRunsOnly
+	 *            If true, only the index ranges found by the last call to
+	 *            `cullMeshlets()` are drawn.
+	 * @param slot
+	 *            Where `computeObjectMatrices()` stored the matrices of the
+	 *            mesh's object.
+	 */
+	private void renderMesh(GL2 gl, Mesh mesh, Material material, int pass,
+			int level, boolean visibleRunsOnly, int slot)
+			throws OpenGLException {
+		/* Save client state, so the next mesh starts without these arrays. */
+		gl.glPushClientAttrib((int) GL2.GL_CLIENT_ALL_ATTRIB_BITS);
+
+		ShaderProgram shader = material.getShaderProgram();
+		boolean quantized = mesh.isQuantized();
+		setMeshMatrices(mesh, slot);
+		bindMeshMatrices(gl, shader);
+
+		/*
+		 * Wireframe materials don't use texture coordinates or custom
+		 * attributes.
+		 */
+		bindMeshVertexArrays(gl, mesh, material, pass == PASS_MESHES);
+
+		if (pass == PASS_MARKED_EDGES) {
+			gl.glDrawElements(GL2.GL_LINES, mesh.getEdgeData().capacity(),
+					GL2.GL_UNSIGNED_INT, mesh.getEdgeData());
+		} else {
+			/* Pick the (possibly 16-bit) index buffer to draw from. */
+			Buffer polygons = (quantized ? mesh
+					.getLevelOfDetailQuantizedPolygonData(level) : mesh
+					.getLevelOfDetailPolygonData(level));
+			int indexCount = mesh.getVerticesPerPolygon()
+					* mesh.getLevelOfDetailPolygonCount(level);
+			int indexType = (polygons instanceof ShortBuffer ? GL2.GL_UNSIGNED_SHORT
+					: GL2.GL_UNSIGNED_INT);
+
+			/* Render polygons. */
+			drawPolygons(gl,
+					getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()),
+					indexCount, indexType, polygons, visibleRunsOnly);
+		}
+
+		gl.glPopClientAttrib();
+
+		/* Check for errors. */
+		OpenGLException.checkOpenGLError(gl);
+	}
+
+	/**
+	 * Sends a mesh's vertex arrays to the shader of the given (bound)
+	 * material: positions and normals, and if `allAttributes` is set, texture
+	 * coordinates and the custom attributes required by the material too.
+	 */
+	private void bindMeshVertexArrays(GL2 gl, Mesh mesh, Material material,
+			boolean allAttributes) throws OpenGLException {
+		ShaderProgram shader = material.getShaderProgram();
+		boolean quantized = mesh.isQuantized();
+
+		/* Enable the required vertex arrays and send data. */
+		if (mesh.getVertexData() == null) {
+			throw new OpenGLException(
+					"Mesh must have non-null vertex data to render!");
+		} else if (quantized) {
+			gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+			gl.glVertexPointer(4, GL2.GL_SHORT, 0,
+					mesh.getQuantizedVertexData());
+		} else {
+			gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+			gl.glVertexPointer(3, GL2.GL_FLOAT, 0, mesh.getVertexData());
+		}
+
+		bindMeshNormals(gl, mesh, shader);
+
+		if (!allAttributes) {
+			return;
+		}
+
+		if (mesh.getTexCoordData() == null) {
+			gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		} else if (quantized) {
+			gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+			gl.glTexCoordPointer(2, GL2GL3.GL_HALF_FLOAT, 0,
+					mesh.getQuantizedTexCoordData());
+		} else {
+			gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+			gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, mesh.getTexCoordData());
+		}
+
+		/* Send custom vertex attributes (if any) to OpenGL. */
+		bindRequiredMeshAttributes(gl, mesh, material);
+	}
+
+	/**
+	 * Copies the matrices of a mesh's object into mMeshModelViewMatrix and
+	 * mMeshNormalMatrix. Quantized meshes store positions relative to their
+	 * bounds, so their modelview matrix also undoes that. The mesh is null
+	 * for static batches.
+	 */
+	private void setMeshMatrices(Mesh mesh, int slot) {
+		float m[] = mMeshModelViewMatrix;
+		float n[] = mMeshNormalMatrix;
+
+		System.arraycopy(mModelViewMatrices, 16 * slot, m, 0, 16);
+		System.arraycopy(mNormalMatrices, 9 * slot, n, 0, 9);
+
+		if (mesh == null || !mesh.isQuantized()) {
+			return;
+		}
+
+		/* Modelview * translate(offset) * scale(scale). */
+		Point3f offset = mesh.getQuantizationOffset();
+		float scale = mesh.getQuantizationScale();
+
+		for (int r = 0; r < 4; ++r) {
+			m[12 + r] += m[r] * offset.x + m[4 + r] * offset.y + m[8 + r]
+					* offset.z;
+			m[r] *= scale;
+			m[4 + r] *= scale;
+			m[8 + r] *= scale;
+		}
+
+		for (int i = 0; i < 9; ++i) {
+			n[i] /= scale;
+		}
+	}
+
+	/**
+	 * Sends the matrices set by `setMeshMatrices()` and the projection matrix
+	 * to the given (bound) shader's "ModelViewMatrix", "NormalMatrix" and
+	 * "ProjectionMatrix" uniforms.
+	 */
+	private void bindMeshMatrices(GL2 gl, ShaderProgram shader) {
+		int location = shader.getUniformLocation(gl, "ModelViewMatrix");
+		if (location >= 0) {
+			gl.glUniformMatrix4fv(location, 1, false, mMeshModelViewMatrix, 0);
+		}
+
+		location = shader.getUniformLocation(gl, "NormalMatrix");
+		if (location >= 0) {
+			gl.glUniformMatrix3fv(location, 1, false, mMeshNormalMatrix, 0);
+		}
+
+		location = shader.getUniformLocation(gl, "ProjectionMatrix");
+		if (location >= 0) {
+			gl.glUniformMatrix4fv(location, 1, false, mProjectionMatrix, 0);
+		}
+	}
+
+	/**
+	 * Sends a mesh's normals to the given (bound) shader. Float normals go
+	 * through the fixed-function normal array; quantized (octahedral) normals
+	 * go through the "VertexOctNormal" attribute, and the shader's
+	 * "HasQuantizedNormals" uniform tells it which one to decode.
+	 * 
+	 * @param gl
+	 *            The OpenGL state.
+	 * @param mesh
+	 *            The mesh whose normals to send.
+	 * @param shader
+	 *            The currently bound material shader.
+	 */
+	private void bindMeshNormals(GL2 gl, Mesh mesh, ShaderProgram shader) {
+		boolean quantized = mesh.isQuantized()
+				&& mesh.getQuantizedNormalData() != null;
+
+		int flagLocation = shader.getUniformLocation(gl, "HasQuantizedNormals");
+		if (flagLocation >= 0) {
+			gl.glUniform1i(flagLocation, (quantized ? 1 : 0));
+		}
+
+		if (quantized) {
+			gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+
+			int location = shader.getAttribLocation(gl, "VertexOctNormal");
+			if (location >= 0) {
+				gl.glEnableVertexAttribArray(location);
+				gl.glVertexAttribPointer(location, 2, GL2.GL_SHORT, true, 0,
+						mesh.getQuantizedNormalData());
+			}
+		} else if (mesh.getNormalData() == null) {
+			gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		} else {
+			gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+			gl.glNormalPointer(GL2.GL_FLOAT, 0, mesh.getNormalData());
+		}
+	}
+
+	/**
+	 * Binds all custom vertex attributes required by a mesh's material to
+	 * buffers provided by that mesh. The material is the snapshot's copy of
+	 * the mesh's one.
+	 * 
+	 * Quantized meshes supply "VertexTangent" through the octahedral
+	 * "VertexOctTangent" attribute instead, signalled to the shader by its
+	 * "HasQuantizedTangents" uniform.
+	 * 
+	 * @param gl
+	 *            The OpenGL state.
 	 * @param mesh
 	 *            All custom vertex attributes required by mesh's material and
 	 *            shader are bound to the correspondingly-named buffers in the
 	 *            mesh's `vertexAttribData` map.
+	 * @param material
+	 *            The mesh's (bound) material.
 	 * 
 	 * @throws OpenGLException
 	 *             If a required attribute isn't supplied by the mesh.
 	 */
-	void bindRequiredMeshAttributes(GL2 gl, Mesh mesh) throws OpenGLException {
-		ShaderProgram shader = mesh.getMaterial().getShaderProgram();
+	void bindRequiredMeshAttributes(GL2 gl, Mesh mesh, Material material)
+			throws OpenGLException {
+		ShaderProgram shader = material.getShaderProgram();
+
+		boolean quantizedTangents = mesh.isQuantized()
+				&& mesh.getQuantizedTangentData() != null;
+
+		int flagLocation = shader.getUniformLocation(gl, "HasQuantizedTangents");
+		if (flagLocation >= 0) {
+			gl.glUniform1i(flagLocation, (quantizedTangents ? 1 : 0));
+		}
+
+		for (String attrib : material.getRequiredVertexAttributes()) {
+			if (quantizedTangents && attrib.equals("VertexTangent")) {
+				int location = shader.getAttribLocation(gl, "VertexOctTangent");
+				if (location >= 0) {
+					gl.glEnableVertexAttribArray(location);
+					gl.glVertexAttribPointer(location, 2, GL2.GL_SHORT, true,
+							0, mesh.getQuantizedTangentData());
+				}
+				continue;
+			}
 
-		for (String attrib : mesh.getMaterial().getRequiredVertexAttributes()) {
 			/* Ignore attributes which aren't actually used in the shader. */
 			int location = shader.getAttribLocation(gl, attrib);
 			if (location < 0) {
@@ -974,6 +2673,7 @@ public class Renderer {
 	 */
 	public void previewGBuffer(int bufferIndex) {
 		mPreviewIndex = bufferIndex;
+		++mSettingsVersion;
 	}
 
 	/**
@@ -982,6 +2682,7 @@ public class Renderer {
 	 */
 	public void unpreviewGBuffer() {
 		mPreviewIndex = -1;
+		++mSettingsVersion;
 	}
 
 	/**
@@ -989,6 +2690,7 @@ public class Renderer {
 	 */
 	public void setToonShading(boolean toonShade) {
 		mEnableToonShading = toonShade;
+		++mSettingsVersion;
 	}
 
 	/**
@@ -1006,6 +2708,7 @@ public class Renderer {
 	 */
 	public void setRenderWireframes(boolean wireframe) {
 		mRenderWireframes = wireframe;
+		++mSettingsVersion;
 	}
 
 	/**
@@ -1088,6 +2791,7 @@ public class Renderer {
 			return null;
 		}
 
+		++mSettingsVersion;
 		return mDynamicCubeMaps.get(mNumDynamicCubeMaps++);
 	}
 
@@ -1096,6 +2800,7 @@ public class Renderer {
 	 */
 	public void setBlurDynamicCubeMaps(boolean blurDyamicCubeMaps) {
 		mBlurDynamicCubeMaps = blurDyamicCubeMaps;
+		++mSettingsVersion;
 	}
 
 	/**
@@ -1105,6 +2810,257 @@ public class Renderer {
 		return mBlurDynamicCubeMaps;
 	}
 
+	/**
+	 * Set whether meshes with levels of detail are drawn at a level based on
+	 * their size on screen, or always at full detail.
+	 */
+	public void setLevelsOfDetail(boolean enable) {
+		mEnableLevelsOfDetail = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether meshes with levels of detail are drawn at a level based on
+	 * their size on screen.
+	 */
+	public boolean getLevelsOfDetail() {
+		return mEnableLevelsOfDetail;
+	}
+
+	/**
+	 * Set the factor projected mesh sizes are multiplied by before selecting a
+	 * level of detail in dynamic cube map passes. Values below 1 select
+	 * coarser levels, since reflections rarely show fine detail.
+	 */
+	public void setCubeMapLevelOfDetailBias(float bias) {
+		mCubeMapLevelOfDetailBias = bias;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get the cube map level of detail bias.
+	 */
+	public float getCubeMapLevelOfDetailBias() {
+		return mCubeMapLevelOfDetailBias;
+	}
+
+	/**
+	 * Set whether meshes split into clusters (see `Trimesh.buildMeshlets()`)
+	 * are culled cluster by cluster, or always drawn whole.
+	 */
+	public void setMeshletCulling(boolean enable) {
+		mEnableMeshletCulling = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether meshes split into clusters are culled cluster by cluster.
+	 */
+	public boolean getMeshletCulling() {
+		return mEnableMeshletCulling;
+	}
+
+	/**
+	 * Set whether objects entirely outside the view frustum of each pass
+	 * (including each dynamic cube map face) are skipped.
+	 */
+	public void setFrustumCulling(boolean enable) {
+		mEnableFrustumCulling = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether objects outside the view frustum are skipped.
+	 */
+	public boolean getFrustumCulling() {
+		return mEnableFrustumCulling;
+	}
+
+	/**
+	 * Set whether frustum culling uses a bounding volume hierarchy over all
+	 * geometry (see `SceneBVH`), or the bounds of the scenegraph's own
+	 * subtrees. The BVH is better for large, flat scenes.
+	 */
+	public void setSceneBVH(boolean enable) {
+		mUseSceneBVH = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether frustum culling uses a bounding volume hierarchy.
+	 */
+	public boolean getSceneBVH() {
+		return mUseSceneBVH;
+	}
+
+	/**
+	 * Set whether objects hidden behind occluders are skipped in each pass.
+	 * Only Geometry objects marked with `Geometry.setOccluder()` hide others.
+	 */
+	public void setOcclusionCulling(boolean enable) {
+		mEnableOcclusionCulling = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether objects hidden behind occluders are skipped.
+	 */
+	public boolean getOcclusionCulling() {
+		return mEnableOcclusionCulling;
+	}
+
+	/**
+	 * Set whether static objects (see `Geometry.setStatic()`) sharing a
+	 * material are merged into shared buffers and drawn with one call per
+	 * material. Has no effect while wireframes are shown.
+	 */
+	public void setStaticBatching(boolean enable) {
+		mEnableStaticBatching = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether static objects are merged into batches.
+	 */
+	public boolean getStaticBatching() {
+		return mEnableStaticBatching;
+	}
+
+	/**
+	 * Set whether lights are culled per 16x16 screen tile by a compute shader,
+	 * so each pixel is only lit by the lights reaching its tile. This also
+	 * lifts the ubershader's limit on the number of lights. Has no effect if
+	 * the OpenGL context doesn't support compute shaders.
+	 */
+	public void setTiledLighting(boolean enable) {
+		mEnableTiledLighting = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether lights are culled per screen tile.
+	 */
+	public boolean getTiledLighting() {
+		return mEnableTiledLighting;
+	}
+
+	/**
+	 * Set whether lights are binned into view-space clusters on the CPU when
+	 * tiled lighting isn't used, so each pixel is only lit by the lights
+	 * reaching its cluster. This also lifts the ubershader's limit on the
+	 * number of lights, and works without compute shaders.
+	 */
+	public void setClusteredLighting(boolean enable) {
+		mEnableClusteredLighting = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether lights are binned into clusters.
+	 */
+	public boolean getClusteredLighting() {
+		return mEnableClusteredLighting;
+	}
+
+	/**
+	 * Set whether lights are drawn as volumes: a sphere around each light,
+	 * reaching as far as the light does, which shades only the pixels inside
+	 * it. Suits many small lights. Takes precedence over tiled and clustered
+	 * lighting, and also lifts the ubershader's limit on the number of lights.
+	 */
+	public void setLightVolumes(boolean enable) {
+		mEnableLightVolumes = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether lights are drawn as volumes.
+	 */
+	public boolean getLightVolumes() {
+		return mEnableLightVolumes;
+	}
+
+	/**
+	 * Set whether the gbuffer stores each texture at just the precision its
+	 * data needs (see `createGBuffer()`), which halves the bytes per pixel
+	 * the materials write and the lighting pass reads from them. On by
+	 * default; falls back to half floats if the OpenGL context can't mix
+	 * formats in one FBO.
+	 */
+	public void setCompactGBuffer(boolean enable) {
+		mEnableCompactGBuffer = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether the gbuffer is compact, if supported.
+	 */
+	public boolean getCompactGBuffer() {
+		return mEnableCompactGBuffer;
+	}
+
+	/**
+	 * Set whether meshes sharing their vertex and index data (e.g. copies made
+	 * with `Mesh.clone()`) and compatible materials are drawn with one
+	 * instanced call per group. Has no effect if the OpenGL context doesn't
+	 * support instanced arrays.
+	 */
+	public void setInstancing(boolean enable) {
+		mEnableInstancing = enable;
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Get whether meshes sharing their data are drawn instanced.
+	 */
+	public boolean getInstancing() {
+		return mEnableInstancing;
+	}
+
+	/**
+	 * Enables or disables rendering on demand. When enabled, `render()` only
+	 * runs the scene passes if the snapshot's version (see
+	 * `RenderSnapshot.getVersion()`) or a setting other than post-processing
+	 * changed since the last frame, and otherwise presents that frame again.
+	 * 
+	 * Changes the snapshot can't see must be followed by `invalidate()`:
+	 * vertex data modified in place, material properties modified in place
+	 * without `Material.markChanged()`, and dynamic cube map center points.
+	 */
+	public void setRenderOnDemand(boolean enable) {
+		mRenderOnDemand = enable;
+	}
+
+	/**
+	 * Returns true if frames are only rendered when something changed.
+	 */
+	public boolean getRenderOnDemand() {
+		return mRenderOnDemand;
+	}
+
+	/**
+	 * Makes the next call to `render()` run all passes, whether or not
+	 * anything it can see changed.
+	 */
+	public void invalidate() {
+		++mSettingsVersion;
+	}
+
+	/**
+	 * Returns the number of frames for which all passes were run.
+	 */
+	public int getRenderedFrameCount() {
+		return mRenderedFrameCount;
+	}
+
+	/**
+	 * Returns the number of frames which only presented the previous frame
+	 * again, because nothing changed.
+	 */
+	public int getPresentedFrameCount() {
+		return mPresentedFrameCount;
+	}
+
 	/**
 	 * Performs one-time initialization of OpenGL state and shaders used by this
 	 * renderer.
@@ -1119,66 +3075,31 @@ public class Renderer {
 		gl.glEnable(GL2.GL_DEPTH_TEST);
 		gl.glDepthFunc(GL2.GL_LEQUAL);
 
+		/* Instanced drawing needs instanced arrays (OpenGL 3.3). */
+		mInstancingSupported = gl.isFunctionAvailable("glDrawElementsInstanced")
+				&& gl.isFunctionAvailable("glVertexAttribDivisor");
+
+		/*
+		 * Static batches draw indirectly where OpenGL 4.3 (compatibility
+		 * profile) allows it, and with glMultiDrawElements() otherwise.
+		 */
+		mStaticBatches.setIndirectDraws(gl.isGL4bc()
+				&& gl.isFunctionAvailable("glMultiDrawElementsIndirect"));
+
 		try {
 			/* Load the ubershader. */
 			mUberShader = new ShaderProgram(gl, "shaders/ubershader");
 
-			/*
-			 * Set material buffer indices once here, since they never have to
-			 * change.
-			 */
-			mUberShader.bind(gl);
-			gl.glUniform1i(mUberShader.getUniformLocation(gl, "DiffuseBuffer"),
-					0);
-			gl.glUniform1i(
-					mUberShader.getUniformLocation(gl, "PositionBuffer"), 1);
-			gl.glUniform1i(
-					mUberShader.getUniformLocation(gl, "MaterialParams1Buffer"),
-					2);
-			gl.glUniform1i(
-					mUberShader.getUniformLocation(gl, "MaterialParams2Buffer"),
-					3);
-			gl.glUniform1i(
-					mUberShader.getUniformLocation(gl, "SilhouetteBuffer"), 4);
-
-			/*
-			 * Set cube map (static and dynamic) indices, since they never have
-			 * to change.
-			 */
-			mStaticCubeMapIndex = 5;
-			gl.glUniform1i(
-					mUberShader.getUniformLocation(gl, "StaticCubeMapTexture"),
-					mStaticCubeMapIndex);
-
-			mDynamicCubeMapBaseIndex = 6;
-			gl.glUniform1i(mUberShader.getUniformLocation(gl,
-					"DynamicCubeMapTextures"), mDynamicCubeMapBaseIndex);
-			for (int i = 0; i < mMaxDynamicCubeMapsUberShader; ++i) {
-				gl.glUniform1i(mUberShader.getUniformLocation(gl,
-						"DynamicCubeMapTexture" + i), mDynamicCubeMapBaseIndex
-						+ i);
-			}
-
-			gl.glUniform3f(mUberShader.getUniformLocation(gl, "SkyColor"),
-					0.1f, 0.1f, 0.1f);
-			mUberShader.unbind(gl);
+			setUberShaderConstants(gl, mUberShader);
 
 			/*
 			 * Get locations of the lighting uniforms, since these will have to
 			 * be updated every frame.
 			 */
-			mLightPositionsUniformLocation = mUberShader.getUniformLocation(gl,
-					"LightPositions");
-			mLightColorsUniformLocation = mUberShader.getUniformLocation(gl,
-					"LightColors");
-			mLightAttenuationsUniformLocation = mUberShader.getUniformLocation(
-					gl, "LightAttenuations");
+			mLightsUniformLocation = mUberShader.getUniformLocation(gl,
+					"Lights");
 			mNumLightsUniformLocation = mUberShader.getUniformLocation(gl,
 					"NumLights");
-			mEnableToonShadingUniformLocation = mUberShader.getUniformLocation(
-					gl, "EnableToonShading");
-			mCameraInverseRotationUniformLocation = mUberShader
-					.getUniformLocation(gl, "CameraInverseRotation");
 
 			/* Get the maximum number of lights the shader supports. */
 			int count[] = new int[1];
@@ -1199,8 +3120,9 @@ public class Renderer {
 			byte name[] = new byte[maxLen[0]];
 
 			/*
-			 * Loop over the uniforms until we find "LightPositions" and grab
-			 * its size.
+			 * Loop over the uniforms until we find "Lights" and grab its size;
+			 * it holds three vec4s per light. Some drivers name arrays by
+			 * their first element.
 			 */
 			for (int i = 0; i < count[0]; ++i) {
 				/*
@@ -1211,8 +3133,8 @@ public class Renderer {
 						used, 0, size, 0, type, 0, name, 0);
 
 				String str = new String(name, 0, used[0]);
-				if (str.equals("LightPositions")) {
-					mMaxLightsInUberShader = size[0];
+				if (str.equals("Lights") || str.equals("Lights[0]")) {
+					mMaxLightsInUberShader = size[0] / 3;
 					break;
 				}
 			}
@@ -1222,11 +3144,11 @@ public class Renderer {
 
 			mSilhouetteShader.bind(gl);
 			gl.glUniform1i(
-					mSilhouetteShader.getUniformLocation(gl, "DiffuseBuffer"),
-					0);
-			gl.glUniform1i(
-					mSilhouetteShader.getUniformLocation(gl, "PositionBuffer"),
+					mSilhouetteShader.getUniformLocation(gl, "NormalBuffer"),
 					1);
+			gl.glUniform1i(
+					mSilhouetteShader.getUniformLocation(gl, "DepthBuffer"),
+					GBUFFER_DEPTH_TEXTURE_UNIT);
 			mSilhouetteShader.unbind(gl);
 
 			/* Load the bloom shader. */
@@ -1243,7 +3165,7 @@ public class Renderer {
 			mVisShader.bind(gl);
 			gl.glUniform1i(mVisShader.getUniformLocation(gl, "DiffuseBuffer"),
 					0);
-			gl.glUniform1i(mVisShader.getUniformLocation(gl, "PositionBuffer"),
+			gl.glUniform1i(mVisShader.getUniformLocation(gl, "NormalBuffer"),
 					1);
 			gl.glUniform1i(
 					mVisShader.getUniformLocation(gl, "MaterialParams1Buffer"),
@@ -1260,6 +3182,61 @@ public class Renderer {
 					0);
 			mBlurShader.unbind(gl);
 
+			/*
+			 * Tiled lighting needs compute shaders and storage buffers (OpenGL
+			 * 4.3); without them, lights go through the ubershader's uniforms.
+			 */
+			mTiledLightingSupported = gl.isGL4bc()
+					&& gl.isFunctionAvailable("glDispatchCompute");
+
+			/*
+			 * The clustered variant only needs float textures, like the
+			 * g-buffer.
+			 */
+			mClusteredUberShader = new ShaderProgram(gl,
+					"shaders/ubershader", "#define CLUSTERED_LIGHTING\n");
+			setUberShaderConstants(gl, mClusteredUberShader);
+
+			mClusteredUberShader.bind(gl);
+			gl.glUniform1i(mClusteredUberShader.getUniformLocation(gl,
+					"ClusterTexture"), CLUSTER_TEXTURE_UNIT);
+			gl.glUniform1i(mClusteredUberShader.getUniformLocation(gl,
+					"ClusterLightIndexTexture"), CLUSTER_TEXTURE_UNIT + 1);
+			gl.glUniform1i(
+					mClusteredUberShader.getUniformLocation(gl, "LightTexture"),
+					CLUSTER_TEXTURE_UNIT + 2);
+			mClusteredUberShader.unbind(gl);
+
+			/*
+			 * The light volume variant; its vertex shader alone marks the
+			 * volumes in the stencil buffer. Depth clamping is core in OpenGL
+			 * 3.2.
+			 */
+			mLightVolumeUberShader = new ShaderProgram(gl,
+					"shaders/ubershader", "#define LIGHT_VOLUMES\n");
+			setUberShaderConstants(gl, mLightVolumeUberShader);
+
+			mLightVolumeStencilShader = new ShaderProgram(gl,
+					"shaders/ubershader", "#define LIGHT_VOLUMES\n",
+					new int[] { GL2.GL_VERTEX_SHADER });
+			mLightVolumeStencilShader.bind(gl);
+			gl.glUniform1i(mLightVolumeStencilShader.getUniformLocation(gl,
+					"LightVolumePass"), 1);
+			mLightVolumeStencilShader.unbind(gl);
+
+			mDepthClampSupported = gl.isExtensionAvailable("GL_ARB_depth_clamp")
+					|| gl.isExtensionAvailable("GL_NV_depth_clamp");
+
+			if (mTiledLightingSupported) {
+				try {
+					loadTiledLightingShaders(gl);
+				} catch (OpenGLException err) {
+					System.err.println("Tiled lighting is unavailable: "
+							+ err.getMessage());
+					mTiledLightingSupported = false;
+				}
+			}
+
 			/*
 			 * Load the material used to render mesh edges (e.g. creases for
 			 * subdivs).
@@ -1314,6 +3291,70 @@ public class Renderer {
 		}
 	}
 
+	/**
+	 * Loads the light culling compute shader and the ubershader variant which
+	 * reads its per-tile light lists.
+	 */
+	private void loadTiledLightingShaders(GL2 gl) throws OpenGLException,
+			IOException {
+		mLightCullingShader = new ShaderProgram(gl,
+				"shaders/tiled_light_culling", "",
+				new int[] { GL4.GL_COMPUTE_SHADER });
+
+		mLightCullingShader.bind(gl);
+		gl.glUniform1i(
+				mLightCullingShader.getUniformLocation(gl, "DepthBuffer"),
+				GBUFFER_DEPTH_TEXTURE_UNIT);
+		gl.glUniform1i(mLightCullingShader.getUniformLocation(gl,
+				"MaterialParams1Buffer"), 2);
+		mLightCullingShader.unbind(gl);
+
+		mTiledUberShader = new ShaderProgram(gl, "shaders/ubershader",
+				"#version 430 compatibility\n#define TILED_LIGHTING\n");
+		setUberShaderConstants(gl, mTiledUberShader);
+	}
+
+	/**
+	 * Sets the uniforms of an ubershader variant which never have to change:
+	 * g-buffer and cube map texture units, and the sky color.
+	 */
+	private void setUberShaderConstants(GL2 gl, ShaderProgram shader) {
+		/*
+		 * Set material buffer indices once here, since they never have to
+		 * change.
+		 */
+		shader.bind(gl);
+		gl.glUniform1i(shader.getUniformLocation(gl, "DiffuseBuffer"), 0);
+		gl.glUniform1i(shader.getUniformLocation(gl, "NormalBuffer"), 1);
+		gl.glUniform1i(shader.getUniformLocation(gl, "MaterialParams1Buffer"),
+				2);
+		gl.glUniform1i(shader.getUniformLocation(gl, "MaterialParams2Buffer"),
+				3);
+		gl.glUniform1i(shader.getUniformLocation(gl, "SilhouetteBuffer"), 4);
+		gl.glUniform1i(shader.getUniformLocation(gl, "DepthBuffer"),
+				GBUFFER_DEPTH_TEXTURE_UNIT);
+
+		/*
+		 * Set cube map (static and dynamic) indices, since they never have to
+		 * change.
+		 */
+		mStaticCubeMapIndex = 5;
+		gl.glUniform1i(shader.getUniformLocation(gl, "StaticCubeMapTexture"),
+				mStaticCubeMapIndex);
+
+		mDynamicCubeMapBaseIndex = 6;
+		gl.glUniform1i(shader.getUniformLocation(gl, "DynamicCubeMapTextures"),
+				mDynamicCubeMapBaseIndex);
+		for (int i = 0; i < mMaxDynamicCubeMapsUberShader; ++i) {
+			gl.glUniform1i(shader.getUniformLocation(gl,
+					"DynamicCubeMapTexture" + i), mDynamicCubeMapBaseIndex + i);
+		}
+
+		gl.glUniform3f(shader.getUniformLocation(gl, "SkyColor"), 0.1f, 0.1f,
+				0.1f);
+		shader.unbind(gl);
+	}
+
 	/**
 	 * Called whenever the OpenGL context changes size. This renderer resizes
 	 * the gbuffer so it's always the same size as the viewport.
@@ -1332,15 +3373,71 @@ public class Renderer {
 		mViewportWidth = width;
 		mViewportHeight = height;
 
+		/* The new gbuffer doesn't hold the last frame. */
+		mHasCachedFrame = false;
+
+		/* Make a new gbuffer with the new size. */
+		createGBuffer(gl);
+	}
+
+	/**
+	 * (Re)creates the gbuffer at the viewport size. Its depth texture also
+	 * holds a stencil buffer, for light volumes.
+	 * 
+	 * The compact gbuffer stores each texture at just the precision its data
+	 * needs: diffuse colors as RGB10_A2, normals as RG16, material parameters
+	 * as RGBA8, and only gradients and the lit scene, which aren't limited to
+	 * [0, 1], as half floats. That is 16 instead of 32 bytes per pixel for
+	 * the textures the materials write. Otherwise, or if the context can't mix
+	 * formats in one FBO, every texture is RGBA16F.
+	 */
+	private void createGBuffer(GL2 gl) {
 		/* If we already had a gbuffer, release it. */
 		if (mGBufferFBO != null) {
 			mGBufferFBO.releaseGPUResources(gl);
+			mGBufferFBO = null;
+		}
+
+		int width = (int) mViewportWidth;
+		int height = (int) mViewportHeight;
+
+		if (mEnableCompactGBuffer && mCompactGBufferSupported) {
+			Format formats[] = new Format[GBuffer_Count];
+			Datatype datatypes[] = new Datatype[GBuffer_Count];
+
+			formats[GBuffer_DiffuseIndex] = Format.RGB10_A2;
+			datatypes[GBuffer_DiffuseIndex] = Datatype.INT32;
+			formats[GBuffer_NormalIndex] = Format.RG;
+			datatypes[GBuffer_NormalIndex] = Datatype.INT16;
+			formats[GBuffer_MaterialIndex1] = Format.RGBA;
+			datatypes[GBuffer_MaterialIndex1] = Datatype.INT8;
+			formats[GBuffer_MaterialIndex2] = Format.RGBA;
+			datatypes[GBuffer_MaterialIndex2] = Datatype.INT8;
+			formats[GBuffer_GradientsIndex] = Format.RGBA;
+			datatypes[GBuffer_GradientsIndex] = Datatype.FLOAT16;
+			formats[GBuffer_FinalSceneIndex] = Format.RGBA;
+			datatypes[GBuffer_FinalSceneIndex] = Datatype.FLOAT16;
+
+			try {
+				mGBufferFBO = new FramebufferObject(gl, formats, datatypes,
+						width, height, true, true, true);
+				mGBufferIsCompact = true;
+				return;
+			} catch (OpenGLException err) {
+				System.err.println("The compact gbuffer is unavailable: "
+						+ err.getMessage());
+				mCompactGBufferSupported = false;
+
+				/* Clear the error, if creating the textures raised one. */
+				gl.glGetError();
+			}
 		}
 
-		/* Make a new gbuffer with the new size. */
 		try {
 			mGBufferFBO = new FramebufferObject(gl, Format.RGBA,
-					Datatype.FLOAT16, width, height, GBuffer_Count, true, true);
+					Datatype.FLOAT16, width, height, GBuffer_Count, true, true,
+					true);
+			mGBufferIsCompact = false;
 		} catch (OpenGLException err) {
 			/* If that fails, we can't render - so just die. */
 			err.printStackTrace();
@@ -1358,5 +3455,38 @@ public class Renderer {
 		mSilhouetteShader.releaseGPUResources(gl);
 		mBloomShader.releaseGPUResources(gl);
 		mVisShader.releaseGPUResources(gl);
+		mStaticBatches.releaseGPUResources(gl);
+
+		if (mTiledLightingSupported) {
+			mLightCullingShader.releaseGPUResources(gl);
+			mTiledUberShader.releaseGPUResources(gl);
+		}
+
+		mClusteredUberShader.releaseGPUResources(gl);
+		mLightVolumeUberShader.releaseGPUResources(gl);
+		mLightVolumeStencilShader.releaseGPUResources(gl);
+		mLightVolumes.releaseGPUResources(gl);
+		mLightVolumesVersion = -1;
+
+		if (mClusterTexture != null) {
+			mClusterTexture.releaseGPUResources(gl);
+			mClusterLightIndexTexture.releaseGPUResources(gl);
+			mLightTexture.releaseGPUResources(gl);
+			mClusterTexture = mClusterLightIndexTexture = mLightTexture = null;
+			mLightTextureVersion = -1;
+		}
+
+		if (mLightBuffer != 0) {
+			gl.glDeleteBuffers(2, new int[] { mLightBuffer, mTileLightBuffer },
+					0);
+			mLightBuffer = mTileLightBuffer = 0;
+			mLightBufferSize = mTileLightBufferSize = 0;
+			mLightBufferVersion = -1;
+		}
+
+		if (mInstanceBuffer != 0) {
+			gl.glDeleteBuffers(1, new int[] { mInstanceBuffer }, 0);
+			mInstanceBuffer = 0;
+		}
 	}
 }
@@ -4,8 +4,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.HashMap;
 
 import javax.media.opengl.GL2;
+import javax.media.opengl.GL4;
 
 import cs5625.deferred.misc.OpenGLException;
 import cs5625.deferred.misc.OpenGLResourceObject;
@@ -29,6 +31,9 @@ public class ShaderProgram implements OpenGLResourceObject
 	private int mPreviousBinding[] = new int[1];
 	private boolean mIsBound = false;
 	
+	/* Uniform locations looked up so far, since the renderer sets some uniforms for every mesh it draws. */
+	private HashMap<String, Integer> mUniformLocations = new HashMap<String, Integer>();
+	
 	/**
 	 * Loads a shader resource named by the given identifier.
 	 *  
@@ -39,12 +44,46 @@ public class ShaderProgram implements OpenGLResourceObject
 	 */
 	public ShaderProgram(GL2 gl, String identifier) throws OpenGLException, IOException
 	{
-		/* Create the two shader objects. */
-		int vertexShader   = createShaderObject(gl, GL2.GL_VERTEX_SHADER,   identifier + ".vp");
-		int fragmentShader = createShaderObject(gl, GL2.GL_FRAGMENT_SHADER, identifier + ".fp");
+		this(gl, identifier, "");
+	}
+	
+	/**
+	 * Loads a variant of a vertex and fragment shader resource, compiled with the given header
+	 * in front of both source files (e.g. a `#version` directive and `#define`s).
+	 *  
+	 * @param gl The OpenGL state.
+	 * @param identifier The identifier of the shader to load; see `ShaderProgram(GL2, String)`.
+	 * @param header Code inserted before the source of each shader object.
+	 */
+	public ShaderProgram(GL2 gl, String identifier, String header) throws OpenGLException, IOException
+	{
+		this(gl, identifier, header, new int[] { GL2.GL_VERTEX_SHADER, GL2.GL_FRAGMENT_SHADER });
+	}
+	
+	/**
+	 * Loads a shader resource made of the given kinds of shader objects. Vertex shaders are read 
+	 * from ".vp" files, fragment shaders from ".fp" files and compute shaders from ".cp" files;
+	 * so pass `{ GL4.GL_COMPUTE_SHADER }` to load "shaders/foo.cp" alone as a compute program.
+	 *  
+	 * @param gl The OpenGL state.
+	 * @param identifier The identifier of the shader to load, with no extension.
+	 * @param header Code inserted before the source of each shader object.
+	 * @param types OpenGL constants (e.g. GL_VERTEX_SHADER) of the shader objects to create.
+	 */
+	public ShaderProgram(GL2 gl, String identifier, String header, int types[]) throws OpenGLException, IOException
+	{
+		/* Create the shader objects. */
+		int shaders[] = new int[types.length];
+		boolean anyCreated = false;
+		
+		for (int i = 0; i < types.length; ++i)
+		{
+			shaders[i] = createShaderObject(gl, types[i], identifier + getExtension(types[i]), header);
+			anyCreated |= (shaders[i] != 0);
+		}
 		
-		/* If neither were created, we have no shader. */
-		if (vertexShader == 0 && fragmentShader == 0)
+		/* If none were created, we have no shader. */
+		if (!anyCreated)
 		{
 			throw new OpenGLException("No source found for shader '" + identifier + "'.");
 		}
@@ -52,15 +91,13 @@ public class ShaderProgram implements OpenGLResourceObject
 		/* Create the shader program object. */
 		mHandle = gl.glCreateProgram();		
 		
-		/* Attach vertex and fragment shaders, if they each exist. */
-		if (vertexShader != 0)
+		/* Attach the shaders which exist. */
+		for (int shader : shaders)
 		{
-			gl.glAttachShader(mHandle, vertexShader);
-		}
-		
-		if (fragmentShader != 0)
-		{
-			gl.glAttachShader(mHandle, fragmentShader);
+			if (shader != 0)
+			{
+				gl.glAttachShader(mHandle, shader);
+			}
 		}
 		
 		/* Link the program and check its status. */
@@ -82,14 +119,12 @@ public class ShaderProgram implements OpenGLResourceObject
 			gl.glDeleteProgram(mHandle);
 			mHandle = -1;
 			
-			if (vertexShader != 0)
+			for (int shader : shaders)
 			{
-				gl.glDeleteShader(vertexShader);
-			}
-			
-			if (fragmentShader != 0)
-			{
-				gl.glDeleteShader(fragmentShader);
+				if (shader != 0)
+				{
+					gl.glDeleteShader(shader);
+				}
 			}
 			
 			/* Throw an exception explaining what broke. */
@@ -97,41 +132,47 @@ public class ShaderProgram implements OpenGLResourceObject
 		}
 	}
 	
+	/**
+	 * Returns the file extension of the source of the given type of shader object.
+	 */
+	private static String getExtension(int type)
+	{
+		switch (type)
+		{
+		case GL2.GL_VERTEX_SHADER:
+			return ".vp";
+		case GL2.GL_FRAGMENT_SHADER:
+			return ".fp";
+		case GL4.GL_COMPUTE_SHADER:
+			return ".cp";
+		default:
+			throw new IllegalArgumentException("Unsupported shader type " + type + ".");
+		}
+	}
+	
 	/**
 	 * Creates a single shader object with the given identifier.
 	 * 
 	 * @param gl The OpenGL state.
 	 * @param type OpenGL constant (e.g. GL_VERTEX_SHADER) indicating the type of shader to create.
 	 * @param identifier The identifier of the shader file to load. Must include extension.
+	 * @param header Code to insert before the file's source.
 	 * 
 	 * @return The handle/name/id of the new shader object.
 	 */
-	private int createShaderObject(GL2 gl, int type, String identifier) throws OpenGLException, IOException
+	private int createShaderObject(GL2 gl, int type, String identifier, String header) throws OpenGLException, IOException
 	{
 		/* Read the source code file. */
-		URL url = ShaderProgram.class.getClassLoader().getResource(identifier);
-		if (url == null)
-		{
-			throw new IOException("Could not find shader file '" + identifier + "'.");
-		}
-		
-		BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-		String code = "";
-		String line = reader.readLine();
-		
-		while (line != null)
-		{
-			code += line + "\n";
-			line = reader.readLine();
-		}
+		String code = readSource(identifier);
 
 		/* No code, no shader. */
-		if (code == "")
+		if (code.isEmpty())
 		{
 			return 0;
 		}
 		
 		/* Create the shader object, send the code to OpenGL, and compile. */
+		code = header + code;
 		int shader = gl.glCreateShader(type);
 		gl.glShaderSource(shader, 1, new String[]{code}, new int[]{code.length()}, 0);
 		gl.glCompileShader(shader);
@@ -158,11 +199,68 @@ public class ShaderProgram implements OpenGLResourceObject
 			gl.glDeleteShader(shader);
 			
 			/* Throw an exception detailing the problem. */
-			String typeString = (type == GL2.GL_VERTEX_SHADER ? "vertex" : (type == GL2.GL_FRAGMENT_SHADER ? "fragment" : Integer.toString(type)));
+			String typeString = (type == GL2.GL_VERTEX_SHADER ? "vertex" : (type == GL2.GL_FRAGMENT_SHADER ? "fragment" : (type == GL4.GL_COMPUTE_SHADER ? "compute" : Integer.toString(type))));
 			throw new OpenGLException("Failed to compile '" + identifier + "' " + typeString + " shader: " + new String(infoLog));
 		}
 	}
 	
+	/**
+	 * Reads the shader source file with the given identifier, replacing each line of the form 
+	 * `#include "shaders/foo.glsl"` with the source of that file (read the same way), so code 
+	 * shared by several shaders lives in one place. Files are not guarded against being included 
+	 * twice, so only include files which define functions, and only once per shader.
+	 * 
+	 * @param identifier The identifier of the file to load, using the class resource loader. Must include extension.
+	 * 
+	 * @return The source code, with includes expanded.
+	 */
+	private static String readSource(String identifier) throws IOException
+	{
+		URL url = ShaderProgram.class.getClassLoader().getResource(identifier);
+		if (url == null)
+		{
+			throw new IOException("Could not find shader file '" + identifier + "'.");
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
+		StringBuilder code = new StringBuilder();
+		
+		try
+		{
+			String line = reader.readLine();
+			
+			while (line != null)
+			{
+				String trimmed = line.trim();
+				
+				if (trimmed.startsWith("#include"))
+				{
+					int begin = trimmed.indexOf('"');
+					int end = trimmed.lastIndexOf('"');
+					
+					if (begin < 0 || end <= begin)
+					{
+						throw new IOException("Malformed include in shader file '" + identifier + "': " + trimmed);
+					}
+					
+					code.append(readSource(trimmed.substring(begin + 1, end)));
+				}
+				else
+				{
+					code.append(line).append("\n");
+				}
+				
+				line = reader.readLine();
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		return code.toString();
+	}
+	
 	/**
 	 * Returns a handle to the OpenGL shader object.
 	 */
@@ -221,7 +319,15 @@ public class ShaderProgram implements OpenGLResourceObject
 	 */
 	public int getUniformLocation(GL2 gl, String uniformName)
 	{
-		return gl.glGetUniformLocation(mHandle, uniformName);
+		Integer location = mUniformLocations.get(uniformName);
+		
+		if (location == null)
+		{
+			location = gl.glGetUniformLocation(mHandle, uniformName);
+			mUniformLocations.put(uniformName, location);
+		}
+		
+		return location;
 	}
 	
 	/**
@@ -256,6 +362,7 @@ public class ShaderProgram implements OpenGLResourceObject
 		/* Delete the program object. */
 		gl.glDeleteProgram(mHandle);
 		mHandle = -1;
+		mUniformLocations.clear();
 
 		/* Delete each attached shader object. */
 		for (int shader : attachedShaderHandles)
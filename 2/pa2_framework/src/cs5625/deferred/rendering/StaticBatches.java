@@ -0,0 +1,871 @@
+package cs5625.deferred.rendering;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.common.nio.PointerBuffer;
+
+import cs5625.deferred.materials.Material;
+import cs5625.deferred.misc.OpenGLResourceObject;
+import cs5625.deferred.scenegraph.FlattenedScene;
+import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.SceneObject;
+
+/**
+ * StaticBatches.java
+ *
+ * Merges the meshes of static Geometry objects (see `Geometry.setStatic()`) into a few large vertex
+ * and index buffers, so that scenes made of many small static objects don't pay one draw call each.
+ *
+ * Meshes with the same vertex format (polygon size, texture coordinates, and the material's custom
+ * attributes) and interchangeable materials go into one batch. Materials are interchangeable if they
+ * are the same, or of the same class (so they use the same shader) with equal uniform values and
+ * textures (see `Material.getPropertyValues()`); the batch binds the first one. Vertices are
+ * transformed to world space when the batch is built, so a batch is drawn with just the view matrix.
+ * Each mesh keeps its own range of the batch's index buffer (a "draw"), so objects can still be culled
+ * one by one: each pass marks the objects it would draw, and each batch then draws the index ranges of
+ * its visible meshes with one call, merging neighbouring ranges first. That call is
+ * `glMultiDrawElementsIndirect()` where it is available and enabled (see `setIndirectDraws()`), with one
+ * command per range, and `glMultiDrawElements()` otherwise.
+ *
+ * Materials are the render snapshot's copies (see `RenderSnapshot.getMaterial()`), so the batches are
+ * rebuilt when the material of a static object changed.
+ *
+ * Batched meshes are always drawn at full detail and without cluster culling; objects with quantized
+ * meshes are batched from their float data. Meshes missing normals, index data or an attribute their
+ * material requires are not batched, and neither are the other meshes of their object.
+ *
+ * `update()` checks every frame whether the static objects still are where the batches put them, and
+ * rebuilds everything if not, so static objects should really stay put.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class StaticBatches implements OpenGLResourceObject
+{
+	/**
+	 * The meshes sharing a vertex format and interchangeable materials, and their merged buffers.
+	 */
+	private static class Batch
+	{
+		Material material;
+		int verticesPerPolygon;
+		boolean hasTexCoords;
+		String attributeNames[];
+		int attributeSizes[];
+
+		/* Meshes, with the world matrices of their objects, in the order of their draws. */
+		ArrayList<Mesh> meshes = new ArrayList<Mesh>();
+		ArrayList<float[]> worldMatrices = new ArrayList<float[]>();
+
+		/* Range of draws, and vertex and index counts. */
+		int firstDraw, drawEnd;
+		int vertexCount, indexCount;
+
+		/* Vertex buffer layout: positions, normals, texture coordinates, then each attribute, one after another. */
+		int normalOffset, texCoordOffset;
+		int attributeOffsets[];
+
+		/* Index in mBatches, OpenGL buffer handles, and the number of draws visible in the current pass. */
+		int index;
+		int vertexBuffer, indexBuffer;
+		int visibleDraws;
+	}
+
+	/**
+	 * Identifies the materials a batch can hold: the material class and its property values, or the
+	 * material itself if it doesn't list its values.
+	 */
+	private static class MaterialKey
+	{
+		private Class<? extends Material> mClass;
+		private Object mValues[];
+		private Material mMaterial;
+
+		public MaterialKey(Material material)
+		{
+			mClass = material.getClass();
+			mValues = material.getPropertyValues();
+			mMaterial = (mValues == null ? material : null);
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof MaterialKey))
+			{
+				return false;
+			}
+
+			MaterialKey key = (MaterialKey)other;
+
+			if (mValues == null || key.mValues == null)
+			{
+				return mMaterial == key.mMaterial;
+			}
+
+			return mClass == key.mClass && Arrays.equals(mValues, key.mValues);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (mValues == null ? System.identityHashCode(mMaterial) : 31 * mClass.hashCode() + Arrays.hashCode(mValues));
+		}
+	}
+
+	private ArrayList<Batch> mBatches = new ArrayList<Batch>();
+
+	/* Draws: batch, and range of the batch's index buffer (in indices). */
+	private int mDrawBatches[] = new int[0];
+	private int mDrawIndexOffsets[] = new int[0];
+	private int mDrawIndexCounts[] = new int[0];
+	private boolean mDrawVisible[] = new boolean[0];
+	private int mDrawCount = 0;
+
+	/* Draws of each node of the flattened scene the batches were built from: the range [first, end) of
+	 * mNodeDraws, empty if none. A node's draws may lie in different batches, so they are listed. */
+	private int mNodeFirstDraw[] = new int[0];
+	private int mNodeDrawEnd[] = new int[0];
+	private int mNodeDraws[] = new int[0];
+
+	/* What the batches were built from: the scene root, and each static object's node index, world
+	 * matrix (16 floats each), meshes and their materials (empty for objects which weren't batched). */
+	private Object mRoot = null;
+	private int mStaticNodes[] = new int[0];
+	private SceneObject mStaticObjects[] = new SceneObject[0];
+	private float mStaticMatrices[] = new float[0];
+	private Mesh mStaticMeshes[][] = new Mesh[0][];
+	private Material mStaticMaterials[][] = new Material[0][];
+	private int mStaticCount = 0;
+
+	/* Scratch buffers for `glMultiDrawElements()`: index counts and byte offsets of the visible ranges. */
+	private IntBuffer mRunCounts = Buffers.newDirectIntBuffer(64);
+	private PointerBuffer mRunOffsets = PointerBuffer.allocateDirect(64);
+
+	/* Whether to draw with `glMultiDrawElementsIndirect()`, and its commands, 5 ints each: index count,
+	 * instance count, first index, base vertex and base instance. */
+	private boolean mIndirectDraws = false;
+	private IntBuffer mCommands = Buffers.newDirectIntBuffer(5 * 64);
+
+	private int mBuildCount = 0;
+
+	/**
+	 * Makes sure the batches match the static objects of a snapshot's scene, rebuilding them if not.
+	 * Must be called on the OpenGL thread before each frame.
+	 *
+	 * @return True if the batches were rebuilt.
+	 */
+	public boolean update(GL2 gl, RenderSnapshot snapshot)
+	{
+		if (isCurrent(snapshot))
+		{
+			return false;
+		}
+
+		build(gl, snapshot);
+		return true;
+	}
+
+	/**
+	 * Forgets which objects were visible in the previous pass. Call before `markVisible()`.
+	 */
+	public void beginPass()
+	{
+		Arrays.fill(mDrawVisible, 0, mDrawCount, false);
+
+		for (Batch batch : mBatches)
+		{
+			batch.visibleDraws = 0;
+		}
+	}
+
+	/**
+	 * Marks an object as visible in the current pass.
+	 *
+	 * @param node The object's index in the flattened scene passed to `update()`.
+	 *
+	 * @return True if the object's meshes are batched, so the caller must not draw them itself.
+	 */
+	public boolean markVisible(int node)
+	{
+		if (node >= mNodeFirstDraw.length || mNodeFirstDraw[node] == mNodeDrawEnd[node])
+		{
+			return false;
+		}
+
+		for (int i = mNodeFirstDraw[node]; i < mNodeDrawEnd[node]; ++i)
+		{
+			int draw = mNodeDraws[i];
+
+			if (!mDrawVisible[draw])
+			{
+				mDrawVisible[draw] = true;
+				++mBatches.get(mDrawBatches[draw]).visibleDraws;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of batches.
+	 */
+	public int getBatchCount()
+	{
+		return mBatches.size();
+	}
+
+	/**
+	 * Returns the material to bind for a batch: the first of its interchangeable materials.
+	 */
+	public Material getMaterial(int batch)
+	{
+		return mBatches.get(batch).material;
+	}
+
+	/**
+	 * Returns true if any object in the batch was marked visible in this pass.
+	 */
+	public boolean hasVisibleDraws(int batch)
+	{
+		return mBatches.get(batch).visibleDraws > 0;
+	}
+
+	/**
+	 * Sets whether batches are drawn with `glMultiDrawElementsIndirect()` (OpenGL 4.3, through the
+	 * compatibility profile, which allows the commands to come from client memory) rather than
+	 * `glMultiDrawElements()`. Only enable it if the context has that function. Off by default.
+	 */
+	public void setIndirectDraws(boolean indirect)
+	{
+		mIndirectDraws = indirect;
+	}
+
+	/**
+	 * Returns whether batches are drawn with `glMultiDrawElementsIndirect()`.
+	 */
+	public boolean getIndirectDraws()
+	{
+		return mIndirectDraws;
+	}
+
+	/**
+	 * Returns the number of times the batches were built.
+	 */
+	public int getBuildCount()
+	{
+		return mBuildCount;
+	}
+
+	/**
+	 * Draws the visible meshes of a batch with one call, indirect if enabled. Its material must be bound,
+	 * along with matrices for world-space vertices.
+	 *
+	 * @param gl The OpenGL state.
+	 * @param batch The batch to draw.
+	 * @param shader The bound material's shader, which receives the vertex attributes.
+	 */
+	public void draw(GL2 gl, int batch, ShaderProgram shader)
+	{
+		Batch b = mBatches.get(batch);
+
+		if (b.visibleDraws == 0)
+		{
+			return;
+		}
+
+		/* Collect the visible index ranges, merging neighbours. */
+		if (mRunCounts.capacity() < b.visibleDraws)
+		{
+			mRunCounts = Buffers.newDirectIntBuffer(b.visibleDraws);
+			mRunOffsets = PointerBuffer.allocateDirect(b.visibleDraws);
+			mCommands = Buffers.newDirectIntBuffer(5 * b.visibleDraws);
+		}
+
+		int runCount = 0, runEnd = -1;
+
+		for (int draw = b.firstDraw; draw < b.drawEnd; ++draw)
+		{
+			if (!mDrawVisible[draw])
+			{
+				continue;
+			}
+
+			int offset = mDrawIndexOffsets[draw], count = mDrawIndexCounts[draw];
+
+			if (runCount > 0 && runEnd == offset)
+			{
+				mRunCounts.put(runCount - 1, mRunCounts.get(runCount - 1) + count);
+			}
+			else
+			{
+				mRunCounts.put(runCount, count);
+				mRunOffsets.put(runCount, 4L * offset);
+				++runCount;
+			}
+
+			runEnd = offset + count;
+		}
+
+		gl.glPushClientAttrib((int)GL2.GL_CLIENT_ALL_ATTRIB_BITS);
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, b.vertexBuffer);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, b.indexBuffer);
+
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL2.GL_FLOAT, 0, 0L);
+		gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+		gl.glNormalPointer(GL2.GL_FLOAT, 0, 4L * b.normalOffset);
+
+		if (b.hasTexCoords)
+		{
+			gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+			gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, 4L * b.texCoordOffset);
+		}
+		else
+		{
+			gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		}
+
+		for (int i = 0; i < b.attributeNames.length; ++i)
+		{
+			int location = shader.getAttribLocation(gl, b.attributeNames[i]);
+			if (location >= 0)
+			{
+				gl.glEnableVertexAttribArray(location);
+				gl.glVertexAttribPointer(location, b.attributeSizes[i], GL2.GL_FLOAT, false, 0, 4L * b.attributeOffsets[i]);
+			}
+		}
+
+		/* Batched vertices are never quantized. */
+		int location = shader.getUniformLocation(gl, "HasQuantizedNormals");
+		if (location >= 0)
+		{
+			gl.glUniform1i(location, 0);
+		}
+
+		location = shader.getUniformLocation(gl, "HasQuantizedTangents");
+		if (location >= 0)
+		{
+			gl.glUniform1i(location, 0);
+		}
+
+		if (mIndirectDraws)
+		{
+			/* One instance of each range; indices already point at the batch's vertices. */
+			for (int run = 0; run < runCount; ++run)
+			{
+				mCommands.put(5 * run + 0, mRunCounts.get(run));
+				mCommands.put(5 * run + 1, 1);
+				mCommands.put(5 * run + 2, (int)(mRunOffsets.get(run) / 4L));
+				mCommands.put(5 * run + 3, 0);
+				mCommands.put(5 * run + 4, 0);
+			}
+
+			gl.getGL4bc().glMultiDrawElementsIndirect(getPrimitiveType(b.verticesPerPolygon), GL2.GL_UNSIGNED_INT, mCommands, runCount, 0);
+		}
+		else
+		{
+			gl.glMultiDrawElements(getPrimitiveType(b.verticesPerPolygon), mRunCounts, GL2.GL_UNSIGNED_INT, mRunOffsets, runCount);
+		}
+
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glPopClientAttrib();
+	}
+
+	@Override
+	public void releaseGPUResources(GL2 gl)
+	{
+		for (Batch batch : mBatches)
+		{
+			gl.glDeleteBuffers(2, new int[] { batch.vertexBuffer, batch.indexBuffer }, 0);
+		}
+
+		mBatches.clear();
+		mDrawCount = 0;
+		mStaticCount = 0;
+		mRoot = null;
+		Arrays.fill(mNodeFirstDraw, 0);
+		Arrays.fill(mNodeDrawEnd, 0);
+	}
+
+	/**
+	 * Returns true if the static objects of the snapshot are the ones the batches were built from, at
+	 * the same places, with the same meshes and materials.
+	 */
+	private boolean isCurrent(RenderSnapshot snapshot)
+	{
+		FlattenedScene scene = snapshot.getScene();
+
+		if (scene.getRoot() != mRoot)
+		{
+			return false;
+		}
+
+		int staticCount = 0;
+
+		for (int i = 0; i < scene.getGeometryCount(); ++i)
+		{
+			if (scene.isStatic(scene.getGeometryIndex(i)))
+			{
+				++staticCount;
+			}
+		}
+
+		if (staticCount != mStaticCount)
+		{
+			return false;
+		}
+
+		float worldMatrices[] = scene.getWorldMatrices();
+
+		for (int k = 0; k < mStaticCount; ++k)
+		{
+			int node = mStaticNodes[k];
+
+			if (node >= scene.getNodeCount() || scene.getNode(node) != mStaticObjects[k] || !scene.isStatic(node))
+			{
+				return false;
+			}
+
+			for (int j = 0; j < 16; ++j)
+			{
+				if (worldMatrices[16 * node + j] != mStaticMatrices[16 * k + j])
+				{
+					return false;
+				}
+			}
+
+			/* Objects which weren't batched only need to stay where they are in the scene. */
+			Mesh meshes[] = mStaticMeshes[k];
+			if (meshes.length == 0)
+			{
+				continue;
+			}
+
+			if (scene.getMeshCount(node) != meshes.length)
+			{
+				return false;
+			}
+
+			for (int m = 0; m < meshes.length; ++m)
+			{
+				if (scene.getMesh(node, m) != meshes[m] || snapshot.getMaterial(meshes[m]) != mStaticMaterials[k][m])
+				{
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Rebuilds all batches from the static objects of a snapshot.
+	 */
+	private void build(GL2 gl, RenderSnapshot snapshot)
+	{
+		releaseGPUResources(gl);
+
+		FlattenedScene scene = snapshot.getScene();
+
+		mRoot = scene.getRoot();
+		float worldMatrices[] = scene.getWorldMatrices();
+
+		/* Record the static objects, and sort the meshes of those which can be batched into batches. */
+		int geometryCount = scene.getGeometryCount();
+		ensureStaticCapacity(geometryCount);
+
+		HashMap<MaterialKey, ArrayList<Batch>> batchesByMaterial = new HashMap<MaterialKey, ArrayList<Batch>>();
+		ArrayList<Integer> drawNodes = new ArrayList<Integer>();
+		ArrayList<Mesh> drawMeshes = new ArrayList<Mesh>();
+		ArrayList<Batch> drawBatches = new ArrayList<Batch>();
+
+		for (int i = 0; i < geometryCount; ++i)
+		{
+			int node = scene.getGeometryIndex(i);
+
+			if (!scene.isStatic(node))
+			{
+				continue;
+			}
+
+			int k = mStaticCount++;
+			mStaticNodes[k] = node;
+			mStaticObjects[k] = scene.getNode(node);
+			System.arraycopy(worldMatrices, 16 * node, mStaticMatrices, 16 * k, 16);
+			mStaticMeshes[k] = new Mesh[0];
+			mStaticMaterials[k] = new Material[0];
+
+			int meshCount = scene.getMeshCount(node);
+			boolean batchable = (meshCount > 0);
+
+			for (int m = 0; m < meshCount; ++m)
+			{
+				batchable &= canBatch(scene.getMesh(node, m), snapshot.getMaterial(scene.getMesh(node, m)));
+			}
+
+			if (!batchable)
+			{
+				continue;
+			}
+
+			mStaticMeshes[k] = new Mesh[meshCount];
+			mStaticMaterials[k] = new Material[meshCount];
+
+			float worldMatrix[] = Arrays.copyOfRange(worldMatrices, 16 * node, 16 * node + 16);
+
+			for (int m = 0; m < meshCount; ++m)
+			{
+				Mesh mesh = scene.getMesh(node, m);
+				mStaticMeshes[k][m] = mesh;
+				mStaticMaterials[k][m] = snapshot.getMaterial(mesh);
+
+				Batch batch = findBatch(batchesByMaterial, mesh, mStaticMaterials[k][m]);
+				batch.meshes.add(mesh);
+				batch.worldMatrices.add(worldMatrix);
+
+				drawNodes.add(node);
+				drawMeshes.add(mesh);
+				drawBatches.add(batch);
+			}
+		}
+
+		/* Number the draws batch by batch, so each batch's draws are a contiguous range in mesh order. */
+		mDrawCount = drawNodes.size();
+		mDrawBatches = new int[mDrawCount];
+		mDrawIndexOffsets = new int[mDrawCount];
+		mDrawIndexCounts = new int[mDrawCount];
+		mDrawVisible = new boolean[mDrawCount];
+
+		int nextDraw = 0;
+		for (ArrayList<Batch> batches : batchesByMaterial.values())
+		{
+			for (Batch batch : batches)
+			{
+				batch.index = mBatches.size();
+				batch.firstDraw = nextDraw;
+				batch.drawEnd = nextDraw + batch.meshes.size();
+				nextDraw = batch.drawEnd;
+				mBatches.add(batch);
+			}
+		}
+
+		/* List each node's draws; draws were collected node by node, in each batch's mesh order. */
+		mNodeFirstDraw = new int[scene.getNodeCount()];
+		mNodeDrawEnd = new int[scene.getNodeCount()];
+		mNodeDraws = new int[mDrawCount];
+
+		int batchDrawCounts[] = new int[mBatches.size()];
+
+		for (int d = 0; d < mDrawCount; ++d)
+		{
+			Batch batch = drawBatches.get(d);
+			int draw = batch.firstDraw + batchDrawCounts[batch.index]++;
+			int node = drawNodes.get(d);
+
+			if (d == 0 || drawNodes.get(d - 1) != node)
+			{
+				mNodeFirstDraw[node] = d;
+			}
+
+			mNodeDraws[d] = draw;
+			mNodeDrawEnd[node] = d + 1;
+			mDrawBatches[draw] = batch.index;
+		}
+
+		for (Batch batch : mBatches)
+		{
+			upload(gl, batch);
+		}
+
+		++mBuildCount;
+	}
+
+	/**
+	 * Returns true if a mesh has everything a batch needs: vertices, normals, polygons, a material, and
+	 * every attribute the material requires.
+	 *
+	 * @param material The snapshot's copy of the mesh's material, or null.
+	 */
+	private static boolean canBatch(Mesh mesh, Material material)
+	{
+		if (mesh.getVertexData() == null || mesh.getNormalData() == null || mesh.getPolygonData() == null
+				|| material == null || mesh.getVerticesPerPolygon() < 1 || mesh.getVerticesPerPolygon() > 4)
+		{
+			return false;
+		}
+
+		for (String attrib : material.getRequiredVertexAttributes())
+		{
+			if (!mesh.vertexAttribData.containsKey(attrib))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the batch for a mesh's vertex format and material (or one interchangeable with it),
+	 * creating it if there is none yet.
+	 */
+	private static Batch findBatch(HashMap<MaterialKey, ArrayList<Batch>> batchesByMaterial, Mesh mesh,
+			Material material)
+	{
+		String attributeNames[] = material.getRequiredVertexAttributes();
+		int attributeSizes[] = new int[attributeNames.length];
+
+		for (int i = 0; i < attributeNames.length; ++i)
+		{
+			attributeSizes[i] = mesh.vertexAttribData.get(attributeNames[i]).capacity() / mesh.getVertexCount();
+		}
+
+		MaterialKey key = new MaterialKey(material);
+		ArrayList<Batch> batches = batchesByMaterial.get(key);
+		if (batches == null)
+		{
+			batches = new ArrayList<Batch>();
+			batchesByMaterial.put(key, batches);
+		}
+
+		for (Batch batch : batches)
+		{
+			if (batch.verticesPerPolygon == mesh.getVerticesPerPolygon()
+					&& batch.hasTexCoords == (mesh.getTexCoordData() != null)
+					&& Arrays.equals(batch.attributeNames, attributeNames)
+					&& Arrays.equals(batch.attributeSizes, attributeSizes))
+			{
+				return batch;
+			}
+		}
+
+		Batch batch = new Batch();
+		batch.material = material;
+		batch.verticesPerPolygon = mesh.getVerticesPerPolygon();
+		batch.hasTexCoords = (mesh.getTexCoordData() != null);
+		batch.attributeNames = attributeNames;
+		batch.attributeSizes = attributeSizes;
+		batches.add(batch);
+
+		return batch;
+	}
+
+	/**
+	 * Transforms the meshes of a batch to world space, merges them, and uploads the result into new
+	 * vertex and index buffers. Also sets the index ranges of the batch's draws.
+	 */
+	private void upload(GL2 gl, Batch batch)
+	{
+		for (Mesh mesh : batch.meshes)
+		{
+			batch.vertexCount += mesh.getVertexCount();
+			batch.indexCount += mesh.getVerticesPerPolygon() * mesh.getPolygonCount();
+		}
+
+		/* Lay out the vertex buffer. */
+		int n = batch.vertexCount;
+		batch.normalOffset = 3 * n;
+		batch.texCoordOffset = 6 * n;
+
+		int size = (batch.hasTexCoords ? 8 * n : 6 * n);
+		batch.attributeOffsets = new int[batch.attributeNames.length];
+
+		for (int i = 0; i < batch.attributeNames.length; ++i)
+		{
+			batch.attributeOffsets[i] = size;
+			size += batch.attributeSizes[i] * n;
+		}
+
+		float vertices[] = new float[size];
+		int indices[] = new int[batch.indexCount];
+		int firstVertex = 0, firstIndex = 0;
+
+		for (int m = 0; m < batch.meshes.size(); ++m)
+		{
+			Mesh mesh = batch.meshes.get(m);
+			float w[] = batch.worldMatrices.get(m);
+			int count = mesh.getVertexCount();
+
+			/* Normals and tangents go through the inverse transpose and the upper 3x3 of the world matrix. */
+			float normalMatrix[] = getNormalMatrix(w);
+
+			transformVectors(mesh.getVertexData(), 3, w, true, vertices, 3 * firstVertex, count);
+			transformVectors(mesh.getNormalData(), 3, normalMatrix, false, vertices, batch.normalOffset + 3 * firstVertex, count);
+
+			if (batch.hasTexCoords)
+			{
+				FloatBuffer texCoords = mesh.getTexCoordData();
+				for (int i = 0; i < 2 * count; ++i)
+				{
+					vertices[batch.texCoordOffset + 2 * firstVertex + i] = texCoords.get(i);
+				}
+			}
+
+			for (int a = 0; a < batch.attributeNames.length; ++a)
+			{
+				FloatBuffer data = mesh.vertexAttribData.get(batch.attributeNames[a]);
+				int attributeSize = batch.attributeSizes[a];
+				int offset = batch.attributeOffsets[a] + attributeSize * firstVertex;
+
+				if (batch.attributeNames[a].equals("VertexTangent") && attributeSize >= 3)
+				{
+					transformVectors(data, attributeSize, w, false, vertices, offset, count);
+				}
+				else
+				{
+					for (int i = 0; i < attributeSize * count; ++i)
+					{
+						vertices[offset + i] = data.get(i);
+					}
+				}
+			}
+
+			/* Indices, rebased to the mesh's first vertex. */
+			IntBuffer polygons = mesh.getPolygonData();
+			int indexCount = mesh.getVerticesPerPolygon() * mesh.getPolygonCount();
+
+			for (int i = 0; i < indexCount; ++i)
+			{
+				indices[firstIndex + i] = polygons.get(i) + firstVertex;
+			}
+
+			mDrawIndexOffsets[batch.firstDraw + m] = firstIndex;
+			mDrawIndexCounts[batch.firstDraw + m] = indexCount;
+
+			firstVertex += count;
+			firstIndex += indexCount;
+		}
+
+		int handles[] = new int[2];
+		gl.glGenBuffers(2, handles, 0);
+		batch.vertexBuffer = handles[0];
+		batch.indexBuffer = handles[1];
+
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, batch.vertexBuffer);
+		gl.glBufferData(GL2.GL_ARRAY_BUFFER, 4L * vertices.length, Buffers.newDirectFloatBuffer(vertices), GL2.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, batch.indexBuffer);
+		gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, 4L * indices.length, Buffers.newDirectIntBuffer(indices), GL2.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		/* The GPU has the data now. */
+		batch.meshes = null;
+		batch.worldMatrices = null;
+	}
+
+	/**
+	 * Transforms `count` vectors of `stride` floats by a column-major 4x4 matrix (as points, or as
+	 * directions by its upper 3x3, normalized), into `result` at `offset`. Floats past the first three of
+	 * each vector are copied unchanged.
+	 */
+	private static void transformVectors(FloatBuffer data, int stride, float m[], boolean points, float result[], int offset, int count)
+	{
+		for (int v = 0; v < count; ++v)
+		{
+			int i = stride * v;
+			float x = data.get(i), y = data.get(i + 1), z = data.get(i + 2);
+
+			float rx = m[0] * x + m[4] * y + m[8] * z;
+			float ry = m[1] * x + m[5] * y + m[9] * z;
+			float rz = m[2] * x + m[6] * y + m[10] * z;
+
+			if (points)
+			{
+				rx += m[12];
+				ry += m[13];
+				rz += m[14];
+			}
+			else
+			{
+				float length = (float)Math.sqrt(rx * rx + ry * ry + rz * rz);
+				if (length > 0.0f)
+				{
+					rx /= length;
+					ry /= length;
+					rz /= length;
+				}
+			}
+
+			result[offset + i] = rx;
+			result[offset + i + 1] = ry;
+			result[offset + i + 2] = rz;
+
+			for (int j = 3; j < stride; ++j)
+			{
+				result[offset + i + j] = data.get(i + j);
+			}
+		}
+	}
+
+	/**
+	 * Returns the inverse transpose of the upper 3x3 of a column-major 4x4 matrix, as a column-major 4x4
+	 * matrix without translation. Only its directions matter, so it isn't divided by the determinant,
+	 * just flipped if that is negative.
+	 */
+	private static float[] getNormalMatrix(float m[])
+	{
+		float a00 = m[0], a01 = m[4], a02 = m[8];
+		float a10 = m[1], a11 = m[5], a12 = m[9];
+		float a20 = m[2], a21 = m[6], a22 = m[10];
+
+		float c00 = a11 * a22 - a12 * a21;
+		float c01 = a12 * a20 - a10 * a22;
+		float c02 = a10 * a21 - a11 * a20;
+		float sign = (a00 * c00 + a01 * c01 + a02 * c02 < 0.0f ? -1.0f : 1.0f);
+
+		float result[] = new float[16];
+		result[0] = sign * c00;
+		result[4] = sign * c01;
+		result[8] = sign * c02;
+		result[1] = sign * (a02 * a21 - a01 * a22);
+		result[5] = sign * (a00 * a22 - a02 * a20);
+		result[9] = sign * (a01 * a20 - a00 * a21);
+		result[2] = sign * (a01 * a12 - a02 * a11);
+		result[6] = sign * (a02 * a10 - a00 * a12);
+		result[10] = sign * (a00 * a11 - a01 * a10);
+		result[15] = 1.0f;
+
+		return result;
+	}
+
+	/**
+	 * Grows the arrays describing static objects to hold the given number of them.
+	 */
+	private void ensureStaticCapacity(int capacity)
+	{
+		if (mStaticNodes.length < capacity)
+		{
+			mStaticNodes = new int[capacity];
+			mStaticObjects = new SceneObject[capacity];
+			mStaticMatrices = new float[16 * capacity];
+			mStaticMeshes = new Mesh[capacity][];
+			mStaticMaterials = new Material[capacity][];
+		}
+	}
+
+	/**
+	 * Returns the OpenGL primitive type for the given size of polygon.
+	 */
+	private static int getPrimitiveType(int verticesPerPolygon)
+	{
+		switch (verticesPerPolygon)
+		{
+		case 1: return GL2.GL_POINTS;
+		case 2: return GL2.GL_LINES;
+		case 3: return GL2.GL_TRIANGLES;
+		default: return GL2.GL_QUADS;
+		}
+	}
+}
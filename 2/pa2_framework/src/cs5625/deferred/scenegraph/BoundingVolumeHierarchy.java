@@ -0,0 +1,468 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.Arrays;
+
+/**
+ * BoundingVolumeHierarchy.java
+ *
+ * A binary tree of axis-aligned boxes over a set of objects, each given by its box in a shared
+ * array (6 floats per object: minX, minY, minZ, maxX, maxY, maxZ). This is the storage and the
+ * builder shared by `SceneBVH` (over scene objects) and `MeshBVH` (over triangles); traversals
+ * live in those classes, since what to do at the leaves differs.
+ *
+ * The tree is built top-down with the binned surface area heuristic (SAH): each node is split
+ * where (area of left box * objects on the left) + (area of right box * objects on the right)
+ * is smallest, evaluated at bin boundaries along each axis. Source: Wald, I. "On fast Construction
+ * of SAH-based Bounding Volume Hierarchies." IEEE Symposium on Interactive Ray Tracing, 2007.
+ *
+ * Nodes are stored in arrays with every node's children after it (the two children of a node are
+ * adjacent), so a bottom-up refit is a single reverse pass.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+class BoundingVolumeHierarchy
+{
+	/* Build parameters: bins per axis, most objects in a leaf, and the cost of visiting a node
+	 * relative to testing an object (for measuring tree quality). */
+	private static final int BIN_COUNT = 16;
+	private static final int MAX_LEAF_SIZE = 4;
+	private static final float TRAVERSAL_COST = 1.0f;
+
+	/* Objects (indices of their boxes), reordered so that every leaf's objects are contiguous. */
+	private int mObjects[] = new int[0];
+	private int mObjectCount = 0;
+
+	/* Tree nodes: 6 floats of bounds each, then either the index of the first child (the second
+	 * child follows it) for interior nodes, or the first object for leaves, and the object count
+	 * (0 for interior nodes). */
+	private float mNodeBounds[] = new float[0];
+	private int mNodeFirst[] = new int[0];
+	private int mNodeObjectCounts[] = new int[0];
+	private int mNodeCount = 0;
+	private int mDepth = 0;
+
+	/* Build scratch space: copies of the object boxes and centroids, kept in the same order as
+	 * `mObjects` so the build reads them sequentially, and per-bin counts and bounds for each axis. */
+	private float mSortedBoxes[] = new float[0];
+	private float mCentroids[] = new float[0];
+	private int mBinCounts[] = new int[3 * BIN_COUNT];
+	private float mBinBounds[] = new float[3 * 6 * BIN_COUNT];
+	private float mRightAreas[] = new float[BIN_COUNT];
+	private float mSweepBounds[] = new float[6];
+
+	/**
+	 * Builds the tree from scratch.
+	 *
+	 * @param boxes Object boxes, 6 floats each.
+	 * @param objects The indices of the boxes to build over. Copied, not kept.
+	 * @param objectCount The number of entries of `objects` to use.
+	 */
+	public void build(float boxes[], int objects[], int objectCount)
+	{
+		if (mCentroids.length < 3 * objectCount)
+		{
+			mObjects = new int[objectCount];
+			mSortedBoxes = new float[6 * objectCount];
+			mCentroids = new float[3 * objectCount];
+			mNodeBounds = new float[6 * 2 * objectCount];
+			mNodeFirst = new int[2 * objectCount];
+			mNodeObjectCounts = new int[2 * objectCount];
+		}
+
+		System.arraycopy(objects, 0, mObjects, 0, objectCount);
+		mObjectCount = objectCount;
+
+		for (int i = 0; i < objectCount; ++i)
+		{
+			System.arraycopy(boxes, 6 * mObjects[i], mSortedBoxes, 6 * i, 6);
+
+			for (int c = 0; c < 3; ++c)
+			{
+				mCentroids[3 * i + c] = 0.5f * (mSortedBoxes[6 * i + c] + mSortedBoxes[6 * i + 3 + c]);
+			}
+		}
+
+		mNodeCount = 0;
+		mDepth = 0;
+
+		if (objectCount > 0)
+		{
+			mNodeCount = 1;
+			buildNode(0, 0, objectCount, 1);
+		}
+	}
+
+	/**
+	 * Builds the subtree of the given node over objects [start, end), choosing its split with the binned SAH.
+	 */
+	private void buildNode(int node, int start, int end, int depth)
+	{
+		float boxes[] = mSortedBoxes;
+		int count = end - start;
+		mDepth = Math.max(mDepth, depth);
+
+		/* Node bounds, and bounds of the object centroids (which the bins divide). */
+		int nb = 6 * node;
+		setEmpty(mNodeBounds, nb);
+
+		float centroidMin[] = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		float centroidMax[] = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
+		for (int i = start; i < end; ++i)
+		{
+			include(mNodeBounds, nb, boxes, 6 * i);
+
+			for (int c = 0; c < 3; ++c)
+			{
+				centroidMin[c] = Math.min(centroidMin[c], mCentroids[3 * i + c]);
+				centroidMax[c] = Math.max(centroidMax[c], mCentroids[3 * i + c]);
+			}
+		}
+
+		if (count <= MAX_LEAF_SIZE)
+		{
+			makeLeaf(node, start, count);
+			return;
+		}
+
+		/* Sort the objects into bins along all three axes in one pass. */
+		float binScales[] = new float[3];
+
+		for (int axis = 0; axis < 3; ++axis)
+		{
+			float extent = centroidMax[axis] - centroidMin[axis];
+			binScales[axis] = (extent > 0.0f ? BIN_COUNT / extent : 0.0f);
+		}
+
+		for (int b = 0; b < 3 * BIN_COUNT; ++b)
+		{
+			mBinCounts[b] = 0;
+			setEmpty(mBinBounds, 6 * b);
+		}
+
+		for (int i = start; i < end; ++i)
+		{
+			for (int axis = 0; axis < 3; ++axis)
+			{
+				int b = axis * BIN_COUNT + binOf(mCentroids[3 * i + axis], centroidMin[axis], binScales[axis]);
+				++mBinCounts[b];
+				include(mBinBounds, 6 * b, boxes, 6 * i);
+			}
+		}
+
+		/* Find the cheapest bin boundary over all three axes. */
+		float bestCost = Float.POSITIVE_INFINITY;
+		int bestAxis = -1;
+		int bestBin = -1;
+
+		for (int axis = 0; axis < 3; ++axis)
+		{
+			if (binScales[axis] == 0.0f)
+			{
+				continue;
+			}
+
+			int firstBin = axis * BIN_COUNT;
+
+			/* Sweep from the right to get the area right of each boundary, then from the left to price each split. */
+			float sweep[] = mSweepBounds;
+			setEmpty(sweep, 0);
+
+			for (int b = BIN_COUNT - 1; b > 0; --b)
+			{
+				include(sweep, 0, mBinBounds, 6 * (firstBin + b));
+				mRightAreas[b] = halfArea(sweep, 0);
+			}
+
+			setEmpty(sweep, 0);
+			int leftCount = 0;
+
+			for (int b = 0; b < BIN_COUNT - 1; ++b)
+			{
+				include(sweep, 0, mBinBounds, 6 * (firstBin + b));
+				leftCount += mBinCounts[firstBin + b];
+				int rightCount = count - leftCount;
+
+				if (leftCount == 0 || rightCount == 0)
+				{
+					continue;
+				}
+
+				float cost = halfArea(sweep, 0) * leftCount + mRightAreas[b + 1] * rightCount;
+
+				if (cost < bestCost)
+				{
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = b;
+				}
+			}
+		}
+
+		/* Partition the objects; if all centroids coincide, just split the range in half. */
+		int middle;
+
+		if (bestAxis < 0)
+		{
+			middle = start + count / 2;
+		}
+		else
+		{
+			float binScale = binScales[bestAxis];
+			int left = start;
+			int right = end - 1;
+
+			while (left <= right)
+			{
+				if (binOf(mCentroids[3 * left + bestAxis], centroidMin[bestAxis], binScale) <= bestBin)
+				{
+					++left;
+				}
+				else
+				{
+					swapObjects(left, right);
+					--right;
+				}
+			}
+
+			middle = left;
+		}
+
+		int firstChild = mNodeCount;
+		mNodeCount += 2;
+		mNodeFirst[node] = firstChild;
+		mNodeObjectCounts[node] = 0;
+
+		buildNode(firstChild, start, middle, depth + 1);
+		buildNode(firstChild + 1, middle, end, depth + 1);
+	}
+
+	/**
+	 * Returns the bin a centroid coordinate falls in.
+	 */
+	private static int binOf(float value, float min, float binScale)
+	{
+		return Math.min(BIN_COUNT - 1, (int)((value - min) * binScale));
+	}
+
+	/**
+	 * Makes the given node a leaf holding `count` objects starting at `first`.
+	 */
+	private void makeLeaf(int node, int first, int count)
+	{
+		mNodeFirst[node] = first;
+		mNodeObjectCounts[node] = count;
+	}
+
+	/**
+	 * Swaps two objects (and their boxes and centroids) in the object array.
+	 */
+	private void swapObjects(int i, int j)
+	{
+		int object = mObjects[i];
+		mObjects[i] = mObjects[j];
+		mObjects[j] = object;
+
+		for (int c = 0; c < 6; ++c)
+		{
+			float bound = mSortedBoxes[6 * i + c];
+			mSortedBoxes[6 * i + c] = mSortedBoxes[6 * j + c];
+			mSortedBoxes[6 * j + c] = bound;
+		}
+
+		for (int c = 0; c < 3; ++c)
+		{
+			float centroid = mCentroids[3 * i + c];
+			mCentroids[3 * i + c] = mCentroids[3 * j + c];
+			mCentroids[3 * j + c] = centroid;
+		}
+	}
+
+	/**
+	 * Frees the build scratch space and trims the node arrays to the nodes in use, for trees which
+	 * are built once and kept. The tree can still be queried, refit, and rebuilt afterwards.
+	 */
+	public void compact()
+	{
+		mSortedBoxes = new float[0];
+		mCentroids = new float[0];
+		mObjects = Arrays.copyOf(mObjects, mObjectCount);
+		mNodeBounds = Arrays.copyOf(mNodeBounds, 6 * mNodeCount);
+		mNodeFirst = Arrays.copyOf(mNodeFirst, mNodeCount);
+		mNodeObjectCounts = Arrays.copyOf(mNodeObjectCounts, mNodeCount);
+	}
+
+	/**
+	 * Recomputes all node bounds from the given object boxes, keeping the topology.
+	 */
+	public void refit(float boxes[])
+	{
+		/* Children always come after their parent, so a reverse pass finishes children first. */
+		for (int node = mNodeCount - 1; node >= 0; --node)
+		{
+			int nb = 6 * node;
+			setEmpty(mNodeBounds, nb);
+
+			if (mNodeObjectCounts[node] > 0)
+			{
+				int first = mNodeFirst[node];
+
+				for (int i = first; i < first + mNodeObjectCounts[node]; ++i)
+				{
+					include(mNodeBounds, nb, boxes, 6 * mObjects[i]);
+				}
+			}
+			else
+			{
+				include(mNodeBounds, nb, mNodeBounds, 6 * mNodeFirst[node]);
+				include(mNodeBounds, nb, mNodeBounds, 6 * (mNodeFirst[node] + 1));
+			}
+		}
+	}
+
+	/**
+	 * Returns the SAH cost of the tree: the expected cost of finding everything a random ray
+	 * through the root box hits, in units of object tests.
+	 */
+	public float computeCost()
+	{
+		if (mNodeCount == 0)
+		{
+			return 0.0f;
+		}
+
+		float rootArea = halfArea(mNodeBounds, 0);
+
+		if (rootArea <= 0.0f)
+		{
+			return mObjectCount;
+		}
+
+		float cost = 0.0f;
+
+		for (int node = 0; node < mNodeCount; ++node)
+		{
+			float area = halfArea(mNodeBounds, 6 * node);
+			cost += area * (mNodeObjectCounts[node] > 0 ? mNodeObjectCounts[node] : TRAVERSAL_COST);
+		}
+
+		return cost / rootArea;
+	}
+
+	public int getObjectCount()
+	{
+		return mObjectCount;
+	}
+
+	public int[] getObjects()
+	{
+		return mObjects;
+	}
+
+	public int getNodeCount()
+	{
+		return mNodeCount;
+	}
+
+	public int getDepth()
+	{
+		return mDepth;
+	}
+
+	public float[] getNodeBounds()
+	{
+		return mNodeBounds;
+	}
+
+	public int[] getNodeFirst()
+	{
+		return mNodeFirst;
+	}
+
+	public int[] getNodeObjectCounts()
+	{
+		return mNodeObjectCounts;
+	}
+
+	/**
+	 * Returns the distance along a ray to where it enters the box at `bounds[offset]`, or
+	 * infinity if it misses the box or enters it beyond `maxDistance`. The ray is given by
+	 * its origin and the reciprocals of its direction components (the "slab" test).
+	 */
+	public static float intersectBox(float bounds[], int offset, float ox, float oy, float oz,
+			float invDx, float invDy, float invDz, float maxDistance)
+	{
+		float near = 0.0f;
+		float far = maxDistance;
+
+		/* A ray parallel to a slab and lying on one of its planes gives 0 * infinity = NaN. It is
+		 * inside the slab, and the comparisons below let a NaN leave the interval unchanged. */
+		near = enterSlab(near, (bounds[offset + 0] - ox) * invDx, (bounds[offset + 3] - ox) * invDx);
+		far = exitSlab(far, (bounds[offset + 0] - ox) * invDx, (bounds[offset + 3] - ox) * invDx);
+		near = enterSlab(near, (bounds[offset + 1] - oy) * invDy, (bounds[offset + 4] - oy) * invDy);
+		far = exitSlab(far, (bounds[offset + 1] - oy) * invDy, (bounds[offset + 4] - oy) * invDy);
+		near = enterSlab(near, (bounds[offset + 2] - oz) * invDz, (bounds[offset + 5] - oz) * invDz);
+		far = exitSlab(far, (bounds[offset + 2] - oz) * invDz, (bounds[offset + 5] - oz) * invDz);
+
+		return (near <= far ? near : Float.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the later of `near` and the distance at which a ray enters the slab it crosses at t0 and t1.
+	 */
+	private static float enterSlab(float near, float t0, float t1)
+	{
+		float enter = Math.min(t0, t1);
+		return (enter > near ? enter : near);
+	}
+
+	/**
+	 * Returns the earlier of `far` and the distance at which a ray leaves the slab it crosses at t0 and t1.
+	 */
+	private static float exitSlab(float far, float t0, float t1)
+	{
+		float exit = Math.max(t0, t1);
+		return (exit < far ? exit : far);
+	}
+
+	/**
+	 * Sets the box at `array[offset]` to the empty box.
+	 */
+	public static void setEmpty(float array[], int offset)
+	{
+		array[offset + 0] = array[offset + 1] = array[offset + 2] = Float.POSITIVE_INFINITY;
+		array[offset + 3] = array[offset + 4] = array[offset + 5] = Float.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Grows the box at `array[offset]` to include the box at `other[otherOffset]`.
+	 */
+	public static void include(float array[], int offset, float other[], int otherOffset)
+	{
+		for (int c = 0; c < 3; ++c)
+		{
+			array[offset + c] = Math.min(array[offset + c], other[otherOffset + c]);
+			array[offset + 3 + c] = Math.max(array[offset + 3 + c], other[otherOffset + 3 + c]);
+		}
+	}
+
+	/**
+	 * Returns half the surface area of the box at `array[offset]`, or 0 if it is empty.
+	 */
+	public static float halfArea(float array[], int offset)
+	{
+		float dx = array[offset + 3] - array[offset + 0];
+		float dy = array[offset + 4] - array[offset + 1];
+		float dz = array[offset + 5] - array[offset + 2];
+
+		if (dx < 0.0f || dy < 0.0f || dz < 0.0f)
+		{
+			return 0.0f;
+		}
+
+		return dx * dy + dy * dz + dz * dx;
+	}
+}
@@ -0,0 +1,973 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Quat4f;
+
+/**
+ * FlattenedScene.java
+ *
+ * A flattened copy of a scenegraph, for traversing and updating large scenes without chasing
+ * pointers through SceneObjects, Point3fs, Quat4fs and child lists.
+ *
+ * Nodes are stored in depth-first preorder, so every parent comes before its children and every
+ * subtree occupies a contiguous range [i, getSubtreeEnd(i)). Per-node data lives in parallel arrays
+ * (structure of arrays): parent index, node kind, visibility, local position/orientation/scale, and
+ * the world matrix. The world matrices are composed from the local transforms in one linear pass over
+ * the arrays, since a parent's world matrix is always ready by the time its children are reached, and
+ * only for nodes whose local transform or some ancestor's changed; the others keep their matrix.
+ *
+ * Each node also gets a world-space axis-aligned bounding box around its own meshes, and one around
+ * its whole subtree, so culling can reject a subtree with a single test. These are computed after
+ * the world matrices, with one more linear pass (from each mesh's cached object-space box) and one
+ * reverse pass (merging each subtree into its parent's).
+ *
+ * The SceneObjects remain the authoritative scene description. `update()` rebuilds the node order
+ * when children were added or removed since the last update (see `SceneObject.getStructureVersion()`),
+ * then copies every node's position, orientation, scale and visibility. This copy is the one place an
+ * update reads the SceneObjects' transforms, once per node: they have to be read on every update since
+ * they are commonly modified in place through their getters, which no setter would notice. Everything
+ * after it (change detection, world matrices, bounds) only touches the arrays. Geometry nodes also get
+ * their list of meshes and their occluder and static settings copied (see `getMesh()`). The copy also
+ * lets it be read on another thread (see `RenderSnapshotBuffer`) while the scenegraph changes, so
+ * readers on that thread should only use `getNode()` to identify nodes, not to read their state.
+ *
+ * While copying, each node's local transform, visibility and geometry (meshes, their materials, and
+ * settings) are compared with the previous copy, and the parts which differ are stamped with a new version number; the others keep the previous copy's
+ * versions. A node's subtree version is the largest version in its subtree, so a renderer can tell that
+ * nothing below a node changed from one number. The previous copy may be another FlattenedScene of the
+ * same scenegraph, so several copies used in turn (see `RenderSnapshotBuffer`) share one version history.
+ * Version numbers come from one counter (see `nextVersion()`), so copies in the same history with the
+ * same version hold the same scene.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class FlattenedScene
+{
+	/* Node kinds, so traversals can dispatch without `instanceof`. */
+	public static final byte KIND_OTHER = 0;
+	public static final byte KIND_GEOMETRY = 1;
+	public static final byte KIND_LIGHT = 2;
+
+	/* Source of version numbers; see `nextVersion()`. */
+	private static AtomicInteger sVersions = new AtomicInteger();
+
+	/* The scenegraph this is a copy of. */
+	private SceneObject mRoot;
+	private int mBuiltStructureVersion;
+	private boolean mBuilt = false;
+	private int mRebuildCount = 0;
+
+	/* Node count and the per-node arrays, which may have extra capacity at the end. */
+	private int mNodeCount = 0;
+	private SceneObject mNodes[] = new SceneObject[0];
+	private int mParents[] = new int[0];
+	private int mSubtreeEnds[] = new int[0];
+	private byte mKinds[] = new byte[0];
+	private boolean mVisible[] = new boolean[0];
+
+	/* Local transforms: 3 floats of position, 4 of orientation (x, y, z, w), and 1 of scale per node. */
+	private float mLocalPositions[] = new float[0];
+	private float mLocalOrientations[] = new float[0];
+	private float mLocalScales[] = new float[0];
+
+	/* World matrices, 16 floats per node in OpenGL (column-major) order. */
+	private float mWorldMatrices[] = new float[0];
+
+	/* Whether each node's world matrix changed in the current update, so its children know to recompute
+	 * theirs. Only meaningful during `update()`. */
+	private boolean mWorldChanged[] = new boolean[0];
+
+	/* World matrix of the root's parent (identity if it has none), in the same layout as the world
+	 * matrices, since the root may be a subtree of a bigger scenegraph. */
+	private float mRootParentMatrix[] = new float[16];
+
+	/* World-space bounds of each node's own meshes and of its whole subtree, 6 floats per node
+	 * (minX, minY, minZ, maxX, maxY, maxZ). Nodes without meshes have empty boxes (min > max). */
+	private float mBounds[] = new float[0];
+	private float mSubtreeBounds[] = new float[0];
+
+	/* Whether each node's subtree contains any lights; culling must not skip those. */
+	private boolean mSubtreeHasLights[] = new boolean[0];
+
+	/* Meshes of each geometry node as of the last update: node i's are at [mMeshStarts[i], mMeshStarts[i + 1])
+	 * in mMeshes. The scratch arrays hold the layout being built, so the previous one can still be compared
+	 * with, even when the previous copy is this one. */
+	private Mesh mMeshes[] = new Mesh[0];
+	private int mMeshStarts[] = new int[1];
+	private Mesh mScratchMeshes[] = new Mesh[0];
+	private int mScratchMeshStarts[] = new int[1];
+
+	/* Occluder and static settings of each geometry node, and its occluder proxy (or null), as of the last update. */
+	private boolean mOccluders[] = new boolean[0];
+	private Mesh mOccluderProxies[] = new Mesh[0];
+	private boolean mStatic[] = new boolean[0];
+
+	/* Version of each node's transform, visibility and geometry (meshes, materials and settings), and the
+	 * largest version in each subtree. The material state is the largest `Mesh.getMaterialVersion()` of a
+	 * node's meshes. */
+	private int mTransformVersions[] = new int[0];
+	private int mVisibilityVersions[] = new int[0];
+	private int mGeometryVersions[] = new int[0];
+	private int mMaterialStates[] = new int[0];
+	private int mSubtreeVersions[] = new int[0];
+
+	/* Indices of all geometry and all light nodes, in order. */
+	private int mGeometryIndices[] = new int[0];
+	private int mGeometryCount = 0;
+	private int mLightIndices[] = new int[0];
+	private int mLightCount = 0;
+
+	/**
+	 * Creates a flattened copy of the scenegraph below (and including) `root`.
+	 * Nothing is copied until the first call to `update()`.
+	 */
+	public FlattenedScene(SceneObject root)
+	{
+		mRoot = root;
+	}
+
+	/**
+	 * Returns the root of the scenegraph this is a copy of.
+	 */
+	public SceneObject getRoot()
+	{
+		return mRoot;
+	}
+
+	/**
+	 * Returns a version number greater than all numbers it returned before. Safe to call from any thread.
+	 */
+	public static int nextVersion()
+	{
+		return sVersions.incrementAndGet();
+	}
+
+	/**
+	 * Brings this copy up to date with the scenegraph: rebuilds the node order if the scenegraph
+	 * structure changed, then copies all world matrices and visibility flags.
+	 * Nodes which changed since the last update get new versions.
+	 */
+	public void update()
+	{
+		update(this);
+	}
+
+	/**
+	 * Same as `update()`, but compares with another copy of the same scenegraph to find out which nodes
+	 * changed, and gives unchanged nodes that copy's versions. `previous` must not be updated meanwhile.
+	 *
+	 * @param previous The copy made last, or this copy. Its versions are only used if it has the same root
+	 *        and was laid out for the same scenegraph structure; otherwise all nodes get new versions.
+	 */
+	public void update(FlattenedScene previous)
+	{
+		int version = nextVersion();
+
+		if (!mBuilt || mBuiltStructureVersion != SceneObject.getStructureVersion())
+		{
+			rebuild();
+
+			/* The node order changed, so this copy's old versions no longer match its nodes. */
+			if (previous == this)
+			{
+				previous = null;
+			}
+		}
+
+		if (previous != null && (!previous.mBuilt || previous.mRoot != mRoot || previous.mBuiltStructureVersion != mBuiltStructureVersion))
+		{
+			previous = null;
+		}
+
+		copyLocalTransforms(previous, version);
+		copyGeometry(previous, version);
+		updateSubtreeVersions();
+		updateWorldMatrices(previous, version);
+		updateBounds();
+	}
+
+	/**
+	 * Lays out the nodes in depth-first preorder and fills in everything which depends only
+	 * on the scenegraph structure.
+	 */
+	private void rebuild()
+	{
+		/* Walk the tree with an explicit stack, since very deep scenes would overflow the call stack. */
+		ArrayList<SceneObject> order = new ArrayList<SceneObject>();
+		ArrayList<SceneObject> stack = new ArrayList<SceneObject>();
+		stack.add(mRoot);
+
+		while (!stack.isEmpty())
+		{
+			SceneObject node = stack.remove(stack.size() - 1);
+			order.add(node);
+
+			/* Push children in reverse so they come off the stack in order. */
+			for (int c = node.getChildren().size() - 1; c >= 0; --c)
+			{
+				stack.add(node.getChildren().get(c));
+			}
+		}
+
+		mNodeCount = order.size();
+		ensureCapacity(mNodeCount);
+		mGeometryCount = 0;
+		mLightCount = 0;
+
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			SceneObject node = order.get(i);
+			mNodes[i] = node;
+			mSubtreeEnds[i] = i + 1;
+			mSubtreeHasLights[i] = false;
+
+			if (node instanceof Geometry)
+			{
+				mKinds[i] = KIND_GEOMETRY;
+				mGeometryIndices[mGeometryCount++] = i;
+			}
+			else if (node instanceof Light)
+			{
+				mKinds[i] = KIND_LIGHT;
+				mLightIndices[mLightCount++] = i;
+			}
+			else
+			{
+				mKinds[i] = KIND_OTHER;
+			}
+		}
+
+		/* Parent indices: in preorder, a node's parent is the closest earlier node which is its parent object.
+		 * Track the index of each node on the current root-to-node path. */
+		int path[] = new int[mNodeCount];
+		int pathLength = 0;
+
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			SceneObject parent = (i == 0 ? null : mNodes[i].getParent());
+
+			while (pathLength > 0 && mNodes[path[pathLength - 1]] != parent)
+			{
+				--pathLength;
+			}
+
+			mParents[i] = (pathLength > 0 ? path[pathLength - 1] : -1);
+			path[pathLength++] = i;
+		}
+
+		/* Subtree ends: each node's subtree ends where the last of its children's subtrees ends.
+		 * Likewise, a subtree has lights if any of its children's subtrees do. */
+		for (int i = mNodeCount - 1; i >= 0; --i)
+		{
+			mSubtreeHasLights[i] |= (mKinds[i] == KIND_LIGHT);
+
+			if (i > 0)
+			{
+				int parent = mParents[i];
+				mSubtreeEnds[parent] = Math.max(mSubtreeEnds[parent], mSubtreeEnds[i]);
+				mSubtreeHasLights[parent] |= mSubtreeHasLights[i];
+			}
+		}
+
+		/* Don't keep removed objects alive through the spare capacity. */
+		for (int i = mNodeCount; i < mNodes.length; ++i)
+		{
+			mNodes[i] = null;
+		}
+
+		mBuiltStructureVersion = SceneObject.getStructureVersion();
+		mBuilt = true;
+		++mRebuildCount;
+	}
+
+	/**
+	 * Grows the per-node arrays to hold at least `count` nodes.
+	 */
+	private void ensureCapacity(int count)
+	{
+		if (mNodes.length >= count)
+		{
+			return;
+		}
+
+		mNodes = new SceneObject[count];
+		mParents = new int[count];
+		mSubtreeEnds = new int[count];
+		mKinds = new byte[count];
+		mVisible = new boolean[count];
+		mLocalPositions = new float[3 * count];
+		mLocalOrientations = new float[4 * count];
+		mLocalScales = new float[count];
+		mWorldMatrices = new float[16 * count];
+		mWorldChanged = new boolean[count];
+		mBounds = new float[6 * count];
+		mSubtreeBounds = new float[6 * count];
+		mSubtreeHasLights = new boolean[count];
+		mTransformVersions = new int[count];
+		mVisibilityVersions = new int[count];
+		mGeometryVersions = new int[count];
+		mMeshStarts = new int[count + 1];
+		mScratchMeshStarts = new int[count + 1];
+		mOccluders = new boolean[count];
+		mOccluderProxies = new Mesh[count];
+		mStatic = new boolean[count];
+		mMaterialStates = new int[count];
+		mSubtreeVersions = new int[count];
+		mGeometryIndices = new int[count];
+		mLightIndices = new int[count];
+	}
+
+	/**
+	 * Copies every node's position, orientation, scale, and visibility into the arrays. A node is
+	 * recorded as visible only if it and all its ancestors are. Nodes whose transform or visibility
+	 * differ from `previous` (or all nodes, if it is null) get the given version.
+	 */
+	private void copyLocalTransforms(FlattenedScene previous, int version)
+	{
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			SceneObject node = mNodes[i];
+			Point3f position = node.getPosition();
+			Quat4f orientation = node.getOrientation();
+			float scale = node.getScale();
+			boolean visible = node.isVisible() && (mParents[i] < 0 || mVisible[mParents[i]]);
+
+			/* Compare before copying, since `previous` may be this copy. */
+			if (previous == null
+					|| previous.mLocalPositions[3 * i + 0] != position.x
+					|| previous.mLocalPositions[3 * i + 1] != position.y
+					|| previous.mLocalPositions[3 * i + 2] != position.z
+					|| previous.mLocalOrientations[4 * i + 0] != orientation.x
+					|| previous.mLocalOrientations[4 * i + 1] != orientation.y
+					|| previous.mLocalOrientations[4 * i + 2] != orientation.z
+					|| previous.mLocalOrientations[4 * i + 3] != orientation.w
+					|| previous.mLocalScales[i] != scale)
+			{
+				mTransformVersions[i] = version;
+			}
+			else
+			{
+				mTransformVersions[i] = previous.mTransformVersions[i];
+			}
+
+			if (previous == null || previous.mVisible[i] != visible)
+			{
+				mVisibilityVersions[i] = version;
+			}
+			else
+			{
+				mVisibilityVersions[i] = previous.mVisibilityVersions[i];
+			}
+
+			mLocalPositions[3 * i + 0] = position.x;
+			mLocalPositions[3 * i + 1] = position.y;
+			mLocalPositions[3 * i + 2] = position.z;
+
+			mLocalOrientations[4 * i + 0] = orientation.x;
+			mLocalOrientations[4 * i + 1] = orientation.y;
+			mLocalOrientations[4 * i + 2] = orientation.z;
+			mLocalOrientations[4 * i + 3] = orientation.w;
+
+			mLocalScales[i] = scale;
+			mVisible[i] = visible;
+		}
+	}
+
+	/**
+	 * Brings the world matrices up to date in a single pass over the arrays. A node's matrix is only
+	 * recomputed if its transform got this update's version (see `copyLocalTransforms()`) or its
+	 * parent's matrix changed; otherwise it is taken from `previous` (or kept, if that is this copy).
+	 */
+	private void updateWorldMatrices(FlattenedScene previous, int version)
+	{
+		float world[] = mWorldMatrices;
+
+		/* Outside ancestors of the root are only read once per update, through their own caches. */
+		boolean rootParentChanged = updateRootParentMatrix(previous);
+
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			int parent = mParents[i];
+			boolean changed = (previous == null || mTransformVersions[i] == version ||
+					(parent < 0 ? rootParentChanged : mWorldChanged[parent]));
+
+			mWorldChanged[i] = changed;
+
+			if (!changed)
+			{
+				if (previous != this)
+				{
+					System.arraycopy(previous.mWorldMatrices, 16 * i, world, 16 * i, 16);
+				}
+
+				continue;
+			}
+
+			/* Normalize the orientation, as `Util.rotateTuple()` effectively does. */
+			float qx = mLocalOrientations[4 * i + 0];
+			float qy = mLocalOrientations[4 * i + 1];
+			float qz = mLocalOrientations[4 * i + 2];
+			float qw = mLocalOrientations[4 * i + 3];
+			float lengthSquared = qx * qx + qy * qy + qz * qz + qw * qw;
+
+			if (lengthSquared > 0.0f)
+			{
+				float invLength = 1.0f / (float)Math.sqrt(lengthSquared);
+				qx *= invLength;
+				qy *= invLength;
+				qz *= invLength;
+				qw *= invLength;
+			}
+			else
+			{
+				qx = qy = qz = 0.0f;
+				qw = 1.0f;
+			}
+
+			/* Local matrix T * R * S, upper 3x3 by columns. */
+			float s = mLocalScales[i];
+			float l00 = (1.0f - 2.0f * (qy * qy + qz * qz)) * s;
+			float l10 = 2.0f * (qx * qy + qz * qw) * s;
+			float l20 = 2.0f * (qx * qz - qy * qw) * s;
+			float l01 = 2.0f * (qx * qy - qz * qw) * s;
+			float l11 = (1.0f - 2.0f * (qx * qx + qz * qz)) * s;
+			float l21 = 2.0f * (qy * qz + qx * qw) * s;
+			float l02 = 2.0f * (qx * qz + qy * qw) * s;
+			float l12 = 2.0f * (qy * qz - qx * qw) * s;
+			float l22 = (1.0f - 2.0f * (qx * qx + qy * qy)) * s;
+			float tx = mLocalPositions[3 * i + 0];
+			float ty = mLocalPositions[3 * i + 1];
+			float tz = mLocalPositions[3 * i + 2];
+
+			/* World = parent world * local. Both are affine, so the bottom row stays (0, 0, 0, 1). */
+			float parentMatrix[] = (parent < 0 ? mRootParentMatrix : world);
+			int o = 16 * i;
+			int p = (parent < 0 ? 0 : 16 * parent);
+
+			for (int r = 0; r < 3; ++r)
+			{
+				float p0 = parentMatrix[p + r], p1 = parentMatrix[p + 4 + r], p2 = parentMatrix[p + 8 + r];
+
+				world[o + r] = p0 * l00 + p1 * l10 + p2 * l20;
+				world[o + 4 + r] = p0 * l01 + p1 * l11 + p2 * l21;
+				world[o + 8 + r] = p0 * l02 + p1 * l12 + p2 * l22;
+				world[o + 12 + r] = p0 * tx + p1 * ty + p2 * tz + parentMatrix[p + 12 + r];
+			}
+
+			world[o + 3] = 0.0f;
+			world[o + 7] = 0.0f;
+			world[o + 11] = 0.0f;
+			world[o + 15] = 1.0f;
+		}
+	}
+
+	/**
+	 * Copies the world matrix of the root's parent (or identity, if it has none) into mRootParentMatrix,
+	 * and returns whether it differs from `previous`'s (always true if that is null).
+	 */
+	private boolean updateRootParentMatrix(FlattenedScene previous)
+	{
+		Matrix4f parent = (mRoot.getParent() == null ? null : mRoot.getParent().getWorldMatrix());
+		float m[] = mRootParentMatrix;
+		boolean changed = (previous == null);
+
+		for (int column = 0; column < 4; ++column)
+		{
+			for (int row = 0; row < 4; ++row)
+			{
+				float value = (parent == null ? (row == column ? 1.0f : 0.0f) : parent.getElement(row, column));
+
+				/* Compare before copying, since `previous` may be this copy. */
+				changed |= (previous != null && previous.mRootParentMatrix[4 * column + row] != value);
+				m[4 * column + row] = value;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Copies the meshes, occluder proxy, and occluder and static settings of every geometry node. Nodes
+	 * whose meshes, their materials' versions, or settings differ from those seen by `previous` (or all
+	 * nodes, if it is null) get the given version.
+	 */
+	private void copyGeometry(FlattenedScene previous, int version)
+	{
+		Mesh meshes[] = mScratchMeshes;
+		int starts[] = mScratchMeshStarts;
+		int meshCount = 0;
+
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			boolean occluder = false, isStatic = false;
+			Mesh proxy = null;
+			int state = 0;
+
+			starts[i] = meshCount;
+
+			if (mKinds[i] == KIND_GEOMETRY)
+			{
+				Geometry geometry = (Geometry)mNodes[i];
+				List<Mesh> nodeMeshes = geometry.getMeshes();
+
+				if (meshCount + nodeMeshes.size() > meshes.length)
+				{
+					meshes = Arrays.copyOf(meshes, Math.max(meshCount + nodeMeshes.size(), 2 * meshes.length));
+				}
+
+				for (int m = 0; m < nodeMeshes.size(); ++m)
+				{
+					Mesh mesh = nodeMeshes.get(m);
+					meshes[meshCount++] = mesh;
+					state = Math.max(state, mesh.getMaterialVersion());
+				}
+
+				occluder = geometry.isOccluder();
+				proxy = geometry.getOccluderProxy();
+				isStatic = geometry.isStatic();
+			}
+
+			/* Compare before copying, since `previous` may be this copy; its meshes are in the other arrays. */
+			if (previous == null || previous.mMaterialStates[i] != state || previous.mOccluders[i] != occluder ||
+					previous.mOccluderProxies[i] != proxy || previous.mStatic[i] != isStatic ||
+					!previous.hasMeshes(i, meshes, starts[i], meshCount))
+			{
+				mGeometryVersions[i] = version;
+			}
+			else
+			{
+				mGeometryVersions[i] = previous.mGeometryVersions[i];
+			}
+
+			mMaterialStates[i] = state;
+			mOccluders[i] = occluder;
+			mOccluderProxies[i] = proxy;
+			mStatic[i] = isStatic;
+		}
+
+		starts[mNodeCount] = meshCount;
+
+		/* Don't keep removed meshes alive through the spare capacity. */
+		Arrays.fill(meshes, meshCount, meshes.length, null);
+
+		mScratchMeshes = mMeshes;
+		mScratchMeshStarts = mMeshStarts;
+		mMeshes = meshes;
+		mMeshStarts = starts;
+	}
+
+	/**
+	 * Returns whether the given node has exactly the meshes in [start, end) of `meshes`, in that order.
+	 */
+	private boolean hasMeshes(int index, Mesh meshes[], int start, int end)
+	{
+		int first = mMeshStarts[index];
+
+		if (mMeshStarts[index + 1] - first != end - start)
+		{
+			return false;
+		}
+
+		for (int m = 0; m < end - start; ++m)
+		{
+			if (mMeshes[first + m] != meshes[start + m])
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Computes every node's subtree version, in one reverse pass like the subtree bounds.
+	 */
+	private void updateSubtreeVersions()
+	{
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			mSubtreeVersions[i] = Math.max(mTransformVersions[i], Math.max(mVisibilityVersions[i], mGeometryVersions[i]));
+		}
+
+		for (int i = mNodeCount - 1; i > 0; --i)
+		{
+			int parent = mParents[i];
+			mSubtreeVersions[parent] = Math.max(mSubtreeVersions[parent], mSubtreeVersions[i]);
+		}
+	}
+
+	/**
+	 * Computes every node's own and subtree bounds from the world matrices.
+	 */
+	private void updateBounds()
+	{
+		float world[] = mWorldMatrices;
+
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			int b = 6 * i;
+			mBounds[b + 0] = mBounds[b + 1] = mBounds[b + 2] = Float.POSITIVE_INFINITY;
+			mBounds[b + 3] = mBounds[b + 4] = mBounds[b + 5] = Float.NEGATIVE_INFINITY;
+
+			if (mKinds[i] == KIND_GEOMETRY)
+			{
+				int o = 16 * i;
+
+				for (int m = mMeshStarts[i]; m < mMeshStarts[i + 1]; ++m)
+				{
+					float box[] = mMeshes[m].getBoundingBox();
+
+					if (box[0] > box[3])
+					{
+						continue;
+					}
+
+					/* Transform the box center, and bound the rotated extents by the absolute matrix (Arvo's method). */
+					float cx = 0.5f * (box[0] + box[3]), ex = 0.5f * (box[3] - box[0]);
+					float cy = 0.5f * (box[1] + box[4]), ey = 0.5f * (box[4] - box[1]);
+					float cz = 0.5f * (box[2] + box[5]), ez = 0.5f * (box[5] - box[2]);
+
+					for (int r = 0; r < 3; ++r)
+					{
+						float center = world[o + r] * cx + world[o + 4 + r] * cy + world[o + 8 + r] * cz + world[o + 12 + r];
+						float extent = Math.abs(world[o + r]) * ex + Math.abs(world[o + 4 + r]) * ey + Math.abs(world[o + 8 + r]) * ez;
+
+						mBounds[b + r] = Math.min(mBounds[b + r], center - extent);
+						mBounds[b + 3 + r] = Math.max(mBounds[b + 3 + r], center + extent);
+					}
+				}
+			}
+		}
+
+		System.arraycopy(mBounds, 0, mSubtreeBounds, 0, 6 * mNodeCount);
+
+		/* Children come after their parents, so walking backwards finishes each subtree before its parent. */
+		for (int i = mNodeCount - 1; i > 0; --i)
+		{
+			int b = 6 * i;
+			int p = 6 * mParents[i];
+
+			for (int c = 0; c < 3; ++c)
+			{
+				mSubtreeBounds[p + c] = Math.min(mSubtreeBounds[p + c], mSubtreeBounds[b + c]);
+				mSubtreeBounds[p + 3 + c] = Math.max(mSubtreeBounds[p + 3 + c], mSubtreeBounds[b + 3 + c]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of times the node order has been (re)built, so derived structures
+	 * indexing nodes (e.g. `SceneBVH`) can tell when their indices went stale.
+	 */
+	public int getRebuildCount()
+	{
+		return mRebuildCount;
+	}
+
+	/**
+	 * Returns the scenegraph structure version (see `SceneObject.getStructureVersion()`) the node order
+	 * was last built for. Copies of the same root built for the same version number nodes, and lights,
+	 * the same way, so structures indexing them can be shared between those copies.
+	 */
+	public int getStructureVersion()
+	{
+		return mBuiltStructureVersion;
+	}
+
+	/**
+	 * Returns the number of nodes, as of the last `update()`.
+	 */
+	public int getNodeCount()
+	{
+		return mNodeCount;
+	}
+
+	/**
+	 * Returns the scenegraph object at the given index.
+	 */
+	public SceneObject getNode(int index)
+	{
+		return mNodes[index];
+	}
+
+	/**
+	 * Returns the index of the given scenegraph object, or -1 if it isn't in the scene. Takes
+	 * time linear in the node count.
+	 */
+	public int indexOf(SceneObject node)
+	{
+		for (int i = 0; i < mNodeCount; ++i)
+		{
+			if (mNodes[i] == node)
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the given node's parent, or -1 for the root.
+	 */
+	public int getParentIndex(int index)
+	{
+		return mParents[index];
+	}
+
+	/**
+	 * Returns one past the index of the last node in the given node's subtree, so traversals
+	 * can skip a whole subtree by jumping there.
+	 */
+	public int getSubtreeEnd(int index)
+	{
+		return mSubtreeEnds[index];
+	}
+
+	/**
+	 * Returns the number of geometry nodes.
+	 */
+	public int getGeometryCount()
+	{
+		return mGeometryCount;
+	}
+
+	/**
+	 * Returns the node index of the i-th geometry node, in order.
+	 */
+	public int getGeometryIndex(int i)
+	{
+		return mGeometryIndices[i];
+	}
+
+	/**
+	 * Returns the number of light nodes.
+	 */
+	public int getLightCount()
+	{
+		return mLightCount;
+	}
+
+	/**
+	 * Returns the node index of the i-th light node, in order.
+	 */
+	public int getLightIndex(int i)
+	{
+		return mLightIndices[i];
+	}
+
+	/**
+	 * Returns the kind of the given node; one of the KIND_* constants.
+	 */
+	public byte getKind(int index)
+	{
+		return mKinds[index];
+	}
+
+	/**
+	 * Returns whether the given node and all its ancestors are visible. Invisible nodes hide their whole subtree.
+	 */
+	public boolean isVisible(int index)
+	{
+		return mVisible[index];
+	}
+
+	/**
+	 * Returns the version of the given node's transform: that of the last update in which its
+	 * local position, orientation or scale changed. Ancestors' transforms aren't included, though they
+	 * move the node too.
+	 */
+	public int getTransformVersion(int index)
+	{
+		return mTransformVersions[index];
+	}
+
+	/**
+	 * Returns the version of the given node's visibility, including that inherited from its ancestors.
+	 */
+	public int getVisibilityVersion(int index)
+	{
+		return mVisibilityVersions[index];
+	}
+
+	/**
+	 * Returns the version of the given geometry node's meshes and settings: that of the last update in
+	 * which its meshes, their materials (see `Mesh.getMaterialVersion()`), its occluder proxy, or whether
+	 * it is an occluder or static changed.
+	 */
+	public int getGeometryVersion(int index)
+	{
+		return mGeometryVersions[index];
+	}
+
+	/**
+	 * Returns the number of meshes the given node had as of the last update (0 for nodes other than geometry).
+	 */
+	public int getMeshCount(int index)
+	{
+		return mMeshStarts[index + 1] - mMeshStarts[index];
+	}
+
+	/**
+	 * Returns one of the meshes the given geometry node had as of the last update, in `Geometry.getMeshes()`
+	 * order. Renderers should read a node's meshes from here rather than from the Geometry, which may be
+	 * changing on another thread.
+	 */
+	public Mesh getMesh(int index, int meshIndex)
+	{
+		return mMeshes[mMeshStarts[index] + meshIndex];
+	}
+
+	/**
+	 * Returns where the given node's meshes start in the numbering of all meshes of this copy, from 0 to
+	 * `getTotalMeshCount()`, so per-mesh data can be kept in flat arrays. The numbering only holds until the
+	 * next update.
+	 */
+	public int getMeshStart(int index)
+	{
+		return mMeshStarts[index];
+	}
+
+	/**
+	 * Returns the number of meshes of all geometry nodes together, as of the last update.
+	 */
+	public int getTotalMeshCount()
+	{
+		return mMeshStarts[mNodeCount];
+	}
+
+	/**
+	 * Returns whether the given geometry node was an occluder as of the last update (see `Geometry.setOccluder()`).
+	 */
+	public boolean isOccluder(int index)
+	{
+		return mOccluders[index];
+	}
+
+	/**
+	 * Returns the occluder proxy the given geometry node had as of the last update, or null
+	 * (see `Geometry.setOccluderProxy()`).
+	 */
+	public Mesh getOccluderProxy(int index)
+	{
+		return mOccluderProxies[index];
+	}
+
+	/**
+	 * Returns whether the given geometry node was static as of the last update (see `Geometry.setStatic()`).
+	 */
+	public boolean isStatic(int index)
+	{
+		return mStatic[index];
+	}
+
+	/**
+	 * Returns the largest version of anything in the given node's subtree. Ancestors' transforms
+	 * aren't included, though they move the subtree too.
+	 */
+	public int getSubtreeVersion(int index)
+	{
+		return mSubtreeVersions[index];
+	}
+
+	/**
+	 * Returns the version of the whole copy: the root's subtree version. It changes whenever an
+	 * update found anything different from the copy it compared with.
+	 */
+	public int getVersion()
+	{
+		return (mNodeCount == 0 ? 0 : mSubtreeVersions[0]);
+	}
+
+	/**
+	 * Returns the array holding all world matrices. The matrix of node `i` starts at `16 * i`,
+	 * in OpenGL (column-major) order, so it can be passed straight to `glMultMatrixf()`.
+	 * Don't modify it.
+	 */
+	public float[] getWorldMatrices()
+	{
+		return mWorldMatrices;
+	}
+
+	/**
+	 * Returns the array holding the world-space bounding boxes of each node's own meshes. The box of
+	 * node `i` is at `6 * i`, as (minX, minY, minZ, maxX, maxY, maxZ); it is empty (min > max) for nodes
+	 * without meshes. Don't modify it.
+	 */
+	public float[] getBounds()
+	{
+		return mBounds;
+	}
+
+	/**
+	 * Returns the array holding the world-space bounding boxes of each node's whole subtree,
+	 * laid out as in `getBounds()`. Don't modify it.
+	 */
+	public float[] getSubtreeBounds()
+	{
+		return mSubtreeBounds;
+	}
+
+	/**
+	 * Returns whether the given node or any of its descendants is a light.
+	 */
+	public boolean subtreeHasLights(int index)
+	{
+		return mSubtreeHasLights[index];
+	}
+
+	/**
+	 * Copies the given node's world matrix into `result` and returns `result`.
+	 */
+	public Matrix4f getWorldMatrix(int index, Matrix4f result)
+	{
+		int o = 16 * index;
+
+		for (int column = 0; column < 4; ++column)
+		{
+			for (int row = 0; row < 4; ++row)
+			{
+				result.setElement(row, column, mWorldMatrices[o + 4 * column + row]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Transforms a point from the given node's local space into world space, storing it in
+	 * `result` (which may be `point`) and returning `result`.
+	 */
+	public Point3f transformPointToWorldSpace(int index, Point3f point, Point3f result)
+	{
+		float m[] = mWorldMatrices;
+		int o = 16 * index;
+		float x = point.x, y = point.y, z = point.z;
+
+		result.x = m[o + 0] * x + m[o + 4] * y + m[o + 8] * z + m[o + 12];
+		result.y = m[o + 1] * x + m[o + 5] * y + m[o + 9] * z + m[o + 13];
+		result.z = m[o + 2] * x + m[o + 6] * y + m[o + 10] * z + m[o + 14];
+
+		return result;
+	}
+
+	/**
+	 * Transforms a distance from the given node's local space into world space.
+	 */
+	public float transformDistanceToWorldSpace(int index, float distance)
+	{
+		float m[] = mWorldMatrices;
+		int o = 16 * index;
+
+		return distance * (float)Math.sqrt(m[o + 0] * m[o + 0] + m[o + 1] * m[o + 1] + m[o + 2] * m[o + 2]);
+	}
+}
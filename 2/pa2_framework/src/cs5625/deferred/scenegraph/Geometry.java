@@ -41,6 +41,14 @@ public class Geometry extends SceneObject
 	/* List of meshes in this object. */
 	private ArrayList<Mesh> mMeshes = new ArrayList<Mesh>();
 	
+	/* Whether this object hides what is behind it from the renderer's occlusion culling, and the 
+	 * simplified mesh to rasterize for that instead of its own meshes (null to use them). */
+	private boolean mIsOccluder = false;
+	private Mesh mOccluderProxy = null;
+	
+	/* Whether this object never moves, so the renderer may merge its meshes with those of others. */
+	private boolean mIsStatic = false;
+	
 	/**
 	 * Returns the list of meshes in this geometry object.
 	 */
@@ -100,6 +108,63 @@ public class Geometry extends SceneObject
 		return null;
 	}
 
+	/**
+	 * Returns whether this object is an occluder; see `setOccluder()`.
+	 */
+	public boolean isOccluder()
+	{
+		return mIsOccluder;
+	}
+	
+	/**
+	 * Sets whether this object is an occluder: rasterized into the renderer's software depth buffer 
+	 * (see `OcclusionBuffer`) so that objects entirely behind it are not drawn. Good occluders are 
+	 * large, opaque and simple, like walls and floors; only their triangles in front of the near 
+	 * plane occlude. False by default.
+	 */
+	public void setOccluder(boolean occluder)
+	{
+		mIsOccluder = occluder;
+	}
+	
+	/**
+	 * Returns the mesh rasterized in place of this object's meshes when it is an occluder, or null.
+	 */
+	public Mesh getOccluderProxy()
+	{
+		return mOccluderProxy;
+	}
+	
+	/**
+	 * Sets a simplified mesh, in this object's space, to rasterize in place of its meshes when it is 
+	 * an occluder. It must lie entirely inside the real geometry, or objects visible around its edges 
+	 * will be culled. Pass null to rasterize this object's own meshes.
+	 */
+	public void setOccluderProxy(Mesh proxy)
+	{
+		mOccluderProxy = proxy;
+	}
+	
+	/**
+	 * Returns whether this object is static; see `setStatic()`.
+	 */
+	public boolean isStatic()
+	{
+		return mIsStatic;
+	}
+	
+	/**
+	 * Sets whether this object is static: it doesn't move, and its meshes and their vertex data don't 
+	 * change. The renderer then merges its meshes, already transformed to world space, with those of 
+	 * other static objects sharing a material into one set of buffers, drawn with a single call (see 
+	 * `StaticBatches`). Moving it or changing its meshes still works, but rebuilds those buffers. 
+	 * False by default.
+	 */
+	public void setStatic(boolean isStatic)
+	{
+		mIsStatic = isStatic;
+	}
+	
 	@Override
 	public void releaseGPUResources(GL2 gl)
 	{
@@ -118,13 +183,54 @@ public class Geometry extends SceneObject
 		
 		for (Mesh mesh : mMeshes)
 		{
-			if (!mesh.vertexAttribData.containsKey("VertexTangent"))
+			/* Skip meshes whose material won't use them; call this again after changing a 
+			 * mesh to a material which does. */
+			if (mesh.requiresTangentVectors() && !mesh.vertexAttribData.containsKey("VertexTangent"))
 			{
 				mesh.vertexAttribData.put("VertexTangent", mesh.calculateTangentVectors());
 			}
 		}
 	}
 	
+	@Override
+	public void quantizeAllGeometry()
+	{
+		super.quantizeAllGeometry();
+		
+		for (Mesh mesh : mMeshes)
+		{
+			mesh.quantize();
+		}
+	}
+	
+	@Override
+	public void buildMeshletsForAllGeometry()
+	{
+		super.buildMeshletsForAllGeometry();
+		
+		for (Mesh mesh : mMeshes)
+		{
+			if (mesh instanceof Trimesh && mesh.getPolygonCount() >= MeshletSet.MIN_CLUSTERED_TRIANGLES)
+			{
+				((Trimesh)mesh).buildMeshlets(MeshletSet.DEFAULT_MAX_VERTICES, MeshletSet.DEFAULT_MAX_TRIANGLES);
+			}
+		}
+	}
+	
+	@Override
+	public void generateLevelsOfDetailForAllGeometry(int levelCount, float reductionPerLevel)
+	{
+		super.generateLevelsOfDetailForAllGeometry(levelCount, reductionPerLevel);
+		
+		for (Mesh mesh : mMeshes)
+		{
+			if (mesh instanceof Trimesh)
+			{
+				((Trimesh)mesh).generateLevelsOfDetail(levelCount, reductionPerLevel);
+			}
+		}
+	}
+	
 	/**
 	 * Loads models from a wavefront object (.obj) file.
 	 * 
@@ -143,6 +249,8 @@ public class Geometry extends SceneObject
 	 *        Typically of the form "models/foo.obj".
 	 * @param loadMaterials If true, material and texture files referenced from the .obj model will be loaded, and
 	 *        errors generated if they cannot be found. If false, all objects are left with the default material.
+	 *        Tangent vectors are calculated for meshes whose material needs them; call 
+	 *        `calculateTangentVectorsForAllGeometry()` after assigning such a material yourself.
 	 * @param centerObjects All vertices in the .obj file are in the same coordinate frame. If 
 	 *        `centerObjects` is true, each object is positioned at the average position of its
 	 *        vertices, and that average position is subtracted from its vertices. The objects will 
@@ -152,6 +260,33 @@ public class Geometry extends SceneObject
 	 * @return A list of geometry objects from the model file. Null if the file doesn't exist.
 	 */
 	public static List<Geometry> load(String identifier, boolean loadMaterials, boolean centerObjects) throws IOException
+	{
+		return load(identifier, loadMaterials, centerObjects, true);
+	}
+	
+	/**
+	 * Loads models from a wavefront object (.obj) file, as in `load(identifier, loadMaterials, centerObjects)`.
+	 * 
+	 * @param optimizeMeshes If true, each mesh's polygons and vertices are reordered for the post-transform 
+	 *        vertex cache with `Mesh.optimizeVertexCache()`. This doesn't change what is rendered, only the 
+	 *        order of the data, so it should only be disabled if the file's ordering is significant. The 
+	 *        simulated cache miss ratios before and after are printed, averaged over the file, and kept 
+	 *        per mesh (see `Mesh.getVertexCacheStatistics()`).
+	 */
+	public static List<Geometry> load(String identifier, boolean loadMaterials, boolean centerObjects, boolean optimizeMeshes) throws IOException
+	{
+		return load(identifier, loadMaterials, centerObjects, optimizeMeshes, false);
+	}
+	
+	/**
+	 * Loads models from a wavefront object (.obj) file, as in `load(identifier, loadMaterials, centerObjects, optimizeMeshes)`.
+	 * 
+	 * @param quantizeMeshes If true, each object is compressed with `quantizeAllGeometry()` once it has 
+	 *        been centered, so the renderer draws it from 16-bit vertex and index buffers. Tangents 
+	 *        calculated later (e.g. after changing a material) are sent uncompressed until the mesh 
+	 *        is quantized again.
+	 */
+	public static List<Geometry> load(String identifier, boolean loadMaterials, boolean centerObjects, boolean optimizeMeshes, boolean quantizeMeshes) throws IOException
 	{
 		/* Declare temporary lists used to store all the data read from the file before indexing 
 		 * and breaking up into individual meshes. */
@@ -186,6 +321,10 @@ public class Geometry extends SceneObject
 
 		/* Keep track of our current index into the mesh delimeter arrays. */
 		int meshIndex = 0;
+		
+		/* Polygon- and vertex-weighted sums of the vertex cache statistics of all meshes, for the log. */
+		VertexCacheOptimizer.Statistics cacheTotals = new VertexCacheOptimizer.Statistics();
+		int totalPolygons = 0, totalVertices = 0;
 
 		/* Loop and create each object. */
 		for (int objectIndex = 0; objectIndex < objectDelimeters.size() - 1; ++objectIndex)
@@ -379,6 +518,21 @@ public class Geometry extends SceneObject
 					mesh.setEdgeData(meshEdges);
 				}
 				
+				/* Reorder for the vertex cache now that all the mesh's data is in place. */
+				if (optimizeMeshes)
+				{
+					VertexCacheOptimizer.Statistics stats = mesh.optimizeVertexCache();
+					int polygonCount = mesh.getPolygonCount();
+					int vertexCount = mesh.getVertexCount();
+					
+					cacheTotals.acmrBefore += stats.acmrBefore * polygonCount;
+					cacheTotals.acmrAfter += stats.acmrAfter * polygonCount;
+					cacheTotals.atvrBefore += stats.atvrBefore * vertexCount;
+					cacheTotals.atvrAfter += stats.atvrAfter * vertexCount;
+					totalPolygons += polygonCount;
+					totalVertices += vertexCount;
+				}
+				
 				/* Assign the mesh's name and material. */
 				mesh.setName(meshMaterialNames.get(meshIndex));
 				
@@ -414,6 +568,16 @@ public class Geometry extends SceneObject
 				currentObject.getPosition().set(currentPositionAverage);
 			}
 			
+			/* Calculate tangents for meshes whose material needs them now, rather than on the render 
+			 * thread when first drawn, so they are included if the object is quantized. */
+			currentObject.calculateTangentVectorsForAllGeometry();
+			
+			/* Compress the finished vertex data if requested. */
+			if (quantizeMeshes)
+			{
+				currentObject.quantizeAllGeometry();
+			}
+			
 			/* Add the finished object if it's not empty. */
 			if (currentObject.getMeshes().size() > 0)
 			{
@@ -421,6 +585,16 @@ public class Geometry extends SceneObject
 			}
 		}
 		
+		/* Report how much the reordering helped, over the whole file. */
+		if (totalPolygons > 0 && totalVertices > 0)
+		{
+			cacheTotals.acmrBefore /= totalPolygons;
+			cacheTotals.acmrAfter /= totalPolygons;
+			cacheTotals.atvrBefore /= totalVertices;
+			cacheTotals.atvrAfter /= totalVertices;
+			System.out.println("Optimized vertex cache order of '" + identifier + "': " + cacheTotals);
+		}
+		
 		return results;
 	}
 	
@@ -0,0 +1,489 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.Arrays;
+
+/**
+ * LooseOctree.java
+ *
+ * A spatial index over the boxes of moving objects (animated geometry, point light ranges, ...),
+ * answering the same overlap queries as `SceneBVH` (frustums, boxes, spheres) but updated one
+ * object at a time, so a frame costs time proportional to the number of objects which moved
+ * rather than a rebuild over all of them.
+ *
+ * Each cell is "loose": it holds objects whose boxes lie within its cube grown to twice its size
+ * (LOOSENESS) about its center. An object is stored in the deepest cell whose loose bounds contain
+ * it, which for an object no bigger than a cell always exists, so every object sits at a depth set
+ * only by its size. Cells are chosen along the path of cells containing the box's center. When an
+ * object moves, `update()` climbs from its cell to the nearest ancestor which still holds it and
+ * is on its center's path, and descends from there, so it ends up where inserting it afresh would
+ * put it and only that part of the tree is touched; for small moves it usually stays put.
+ * Source: Ulrich, T. "Loose Octrees." Game Programming Gems, 2000.
+ *
+ * Objects are identified by small non-negative integers chosen by the caller (for instance, node
+ * indices of a `FlattenedScene`), which keeps queries' results in the same form as `SceneBVH`'s.
+ * Objects outside the root cell's loose bounds are kept in the root cell, so nothing is ever lost,
+ * but the root should be sized to cover the region where objects move.
+ *
+ * Cells are created on demand and kept when they empty, since moving objects tend to come back.
+ * Each cell counts the objects in its subtree, so queries skip empty branches.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LooseOctree
+{
+	/* Default number of levels below the root. */
+	public static final int DEFAULT_MAX_DEPTH = 8;
+
+	/* Ratio of a cell's loose bounds to its cube. */
+	public static final float LOOSENESS = 2.0f;
+
+	private int mMaxDepth;
+
+	/* Cells: center and half size of the (tight) cube, depth, parent, 8 children (-1 if not created),
+	 * first object in the cell's list (-1 if empty), and the number of objects in its subtree. */
+	private float mCellCenters[] = new float[3 * 64];
+	private float mCellHalfSizes[] = new float[64];
+
+	/* Per cell, the half-open region [min, max) of points whose path of octants from the root passes
+	 * through it. It is the cell's cube, except that it reaches out to infinity where the cube is on
+	 * the root's border, and it is built from the parents' centers so it matches `getOctant()` exactly. */
+	private float mCellPathMins[] = new float[3 * 64];
+	private float mCellPathMaxs[] = new float[3 * 64];
+	private int mCellDepths[] = new int[64];
+	private int mCellParents[] = new int[64];
+	private int mCellChildren[] = new int[8 * 64];
+	private int mCellFirstObjects[] = new int[64];
+	private int mCellSubtreeCounts[] = new int[64];
+	private int mCellCount = 0;
+
+	/* Objects, by id: bounds, cell (-1 if not in the tree), and links in their cell's list. */
+	private float mObjectBounds[] = new float[0];
+	private int mObjectCells[] = new int[0];
+	private int mNextObjects[] = new int[0];
+	private int mPreviousObjects[] = new int[0];
+	private int mObjectCount = 0;
+
+	/* Number of times an object was (re)inserted into a cell. */
+	private int mInsertionCount = 0;
+
+	/* Traversal stack and cell bounds for query(), kept between calls so queries don't allocate. */
+	private int mQueryStack[];
+	private float mQueryBounds[] = new float[6];
+
+	/**
+	 * Creates an empty octree over the cube with the given center and half size, with DEFAULT_MAX_DEPTH levels.
+	 */
+	public LooseOctree(float centerX, float centerY, float centerZ, float halfSize)
+	{
+		this(centerX, centerY, centerZ, halfSize, DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * Creates an empty octree over the cube with the given center and half size.
+	 *
+	 * @param maxDepth Number of levels of cells below the root. Objects smaller than the cells of
+	 *        the deepest level share them.
+	 */
+	public LooseOctree(float centerX, float centerY, float centerZ, float halfSize, int maxDepth)
+	{
+		mMaxDepth = maxDepth;
+		mQueryStack = new int[7 * maxDepth + 1];
+		createCell(-1, centerX, centerY, centerZ, halfSize, 0);
+	}
+
+	/**
+	 * Adds an object with the given bounds, or updates the bounds of one already in the tree. An object
+	 * already in the tree climbs to the nearest of its cell and that cell's ancestors which still hold
+	 * it and contain its center, then descends from there as deep as it fits. Takes time in the number
+	 * of levels the object moves, so constant time for an object which stays in or near its cell.
+	 *
+	 * @param object Id of the object, >= 0.
+	 * @param bounds Array holding the object's box as (minX, minY, minZ, maxX, maxY, maxZ).
+	 * @param offset Index of minX in `bounds`.
+	 */
+	public void update(int object, float bounds[], int offset)
+	{
+		if (object >= mObjectCells.length)
+		{
+			int capacity = Math.max(object + 1, 2 * mObjectCells.length);
+			int previousCapacity = mObjectCells.length;
+
+			mObjectBounds = Arrays.copyOf(mObjectBounds, 6 * capacity);
+			mObjectCells = Arrays.copyOf(mObjectCells, capacity);
+			mNextObjects = Arrays.copyOf(mNextObjects, capacity);
+			mPreviousObjects = Arrays.copyOf(mPreviousObjects, capacity);
+			Arrays.fill(mObjectCells, previousCapacity, capacity, -1);
+		}
+
+		System.arraycopy(bounds, offset, mObjectBounds, 6 * object, 6);
+
+		int cell = mObjectCells[object];
+
+		if (cell < 0)
+		{
+			++mObjectCount;
+			link(object, findCell(0, bounds, offset), -1);
+			return;
+		}
+
+		/*
+		 * Climb to the deepest cell which still holds the box and lies on its center's path from the
+		 * root. Loose bounds grow towards the root, so every cell above it does too, and descending
+		 * from there puts the object where inserting it afresh would.
+		 */
+		float x = 0.5f * (bounds[offset + 0] + bounds[offset + 3]);
+		float y = 0.5f * (bounds[offset + 1] + bounds[offset + 4]);
+		float z = 0.5f * (bounds[offset + 2] + bounds[offset + 5]);
+		int ancestor = cell;
+
+		while (ancestor != 0 && !(isOnPath(ancestor, x, y, z) && isInLooseBounds(ancestor, bounds, offset)))
+		{
+			ancestor = mCellParents[ancestor];
+		}
+
+		int target = findCell(ancestor, bounds, offset);
+
+		/* Both cells are in the ancestor's subtree, so only counts below it change. */
+		if (target != cell)
+		{
+			unlink(object, ancestor);
+			link(object, target, ancestor);
+		}
+	}
+
+	/**
+	 * Removes an object from the tree. Does nothing if it isn't in it.
+	 */
+	public void remove(int object)
+	{
+		if (contains(object))
+		{
+			unlink(object, -1);
+			--mObjectCount;
+		}
+	}
+
+	/**
+	 * Returns whether the given object is in the tree.
+	 */
+	public boolean contains(int object)
+	{
+		return object >= 0 && object < mObjectCells.length && mObjectCells[object] >= 0;
+	}
+
+	/**
+	 * Removes all objects, keeping the cells.
+	 */
+	public void clear()
+	{
+		Arrays.fill(mObjectCells, -1);
+		Arrays.fill(mCellFirstObjects, 0, mCellCount, -1);
+		Arrays.fill(mCellSubtreeCounts, 0, mCellCount, 0);
+		mObjectCount = 0;
+	}
+
+	/**
+	 * Finds all objects whose bounds pass the given test, and stores their ids in `result`, which
+	 * must have room for `getObjectCount()` entries. Queries share one traversal stack, so only one
+	 * may run at a time.
+	 *
+	 * @return The number of objects found.
+	 */
+	public int query(SceneBVH.BoundsTest test, int result[])
+	{
+		int stack[] = mQueryStack;
+		float looseBounds[] = mQueryBounds;
+		int stackSize = 0;
+		int found = 0;
+
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0)
+		{
+			int cell = stack[--stackSize];
+
+			if (mCellSubtreeCounts[cell] == 0)
+			{
+				continue;
+			}
+
+			/* The root also holds objects outside its loose bounds, so it is always searched. */
+			if (cell != 0)
+			{
+				getLooseBounds(cell, looseBounds);
+
+				if (!test.intersectsBox(looseBounds, 0))
+				{
+					continue;
+				}
+			}
+
+			for (int object = mCellFirstObjects[cell]; object >= 0; object = mNextObjects[object])
+			{
+				if (test.intersectsBox(mObjectBounds, 6 * object))
+				{
+					result[found++] = object;
+				}
+			}
+
+			for (int i = 0; i < 8; ++i)
+			{
+				int child = mCellChildren[8 * cell + i];
+
+				if (child >= 0)
+				{
+					stack[stackSize++] = child;
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns the number of objects in the tree.
+	 */
+	public int getObjectCount()
+	{
+		return mObjectCount;
+	}
+
+	/**
+	 * Returns the number of cells created so far.
+	 */
+	public int getCellCount()
+	{
+		return mCellCount;
+	}
+
+	/**
+	 * Returns how many times objects were placed into a cell, by being added or by moving out of
+	 * their cell. Useful for tuning the root size and depth.
+	 */
+	public int getInsertionCount()
+	{
+		return mInsertionCount;
+	}
+
+	/**
+	 * Returns the depth of the cell holding the given object (0 for the root), or -1 if it isn't in the tree.
+	 */
+	public int getDepth(int object)
+	{
+		return (contains(object) ? mCellDepths[mObjectCells[object]] : -1);
+	}
+
+	/**
+	 * Returns the deepest cell below `start` (which must hold the box, unless it is the root) whose
+	 * loose bounds contain the given box, creating cells on the way. Descends towards the child
+	 * containing the box's center, which is the only one that can hold it if any can.
+	 */
+	private int findCell(int start, float bounds[], int offset)
+	{
+		float x = 0.5f * (bounds[offset + 0] + bounds[offset + 3]);
+		float y = 0.5f * (bounds[offset + 1] + bounds[offset + 4]);
+		float z = 0.5f * (bounds[offset + 2] + bounds[offset + 5]);
+		int cell = start;
+
+		while (mCellDepths[cell] < mMaxDepth)
+		{
+			int octant = getOctant(cell, x, y, z);
+			int child = mCellChildren[8 * cell + octant];
+
+			if (child < 0)
+			{
+				/* Check before creating the child, so failed descents don't leave empty cells. */
+				float halfSize = 0.5f * mCellHalfSizes[cell];
+				float cx = mCellCenters[3 * cell] + ((octant & 1) != 0 ? halfSize : -halfSize);
+				float cy = mCellCenters[3 * cell + 1] + ((octant & 2) != 0 ? halfSize : -halfSize);
+				float cz = mCellCenters[3 * cell + 2] + ((octant & 4) != 0 ? halfSize : -halfSize);
+
+				if (!isInLooseBounds(cx, cy, cz, halfSize, bounds, offset))
+				{
+					break;
+				}
+
+				child = createCell(cell, cx, cy, cz, halfSize, mCellDepths[cell] + 1);
+				mCellChildren[8 * cell + octant] = child;
+			}
+			else if (!isInLooseBounds(child, bounds, offset))
+			{
+				break;
+			}
+
+			cell = child;
+		}
+
+		return cell;
+	}
+
+	/**
+	 * Returns which child of a cell contains the given point, as an index into its 8 children.
+	 */
+	private int getOctant(int cell, float x, float y, float z)
+	{
+		return (x >= mCellCenters[3 * cell] ? 1 : 0) | (y >= mCellCenters[3 * cell + 1] ? 2 : 0) |
+				(z >= mCellCenters[3 * cell + 2] ? 4 : 0);
+	}
+
+	/**
+	 * Returns whether the path of octants from the root towards the given point passes through a cell.
+	 */
+	private boolean isOnPath(int cell, float x, float y, float z)
+	{
+		return x >= mCellPathMins[3 * cell] && x < mCellPathMaxs[3 * cell] &&
+				y >= mCellPathMins[3 * cell + 1] && y < mCellPathMaxs[3 * cell + 1] &&
+				z >= mCellPathMins[3 * cell + 2] && z < mCellPathMaxs[3 * cell + 2];
+	}
+
+	/**
+	 * Returns whether a box lies within the loose bounds of a cell.
+	 */
+	private boolean isInLooseBounds(int cell, float bounds[], int offset)
+	{
+		return isInLooseBounds(mCellCenters[3 * cell], mCellCenters[3 * cell + 1], mCellCenters[3 * cell + 2],
+				mCellHalfSizes[cell], bounds, offset);
+	}
+
+	/**
+	 * Returns whether a box lies within the loose bounds of the cube with the given center and half size.
+	 */
+	private static boolean isInLooseBounds(float x, float y, float z, float halfSize, float bounds[], int offset)
+	{
+		float looseHalfSize = LOOSENESS * halfSize;
+
+		return bounds[offset + 0] >= x - looseHalfSize && bounds[offset + 3] <= x + looseHalfSize &&
+				bounds[offset + 1] >= y - looseHalfSize && bounds[offset + 4] <= y + looseHalfSize &&
+				bounds[offset + 2] >= z - looseHalfSize && bounds[offset + 5] <= z + looseHalfSize;
+	}
+
+	/**
+	 * Stores the loose bounds of a cell in `result` as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	private void getLooseBounds(int cell, float result[])
+	{
+		float looseHalfSize = LOOSENESS * mCellHalfSizes[cell];
+
+		for (int c = 0; c < 3; ++c)
+		{
+			result[c] = mCellCenters[3 * cell + c] - looseHalfSize;
+			result[3 + c] = mCellCenters[3 * cell + c] + looseHalfSize;
+		}
+	}
+
+	/**
+	 * Adds a cell, growing the cell arrays if needed, and returns its index.
+	 */
+	private int createCell(int parent, float x, float y, float z, float halfSize, int depth)
+	{
+		if (mCellCount == mCellHalfSizes.length)
+		{
+			int capacity = 2 * mCellCount;
+			mCellCenters = Arrays.copyOf(mCellCenters, 3 * capacity);
+			mCellHalfSizes = Arrays.copyOf(mCellHalfSizes, capacity);
+			mCellPathMins = Arrays.copyOf(mCellPathMins, 3 * capacity);
+			mCellPathMaxs = Arrays.copyOf(mCellPathMaxs, 3 * capacity);
+			mCellDepths = Arrays.copyOf(mCellDepths, capacity);
+			mCellParents = Arrays.copyOf(mCellParents, capacity);
+			mCellChildren = Arrays.copyOf(mCellChildren, 8 * capacity);
+			mCellFirstObjects = Arrays.copyOf(mCellFirstObjects, capacity);
+			mCellSubtreeCounts = Arrays.copyOf(mCellSubtreeCounts, capacity);
+		}
+
+		int cell = mCellCount++;
+		mCellCenters[3 * cell + 0] = x;
+		mCellCenters[3 * cell + 1] = y;
+		mCellCenters[3 * cell + 2] = z;
+		mCellHalfSizes[cell] = halfSize;
+
+		/* The child takes the side of each of its parent's center planes that getOctant() gives it. */
+		for (int c = 0; c < 3; ++c)
+		{
+			if (parent < 0)
+			{
+				mCellPathMins[3 * cell + c] = Float.NEGATIVE_INFINITY;
+				mCellPathMaxs[3 * cell + c] = Float.POSITIVE_INFINITY;
+			}
+			else if (mCellCenters[3 * cell + c] >= mCellCenters[3 * parent + c])
+			{
+				mCellPathMins[3 * cell + c] = mCellCenters[3 * parent + c];
+				mCellPathMaxs[3 * cell + c] = mCellPathMaxs[3 * parent + c];
+			}
+			else
+			{
+				mCellPathMins[3 * cell + c] = mCellPathMins[3 * parent + c];
+				mCellPathMaxs[3 * cell + c] = mCellCenters[3 * parent + c];
+			}
+		}
+
+		mCellDepths[cell] = depth;
+		mCellParents[cell] = parent;
+		Arrays.fill(mCellChildren, 8 * cell, 8 * cell + 8, -1);
+		mCellFirstObjects[cell] = -1;
+		mCellSubtreeCounts[cell] = 0;
+
+		return cell;
+	}
+
+	/**
+	 * Puts an object at the head of a cell's list, and counts it in the cell and its ancestors below
+	 * `stop` (-1 for all of them).
+	 */
+	private void link(int object, int cell, int stop)
+	{
+		int first = mCellFirstObjects[cell];
+
+		mObjectCells[object] = cell;
+		mPreviousObjects[object] = -1;
+		mNextObjects[object] = first;
+
+		if (first >= 0)
+		{
+			mPreviousObjects[first] = object;
+		}
+
+		mCellFirstObjects[cell] = object;
+
+		for (int c = cell; c != stop; c = mCellParents[c])
+		{
+			++mCellSubtreeCounts[c];
+		}
+
+		++mInsertionCount;
+	}
+
+	/**
+	 * Takes an object out of its cell's list, and uncounts it in the cell and its ancestors below
+	 * `stop` (-1 for all of them).
+	 */
+	private void unlink(int object, int stop)
+	{
+		int cell = mObjectCells[object];
+		int previous = mPreviousObjects[object];
+		int next = mNextObjects[object];
+
+		if (previous >= 0)
+		{
+			mNextObjects[previous] = next;
+		}
+		else
+		{
+			mCellFirstObjects[cell] = next;
+		}
+
+		if (next >= 0)
+		{
+			mPreviousObjects[next] = previous;
+		}
+
+		for (int c = cell; c != stop; c = mCellParents[c])
+		{
+			--mCellSubtreeCounts[c];
+		}
+
+		mObjectCells[object] = -1;
+	}
+}
@@ -1,19 +1,22 @@
 package cs5625.deferred.scenegraph;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.media.opengl.GL2;
-import javax.vecmath.GMatrix;
-import javax.vecmath.GVector;
-import javax.vecmath.Vector3f;
+import javax.vecmath.Point3f;
 
 import com.jogamp.common.nio.Buffers;
 
 import cs5625.deferred.materials.BlinnPhongMaterial;
 import cs5625.deferred.materials.Material;
 import cs5625.deferred.misc.OpenGLResourceObject;
+import cs5625.deferred.misc.Quantization;
 
 /**
  * Mesh.java
@@ -30,9 +33,18 @@ public abstract class Mesh implements OpenGLResourceObject
 {
 	protected static float EPS = 1e-7f;
 	
-	/* Material and name of this mesh. */
+	/* Fraction by which the projected size must pass a level of detail threshold before the selected
+	 * level changes, so objects near a threshold don't flicker between levels. */
+	public static final float LOD_HYSTERESIS = 0.1f;
+	
+	/* Number of triangles or vertices below which a tangent calculation pass is not split further 
+	 * across threads; smaller meshes are done on the calling thread. */
+	private static final int TANGENT_ITEMS_PER_TASK = 16384;
+	
+	/* Material and name of this mesh, and the version of the last material change (see `getMaterialVersion()`). */
 	private Material mMaterial = new BlinnPhongMaterial();
 	private String mName = "";
+	private int mMaterialVersion = 0;
 	
 	/* Buffers to hold vertex and polygon index data. Buffer formats are 
 	 * described in the comments for the getter and setter methods, 
@@ -40,6 +52,37 @@ public abstract class Mesh implements OpenGLResourceObject
 	protected FloatBuffer mVertexData, mNormalData, mTexCoordData;
 	protected IntBuffer mPolygonData, mEdgeData;
 	
+	/* Compressed copies of the vertex and index buffers, created by `quantize()`. Null until then. 
+	 * Formats are described in the comments for `quantize()`. */
+	protected ShortBuffer mQuantizedVertexData, mQuantizedNormalData, mQuantizedTexCoordData, mQuantizedTangentData;
+	protected Buffer mQuantizedPolygonData;
+	protected Point3f mQuantizationOffset = new Point3f();
+	protected float mQuantizationScale = 1.0f;
+	
+	/* Coarser levels of detail: index buffers into this mesh's vertex buffers (see `setLevelsOfDetail()`), 
+	 * their compressed copies, and the projected screen size below which each level is used. Level 0, 
+	 * the full-detail mesh, is `mPolygonData` and is not stored here. */
+	protected IntBuffer mLodPolygonData[] = new IntBuffer[0];
+	protected Buffer mLodQuantizedPolygonData[] = new Buffer[0];
+	protected float mLodScreenSizes[] = new float[0];
+	
+	/* Simulated vertex cache statistics from the last `optimizeVertexCache()`. Null if never optimized. */
+	private VertexCacheOptimizer.Statistics mVertexCacheStatistics = null;
+	
+	/* Clusters of the full-detail polygons, with culling bounds (see `MeshletSet`). Null if not built, 
+	 * and reset whenever the polygon buffer changes. */
+	protected MeshletSet mMeshlets = null;
+	
+	/* Object-space bounding sphere and box, computed on demand. Null until then. */
+	private Point3f mBoundingSphereCenter = null;
+	private float mBoundingSphereRadius = 0.0f;
+	private float mBoundingBox[] = null;
+	
+	/* Hierarchy over this mesh's triangles for ray casts, built on demand (see `getTriangleBVH()`) and 
+	 * reset whenever the vertex or polygon buffer is replaced. Volatile so threads casting rays at 
+	 * the same time see a fully built tree. */
+	private volatile MeshBVH mTriangleBVH = null;
+	
 	/**
 	 * Map of generic vertex attribute name -> generic vertex attribute buffer. The number of elements in 
 	 * each buffer must match the number of vertices; each buffer's dimensionality (float, vec2, vec3, vec4) 
@@ -62,213 +105,893 @@ public abstract class Mesh implements OpenGLResourceObject
 	public abstract FloatBuffer calculateTangentVectors();
 	
 	/**
-	 * Computes the tangent and bitangent vectors of triangle with vertex indices (i1, i2, i3). 
-	 * using the idea described in  http://www.terathon.com/code/tangent.html
+	 * Calculates tangent vectors for this mesh, treating each polygon as a fan of triangles 
+	 * (0, k, k + 1) at a stride of `getVerticesPerPolygon()` indices. Subclasses implement 
+	 * `calculateTangentVectors()` by calling this.
 	 * 
-	 * The computed tangent vectors should be accumulated in the array tan1[], and the
-	 * computed bitangent vectors should be accumulated in the array tan2[].	 
-	 */
-	protected void computeAndAccumulateTangentVectors(int i1, int i2, int i3, float tan1[], float[] tan2) {
-		/* Get vertex coordinates of this triangle. */
-		Vector3f p0 = new Vector3f(mVertexData.get(3 * i1 + 0), mVertexData.get(3 * i1 + 1), mVertexData.get(3 * i1 + 2));
-		Vector3f p1 = new Vector3f(mVertexData.get(3 * i2 + 0), mVertexData.get(3 * i2 + 1), mVertexData.get(3 * i2 + 2));
-		Vector3f p2 = new Vector3f(mVertexData.get(3 * i3 + 0), mVertexData.get(3 * i3 + 1), mVertexData.get(3 * i3 + 2));		
-
-		/* Get texture coordinates of this triangle. */
-		float u1 = mTexCoordData.get(2 * i1 + 0);
-		float v1 = mTexCoordData.get(2 * i1 + 1);
-
-		float u2 = mTexCoordData.get(2 * i2 + 0);
-		float v2 = mTexCoordData.get(2 * i2 + 1);
-
-		float u3 = mTexCoordData.get(2 * i3 + 0);
-		float v3 = mTexCoordData.get(2 * i3 + 1);			
+	 * Per-triangle tangents and bitangents are computed as described in  
+	 * http://www.terathon.com/code/tangent.html, then each vertex sums those of the triangles using 
+	 * it (found through a vertex -> triangle adjacency list) and orthonormalizes the sums against its 
+	 * normal. The first pass writes only its own triangles and the second only its own vertices, so 
+	 * both are split across the common ForkJoinPool for large meshes without any synchronization or 
+	 * per-thread copies. Meshes without texture coordinates get an arbitrary tangent frame around 
+	 * each normal.
+	 * 
+	 * The output is a 4-vector for each vertex, storing the handedness in the w component. Bitangents 
+	 * can be computed from normals and tangents as `cross(normal, tangent.xyz) * tangent.w`. 
+	 */
+	protected FloatBuffer calculatePolygonFanTangentVectors()
+	{
+		int vertexCount = getVertexCount();
+		int polygonCount = getPolygonCount();
+		int verticesPerPolygon = getVerticesPerPolygon();
+		int trianglesPerPolygon = verticesPerPolygon - 2;
 		
-		/* Get positions of vertices relative to the first vertex. */
-		Vector3f q1 = new Vector3f();
-		Vector3f q2 = new Vector3f();
+		if (vertexCount == 0 || polygonCount == 0 || trianglesPerPolygon < 1)
+		{
+			return null;
+		}
 		
-		q1.sub(p1, p0);
-		q2.sub(p2, p0);
-
-		/* DONE PA1: Construct the Q matrix */
-		GMatrix matQ = new GMatrix(2, 3);
+		int triangleCount = polygonCount * trianglesPerPolygon;
 		
-		matQ.setElement(0, 0, q1.x);
-		matQ.setElement(0, 1, q1.y);
-		matQ.setElement(0, 2, q1.z);
+		/* Build vertex -> triangle adjacency in compressed (offset + list) form: the triangles using 
+		 * vertex v are vertexTriangles[vertexOffsets[v] .. vertexOffsets[v + 1]). */
+		int vertexOffsets[] = new int[vertexCount + 1];
+		int vertexTriangles[] = new int[3 * triangleCount];
 		
-		matQ.setElement(1, 0, q2.x);
-		matQ.setElement(1, 1, q2.y);
-		matQ.setElement(1, 2, q2.z);	
-
-		/* Get texture coordinates relative to the first vertex. */
-        float s1 = u2 - u1;
-        float s2 = u3 - u1;
-        float t1 = v2 - v1;
-        float t2 = v3 - v1;
-        
-        /* This can happen because of (1) missing texture
-         * (2) broken texture coordinates, so we skip it. */
-        if (Math.abs(s1 * t2 - s2 * t1) < EPS) {
-        	return;
-        }
-
-		/* DONE PA1 : Construct the inverse (s,t) matrix, and compute 
-		 * tangent and bitangent vectors as explained on Lengyel's site. */ 
-        GMatrix matInv = new GMatrix(2, 2);
-        
-        float det = 1.0f / (s1 * t2 - s2 * t1);
-        
-        matInv.setElement(0, 0, t2 * det);
-        matInv.setElement(0, 1, -t1 * det);
-        matInv.setElement(1, 0, -s2 * det);
-        matInv.setElement(1, 1, s1 * det);
-        
-        GMatrix matTB = new GMatrix(2, 3);
-        matTB.mul(matInv, matQ);
-        
-		GVector tangent = new GVector(3);
-		GVector bi_tangent = new GVector(3);
-		
-		matTB.getRow(0, tangent);
-		matTB.getRow(1, bi_tangent);
-		
-		/* Accumulate into temporary arrays. */
-		tan1[3 * i1 + 0] += tangent.getElement(0);
-		tan1[3 * i1 + 1] += tangent.getElement(1);
-		tan1[3 * i1 + 2] += tangent.getElement(2);
-		
-		tan1[3 * i2 + 0] += tangent.getElement(0);
-		tan1[3 * i2 + 1] += tangent.getElement(1);
-		tan1[3 * i2 + 2] += tangent.getElement(2);
-
-		tan1[3 * i3 + 0] += tangent.getElement(0);
-		tan1[3 * i3 + 1] += tangent.getElement(1);
-		tan1[3 * i3 + 2] += tangent.getElement(2);
-
-		tan2[3 * i1 + 0] += bi_tangent.getElement(0);
-		tan2[3 * i1 + 1] += bi_tangent.getElement(1);
-		tan2[3 * i1 + 2] += bi_tangent.getElement(2);
+		for (int polygon = 0; polygon < polygonCount; ++polygon)
+		{
+			int base = polygon * verticesPerPolygon;
+			
+			for (int k = 1; k <= trianglesPerPolygon; ++k)
+			{
+				++vertexOffsets[mPolygonData.get(base) + 1];
+				++vertexOffsets[mPolygonData.get(base + k) + 1];
+				++vertexOffsets[mPolygonData.get(base + k + 1) + 1];
+			}
+		}
 		
-		tan2[3 * i2 + 0] += bi_tangent.getElement(0);
-		tan2[3 * i2 + 1] += bi_tangent.getElement(1);
-		tan2[3 * i2 + 2] += bi_tangent.getElement(2);
-
-		tan2[3 * i3 + 0] += bi_tangent.getElement(0);
-		tan2[3 * i3 + 1] += bi_tangent.getElement(1);
-		tan2[3 * i3 + 2] += bi_tangent.getElement(2);
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			vertexOffsets[v + 1] += vertexOffsets[v];
+		}
+		
+		int fill[] = new int[vertexCount];
+		System.arraycopy(vertexOffsets, 0, fill, 0, vertexCount);
+		
+		for (int polygon = 0; polygon < polygonCount; ++polygon)
+		{
+			int base = polygon * verticesPerPolygon;
+			
+			for (int k = 1; k <= trianglesPerPolygon; ++k)
+			{
+				int triangle = polygon * trianglesPerPolygon + k - 1;
+				vertexTriangles[fill[mPolygonData.get(base)]++] = triangle;
+				vertexTriangles[fill[mPolygonData.get(base + k)]++] = triangle;
+				vertexTriangles[fill[mPolygonData.get(base + k + 1)]++] = triangle;
+			}
+		}
+		
+		/* 6 floats per triangle: {tangent.xyz, bitangent.xyz}. Zero (an arbitrary frame) without texture coordinates. */
+		float triangleFrames[] = new float[6 * triangleCount];
+		FloatBuffer result = Buffers.newDirectFloatBuffer(4 * vertexCount);
+		
+		if (mTexCoordData != null)
+		{
+			runTangentTask(new TangentTask(false, 0, triangleCount, triangleFrames, vertexOffsets, vertexTriangles, result));
+		}
+		
+		runTangentTask(new TangentTask(true, 0, vertexCount, triangleFrames, vertexOffsets, vertexTriangles, result));
+		
+		return result;
 	}
 	
 	/**
-	 * Averages and normalizes all tangent vectors, previously accumulated by computeAndAccumulateTangentVectors()
-	 * for every triangle. The input arrays tan1 and tan2 should be the same arrays, passed to the above function.
-	 * 	 
-	 * The output is a 4-vector for each vertex, storing the handedness in the w component. Bitangents 
-	 * can be computed from normals and tangents as `cross(normal, tangent.xyz) * tangent.w`. 	 
+	 * Runs a tangent pass on the calling thread if it is small, otherwise on the common ForkJoinPool. 
+	 * Exceptions thrown by any part of the pass are rethrown here.
 	 */
-	protected FloatBuffer averageAndNormalizeAllTangentVectors(float tan1[], float[] tan2) {
-		/* Allocate result buffer and loop over vertices. */
-		FloatBuffer result = Buffers.newDirectFloatBuffer(4 * getVertexCount());
+	private static void runTangentTask(TangentTask task)
+	{
+		if (task.mEnd - task.mStart <= TANGENT_ITEMS_PER_TASK)
+		{
+			task.compute();
+		}
+		else
+		{
+			ForkJoinPool.commonPool().invoke(task);
+		}
+	}
+	
+	/**
+	 * One pass of tangent calculation over triangles or vertices [start, end), splitting the range 
+	 * in half until it is small enough.
+	 */
+	private class TangentTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private boolean mPerVertex;
+		private int mStart, mEnd;
+		private float mTriangleFrames[];
+		private int mVertexOffsets[], mVertexTriangles[];
+		private FloatBuffer mResult;
 		
-		for (int vIndex = 0; vIndex < getVertexCount(); ++vIndex)
+		public TangentTask(boolean perVertex, int start, int end, float triangleFrames[], int vertexOffsets[], int vertexTriangles[], FloatBuffer result)
 		{
-			/* Get vertex normal. */
-			Vector3f normal = new Vector3f(mNormalData.get(3 * vIndex + 0), mNormalData.get(3 * vIndex + 1), mNormalData.get(3 * vIndex + 2));
-			normal.normalize();
-			
-			/* Get tentative tangent and bitangent vectors at this vertex. */
-			Vector3f tangent = new Vector3f(tan1[3 * vIndex + 0], tan1[3 * vIndex + 1], tan1[3 * vIndex + 2]);
-			Vector3f bitangent = new Vector3f(tan2[3 * vIndex + 0], tan2[3 * vIndex + 1], tan2[3 * vIndex + 2]);
-						
-			/* If the tangent is the zero vector, then there were no valid texture coordinates,
-			 * so we generate a tangent space starting from an arbitrary vector: e.g. (1, 0, 0) */			
-			if (tangent.length() < EPS) {
-				/* This computes 'n cross (1, 0, 0)' */
-				tangent = new Vector3f(0, normal.z, -normal.y);				
-				
-				/* If this coincides with the normal, pick (0, 1, 0) */
-				if (tangent.length() < EPS) {
-					/* This computes 'n cross (0, 1, 0)' */
-					tangent = new Vector3f(-normal.z, 0, normal.x);				
+			mPerVertex = perVertex;
+			mStart = start;
+			mEnd = end;
+			mTriangleFrames = triangleFrames;
+			mVertexOffsets = vertexOffsets;
+			mVertexTriangles = vertexTriangles;
+			mResult = result;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if (mEnd - mStart <= TANGENT_ITEMS_PER_TASK)
+			{
+				if (mPerVertex)
+				{
+					orthonormalizeTangentVectors(mStart, mEnd, mTriangleFrames, mVertexOffsets, mVertexTriangles, mResult);
 				}
-				
-				/* Make sure this is all zeros as well */
-				bitangent = new Vector3f(0, 0, 0);
+				else
+				{
+					calculateTriangleFrames(mStart, mEnd, mTriangleFrames);
+				}
+				return;
 			}
 			
-			tangent.normalize();
-			bitangent.normalize();
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new TangentTask(mPerVertex, mStart, middle, mTriangleFrames, mVertexOffsets, mVertexTriangles, mResult),
+					new TangentTask(mPerVertex, middle, mEnd, mTriangleFrames, mVertexOffsets, mVertexTriangles, mResult));
+		}
+	}
+	
+	/**
+	 * Computes the tangent and bitangent of every fan triangle in [firstTriangle, lastTriangle) 
+	 * and writes them to `triangleFrames`, 6 floats per triangle.
+	 */
+	private void calculateTriangleFrames(int firstTriangle, int lastTriangle, float triangleFrames[])
+	{
+		int verticesPerPolygon = getVerticesPerPolygon();
+		int trianglesPerPolygon = verticesPerPolygon - 2;
+		
+		for (int triangle = firstTriangle; triangle < lastTriangle; ++triangle)
+		{
+			int base = (triangle / trianglesPerPolygon) * verticesPerPolygon;
+			int k = triangle % trianglesPerPolygon + 1;
 			
+			int i1 = mPolygonData.get(base);
+			int i2 = mPolygonData.get(base + k);
+			int i3 = mPolygonData.get(base + k + 1);
 			
-			/* DONE PA1 : Orthogonalize and normalize (aka. create orthonormal basis), based on
-			 * the current normal and tangent vectors, as explained on Lengyel's site. */   
-			Vector3f tangent_orth = new Vector3f();
+			/* Get positions of vertices relative to the first vertex. */
+			float p0x = mVertexData.get(3 * i1 + 0), p0y = mVertexData.get(3 * i1 + 1), p0z = mVertexData.get(3 * i1 + 2);
+			float q1x = mVertexData.get(3 * i2 + 0) - p0x, q1y = mVertexData.get(3 * i2 + 1) - p0y, q1z = mVertexData.get(3 * i2 + 2) - p0z;
+			float q2x = mVertexData.get(3 * i3 + 0) - p0x, q2y = mVertexData.get(3 * i3 + 1) - p0y, q2z = mVertexData.get(3 * i3 + 2) - p0z;
 			
-			float ndott = normal.dot(tangent);
-			Vector3f norm_scale = new Vector3f(normal);
-			norm_scale.scale(ndott);
+			/* Get texture coordinates relative to the first vertex. */
+			float u1 = mTexCoordData.get(2 * i1 + 0);
+			float v1 = mTexCoordData.get(2 * i1 + 1);
+			float s1 = mTexCoordData.get(2 * i2 + 0) - u1;
+			float t1 = mTexCoordData.get(2 * i2 + 1) - v1;
+			float s2 = mTexCoordData.get(2 * i3 + 0) - u1;
+			float t2 = mTexCoordData.get(2 * i3 + 1) - v1;
 			
-			tangent_orth.sub(tangent, norm_scale);
+			/* This can happen because of (1) missing texture
+			 * (2) broken texture coordinates, so we skip it. */
+			float det = s1 * t2 - s2 * t1;
+			if (Math.abs(det) < EPS)
+			{
+				continue;
+			}
 			
-			/* DONE PA1: Compute handedness of bitangent, as explained on Lengyel's site. */			
+			/* [T; B] = inverse([s1 t1; s2 t2]) * [q1; q2], written out. */
+			float r = 1.0f / det;
+			int offset = 6 * triangle;
 			
-			Vector3f bitangent_orth = new Vector3f();
+			triangleFrames[offset + 0] = (t2 * q1x - t1 * q2x) * r;
+			triangleFrames[offset + 1] = (t2 * q1y - t1 * q2y) * r;
+			triangleFrames[offset + 2] = (t2 * q1z - t1 * q2z) * r;
+			triangleFrames[offset + 3] = (s1 * q2x - s2 * q1x) * r;
+			triangleFrames[offset + 4] = (s1 * q2y - s2 * q1y) * r;
+			triangleFrames[offset + 5] = (s1 * q2z - s2 * q1z) * r;
+		}
+	}
+	
+	/**
+	 * Sums the tangents and bitangents of the triangles around each of vertices [firstVertex, lastVertex), 
+	 * orthonormalizes them against the vertex normals (Gram-Schmidt), and writes {tangent.xyz, handedness} 
+	 * to `result`.
+	 */
+	private void orthonormalizeTangentVectors(int firstVertex, int lastVertex, float triangleFrames[], int vertexOffsets[], int vertexTriangles[], FloatBuffer result)
+	{
+		for (int vIndex = firstVertex; vIndex < lastVertex; ++vIndex)
+		{
+			/* Get tentative tangent and bitangent vectors at this vertex. */
+			float tx = 0.0f, ty = 0.0f, tz = 0.0f;
+			float bx = 0.0f, by = 0.0f, bz = 0.0f;
 			
-			float t_odotb = tangent_orth.dot(bitangent);
-			float t_sqr = tangent_orth.lengthSquared();
+			for (int i = vertexOffsets[vIndex]; i < vertexOffsets[vIndex + 1]; ++i)
+			{
+				int offset = 6 * vertexTriangles[i];
+				
+				tx += triangleFrames[offset + 0];
+				ty += triangleFrames[offset + 1];
+				tz += triangleFrames[offset + 2];
+				bx += triangleFrames[offset + 3];
+				by += triangleFrames[offset + 4];
+				bz += triangleFrames[offset + 5];
+			}
 			
-			Vector3f tan_scale = new Vector3f(tangent_orth);
-			tan_scale.scale(t_odotb);
-			tan_scale.scale(1 / t_sqr);
-
-			float ndotb = normal.dot(bitangent);
+			/* Get vertex normal. */
+			float nx = mNormalData.get(3 * vIndex + 0);
+			float ny = mNormalData.get(3 * vIndex + 1);
+			float nz = mNormalData.get(3 * vIndex + 2);
+			float nLength = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
 			
-			norm_scale.set(normal);
-			norm_scale.scale(ndotb);
+			if (nLength > EPS)
+			{
+				nx /= nLength;
+				ny /= nLength;
+				nz /= nLength;
+			}
 			
-			bitangent_orth.sub(bitangent, norm_scale);
-			bitangent_orth.sub(bitangent_orth, tan_scale);
+			/* If the tangent is the zero vector, then there were no valid texture coordinates,
+			 * so we generate a tangent space starting from an arbitrary vector: e.g. (1, 0, 0) */
+			if (tx * tx + ty * ty + tz * tz < EPS * EPS)
+			{
+				/* This computes 'n cross (1, 0, 0)' */
+				tx = 0.0f;
+				ty = nz;
+				tz = -ny;
+				
+				/* If this coincides with the normal, pick (0, 1, 0) */
+				if (ty * ty + tz * tz < EPS * EPS)
+				{
+					/* This computes 'n cross (0, 1, 0)' */
+					tx = -nz;
+					ty = 0.0f;
+					tz = nx;
+				}
+				
+				bx = by = bz = 0.0f;
+			}
+			
+			/* Orthogonalize the tangent against the normal, and normalize. */
+			float ndott = nx * tx + ny * ty + nz * tz;
+			tx -= nx * ndott;
+			ty -= ny * ndott;
+			tz -= nz * ndott;
 			
-			tangent_orth.normalize();
-			bitangent_orth.normalize();
+			float tLength = (float)Math.sqrt(tx * tx + ty * ty + tz * tz);
+			if (tLength > EPS)
+			{
+				tx /= tLength;
+				ty /= tLength;
+				tz /= tLength;
+			}
 			
-			/*GMatrix matTBN = new GMatrix(3, 3);
+			/* Handedness is the sign of dot(cross(n, t), b); the components of b along n and t 
+			 * which Gram-Schmidt would remove don't affect it. Default to right-handed if b is degenerate. */
+			float cx = ny * tz - nz * ty;
+			float cy = nz * tx - nx * tz;
+			float cz = nx * ty - ny * tx;
+			float handedness = (cx * bx + cy * by + cz * bz < 0.0f ? -1.0f : 1.0f);
 			
-			matTBN.setElement(0, 0, tangent_orth.x);
-			matTBN.setElement(0, 1, tangent_orth.y);
-			matTBN.setElement(0, 2, tangent_orth.z);
-
-			matTBN.setElement(1, 0, bitangent_orth.x);
-			matTBN.setElement(1, 1, bitangent_orth.y);
-			matTBN.setElement(1, 2, bitangent_orth.z);
-
-			matTBN.setElement(2, 0, normal.x);
-			matTBN.setElement(2, 1, normal.y);
-			matTBN.setElement(2, 2, normal.z);*/
+			/* Store the normalized result in the first 3 components, and the handedness in the last one */
+			result.put(4 * vIndex + 0, tx);
+			result.put(4 * vIndex + 1, ty);
+			result.put(4 * vIndex + 2, tz);
+			result.put(4 * vIndex + 3, handedness);
+		}
+	}
+	
+	/**
+	 * Returns true if this mesh's material needs the "VertexTangent" attribute, i.e. if it's worth
+	 * calling `calculateTangentVectors()` for this mesh.
+	 */
+	public boolean requiresTangentVectors()
+	{
+		for (String attrib : mMaterial.getRequiredVertexAttributes())
+		{
+			if (attrib.equals("VertexTangent"))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Builds compressed copies of this mesh's vertex and index buffers, which the renderer will 
+	 * use instead of the float buffers from then on. The float buffers are kept for CPU-side 
+	 * processing (tangent calculation, bounds, picking, etc.); call `quantize()` again after 
+	 * modifying them. The compressed formats are:
+	 * 
+	 * - Positions: 4 signed shorts per vertex {x, y, z, 1}, quantized uniformly against the cube 
+	 *   enclosing the mesh bounds. The object-space position is 
+	 *   `getQuantizationOffset() + getQuantizationScale() * xyz`; the scale is uniform so the 
+	 *   normal matrix stays a uniform scale as well.
+	 * - Normals: 2 normalized shorts per vertex, octahedrally encoded.
+	 * - Texture coordinates: 2 half floats per vertex.
+	 * - Tangents (if "VertexTangent" is present in `vertexAttribData`): 2 normalized shorts per vertex, 
+	 *   octahedrally encoded with the handedness folded into the sign (see `Quantization.encodeTangent()`).
+	 * - Polygon indices: unsigned shorts if the mesh has at most 65536 vertices, otherwise ints.
+	 * 
+	 * This takes vertex data from 48 to 16 bytes per vertex for normal-mapped meshes.
+	 */
+	public void quantize()
+	{
+		int vertexCount = getVertexCount();
+		
+		if (vertexCount == 0)
+		{
+			return;
+		}
+		
+		/* Find the bounds of the mesh, and use the enclosing cube as the quantization range. */
+		float min[] = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		float max[] = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			for (int c = 0; c < 3; ++c)
+			{
+				float value = mVertexData.get(3 * v + c);
+				min[c] = Math.min(min[c], value);
+				max[c] = Math.max(max[c], value);
+			}
+		}
+		
+		float halfExtent = 0.5f * Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+		mQuantizationOffset = new Point3f(0.5f * (min[0] + max[0]), 0.5f * (min[1] + max[1]), 0.5f * (min[2] + max[2]));
+		mQuantizationScale = (halfExtent > 0.0f ? halfExtent / 32767.0f : 1.0f);
+		
+		float invScale = 1.0f / mQuantizationScale;
+		mQuantizedVertexData = Buffers.newDirectShortBuffer(4 * vertexCount);
+		
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			mQuantizedVertexData.put(4 * v + 0, quantizeCoordinate((mVertexData.get(3 * v + 0) - mQuantizationOffset.x) * invScale));
+			mQuantizedVertexData.put(4 * v + 1, quantizeCoordinate((mVertexData.get(3 * v + 1) - mQuantizationOffset.y) * invScale));
+			mQuantizedVertexData.put(4 * v + 2, quantizeCoordinate((mVertexData.get(3 * v + 2) - mQuantizationOffset.z) * invScale));
+			mQuantizedVertexData.put(4 * v + 3, (short)1);
+		}
+		
+		/* Octahedral normals. */
+		mQuantizedNormalData = null;
+		float oct[] = new float[2];
+		
+		if (mNormalData != null)
+		{
+			mQuantizedNormalData = Buffers.newDirectShortBuffer(2 * vertexCount);
 			
-			//3x3 Determinant = aei + bfg + cdh - ceg - bdi - afh
-			float handedness
-						= tangent_orth.x * bitangent_orth.y * normal.z +
-						  tangent_orth.y * bitangent_orth.z * normal.x +
-						  tangent_orth.z * bitangent_orth.x * normal.y -
-						  tangent_orth.z * bitangent_orth.y * normal.x -
-						  tangent_orth.y * bitangent_orth.x * normal.z -
-						  tangent_orth.x * bitangent_orth.z * normal.y;
+			for (int v = 0; v < vertexCount; ++v)
+			{
+				float x = mNormalData.get(3 * v + 0);
+				float y = mNormalData.get(3 * v + 1);
+				float z = mNormalData.get(3 * v + 2);
+				
+				/* Degenerate normals encode as +z rather than NaN. */
+				if (x == 0.0f && y == 0.0f && z == 0.0f)
+				{
+					z = 1.0f;
+				}
+				
+				Quantization.encodeOctahedral(x, y, z, oct);
+				mQuantizedNormalData.put(2 * v + 0, Quantization.toSnorm16(oct[0]));
+				mQuantizedNormalData.put(2 * v + 1, Quantization.toSnorm16(oct[1]));
+			}
+		}
+		
+		/* Half float texture coordinates. */
+		mQuantizedTexCoordData = null;
+		
+		if (mTexCoordData != null)
+		{
+			mQuantizedTexCoordData = Buffers.newDirectShortBuffer(2 * vertexCount);
 			
-			handedness = handedness / Math.abs(handedness);
+			for (int i = 0; i < 2 * vertexCount; ++i)
+			{
+				mQuantizedTexCoordData.put(i, Quantization.floatToHalf(mTexCoordData.get(i)));
+			}
+		}
+		
+		/* Octahedral tangents, with handedness in the sign. */
+		mQuantizedTangentData = null;
+		FloatBuffer tangents = vertexAttribData.get("VertexTangent");
+		
+		if (tangents != null && tangents.capacity() == 4 * vertexCount)
+		{
+			mQuantizedTangentData = Buffers.newDirectShortBuffer(2 * vertexCount);
+			short packed[] = new short[2];
 			
-			/* Store the normalized result in the first 3 components, and the handedness in the last one */		
-			result.put(4 * vIndex + 0, tangent_orth.x);
-			result.put(4 * vIndex + 1, tangent_orth.y);
-			result.put(4 * vIndex + 2, tangent_orth.z);
-			result.put(4 * vIndex + 3, handedness);			
+			for (int v = 0; v < vertexCount; ++v)
+			{
+				float x = tangents.get(4 * v + 0);
+				float y = tangents.get(4 * v + 1);
+				float z = tangents.get(4 * v + 2);
+				
+				if (x == 0.0f && y == 0.0f && z == 0.0f)
+				{
+					x = 1.0f;
+				}
+				
+				Quantization.encodeTangent(x, y, z, tangents.get(4 * v + 3), oct, packed);
+				mQuantizedTangentData.put(2 * v + 0, packed[0]);
+				mQuantizedTangentData.put(2 * v + 1, packed[1]);
+			}
 		}
 		
-		return result;
+		/* 16-bit indices when every index fits. */
+		mQuantizedPolygonData = quantizeIndices(mPolygonData, vertexCount);
+		mLodQuantizedPolygonData = new Buffer[mLodPolygonData.length];
+		
+		for (int level = 0; level < mLodPolygonData.length; ++level)
+		{
+			mLodQuantizedPolygonData[level] = quantizeIndices(mLodPolygonData[level], vertexCount);
+		}
+	}
+	
+	/**
+	 * Returns a ShortBuffer copy of the given indices if they all fit in an unsigned short, otherwise the indices themselves.
+	 */
+	protected static Buffer quantizeIndices(IntBuffer data, int vertexCount)
+	{
+		if (data == null || vertexCount > 65536)
+		{
+			return data;
+		}
+		
+		ShortBuffer indices = Buffers.newDirectShortBuffer(data.capacity());
+		
+		for (int i = 0; i < data.capacity(); ++i)
+		{
+			indices.put(i, (short)data.get(i));
+		}
+		
+		return indices;
 	}
 	
+	/**
+	 * Rounds a coordinate already scaled into [-32767, 32767] to a short.
+	 */
+	private static short quantizeCoordinate(float scaled)
+	{
+		return (short)Math.max(-32767, Math.min(32767, Math.round(scaled)));
+	}
 	
+	/**
+	 * Returns true if `quantize()` has been called on this mesh (or the mesh it was cloned from).
+	 */
+	public boolean isQuantized()
+	{
+		return mQuantizedVertexData != null;
+	}
+	
+	/**
+	 * Drops the compressed buffers made by `quantize()`, so the mesh renders from its float buffers again.
+	 */
+	public void clearQuantizedData()
+	{
+		mQuantizedVertexData = null;
+		mQuantizedNormalData = null;
+		mQuantizedTexCoordData = null;
+		mQuantizedTangentData = null;
+		mQuantizedPolygonData = null;
+		mLodQuantizedPolygonData = new Buffer[0];
+	}
+	
+	/**
+	 * Returns the quantized position buffer (4 shorts per vertex), or null if not quantized.
+	 */
+	public ShortBuffer getQuantizedVertexData()
+	{
+		return mQuantizedVertexData;
+	}
+	
+	/**
+	 * Returns the octahedral normal buffer (2 normalized shorts per vertex), or null.
+	 */
+	public ShortBuffer getQuantizedNormalData()
+	{
+		return mQuantizedNormalData;
+	}
+	
+	/**
+	 * Returns the half float texture coordinate buffer (2 halfs per vertex), or null.
+	 */
+	public ShortBuffer getQuantizedTexCoordData()
+	{
+		return mQuantizedTexCoordData;
+	}
+	
+	/**
+	 * Returns the octahedral tangent buffer (2 normalized shorts per vertex), or null.
+	 */
+	public ShortBuffer getQuantizedTangentData()
+	{
+		return mQuantizedTangentData;
+	}
+	
+	/**
+	 * Returns the compressed polygon index buffer: a ShortBuffer of unsigned shorts if the mesh 
+	 * has at most 65536 vertices, otherwise the original IntBuffer. Null if not quantized.
+	 */
+	public Buffer getQuantizedPolygonData()
+	{
+		return mQuantizedPolygonData;
+	}
+	
+	/**
+	 * Returns the object-space position which quantized position (0, 0, 0) maps to.
+	 */
+	public Point3f getQuantizationOffset()
+	{
+		return mQuantizationOffset;
+	}
+	
+	/**
+	 * Returns the object-space size of one quantized position step.
+	 */
+	public float getQuantizationScale()
+	{
+		return mQuantizationScale;
+	}
+	
+	/**
+	 * Copies the quantized buffers (by reference) from another mesh. Used by `clone()`.
+	 */
+	protected void copyQuantizedDataFrom(Mesh other)
+	{
+		mQuantizedVertexData = other.mQuantizedVertexData;
+		mQuantizedNormalData = other.mQuantizedNormalData;
+		mQuantizedTexCoordData = other.mQuantizedTexCoordData;
+		mQuantizedTangentData = other.mQuantizedTangentData;
+		mQuantizedPolygonData = other.mQuantizedPolygonData;
+		mLodQuantizedPolygonData = other.mLodQuantizedPolygonData;
+		mQuantizationOffset = other.mQuantizationOffset;
+		mQuantizationScale = other.mQuantizationScale;
+	}
+	
+	/**
+	 * Copies the level of detail index buffers and thresholds (by reference) from another mesh. Used by `clone()`.
+	 */
+	protected void copyLevelsOfDetailFrom(Mesh other)
+	{
+		mLodPolygonData = other.mLodPolygonData;
+		mLodQuantizedPolygonData = other.mLodQuantizedPolygonData;
+		mLodScreenSizes = other.mLodScreenSizes;
+	}
+	
+	/**
+	 * Sets the coarser levels of detail of this mesh, replacing any previous ones. Each level is an index 
+	 * buffer in the same format as `getPolygonData()`, referring to this mesh's vertices.
+	 * 
+	 * @param levels Index buffers for levels 1, 2, ..., from finest to coarsest.
+	 * @param screenSizes For each level, the projected size (bounding sphere diameter as a fraction 
+	 *        of the viewport height) below which it is used. Must be decreasing.
+	 */
+	public void setLevelsOfDetail(IntBuffer levels[], float screenSizes[])
+	{
+		if (levels.length != screenSizes.length)
+		{
+			throw new IllegalArgumentException("Need one screen size per level of detail.");
+		}
+		
+		mLodPolygonData = levels.clone();
+		mLodScreenSizes = screenSizes.clone();
+		mLodQuantizedPolygonData = new Buffer[levels.length];
+		
+		if (isQuantized())
+		{
+			for (int level = 0; level < levels.length; ++level)
+			{
+				mLodQuantizedPolygonData[level] = quantizeIndices(levels[level], getVertexCount());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of levels of detail of this mesh, including the full-detail level 0.
+	 */
+	public int getLevelOfDetailCount()
+	{
+		return 1 + mLodPolygonData.length;
+	}
+	
+	/**
+	 * Returns the index buffer of the given level of detail. Level 0 is `getPolygonData()`.
+	 */
+	public IntBuffer getLevelOfDetailPolygonData(int level)
+	{
+		return (level == 0 ? mPolygonData : mLodPolygonData[level - 1]);
+	}
+	
+	/**
+	 * Returns the compressed index buffer of the given level of detail (see `getQuantizedPolygonData()`).
+	 */
+	public Buffer getLevelOfDetailQuantizedPolygonData(int level)
+	{
+		return (level == 0 ? mQuantizedPolygonData : mLodQuantizedPolygonData[level - 1]);
+	}
+	
+	/**
+	 * Returns the number of polygons in the given level of detail.
+	 */
+	public int getLevelOfDetailPolygonCount(int level)
+	{
+		IntBuffer data = getLevelOfDetailPolygonData(level);
+		return (data == null ? 0 : data.capacity() / getVerticesPerPolygon());
+	}
+	
+	/**
+	 * Picks the level of detail to draw this mesh at, given how big it appears on screen.
+	 * 
+	 * The level only changes once the size has moved `LOD_HYSTERESIS` past a threshold, so the caller 
+	 * passes the level it selected last time. That state belongs to whoever draws the mesh, not the mesh, 
+	 * since a mesh may be shared by several objects and seen by several cameras at once; the renderer 
+	 * keeps it per object, mesh and camera.
+	 * 
+	 * @param screenSize Bounding sphere diameter as a fraction of the viewport height.
+	 * @param previousLevel The level returned by the previous call for the same object and camera (0 at first).
+	 * 
+	 * @return The level to draw, in [0, getLevelOfDetailCount()).
+	 */
+	public int selectLevelOfDetail(float screenSize, int previousLevel)
+	{
+		int current = Math.min(previousLevel, mLodScreenSizes.length);
+		
+		/* Coarsen only once the size is well below a threshold, refine only once it's well above. */
+		int coarser = levelForScreenSize(screenSize / (1.0f - LOD_HYSTERESIS));
+		int finer = levelForScreenSize(screenSize / (1.0f + LOD_HYSTERESIS));
+		
+		if (coarser > current)
+		{
+			current = coarser;
+		}
+		else if (finer < current)
+		{
+			current = finer;
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * Returns the level whose size range contains `screenSize`, without hysteresis.
+	 */
+	private int levelForScreenSize(float screenSize)
+	{
+		int level = 0;
+		
+		while (level < mLodScreenSizes.length && screenSize < mLodScreenSizes[level])
+		{
+			++level;
+		}
+		
+		return level;
+	}
+	
+	/**
+	 * Returns the center of a sphere enclosing all vertices of this mesh, in object space.
+	 */
+	public Point3f getBoundingSphereCenter()
+	{
+		computeBoundingSphere();
+		return mBoundingSphereCenter;
+	}
+	
+	/**
+	 * Returns the radius of the sphere from `getBoundingSphereCenter()`.
+	 */
+	public float getBoundingSphereRadius()
+	{
+		computeBoundingSphere();
+		return mBoundingSphereRadius;
+	}
+	
+	/**
+	 * Returns the axis-aligned bounding box of this mesh's vertices in object space, as 
+	 * (minX, minY, minZ, maxX, maxY, maxZ). An empty mesh has an empty box (min > max). 
+	 * The array is cached and owned by this mesh; don't modify it.
+	 */
+	public float[] getBoundingBox()
+	{
+		computeBoundingSphere();
+		return mBoundingBox;
+	}
+	
+	/**
+	 * Computes the bounding box and bounding sphere (centered on the box) if they aren't already known. 
+	 * They are recomputed after `setVertexData()`.
+	 */
+	private void computeBoundingSphere()
+	{
+		if (mBoundingSphereCenter != null)
+		{
+			return;
+		}
+		
+		int vertexCount = getVertexCount();
+		float min[] = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		float max[] = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			for (int c = 0; c < 3; ++c)
+			{
+				float value = mVertexData.get(3 * v + c);
+				min[c] = Math.min(min[c], value);
+				max[c] = Math.max(max[c], value);
+			}
+		}
+		
+		Point3f center = new Point3f();
+		float radiusSquared = 0.0f;
+		
+		if (vertexCount > 0)
+		{
+			center.set(0.5f * (min[0] + max[0]), 0.5f * (min[1] + max[1]), 0.5f * (min[2] + max[2]));
+		}
+		
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			float dx = mVertexData.get(3 * v + 0) - center.x;
+			float dy = mVertexData.get(3 * v + 1) - center.y;
+			float dz = mVertexData.get(3 * v + 2) - center.z;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+		
+		mBoundingSphereRadius = (float)Math.sqrt(radiusSquared);
+		mBoundingBox = new float[] {min[0], min[1], min[2], max[0], max[1], max[2]};
+		mBoundingSphereCenter = center;
+	}
+	
+	/**
+	 * Reorders this mesh's polygons for post-transform vertex cache reuse (see `VertexCacheOptimizer`), 
+	 * then renumbers its vertices in first-use order so vertex fetches are sequential. All vertex 
+	 * buffers, generic attributes, edges, and levels of detail are remapped to match; quantized data is rebuilt.
+	 * 
+	 * @return The simulated cache statistics before and after optimization.
+	 */
+	public VertexCacheOptimizer.Statistics optimizeVertexCache()
+	{
+		VertexCacheOptimizer.Statistics stats = new VertexCacheOptimizer.Statistics();
+		int vertexCount = getVertexCount();
+		
+		if (vertexCount == 0 || mPolygonData == null)
+		{
+			return stats;
+		}
+		
+		int cacheSize = VertexCacheOptimizer.DEFAULT_MEASURE_CACHE_SIZE;
+		int indices[] = new int[mPolygonData.capacity()];
+		for (int i = 0; i < indices.length; ++i)
+		{
+			indices[i] = mPolygonData.get(i);
+		}
+		
+		stats.acmrBefore = VertexCacheOptimizer.computeACMR(indices, vertexCount, getVerticesPerPolygon(), cacheSize);
+		stats.atvrBefore = VertexCacheOptimizer.computeATVR(indices, vertexCount, cacheSize);
+		
+		/* Reorder polygons, then vertices. */
+		int optimized[] = VertexCacheOptimizer.optimizePolygonOrder(indices, vertexCount, getVerticesPerPolygon());
+		int remap[] = VertexCacheOptimizer.computeFetchRemap(optimized, vertexCount);
+		
+		for (int i = 0; i < optimized.length; ++i)
+		{
+			optimized[i] = remap[optimized[i]];
+		}
+		
+		stats.acmrAfter = VertexCacheOptimizer.computeACMR(optimized, vertexCount, getVerticesPerPolygon(), cacheSize);
+		stats.atvrAfter = VertexCacheOptimizer.computeATVR(optimized, vertexCount, cacheSize);
+		
+		mPolygonData = Buffers.newDirectIntBuffer(optimized);
+		mMeshlets = null;
+		mTriangleBVH = null;
+		remapVertices(remap);
+		
+		mVertexCacheStatistics = stats;
+		return stats;
+	}
+	
+	/**
+	 * Returns the simulated cache statistics (ACMR and ATVR before and after) from the last call to 
+	 * `optimizeVertexCache()`, or null if this mesh was never optimized.
+	 */
+	public VertexCacheOptimizer.Statistics getVertexCacheStatistics()
+	{
+		return mVertexCacheStatistics;
+	}
+	
+	/**
+	 * Moves every vertex `v` of this mesh to index `remap[v]`, updating all vertex buffers, generic 
+	 * attributes, the edge buffer, and level of detail index buffers. The polygon buffer is NOT updated; 
+	 * callers remap it themselves, typically because they are reordering it anyway. Quantized data is 
+	 * rebuilt if present.
+	 * 
+	 * The buffers are replaced rather than modified in place, so clones of this mesh are unaffected.
+	 * 
+	 * @param remap Permutation of [0, getVertexCount()).
+	 */
+	protected void remapVertices(int remap[])
+	{
+		int vertexCount = getVertexCount();
+		
+		mVertexData = remapFloatBuffer(mVertexData, remap, vertexCount);
+		mNormalData = remapFloatBuffer(mNormalData, remap, vertexCount);
+		mTexCoordData = remapFloatBuffer(mTexCoordData, remap, vertexCount);
+		
+		HashMap<String, FloatBuffer> remappedAttribs = new HashMap<String, FloatBuffer>();
+		for (String name : vertexAttribData.keySet())
+		{
+			remappedAttribs.put(name, remapFloatBuffer(vertexAttribData.get(name), remap, vertexCount));
+		}
+		vertexAttribData = remappedAttribs;
+		
+		mEdgeData = remapIndexBuffer(mEdgeData, remap);
+		
+		IntBuffer remappedLevels[] = new IntBuffer[mLodPolygonData.length];
+		for (int level = 0; level < mLodPolygonData.length; ++level)
+		{
+			remappedLevels[level] = remapIndexBuffer(mLodPolygonData[level], remap);
+		}
+		mLodPolygonData = remappedLevels;
+		
+		if (isQuantized())
+		{
+			quantize();
+		}
+	}
+	
+	/**
+	 * Returns a copy of an index buffer with every index `v` replaced by `remap[v]`.
+	 */
+	private static IntBuffer remapIndexBuffer(IntBuffer data, int remap[])
+	{
+		if (data == null)
+		{
+			return null;
+		}
+		
+		IntBuffer result = Buffers.newDirectIntBuffer(data.capacity());
+		
+		for (int i = 0; i < data.capacity(); ++i)
+		{
+			result.put(i, remap[data.get(i)]);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of a per-vertex buffer (of any dimensionality) with vertex `v` moved to `remap[v]`.
+	 */
+	private static FloatBuffer remapFloatBuffer(FloatBuffer data, int remap[], int vertexCount)
+	{
+		if (data == null)
+		{
+			return null;
+		}
+		
+		int dimension = data.capacity() / vertexCount;
+		FloatBuffer result = Buffers.newDirectFloatBuffer(data.capacity());
+		
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			for (int c = 0; c < dimension; ++c)
+			{
+				result.put(dimension * remap[v] + c, data.get(dimension * v + c));
+			}
+		}
+		
+		return result;
+	}
 	
 	/**
 	 * Creates a shallow copy of the given mesh (it will share references to all member data).
@@ -308,6 +1031,16 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setMaterial(Material mat)
 	{
 		mMaterial = mat;
+		mMaterialVersion = FlattenedScene.nextVersion();
+	}
+	
+	/**
+	 * Returns a version number which grows whenever this mesh gets another material, or its material's 
+	 * properties change (see `Material.getVersion()`).
+	 */
+	public int getMaterialVersion()
+	{
+		return Math.max(mMaterialVersion, mMaterial.getVersion());
 	}
 	
 	/**
@@ -343,6 +1076,8 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setVertexData(FloatBuffer vertices)
 	{
 		mVertexData = vertices;
+		mBoundingSphereCenter = null;
+		mTriangleBVH = null;
 	}
 
 	/**
@@ -416,6 +1151,43 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setPolygonData(IntBuffer polys)
 	{
 		mPolygonData = polys;
+		mMeshlets = null;
+		mTriangleBVH = null;
+	}
+	
+	/**
+	 * Returns the clusters of this mesh's polygons, or null if they haven't been built 
+	 * (see `Trimesh.buildMeshlets()`). Cluster index ranges refer to `getPolygonData()`.
+	 */
+	public MeshletSet getMeshlets()
+	{
+		return mMeshlets;
+	}
+	
+	/**
+	 * Returns a hierarchy over this mesh's triangles for ray casts, building it on first use. Safe to 
+	 * call from several threads at once; only one builds the tree. Buffers modified in place must be 
+	 * set again (e.g. with `setVertexData()`) so that the tree is rebuilt.
+	 */
+	public MeshBVH getTriangleBVH()
+	{
+		MeshBVH bvh = mTriangleBVH;
+		
+		if (bvh == null)
+		{
+			synchronized (this)
+			{
+				bvh = mTriangleBVH;
+				
+				if (bvh == null)
+				{
+					bvh = new MeshBVH(this);
+					mTriangleBVH = bvh;
+				}
+			}
+		}
+		
+		return bvh;
 	}
 
 	/**
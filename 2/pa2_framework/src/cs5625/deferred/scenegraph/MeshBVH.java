@@ -0,0 +1,259 @@
+package cs5625.deferred.scenegraph;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * MeshBVH.java
+ *
+ * A bounding volume hierarchy over the triangles of a mesh, in object space, for ray casts against
+ * individual triangles (see `RayQuery`). Quads are split into the triangles (0, 1, 2) and (0, 2, 3).
+ * Triangle `t` of a quadmesh is therefore half `t / 2` of quad `t / 2`; for a trimesh, triangle
+ * indices are polygon indices.
+ *
+ * The tree is built with `BoundingVolumeHierarchy`. Triangle corners are copied into one array in
+ * leaf order, so a leaf's triangles are read sequentially and the tree is independent of later
+ * changes to the mesh's buffers. Meshes rebuild it when their vertex or polygon data is replaced;
+ * code which modifies a mesh's buffers in place must set them again to discard it.
+ *
+ * Queries only read the tree, so any number of threads may cast rays against it at once.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class MeshBVH
+{
+	private BoundingVolumeHierarchy mTree = new BoundingVolumeHierarchy();
+
+	/* Triangle corners in leaf order, 9 floats each, and the mesh triangle index of each. */
+	private float mCorners[];
+	private int mTriangleIndices[];
+
+	/**
+	 * Builds a hierarchy over the polygons of the given mesh.
+	 */
+	public MeshBVH(Mesh mesh)
+	{
+		FloatBuffer vertices = mesh.getVertexData();
+		IntBuffer polygons = mesh.getPolygonData();
+		int verticesPerPolygon = mesh.getVerticesPerPolygon();
+		int polygonCount = (vertices == null ? 0 : mesh.getPolygonCount());
+		int trianglesPerPolygon = verticesPerPolygon - 2;
+		int triangleCount = polygonCount * trianglesPerPolygon;
+
+		/* Corners in mesh order first, to compute the triangle boxes the tree is built over. */
+		float corners[] = new float[9 * triangleCount];
+		float boxes[] = new float[6 * triangleCount];
+		int triangles[] = new int[triangleCount];
+
+		for (int p = 0; p < polygonCount; ++p)
+		{
+			int base = p * verticesPerPolygon;
+
+			for (int k = 0; k < trianglesPerPolygon; ++k)
+			{
+				int t = p * trianglesPerPolygon + k;
+				int i0 = polygons.get(base);
+				int i1 = polygons.get(base + k + 1);
+				int i2 = polygons.get(base + k + 2);
+
+				for (int c = 0; c < 3; ++c)
+				{
+					float v0 = vertices.get(3 * i0 + c);
+					float v1 = vertices.get(3 * i1 + c);
+					float v2 = vertices.get(3 * i2 + c);
+
+					corners[9 * t + c] = v0;
+					corners[9 * t + 3 + c] = v1;
+					corners[9 * t + 6 + c] = v2;
+					boxes[6 * t + c] = Math.min(v0, Math.min(v1, v2));
+					boxes[6 * t + 3 + c] = Math.max(v0, Math.max(v1, v2));
+				}
+
+				triangles[t] = t;
+			}
+		}
+
+		mTree.build(boxes, triangles, triangleCount);
+		mTree.compact();
+
+		/* Reorder the corners to match the leaves. */
+		int objects[] = mTree.getObjects();
+		mCorners = new float[9 * triangleCount];
+		mTriangleIndices = new int[triangleCount];
+
+		for (int i = 0; i < triangleCount; ++i)
+		{
+			System.arraycopy(corners, 9 * objects[i], mCorners, 9 * i, 9);
+			mTriangleIndices[i] = objects[i];
+		}
+	}
+
+	/**
+	 * Finds the closest triangle hit by the ray o + t d, for 0 <= t <= maxDistance. Both sides of
+	 * triangles count, as the renderer draws them double-sided. `d` need not be normalized;
+	 * distances are in units of its length.
+	 *
+	 * @param stack Traversal stack with room for `getStackSize()` entries, so that callers casting
+	 *        many rays can reuse one.
+	 * @param distanceStack Entry distances matching `stack`, of the same size.
+	 * @param result Receives {t, u, v} of the hit, where (u, v) are the barycentric coordinates of
+	 *        the hit point with respect to the triangle's second and third corners.
+	 * @return The mesh triangle index of the hit, or -1 if the ray misses.
+	 */
+	public int intersect(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance,
+			int stack[], float distanceStack[], float result[])
+	{
+		if (mTree.getNodeCount() == 0)
+		{
+			return -1;
+		}
+
+		float nodeBounds[] = mTree.getNodeBounds();
+		int nodeFirst[] = mTree.getNodeFirst();
+		int nodeObjectCounts[] = mTree.getNodeObjectCounts();
+		float corners[] = mCorners;
+
+		/* Zero components give infinite reciprocals, which the slab test handles. */
+		float invDx = 1.0f / dx, invDy = 1.0f / dy, invDz = 1.0f / dz;
+
+		float closest = maxDistance;
+		int hit = -1;
+
+		float rootDistance = BoundingVolumeHierarchy.intersectBox(nodeBounds, 0, ox, oy, oz, invDx, invDy, invDz, closest);
+
+		if (rootDistance == Float.POSITIVE_INFINITY)
+		{
+			return -1;
+		}
+
+		stack[0] = 0;
+		distanceStack[0] = rootDistance;
+		int stackSize = 1;
+
+		while (stackSize > 0)
+		{
+			--stackSize;
+			int node = stack[stackSize];
+
+			/* Skip nodes entered beyond a hit found since they were pushed. */
+			if (distanceStack[stackSize] > closest)
+			{
+				continue;
+			}
+
+			int count = nodeObjectCounts[node];
+
+			if (count > 0)
+			{
+				int first = nodeFirst[node];
+
+				for (int i = first; i < first + count; ++i)
+				{
+					/* Moller-Trumbore: solve o + t d = v0 + u e1 + v e2 by Cramer's rule. Source: Moller, T. and
+					 * Trumbore, B. "Fast, Minimum Storage Ray/Triangle Intersection." JGT 2(1), 1997. */
+					int c = 9 * i;
+					float e1x = corners[c + 3] - corners[c], e1y = corners[c + 4] - corners[c + 1], e1z = corners[c + 5] - corners[c + 2];
+					float e2x = corners[c + 6] - corners[c], e2y = corners[c + 7] - corners[c + 1], e2z = corners[c + 8] - corners[c + 2];
+
+					float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+					float det = e1x * px + e1y * py + e1z * pz;
+
+					if (det == 0.0f)
+					{
+						continue;
+					}
+
+					float invDet = 1.0f / det;
+					float sx = ox - corners[c], sy = oy - corners[c + 1], sz = oz - corners[c + 2];
+					float u = (sx * px + sy * py + sz * pz) * invDet;
+
+					if (u < 0.0f || u > 1.0f)
+					{
+						continue;
+					}
+
+					float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+					float v = (dx * qx + dy * qy + dz * qz) * invDet;
+
+					if (v < 0.0f || u + v > 1.0f)
+					{
+						continue;
+					}
+
+					float t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+
+					if (t >= 0.0f && t <= closest)
+					{
+						closest = t;
+						hit = i;
+						result[0] = t;
+						result[1] = u;
+						result[2] = v;
+					}
+				}
+			}
+			else
+			{
+				/* Visit the nearer child first, so hits in it can prune the other. */
+				int left = nodeFirst[node];
+				int right = left + 1;
+				float leftDistance = BoundingVolumeHierarchy.intersectBox(nodeBounds, 6 * left, ox, oy, oz, invDx, invDy, invDz, closest);
+				float rightDistance = BoundingVolumeHierarchy.intersectBox(nodeBounds, 6 * right, ox, oy, oz, invDx, invDy, invDz, closest);
+
+				if (leftDistance > rightDistance)
+				{
+					int swapNode = left;
+					left = right;
+					right = swapNode;
+
+					float swapDistance = leftDistance;
+					leftDistance = rightDistance;
+					rightDistance = swapDistance;
+				}
+
+				if (rightDistance != Float.POSITIVE_INFINITY)
+				{
+					stack[stackSize] = right;
+					distanceStack[stackSize] = rightDistance;
+					++stackSize;
+				}
+
+				if (leftDistance != Float.POSITIVE_INFINITY)
+				{
+					stack[stackSize] = left;
+					distanceStack[stackSize] = leftDistance;
+					++stackSize;
+				}
+			}
+		}
+
+		return (hit < 0 ? -1 : mTriangleIndices[hit]);
+	}
+
+	/**
+	 * Returns the size of traversal stack `intersect()` needs.
+	 */
+	public int getStackSize()
+	{
+		return mTree.getDepth() + 1;
+	}
+
+	/**
+	 * Returns the number of triangles in the hierarchy.
+	 */
+	public int getTriangleCount()
+	{
+		return mTree.getObjectCount();
+	}
+
+	/**
+	 * Returns the number of tree nodes.
+	 */
+	public int getNodeCount()
+	{
+		return mTree.getNodeCount();
+	}
+}
@@ -0,0 +1,563 @@
+package cs5625.deferred.scenegraph;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * MeshSimplifier.java
+ *
+ * Reduces the triangle count of a triangle mesh by repeatedly collapsing the edge whose collapse adds
+ * the least error, as measured by the quadric error metric. Every vertex carries the sum of squared
+ * distances to the planes of its original triangles (a 4x4 quadric), and collapsing a vertex into
+ * another costs the combined quadric evaluated at the surviving vertex.
+ * Source: Garland, M. and Heckbert, P. "Surface Simplification Using Quadric Error Metrics." SIGGRAPH 1997.
+ *
+ * Collapses always move a vertex onto one of its neighbours ("half-edge" collapses) rather than to a new
+ * optimal position, so the simplified mesh is only a new index buffer into the original vertex buffers.
+ * All levels of detail of a mesh can therefore share one set of vertex, normal, texture coordinate, and
+ * tangent buffers.
+ *
+ * The loader splits vertices wherever normals or texture coordinates differ, so UV and normal seams show up
+ * as several vertices at one position. Those vertices, vertices on open boundaries, and the endpoints of
+ * marked edges (the mesh's edge buffer) are never removed, which keeps seams, silhouettes of open
+ * surfaces, and creases intact. Collapses which would flip a triangle or make the mesh non-manifold are
+ * rejected.
+ *
+ * A consequence is that flat-shaded meshes, whose faces each have their own normal and so split every
+ * corner, are all seam and can't be simplified at all; export them with smooth normals (and creases as
+ * marked edges) to get levels of detail. `Trimesh.generateLevelsOfDetail()` warns about large meshes
+ * where this happens.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class MeshSimplifier
+{
+	/* A candidate collapse of vertex `from` into vertex `to`. Candidates are never updated in place;
+	 * when either vertex changes, its version goes up and the stale candidate is skipped. */
+	private static class Collapse implements Comparable<Collapse>
+	{
+		int from, to;
+		int fromVersion, toVersion;
+		double cost;
+
+		public int compareTo(Collapse other)
+		{
+			return Double.compare(cost, other.cost);
+		}
+	}
+
+	/* Input geometry. */
+	private final FloatBuffer mPositions;
+	private final int mVertexCount;
+
+	/* Current triangles (3 indices each) and whether each is still alive. */
+	private int mTriangles[];
+	private boolean mTriangleAlive[];
+	private int mAliveTriangleCount;
+
+	/* Per-vertex state. */
+	private double mQuadrics[];
+	private boolean mLocked[];
+	private boolean mRemoved[];
+	private int mVersion[];
+
+	/* Per-vertex lists of incident triangles, which grow as collapses move triangles between vertices. */
+	private int mIncident[][];
+	private int mIncidentCount[];
+
+	private PriorityQueue<Collapse> mQueue = new PriorityQueue<Collapse>();
+
+	/**
+	 * Simplifies a triangle mesh.
+	 *
+	 * @param positions Vertex positions, 3 floats per vertex.
+	 * @param triangles Triangle index data, 3 indices per triangle.
+	 * @param markedEdges Optional edge index data (2 indices per edge) whose endpoints must be kept. May be null.
+	 * @param targetTriangleCount Stop once at most this many triangles remain. The result may have more
+	 *        if no further collapse is allowed.
+	 *
+	 * @return The simplified triangle index data, referring to the same vertices as the input.
+	 */
+	public static int[] simplify(FloatBuffer positions, int triangles[], IntBuffer markedEdges, int targetTriangleCount)
+	{
+		MeshSimplifier simplifier = new MeshSimplifier(positions, triangles);
+		simplifier.lockFeatureVertices(markedEdges);
+		simplifier.computeQuadrics();
+		simplifier.collapseUntil(targetTriangleCount);
+		return simplifier.getTriangles();
+	}
+
+	private MeshSimplifier(FloatBuffer positions, int triangles[])
+	{
+		mPositions = positions;
+		mVertexCount = positions.capacity() / 3;
+		mTriangles = Arrays.copyOf(triangles, triangles.length);
+
+		int triangleCount = triangles.length / 3;
+		mTriangleAlive = new boolean[triangleCount];
+		Arrays.fill(mTriangleAlive, true);
+		mAliveTriangleCount = triangleCount;
+
+		mQuadrics = new double[10 * mVertexCount];
+		mLocked = new boolean[mVertexCount];
+		mRemoved = new boolean[mVertexCount];
+		mVersion = new int[mVertexCount];
+
+		/* Build incident triangle lists. */
+		mIncidentCount = new int[mVertexCount];
+		for (int index : mTriangles)
+		{
+			++mIncidentCount[index];
+		}
+
+		mIncident = new int[mVertexCount][];
+		for (int v = 0; v < mVertexCount; ++v)
+		{
+			mIncident[v] = new int[Math.max(4, mIncidentCount[v])];
+			mIncidentCount[v] = 0;
+		}
+
+		for (int t = 0; t < triangleCount; ++t)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				addIncident(mTriangles[3 * t + k], t);
+			}
+		}
+	}
+
+	/**
+	 * Locks seam vertices (more than one vertex at a position), boundary vertices (on an edge used
+	 * by only one triangle), and endpoints of marked edges.
+	 */
+	private void lockFeatureVertices(IntBuffer markedEdges)
+	{
+		/* Seams: vertices sharing an exact position with another vertex. Vertices are chained per hash 
+		 * bucket (newest first, through `nextInBucket`), and each is compared with the actual positions 
+		 * of the whole chain, since different positions can hash to the same key. */
+		HashMap<Long, Integer> bucketHeads = new HashMap<Long, Integer>();
+		int nextInBucket[] = new int[mVertexCount];
+
+		for (int v = 0; v < mVertexCount; ++v)
+		{
+			long key = positionKey(v);
+			Integer head = bucketHeads.get(key);
+			nextInBucket[v] = (head == null ? -1 : head);
+			bucketHeads.put(key, v);
+
+			for (int other = nextInBucket[v]; other >= 0; other = nextInBucket[other])
+			{
+				if (samePosition(v, other))
+				{
+					mLocked[v] = true;
+					mLocked[other] = true;
+					break;
+				}
+			}
+		}
+
+		/* Boundaries: count how many triangles use each undirected edge. */
+		HashMap<Long, Integer> edgeUses = new HashMap<Long, Integer>();
+
+		for (int t = 0; t < mTriangles.length / 3; ++t)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				long key = edgeKey(mTriangles[3 * t + k], mTriangles[3 * t + (k + 1) % 3]);
+				Integer uses = edgeUses.get(key);
+				edgeUses.put(key, (uses == null ? 1 : uses + 1));
+			}
+		}
+
+		for (Long key : edgeUses.keySet())
+		{
+			if (edgeUses.get(key) != 2)
+			{
+				mLocked[(int)(key >>> 32)] = true;
+				mLocked[(int)(key & 0xffffffffL)] = true;
+			}
+		}
+
+		/* Marked edges. */
+		if (markedEdges != null)
+		{
+			for (int i = 0; i < markedEdges.capacity(); ++i)
+			{
+				mLocked[markedEdges.get(i)] = true;
+			}
+		}
+	}
+
+	/**
+	 * Accumulates the area-weighted plane quadric of every triangle into its vertices, then queues
+	 * the initial collapse candidates.
+	 */
+	private void computeQuadrics()
+	{
+		for (int t = 0; t < mTriangles.length / 3; ++t)
+		{
+			int a = mTriangles[3 * t + 0], b = mTriangles[3 * t + 1], c = mTriangles[3 * t + 2];
+
+			double e1x = x(b) - x(a), e1y = y(b) - y(a), e1z = z(b) - z(a);
+			double e2x = x(c) - x(a), e2y = y(c) - y(a), e2z = z(c) - z(a);
+			double nx = e1y * e2z - e1z * e2y;
+			double ny = e1z * e2x - e1x * e2z;
+			double nz = e1x * e2y - e1y * e2x;
+
+			/* The cross product's length is twice the area; normalize the plane and weight by area. */
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (length == 0.0)
+			{
+				continue;
+			}
+
+			double area = 0.5 * length;
+			nx /= length;
+			ny /= length;
+			nz /= length;
+			double d = -(nx * x(a) + ny * y(a) + nz * z(a));
+
+			for (int k = 0; k < 3; ++k)
+			{
+				int q = 10 * mTriangles[3 * t + k];
+				mQuadrics[q + 0] += area * nx * nx;
+				mQuadrics[q + 1] += area * nx * ny;
+				mQuadrics[q + 2] += area * nx * nz;
+				mQuadrics[q + 3] += area * nx * d;
+				mQuadrics[q + 4] += area * ny * ny;
+				mQuadrics[q + 5] += area * ny * nz;
+				mQuadrics[q + 6] += area * ny * d;
+				mQuadrics[q + 7] += area * nz * nz;
+				mQuadrics[q + 8] += area * nz * d;
+				mQuadrics[q + 9] += area * d * d;
+			}
+		}
+
+		for (int t = 0; t < mTriangles.length / 3; ++t)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				int a = mTriangles[3 * t + k];
+				int b = mTriangles[3 * t + (k + 1) % 3];
+
+				/* Each interior edge is seen from both of its triangles; queue it once. Edges seen from
+				 * only one triangle are boundaries, whose vertices are locked anyway. */
+				if (a < b)
+				{
+					queueCollapse(a, b);
+					queueCollapse(b, a);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Performs the cheapest valid collapse until the triangle target is reached or nothing is left to try.
+	 */
+	private void collapseUntil(int targetTriangleCount)
+	{
+		while (mAliveTriangleCount > targetTriangleCount && !mQueue.isEmpty())
+		{
+			Collapse collapse = mQueue.poll();
+			int from = collapse.from, to = collapse.to;
+
+			if (mRemoved[from] || mRemoved[to] ||
+				collapse.fromVersion != mVersion[from] || collapse.toVersion != mVersion[to])
+			{
+				continue;
+			}
+
+			if (!isCollapseValid(from, to))
+			{
+				continue;
+			}
+
+			applyCollapse(from, to);
+		}
+	}
+
+	/**
+	 * Returns true if `from` can be merged into `to`: they must still share an edge, the edge must
+	 * satisfy the link condition (so the result stays manifold), and no remaining triangle may flip.
+	 */
+	private boolean isCollapseValid(int from, int to)
+	{
+		int sharedTriangles = 0;
+
+		for (int i = 0; i < mIncidentCount[from]; ++i)
+		{
+			int t = mIncident[from][i];
+
+			if (hasVertex(t, to))
+			{
+				++sharedTriangles;
+				continue;
+			}
+
+			/* Compare the triangle's normal before and after moving `from` to `to`. */
+			int a = mTriangles[3 * t + 0], b = mTriangles[3 * t + 1], c = mTriangles[3 * t + 2];
+			int na = (a == from ? to : a), nb = (b == from ? to : b), nc = (c == from ? to : c);
+
+			double before[] = triangleNormal(a, b, c);
+			double after[] = triangleNormal(na, nb, nc);
+
+			double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+			if (dot <= 0.0)
+			{
+				return false;
+			}
+		}
+
+		if (sharedTriangles == 0)
+		{
+			return false;
+		}
+
+		/* Link condition: the vertices adjacent to both endpoints must be exactly the opposite
+		 * vertices of the triangles sharing the edge. */
+		int commonNeighbours = 0;
+
+		for (int i = 0; i < mIncidentCount[from]; ++i)
+		{
+			int t = mIncident[from][i];
+
+			for (int k = 0; k < 3; ++k)
+			{
+				int n = mTriangles[3 * t + k];
+
+				if (n != from && n != to && isNeighbour(to, n) && !isOppositeCounted(from, t, n))
+				{
+					++commonNeighbours;
+				}
+			}
+		}
+
+		return commonNeighbours == sharedTriangles;
+	}
+
+	/**
+	 * Returns true if vertex `n` already appeared in an earlier incident triangle of `from` than `t`,
+	 * so `isCollapseValid()` counts each common neighbour once.
+	 */
+	private boolean isOppositeCounted(int from, int t, int n)
+	{
+		for (int i = 0; i < mIncidentCount[from]; ++i)
+		{
+			int other = mIncident[from][i];
+
+			if (other == t)
+			{
+				return false;
+			}
+
+			if (hasVertex(other, n))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Merges `from` into `to`, killing the triangles they share and moving the rest over.
+	 */
+	private void applyCollapse(int from, int to)
+	{
+		for (int i = 0; i < mIncidentCount[from]; ++i)
+		{
+			int t = mIncident[from][i];
+
+			if (hasVertex(t, to))
+			{
+				mTriangleAlive[t] = false;
+				--mAliveTriangleCount;
+
+				/* `from`'s own list is dropped as a whole below, so don't modify it while iterating. */
+				for (int k = 0; k < 3; ++k)
+				{
+					if (mTriangles[3 * t + k] != from)
+					{
+						removeIncident(mTriangles[3 * t + k], t);
+					}
+				}
+			}
+			else
+			{
+				for (int k = 0; k < 3; ++k)
+				{
+					if (mTriangles[3 * t + k] == from)
+					{
+						mTriangles[3 * t + k] = to;
+					}
+				}
+
+				addIncident(to, t);
+			}
+		}
+
+		mIncidentCount[from] = 0;
+		mRemoved[from] = true;
+
+		for (int q = 0; q < 10; ++q)
+		{
+			mQuadrics[10 * to + q] += mQuadrics[10 * from + q];
+		}
+
+		/* `to` has a new quadric and new neighbours, so requeue every edge around it. */
+		++mVersion[to];
+
+		for (int i = 0; i < mIncidentCount[to]; ++i)
+		{
+			int t = mIncident[to][i];
+
+			for (int k = 0; k < 3; ++k)
+			{
+				int n = mTriangles[3 * t + k];
+
+				if (n != to)
+				{
+					queueCollapse(to, n);
+					queueCollapse(n, to);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the collapse of `from` into `to`, unless `from` is locked.
+	 */
+	private void queueCollapse(int from, int to)
+	{
+		if (mLocked[from])
+		{
+			return;
+		}
+
+		Collapse collapse = new Collapse();
+		collapse.from = from;
+		collapse.to = to;
+		collapse.fromVersion = mVersion[from];
+		collapse.toVersion = mVersion[to];
+		collapse.cost = evaluateQuadricSum(from, to, x(to), y(to), z(to));
+		mQueue.add(collapse);
+	}
+
+	/**
+	 * Evaluates (Q_a + Q_b)(p) for the point p = (px, py, pz, 1).
+	 */
+	private double evaluateQuadricSum(int a, int b, double px, double py, double pz)
+	{
+		return evaluateQuadric(10 * a, px, py, pz) + evaluateQuadric(10 * b, px, py, pz);
+	}
+
+	/**
+	 * Evaluates p^T Q p for the symmetric quadric stored at mQuadrics[q .. q + 9] (upper triangle, row-major).
+	 */
+	private double evaluateQuadric(int q, double px, double py, double pz)
+	{
+		double m[] = mQuadrics;
+
+		return m[q + 0] * px * px + 2 * m[q + 1] * px * py + 2 * m[q + 2] * px * pz + 2 * m[q + 3] * px
+		     + m[q + 4] * py * py + 2 * m[q + 5] * py * pz + 2 * m[q + 6] * py
+		     + m[q + 7] * pz * pz + 2 * m[q + 8] * pz
+		     + m[q + 9];
+	}
+
+	/**
+	 * Returns the alive triangles.
+	 */
+	private int[] getTriangles()
+	{
+		int result[] = new int[3 * mAliveTriangleCount];
+		int next = 0;
+
+		for (int t = 0; t < mTriangleAlive.length; ++t)
+		{
+			if (mTriangleAlive[t])
+			{
+				System.arraycopy(mTriangles, 3 * t, result, next, 3);
+				next += 3;
+			}
+		}
+
+		return result;
+	}
+
+	/* Small helpers. */
+
+	private float x(int v) { return mPositions.get(3 * v + 0); }
+	private float y(int v) { return mPositions.get(3 * v + 1); }
+	private float z(int v) { return mPositions.get(3 * v + 2); }
+
+	private boolean samePosition(int a, int b)
+	{
+		return x(a) == x(b) && y(a) == y(b) && z(a) == z(b);
+	}
+
+	private long positionKey(int v)
+	{
+		long hash = Float.floatToIntBits(x(v));
+		hash = hash * 31 + Float.floatToIntBits(y(v));
+		hash = hash * 31 + Float.floatToIntBits(z(v));
+		return hash;
+	}
+
+	private static long edgeKey(int a, int b)
+	{
+		return ((long)Math.min(a, b) << 32) | (Math.max(a, b) & 0xffffffffL);
+	}
+
+	private boolean hasVertex(int t, int v)
+	{
+		return mTriangles[3 * t + 0] == v || mTriangles[3 * t + 1] == v || mTriangles[3 * t + 2] == v;
+	}
+
+	private boolean isNeighbour(int v, int n)
+	{
+		for (int i = 0; i < mIncidentCount[v]; ++i)
+		{
+			if (hasVertex(mIncident[v][i], n))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private double[] triangleNormal(int a, int b, int c)
+	{
+		double e1x = x(b) - x(a), e1y = y(b) - y(a), e1z = z(b) - z(a);
+		double e2x = x(c) - x(a), e2y = y(c) - y(a), e2z = z(c) - z(a);
+		return new double[] {e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+	}
+
+	private void addIncident(int v, int t)
+	{
+		if (mIncidentCount[v] == mIncident[v].length)
+		{
+			mIncident[v] = Arrays.copyOf(mIncident[v], 2 * mIncident[v].length);
+		}
+
+		mIncident[v][mIncidentCount[v]++] = t;
+	}
+
+	private void removeIncident(int v, int t)
+	{
+		for (int i = 0; i < mIncidentCount[v]; ++i)
+		{
+			if (mIncident[v][i] == t)
+			{
+				mIncident[v][i] = mIncident[v][--mIncidentCount[v]];
+				return;
+			}
+		}
+	}
+}
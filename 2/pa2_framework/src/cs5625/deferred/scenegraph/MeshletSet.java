@@ -0,0 +1,428 @@
+package cs5625.deferred.scenegraph;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * MeshletSet.java
+ *
+ * Partitions a triangle mesh into small clusters ("meshlets") of at most `maxVertices` distinct vertices
+ * and `maxTriangles` triangles, and stores for each cluster a bounding sphere and a normal cone, so the
+ * renderer can skip clusters which are outside the view frustum or entirely back-facing.
+ *
+ * Clusters are grown greedily: starting from a seed triangle, the unassigned triangle adjacent to the
+ * cluster which adds the fewest new vertices is added next, until the cluster is full or has no
+ * unassigned neighbours. This keeps clusters compact, which keeps their bounds tight and their normal
+ * cones narrow. The mesh's triangles are reordered so each cluster is a contiguous range of the index
+ * buffer, which lets a run of consecutive visible clusters be drawn with one call.
+ *
+ * The normal cone test follows meshoptimizer (Kapoulkine, A. https://github.com/zeux/meshoptimizer):
+ * with cone axis `a`, cone half-angle `t`, and bounding sphere (c, r), every triangle in the cluster faces
+ * away from a camera at `e` if dot(c - e, a) >= sin(t) * |c - e| + r.
+ *
+ * The renderer draws polygons double-sided, so back-facing triangles of an open surface can be visible.
+ * Cone culling is therefore only reported as safe (`isClosed()`) for meshes which are closed once vertices
+ * split along UV/normal seams are welded back together by position.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class MeshletSet
+{
+	/* Default cluster limits, which match common mesh shader hardware limits. */
+	public static final int DEFAULT_MAX_VERTICES = 64;
+	public static final int DEFAULT_MAX_TRIANGLES = 124;
+
+	/* Meshes with fewer triangles than this aren't worth clustering. */
+	public static final int MIN_CLUSTERED_TRIANGLES = 4 * DEFAULT_MAX_TRIANGLES;
+
+	/* Normal cone cutoff stored for clusters too curved to ever be back-face culled. */
+	private static final float NEVER_CULL_CUTOFF = 2.0f;
+
+	/* Per-cluster data: first index and index count in the mesh's (reordered) index buffer,
+	 * bounding sphere {x, y, z, radius}, and normal cone {axis x, y, z, cutoff}. */
+	private int mClusterCount;
+	private int mIndexOffsets[];
+	private int mIndexCounts[];
+	private float mBounds[];
+	private float mCones[];
+	private boolean mClosed;
+
+	private MeshletSet()
+	{
+		/* Created by `build()`. */
+	}
+
+	/**
+	 * Partitions a triangle mesh into clusters.
+	 *
+	 * @param positions Vertex positions, 3 floats per vertex.
+	 * @param triangles Triangle indices, 3 per triangle. Reordered in place so that each cluster's triangles are contiguous.
+	 * @param vertexCount The number of vertices the indices refer to.
+	 * @param maxVertices Maximum distinct vertices per cluster; at least 3.
+	 * @param maxTriangles Maximum triangles per cluster; at least 1.
+	 */
+	public static MeshletSet build(FloatBuffer positions, int triangles[], int vertexCount, int maxVertices, int maxTriangles)
+	{
+		int triangleCount = triangles.length / 3;
+
+		/* Vertex -> triangle adjacency in compressed (offset + list) form. */
+		int adjacencyOffset[] = new int[vertexCount + 1];
+		for (int index : triangles)
+		{
+			++adjacencyOffset[index + 1];
+		}
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			adjacencyOffset[v + 1] += adjacencyOffset[v];
+		}
+
+		int adjacency[] = new int[triangles.length];
+		int fill[] = Arrays.copyOf(adjacencyOffset, vertexCount);
+		for (int t = 0; t < triangleCount; ++t)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				adjacency[fill[triangles[3 * t + k]]++] = t;
+			}
+		}
+
+		/* Cluster state. `vertexCluster[v]` is the cluster v was last added to, so membership tests
+		 * don't need the set cleared between clusters. */
+		boolean assigned[] = new boolean[triangleCount];
+		int vertexCluster[] = new int[vertexCount];
+		Arrays.fill(vertexCluster, -1);
+
+		int clusterVertices[] = new int[maxVertices];
+		int order[] = new int[triangleCount];
+		int orderCount = 0;
+
+		int clusterStarts[] = new int[triangleCount + 1];
+		int clusterCount = 0;
+		int scanCursor = 0;
+
+		while (orderCount < triangleCount)
+		{
+			/* Seed a new cluster with the next unassigned triangle in the input order. */
+			while (assigned[scanCursor])
+			{
+				++scanCursor;
+			}
+
+			clusterStarts[clusterCount] = orderCount;
+			int clusterVertexCount = 0;
+			int clusterTriangleCount = 0;
+			int next = scanCursor;
+
+			while (next >= 0)
+			{
+				/* Add the triangle. */
+				assigned[next] = true;
+				order[orderCount++] = next;
+				++clusterTriangleCount;
+
+				for (int k = 0; k < 3; ++k)
+				{
+					int v = triangles[3 * next + k];
+
+					if (vertexCluster[v] != clusterCount)
+					{
+						vertexCluster[v] = clusterCount;
+						clusterVertices[clusterVertexCount++] = v;
+					}
+				}
+
+				if (clusterTriangleCount == maxTriangles)
+				{
+					break;
+				}
+
+				/* Find the adjacent unassigned triangle adding the fewest new vertices that still fits. */
+				next = -1;
+				int bestNewVertices = maxVertices - clusterVertexCount + 1;
+
+				for (int i = 0; i < clusterVertexCount && bestNewVertices > 0; ++i)
+				{
+					int v = clusterVertices[i];
+
+					for (int a = adjacencyOffset[v]; a < adjacencyOffset[v + 1]; ++a)
+					{
+						int t = adjacency[a];
+
+						if (assigned[t])
+						{
+							continue;
+						}
+
+						int newVertices = 0;
+						for (int k = 0; k < 3; ++k)
+						{
+							if (vertexCluster[triangles[3 * t + k]] != clusterCount)
+							{
+								++newVertices;
+							}
+						}
+
+						if (newVertices < bestNewVertices)
+						{
+							bestNewVertices = newVertices;
+							next = t;
+						}
+					}
+				}
+			}
+
+			++clusterCount;
+		}
+
+		clusterStarts[clusterCount] = orderCount;
+
+		/* Apply the new triangle order. */
+		int reordered[] = new int[triangles.length];
+		for (int i = 0; i < triangleCount; ++i)
+		{
+			System.arraycopy(triangles, 3 * order[i], reordered, 3 * i, 3);
+		}
+		System.arraycopy(reordered, 0, triangles, 0, triangles.length);
+
+		/* Compute bounds and cones. */
+		MeshletSet result = new MeshletSet();
+		result.mClosed = isClosed(positions, triangles, vertexCount);
+		result.mClusterCount = clusterCount;
+		result.mIndexOffsets = new int[clusterCount];
+		result.mIndexCounts = new int[clusterCount];
+		result.mBounds = new float[4 * clusterCount];
+		result.mCones = new float[4 * clusterCount];
+
+		for (int c = 0; c < clusterCount; ++c)
+		{
+			result.mIndexOffsets[c] = 3 * clusterStarts[c];
+			result.mIndexCounts[c] = 3 * (clusterStarts[c + 1] - clusterStarts[c]);
+			result.computeClusterBounds(c, positions, triangles);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns true if every edge of the mesh is shared by exactly two triangles, after welding vertices
+	 * with identical positions.
+	 */
+	private static boolean isClosed(FloatBuffer positions, int triangles[], int vertexCount)
+	{
+		/* Map each vertex to the first vertex at its position. Hash collisions between different
+		 * positions just leave vertices unwelded, which can only make the mesh look open. */
+		HashMap<Long, Integer> firstAtPosition = new HashMap<Long, Integer>();
+		int welded[] = new int[vertexCount];
+
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			long key = Float.floatToIntBits(positions.get(3 * v + 0));
+			key = key * 31 + Float.floatToIntBits(positions.get(3 * v + 1));
+			key = key * 31 + Float.floatToIntBits(positions.get(3 * v + 2));
+
+			Integer first = firstAtPosition.get(key);
+			welded[v] = v;
+
+			if (first == null)
+			{
+				firstAtPosition.put(key, v);
+			}
+			else if (positions.get(3 * v + 0) == positions.get(3 * first + 0) &&
+			         positions.get(3 * v + 1) == positions.get(3 * first + 1) &&
+			         positions.get(3 * v + 2) == positions.get(3 * first + 2))
+			{
+				welded[v] = first;
+			}
+		}
+
+		/* Each undirected edge must be used by exactly two triangles. */
+		HashMap<Long, Integer> edgeUses = new HashMap<Long, Integer>();
+
+		for (int i = 0; i < triangles.length; i += 3)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				int a = welded[triangles[i + k]];
+				int b = welded[triangles[i + (k + 1) % 3]];
+				long key = ((long)Math.min(a, b) << 32) | (Math.max(a, b) & 0xffffffffL);
+				Integer uses = edgeUses.get(key);
+				edgeUses.put(key, (uses == null ? 1 : uses + 1));
+			}
+		}
+
+		for (int uses : edgeUses.values())
+		{
+			if (uses != 2)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Computes the bounding sphere (centered on the bounding box) and normal cone of cluster `c`.
+	 */
+	private void computeClusterBounds(int c, FloatBuffer positions, int triangles[])
+	{
+		int first = mIndexOffsets[c];
+		int last = first + mIndexCounts[c];
+
+		float min[] = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		float max[] = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
+		for (int i = first; i < last; ++i)
+		{
+			for (int k = 0; k < 3; ++k)
+			{
+				float value = positions.get(3 * triangles[i] + k);
+				min[k] = Math.min(min[k], value);
+				max[k] = Math.max(max[k], value);
+			}
+		}
+
+		float cx = 0.5f * (min[0] + max[0]), cy = 0.5f * (min[1] + max[1]), cz = 0.5f * (min[2] + max[2]);
+		float radiusSquared = 0.0f;
+
+		for (int i = first; i < last; ++i)
+		{
+			float dx = positions.get(3 * triangles[i] + 0) - cx;
+			float dy = positions.get(3 * triangles[i] + 1) - cy;
+			float dz = positions.get(3 * triangles[i] + 2) - cz;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+
+		mBounds[4 * c + 0] = cx;
+		mBounds[4 * c + 1] = cy;
+		mBounds[4 * c + 2] = cz;
+		mBounds[4 * c + 3] = (float)Math.sqrt(radiusSquared);
+
+		/* The cone axis is the average face normal; its half-angle is the widest deviation from that. */
+		float normals[] = new float[last - first];
+		float ax = 0.0f, ay = 0.0f, az = 0.0f;
+
+		for (int i = first; i < last; i += 3)
+		{
+			faceNormal(positions, triangles[i], triangles[i + 1], triangles[i + 2], normals, i - first);
+			ax += normals[i - first + 0];
+			ay += normals[i - first + 1];
+			az += normals[i - first + 2];
+		}
+
+		float axisLength = (float)Math.sqrt(ax * ax + ay * ay + az * az);
+		float cutoff = NEVER_CULL_CUTOFF;
+
+		if (axisLength > 0.0f)
+		{
+			ax /= axisLength;
+			ay /= axisLength;
+			az /= axisLength;
+
+			float minDot = 1.0f;
+			for (int i = 0; i < normals.length; i += 3)
+			{
+				/* Degenerate triangles have zero normals and can't be seen anyway. */
+				if (normals[i] != 0.0f || normals[i + 1] != 0.0f || normals[i + 2] != 0.0f)
+				{
+					minDot = Math.min(minDot, ax * normals[i] + ay * normals[i + 1] + az * normals[i + 2]);
+				}
+			}
+
+			/* A cone wider than a hemisphere always has some triangle facing the camera. */
+			if (minDot > 0.0f)
+			{
+				cutoff = (float)Math.sqrt(1.0f - minDot * minDot);
+			}
+		}
+
+		mCones[4 * c + 0] = ax;
+		mCones[4 * c + 1] = ay;
+		mCones[4 * c + 2] = az;
+		mCones[4 * c + 3] = cutoff;
+	}
+
+	/**
+	 * Writes the unit normal of triangle (a, b, c), or zero if it's degenerate, to result[offset .. offset + 2].
+	 */
+	private static void faceNormal(FloatBuffer positions, int a, int b, int c, float result[], int offset)
+	{
+		float e1x = positions.get(3 * b + 0) - positions.get(3 * a + 0);
+		float e1y = positions.get(3 * b + 1) - positions.get(3 * a + 1);
+		float e1z = positions.get(3 * b + 2) - positions.get(3 * a + 2);
+		float e2x = positions.get(3 * c + 0) - positions.get(3 * a + 0);
+		float e2y = positions.get(3 * c + 1) - positions.get(3 * a + 1);
+		float e2z = positions.get(3 * c + 2) - positions.get(3 * a + 2);
+
+		float nx = e1y * e2z - e1z * e2y;
+		float ny = e1z * e2x - e1x * e2z;
+		float nz = e1x * e2y - e1y * e2x;
+		float length = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+		if (length > 0.0f)
+		{
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+
+		result[offset + 0] = nx;
+		result[offset + 1] = ny;
+		result[offset + 2] = nz;
+	}
+
+	/**
+	 * Returns true if the mesh is closed, so back-facing clusters are hidden and may be culled with the normal cones.
+	 */
+	public boolean isClosed()
+	{
+		return mClosed;
+	}
+
+	/**
+	 * Returns the number of clusters.
+	 */
+	public int getClusterCount()
+	{
+		return mClusterCount;
+	}
+
+	/**
+	 * Returns the index (into the mesh's polygon buffer) of cluster `c`'s first vertex index.
+	 */
+	public int getIndexOffset(int c)
+	{
+		return mIndexOffsets[c];
+	}
+
+	/**
+	 * Returns the number of indices (3 per triangle) in cluster `c`.
+	 */
+	public int getIndexCount(int c)
+	{
+		return mIndexCounts[c];
+	}
+
+	/**
+	 * Returns the bounding spheres of all clusters, 4 floats per cluster: {center x, y, z, radius}.
+	 * The array is owned by this object and must not be modified.
+	 */
+	public float[] getBounds()
+	{
+		return mBounds;
+	}
+
+	/**
+	 * Returns the normal cones of all clusters, 4 floats per cluster: {unit axis x, y, z, cutoff},
+	 * as described in the class comment. The cutoff is greater than 1 for clusters which can never
+	 * be entirely back-facing. The array is owned by this object and must not be modified.
+	 */
+	public float[] getCones()
+	{
+		return mCones;
+	}
+}
@@ -0,0 +1,223 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelAnimator.java
+ *
+ * Animates a scenegraph on the common ForkJoinPool, running `animate()` on independent
+ * subtrees at the same time. This gives the same result as `root.animate(dt)`, provided
+ * animations follow the rules in `SceneObject.animate()`.
+ *
+ * The tree is split top-down. A node is split only if it uses the default `animate()`,
+ * which just animates its children. Nodes which override it, nodes which opted out with
+ * `SceneObject.setAnimatedSerially()`, and subtrees smaller than the split threshold are
+ * animated by calling their `animate()` on a single thread. The children of a split node
+ * are grouped into batches of at least the threshold size, and each batch is animated as
+ * one task, so that nodes with many tiny children still spread them across threads.
+ *
+ * `animate()` returns once every task has finished. The pool's join makes all transform
+ * changes made by the tasks visible to the calling thread, so the frame can be rendered
+ * from whichever thread the caller hands it to, as with serial animation.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class ParallelAnimator
+{
+	/* Default minimum subtree size (in objects) worth running as its own task. */
+	public static final int DEFAULT_SPLIT_THRESHOLD = 256;
+
+	/* Whether each SceneObject class overrides `animate()`, so it can't be split. */
+	private static final ConcurrentHashMap<Class<?>, Boolean> sOverridesAnimate = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	private boolean mEnabled = true;
+	private int mSplitThreshold = DEFAULT_SPLIT_THRESHOLD;
+
+	/**
+	 * Advances all animations in the scenegraph below (and including) `root` by `dt` seconds.
+	 * Falls back to `root.animate(dt)` if parallel animation is disabled or the scene is small.
+	 */
+	public void animate(SceneObject root, float dt)
+	{
+		/* Computes (and caches) all subtree sizes here, so that tasks only read them. */
+		if (!mEnabled || root.getSubtreeSize() < 2 * mSplitThreshold)
+		{
+			root.animate(dt);
+			return;
+		}
+
+		ForkJoinPool.commonPool().invoke(new SubtreeTask(root, dt));
+	}
+
+	/**
+	 * Returns whether `animate()` uses multiple threads. True by default.
+	 */
+	public boolean getEnabled()
+	{
+		return mEnabled;
+	}
+
+	/**
+	 * Sets whether `animate()` uses multiple threads. Turn this off for scenes whose
+	 * animations add, remove, or rename objects.
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		mEnabled = enabled;
+	}
+
+	/**
+	 * Returns the minimum number of objects animated by one task.
+	 */
+	public int getSplitThreshold()
+	{
+		return mSplitThreshold;
+	}
+
+	/**
+	 * Sets the minimum number of objects animated by one task. Smaller values spread the work
+	 * more evenly but add scheduling overhead; cheap animations want larger values.
+	 */
+	public void setSplitThreshold(int threshold)
+	{
+		mSplitThreshold = Math.max(1, threshold);
+	}
+
+	/**
+	 * Returns whether the given object's subtree can be split into tasks.
+	 */
+	private boolean canSplit(SceneObject obj)
+	{
+		if (obj.isAnimatedSerially() || obj.getSubtreeSize() < 2 * mSplitThreshold)
+		{
+			return false;
+		}
+
+		Class<?> type = obj.getClass();
+		Boolean overrides = sOverridesAnimate.get(type);
+
+		if (overrides == null)
+		{
+			try
+			{
+				overrides = (type.getMethod("animate", float.class).getDeclaringClass() != SceneObject.class);
+			}
+			catch (NoSuchMethodException err)
+			{
+				overrides = true;
+			}
+
+			sOverridesAnimate.put(type, overrides);
+		}
+
+		return !overrides;
+	}
+
+	/**
+	 * Animates one subtree, splitting it into tasks if possible.
+	 */
+	private class SubtreeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private SceneObject mRoot;
+		private float mDt;
+
+		public SubtreeTask(SceneObject root, float dt)
+		{
+			mRoot = root;
+			mDt = dt;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (!canSplit(mRoot))
+			{
+				mRoot.animate(mDt);
+				return;
+			}
+
+			/* Children querying world transforms all read their ancestors' cached matrices, so bring
+			 * those up to date here rather than letting the tasks race to rebuild them. */
+			mRoot.getWorldMatrix();
+
+			/* Big children get their own (further split) task; runs of small ones are batched. */
+			List<SceneObject> children = mRoot.getChildren();
+			ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			int batchStart = 0;
+			int batchSize = 0;
+
+			for (int c = 0; c < children.size(); ++c)
+			{
+				SceneObject child = children.get(c);
+
+				if (canSplit(child))
+				{
+					if (c > batchStart)
+					{
+						tasks.add(new BatchTask(children, batchStart, c, mDt));
+					}
+
+					tasks.add(new SubtreeTask(child, mDt));
+					batchStart = c + 1;
+					batchSize = 0;
+				}
+				else
+				{
+					batchSize += child.getSubtreeSize();
+
+					if (batchSize >= mSplitThreshold)
+					{
+						tasks.add(new BatchTask(children, batchStart, c + 1, mDt));
+						batchStart = c + 1;
+						batchSize = 0;
+					}
+				}
+			}
+
+			if (children.size() > batchStart)
+			{
+				tasks.add(new BatchTask(children, batchStart, children.size(), mDt));
+			}
+
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Animates a range of siblings on one thread, in order.
+	 */
+	private static class BatchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private List<SceneObject> mSiblings;
+		private int mStart, mEnd;
+		private float mDt;
+
+		public BatchTask(List<SceneObject> siblings, int start, int end, float dt)
+		{
+			mSiblings = siblings;
+			mStart = start;
+			mEnd = end;
+			mDt = dt;
+		}
+
+		@Override
+		protected void compute()
+		{
+			for (int i = mStart; i < mEnd; ++i)
+			{
+				mSiblings.get(i).animate(mDt);
+			}
+		}
+	}
+}
@@ -47,4 +47,41 @@ public class PointLight extends Light
 	{
 		mQuadraticAttenuation = atten;
 	}
+
+	/**
+	 * Returns the distance past which a point light contributes less than `cutoff`, i.e. where
+	 * `intensity / (constant + linear * r + quadratic * r^2)` falls to `cutoff`. Renderers use it to
+	 * bound the region a light has to be evaluated in.
+	 * 
+	 * @param intensity The light's brightest color channel.
+	 * @param constant The light's constant attenuation.
+	 * @param linear The light's linear attenuation.
+	 * @param quadratic The light's quadratic attenuation.
+	 * @param cutoff The smallest contribution which counts, e.g. 1/256.
+	 * 
+	 * @return The range; 0 if the light never reaches the cutoff, and Float.MAX_VALUE if it never
+	 *         falls below it.
+	 */
+	public static float getRange(float intensity, float constant, float linear, float quadratic, float cutoff)
+	{
+		/* Solve quadratic * r^2 + linear * r = intensity / cutoff - constant for r >= 0. */
+		float k = intensity / cutoff - constant;
+		
+		if (k <= 0.0f)
+		{
+			return 0.0f;
+		}
+		else if (quadratic > 0.0f)
+		{
+			return (float)((-linear + Math.sqrt(linear * linear + 4.0 * quadratic * k)) / (2.0 * quadratic));
+		}
+		else if (linear > 0.0f)
+		{
+			return k / linear;
+		}
+		else
+		{
+			return Float.MAX_VALUE;
+		}
+	}
 }
@@ -22,37 +22,14 @@ public class Quadmesh extends Mesh
 		return 4;
 	}	
 	
+	/**
+	 * Calculates tangent vectors for this quad mesh, treating each quad as the two triangles 
+	 * (0, 1, 2) and (0, 2, 3). See `Mesh.calculatePolygonFanTangentVectors()`.
+	 */
 	@Override
 	public FloatBuffer calculateTangentVectors()
 	{
-		if (getVertexCount() == 0 || getPolygonCount() == 0)
-		{
-			return null;
-		}
-		
-		/* This is a very direct port of Eric Lengyel's code, so I leave most of the explanation
-		 * to him. Go read his page if you don't understand! */
-		
-		/* Allocate temporary buffers and loop over triangles. */
-		float tan1[] = new float[getVertexCount() * 3];
-		float tan2[] = new float[getVertexCount() * 3];
-		
-		for (int quadIndex = 0; quadIndex < getPolygonCount(); ++quadIndex)
-		{
-			/* Treat this quad as being made of two triangles. */
-			for (int triVertex = 1; triVertex <= 2; ++triVertex)
-			{
-				/* Get vertex indices of this triangle. */
-				int i1 = mPolygonData.get(3 * quadIndex + 0);
-				int i2 = mPolygonData.get(3 * quadIndex + triVertex);
-				int i3 = mPolygonData.get(3 * quadIndex + triVertex + 1);				
-				
-				computeAndAccumulateTangentVectors(i1, i2, i3, tan1, tan2);				
-			}
-		}		
-		
-		/* Average and normalize the accumulated tangent vectors. */
-		return averageAndNormalizeAllTangentVectors(tan1, tan2);
+		return calculatePolygonFanTangentVectors();
 	}
 	
 	/**
@@ -72,6 +49,8 @@ public class Quadmesh extends Mesh
 		copy.setVertexData(getVertexData());
 		copy.setNormalData(getNormalData());
 		copy.vertexAttribData = (HashMap<String, FloatBuffer>) vertexAttribData.clone();
+		copy.copyQuantizedDataFrom(this);
+		copy.copyLevelsOfDetailFrom(this);
 		
 		return copy;
 	}
@@ -0,0 +1,436 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RayQuery.java
+ *
+ * Casts batches of rays against the triangles of a scene, for picking, visibility and collision
+ * queries. Each ray finds the closest visible triangle it hits, and reports the object, mesh,
+ * triangle, barycentric coordinates, and distance of the hit. Nothing here touches OpenGL.
+ *
+ * Rays first traverse a `SceneBVH` over the world-space bounds of the scene's geometry objects.
+ * For each object box a ray enters, it is moved into the object's space and traverses the
+ * `MeshBVH` of each of its meshes. Transforming the ray instead of the triangles means that
+ * animated objects only refit the scene tree, while the (much larger) triangle trees never change.
+ * The ray direction is transformed without renormalizing it, so distances along it are the same
+ * in both spaces.
+ *
+ * Batches larger than RAYS_PER_TASK are split across the common ForkJoinPool. Each task keeps its
+ * own traversal stacks; the trees are only read, so tasks share nothing else. The scene, its BVH,
+ * and its meshes must not change while a cast is running.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class RayQuery
+{
+	/**
+	 * Results of a cast, one entry per ray. Reuse one instance across casts to avoid allocation.
+	 */
+	public static class Hits
+	{
+		private int mCount = 0;
+		private SceneObject mObjects[] = new SceneObject[0];
+		private Mesh mMeshes[] = new Mesh[0];
+		private int mTriangles[] = new int[0];
+		private float mBarycentrics[] = new float[0];
+		private float mDistances[] = new float[0];
+
+		/**
+		 * Makes room for `count` rays.
+		 */
+		private void resize(int count)
+		{
+			if (mObjects.length < count)
+			{
+				mObjects = new SceneObject[count];
+				mMeshes = new Mesh[count];
+				mTriangles = new int[count];
+				mBarycentrics = new float[2 * count];
+				mDistances = new float[count];
+			}
+
+			mCount = count;
+		}
+
+		/**
+		 * Returns the number of rays in the last cast.
+		 */
+		public int getCount()
+		{
+			return mCount;
+		}
+
+		/**
+		 * Returns whether ray `i` hit anything.
+		 */
+		public boolean isHit(int i)
+		{
+			return mObjects[i] != null;
+		}
+
+		/**
+		 * Returns the object hit by ray `i`, or null if it missed.
+		 */
+		public SceneObject getObject(int i)
+		{
+			return mObjects[i];
+		}
+
+		/**
+		 * Returns the mesh hit by ray `i`, or null if it missed.
+		 */
+		public Mesh getMesh(int i)
+		{
+			return mMeshes[i];
+		}
+
+		/**
+		 * Returns the triangle hit by ray `i` (see `MeshBVH` for how quads are numbered), or -1 if it missed.
+		 */
+		public int getTriangle(int i)
+		{
+			return mTriangles[i];
+		}
+
+		/**
+		 * Returns the barycentric coordinate of the hit point with respect to the second corner of the triangle.
+		 */
+		public float getBarycentricU(int i)
+		{
+			return mBarycentrics[2 * i];
+		}
+
+		/**
+		 * Returns the barycentric coordinate of the hit point with respect to the third corner of the triangle.
+		 */
+		public float getBarycentricV(int i)
+		{
+			return mBarycentrics[2 * i + 1];
+		}
+
+		/**
+		 * Returns the distance to the hit along ray `i`, in units of its direction's length, or infinity if it missed.
+		 */
+		public float getDistance(int i)
+		{
+			return mDistances[i];
+		}
+	}
+
+	/* Batches are split into tasks of at most this many rays. */
+	public static final int RAYS_PER_TASK = 64;
+
+	private SceneBVH mSceneBVH;
+	private boolean mParallel = true;
+
+	/**
+	 * Creates a query against the scene and hierarchy of `sceneBVH`, which the caller keeps up to date
+	 * (see `FlattenedScene.update()` and `SceneBVH.update()`).
+	 */
+	public RayQuery(SceneBVH sceneBVH)
+	{
+		mSceneBVH = sceneBVH;
+	}
+
+	/**
+	 * Returns whether large batches are split across threads. True by default.
+	 */
+	public boolean getParallel()
+	{
+		return mParallel;
+	}
+
+	/**
+	 * Sets whether large batches are split across threads.
+	 */
+	public void setParallel(boolean parallel)
+	{
+		mParallel = parallel;
+	}
+
+	/**
+	 * Builds the triangle hierarchies of all meshes in the scene, which are otherwise built by the
+	 * first ray to reach each mesh. Large meshes take a while, so call this at load time to keep
+	 * the first casts fast.
+	 */
+	public void prepare()
+	{
+		FlattenedScene scene = mSceneBVH.getScene();
+
+		for (int i = 0; i < scene.getGeometryCount(); ++i)
+		{
+			int node = scene.getGeometryIndex(i);
+
+			for (int m = 0; m < scene.getMeshCount(node); ++m)
+			{
+				scene.getMesh(node, m).getTriangleBVH();
+			}
+		}
+	}
+
+	/**
+	 * Casts a batch of world-space rays. Ray `i` starts at (origins[3i], origins[3i + 1], origins[3i + 2])
+	 * and goes in the direction at the same place in `directions`, which need not be normalized;
+	 * distances are in units of its length.
+	 *
+	 * @param rayCount Number of rays to cast.
+	 * @param maxDistance Hits beyond this distance along a ray are ignored.
+	 * @param hits Receives the closest hit of each ray.
+	 */
+	public void cast(float origins[], float directions[], int rayCount, float maxDistance, Hits hits)
+	{
+		hits.resize(rayCount);
+
+		if (mParallel && rayCount > RAYS_PER_TASK)
+		{
+			ForkJoinPool.commonPool().invoke(new CastTask(origins, directions, 0, rayCount, maxDistance, hits));
+		}
+		else
+		{
+			new Caster().cast(origins, directions, 0, rayCount, maxDistance, hits);
+		}
+	}
+
+	/**
+	 * Casts one world-space ray; see `cast()`.
+	 */
+	public void cast(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance, Hits hits)
+	{
+		cast(new float[] {ox, oy, oz}, new float[] {dx, dy, dz}, 1, maxDistance, hits);
+	}
+
+	/**
+	 * Casts rays [start, end) of a batch, splitting the range in half until it is small enough.
+	 */
+	private class CastTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private float mOrigins[], mDirections[];
+		private int mStart, mEnd;
+		private float mMaxDistance;
+		private Hits mHits;
+
+		public CastTask(float origins[], float directions[], int start, int end, float maxDistance, Hits hits)
+		{
+			mOrigins = origins;
+			mDirections = directions;
+			mStart = start;
+			mEnd = end;
+			mMaxDistance = maxDistance;
+			mHits = hits;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (mEnd - mStart <= RAYS_PER_TASK)
+			{
+				new Caster().cast(mOrigins, mDirections, mStart, mEnd, mMaxDistance, mHits);
+				return;
+			}
+
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new CastTask(mOrigins, mDirections, mStart, middle, mMaxDistance, mHits),
+					new CastTask(mOrigins, mDirections, middle, mEnd, mMaxDistance, mHits));
+		}
+	}
+
+	/**
+	 * Per-thread traversal state: stacks for both trees, and scratch space for results.
+	 */
+	private class Caster
+	{
+		private int mSceneStack[] = new int[mSceneBVH.getDepth() + 1];
+		private float mSceneDistances[] = new float[mSceneBVH.getDepth() + 1];
+		private int mMeshStack[] = new int[64];
+		private float mMeshDistances[] = new float[64];
+		private float mResult[] = new float[3];
+
+		/**
+		 * Casts rays [start, end), writing their hits.
+		 */
+		public void cast(float origins[], float directions[], int start, int end, float maxDistance, Hits hits)
+		{
+			for (int r = start; r < end; ++r)
+			{
+				hits.mObjects[r] = null;
+				hits.mMeshes[r] = null;
+				hits.mTriangles[r] = -1;
+				hits.mBarycentrics[2 * r] = hits.mBarycentrics[2 * r + 1] = 0.0f;
+				hits.mDistances[r] = Float.POSITIVE_INFINITY;
+
+				castRay(origins[3 * r], origins[3 * r + 1], origins[3 * r + 2],
+						directions[3 * r], directions[3 * r + 1], directions[3 * r + 2], maxDistance, hits, r);
+			}
+		}
+
+		/**
+		 * Traverses the scene tree with one ray, testing the meshes of each object whose box it enters.
+		 */
+		private void castRay(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance, Hits hits, int r)
+		{
+			BoundingVolumeHierarchy tree = mSceneBVH.getTree();
+
+			if (tree.getNodeCount() == 0)
+			{
+				return;
+			}
+
+			FlattenedScene scene = mSceneBVH.getScene();
+			float bounds[] = scene.getBounds();
+			float nodeBounds[] = tree.getNodeBounds();
+			int nodeFirst[] = tree.getNodeFirst();
+			int nodeObjectCounts[] = tree.getNodeObjectCounts();
+			int objects[] = tree.getObjects();
+
+			float invDx = 1.0f / dx, invDy = 1.0f / dy, invDz = 1.0f / dz;
+			float closest = maxDistance;
+
+			float rootDistance = BoundingVolumeHierarchy.intersectBox(nodeBounds, 0, ox, oy, oz, invDx, invDy, invDz, closest);
+
+			if (rootDistance == Float.POSITIVE_INFINITY)
+			{
+				return;
+			}
+
+			mSceneStack[0] = 0;
+			mSceneDistances[0] = rootDistance;
+			int stackSize = 1;
+
+			while (stackSize > 0)
+			{
+				--stackSize;
+				int node = mSceneStack[stackSize];
+
+				if (mSceneDistances[stackSize] > closest)
+				{
+					continue;
+				}
+
+				int count = nodeObjectCounts[node];
+
+				if (count > 0)
+				{
+					int first = nodeFirst[node];
+
+					for (int i = first; i < first + count; ++i)
+					{
+						int object = objects[i];
+
+						if (!scene.isVisible(object) ||
+								BoundingVolumeHierarchy.intersectBox(bounds, 6 * object, ox, oy, oz, invDx, invDy, invDz, closest) == Float.POSITIVE_INFINITY)
+						{
+							continue;
+						}
+
+						closest = castRayAtObject(scene, object, ox, oy, oz, dx, dy, dz, closest, hits, r);
+					}
+				}
+				else
+				{
+					/* Nearer child first, as in `MeshBVH.intersect()`. */
+					int left = nodeFirst[node];
+					int right = left + 1;
+					float leftDistance = BoundingVolumeHierarchy.intersectBox(nodeBounds, 6 * left, ox, oy, oz, invDx, invDy, invDz, closest);
+					float rightDistance = BoundingVolumeHierarchy.intersectBox(nodeBounds, 6 * right, ox, oy, oz, invDx, invDy, invDz, closest);
+
+					if (leftDistance > rightDistance)
+					{
+						int swapNode = left;
+						left = right;
+						right = swapNode;
+
+						float swapDistance = leftDistance;
+						leftDistance = rightDistance;
+						rightDistance = swapDistance;
+					}
+
+					if (rightDistance != Float.POSITIVE_INFINITY)
+					{
+						mSceneStack[stackSize] = right;
+						mSceneDistances[stackSize] = rightDistance;
+						++stackSize;
+					}
+
+					if (leftDistance != Float.POSITIVE_INFINITY)
+					{
+						mSceneStack[stackSize] = left;
+						mSceneDistances[stackSize] = leftDistance;
+						++stackSize;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Tests one ray against the meshes of one geometry object, recording any hit closer than `closest`.
+		 *
+		 * @return The new closest hit distance.
+		 */
+		private float castRayAtObject(FlattenedScene scene, int object, float ox, float oy, float oz,
+				float dx, float dy, float dz, float closest, Hits hits, int r)
+		{
+			/* Invert the object's world matrix [A t] as [A^-1, -A^-1 t], with A^-1 from the adjugate of A.
+			 * Element (row, column) is at m[o + 4 * column + row]. */
+			float m[] = scene.getWorldMatrices();
+			int o = 16 * object;
+
+			float a00 = m[o + 0], a01 = m[o + 4], a02 = m[o + 8];
+			float a10 = m[o + 1], a11 = m[o + 5], a12 = m[o + 9];
+			float a20 = m[o + 2], a21 = m[o + 6], a22 = m[o + 10];
+
+			float c00 = a11 * a22 - a12 * a21, c01 = a02 * a21 - a01 * a22, c02 = a01 * a12 - a02 * a11;
+			float c10 = a12 * a20 - a10 * a22, c11 = a00 * a22 - a02 * a20, c12 = a02 * a10 - a00 * a12;
+			float c20 = a10 * a21 - a11 * a20, c21 = a01 * a20 - a00 * a21, c22 = a00 * a11 - a01 * a10;
+			float det = a00 * c00 + a01 * c10 + a02 * c20;
+
+			if (det == 0.0f)
+			{
+				return closest;
+			}
+
+			float invDet = 1.0f / det;
+			float px = ox - m[o + 12], py = oy - m[o + 13], pz = oz - m[o + 14];
+
+			float lox = (c00 * px + c01 * py + c02 * pz) * invDet;
+			float loy = (c10 * px + c11 * py + c12 * pz) * invDet;
+			float loz = (c20 * px + c21 * py + c22 * pz) * invDet;
+			float ldx = (c00 * dx + c01 * dy + c02 * dz) * invDet;
+			float ldy = (c10 * dx + c11 * dy + c12 * dz) * invDet;
+			float ldz = (c20 * dx + c21 * dy + c22 * dz) * invDet;
+
+			for (int i = 0; i < scene.getMeshCount(object); ++i)
+			{
+				Mesh mesh = scene.getMesh(object, i);
+				MeshBVH bvh = mesh.getTriangleBVH();
+
+				if (mMeshStack.length < bvh.getStackSize())
+				{
+					mMeshStack = new int[bvh.getStackSize()];
+					mMeshDistances = new float[bvh.getStackSize()];
+				}
+
+				int triangle = bvh.intersect(lox, loy, loz, ldx, ldy, ldz, closest, mMeshStack, mMeshDistances, mResult);
+
+				if (triangle >= 0)
+				{
+					closest = mResult[0];
+					hits.mObjects[r] = scene.getNode(object);
+					hits.mMeshes[r] = mesh;
+					hits.mTriangles[r] = triangle;
+					hits.mBarycentrics[2 * r] = mResult[1];
+					hits.mBarycentrics[2 * r + 1] = mResult[2];
+					hits.mDistances[r] = closest;
+				}
+			}
+
+			return closest;
+		}
+	}
+}
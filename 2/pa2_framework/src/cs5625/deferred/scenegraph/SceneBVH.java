@@ -0,0 +1,312 @@
+package cs5625.deferred.scenegraph;
+
+/**
+ * SceneBVH.java
+ *
+ * A bounding volume hierarchy over the geometry objects of a `FlattenedScene`, using the
+ * world-space boxes it computes for each object's meshes. Culling, picking and proximity
+ * queries can all share one tree, and answer in time logarithmic in the object count instead
+ * of visiting every object.
+ *
+ * The tree is built top-down with the binned surface area heuristic (SAH); see
+ * `BoundingVolumeHierarchy` for the builder and node layout, which `MeshBVH` shares.
+ *
+ * When objects move, `update()` refits the tree: it keeps the topology and recomputes every box
+ * bottom-up, which is linear and cheap. Refitting lets boxes grow and overlap, so the SAH cost of
+ * the tree is tracked too, and the tree is rebuilt from scratch once it is REBUILD_COST_RATIO times
+ * worse than right after the last build. It is also rebuilt whenever the scene's structure changed.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class SceneBVH
+{
+	/**
+	 * A test of a box against some region (a view frustum, a query box, ...) used to select the
+	 * objects returned by `query()`. It may answer true for boxes which just miss the region.
+	 */
+	public interface BoundsTest
+	{
+		/**
+		 * Returns false if the box (minX, minY, minZ, maxX, maxY, maxZ) at `bounds[offset]` is certainly outside the region.
+		 */
+		public boolean intersectsBox(float bounds[], int offset);
+	}
+
+	/**
+	 * A `BoundsTest` selecting boxes which overlap an axis-aligned query box, for proximity queries.
+	 */
+	public static class BoxOverlap implements BoundsTest
+	{
+		private float mMinX, mMinY, mMinZ, mMaxX, mMaxY, mMaxZ;
+
+		public BoxOverlap(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+		{
+			set(minX, minY, minZ, maxX, maxY, maxZ);
+		}
+
+		public void set(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+		{
+			mMinX = minX;
+			mMinY = minY;
+			mMinZ = minZ;
+			mMaxX = maxX;
+			mMaxY = maxY;
+			mMaxZ = maxZ;
+		}
+
+		@Override
+		public boolean intersectsBox(float bounds[], int offset)
+		{
+			return bounds[offset + 0] <= mMaxX && bounds[offset + 3] >= mMinX &&
+					bounds[offset + 1] <= mMaxY && bounds[offset + 4] >= mMinY &&
+					bounds[offset + 2] <= mMaxZ && bounds[offset + 5] >= mMinZ;
+		}
+	}
+
+	/**
+	 * A `BoundsTest` selecting boxes which overlap a sphere, e.g. the range of a point light.
+	 */
+	public static class SphereOverlap implements BoundsTest
+	{
+		private float mX, mY, mZ, mRadius;
+
+		public SphereOverlap(float x, float y, float z, float radius)
+		{
+			set(x, y, z, radius);
+		}
+
+		public void set(float x, float y, float z, float radius)
+		{
+			mX = x;
+			mY = y;
+			mZ = z;
+			mRadius = radius;
+		}
+
+		@Override
+		public boolean intersectsBox(float bounds[], int offset)
+		{
+			/* Distance from the center to the closest point of the box. */
+			float dx = Math.max(0.0f, Math.max(bounds[offset + 0] - mX, mX - bounds[offset + 3]));
+			float dy = Math.max(0.0f, Math.max(bounds[offset + 1] - mY, mY - bounds[offset + 4]));
+			float dz = Math.max(0.0f, Math.max(bounds[offset + 2] - mZ, mZ - bounds[offset + 5]));
+
+			return bounds[offset] <= bounds[offset + 3] && dx * dx + dy * dy + dz * dz <= mRadius * mRadius;
+		}
+	}
+
+	/* The tree is rebuilt when its SAH cost grows past this multiple of its cost when built. */
+	public static final float REBUILD_COST_RATIO = 1.5f;
+
+	/* The scene this is built over, and its rebuild count at the time of our last build. */
+	private FlattenedScene mScene;
+	private int mBuiltForSceneRebuild = -1;
+
+	/* The tree, over the scene's per-node bounds. */
+	private BoundingVolumeHierarchy mTree = new BoundingVolumeHierarchy();
+	private int mCandidates[] = new int[0];
+
+	/* Traversal stack for query(), kept between calls so queries don't allocate. */
+	private int mStack[] = new int[0];
+
+	/* SAH cost right after the last build, and currently. */
+	private float mBuildCost = 0.0f;
+	private float mCost = 0.0f;
+	private int mBuildCount = 0;
+
+	/**
+	 * Creates a hierarchy over the geometry of the given scene. Nothing is built until `update()`.
+	 */
+	public SceneBVH(FlattenedScene scene)
+	{
+		mScene = scene;
+	}
+
+	/**
+	 * Returns the scene this is built over.
+	 */
+	public FlattenedScene getScene()
+	{
+		return mScene;
+	}
+
+	/**
+	 * Brings the hierarchy up to date with the scene, which must itself be up to date (see
+	 * `FlattenedScene.update()`). Rebuilds it if the scene's structure changed or refitting
+	 * degraded it too much, and refits it otherwise.
+	 */
+	public void update()
+	{
+		if (mBuiltForSceneRebuild != mScene.getRebuildCount())
+		{
+			build();
+			return;
+		}
+
+		refit();
+
+		if (mCost > REBUILD_COST_RATIO * mBuildCost)
+		{
+			build();
+		}
+	}
+
+	/**
+	 * Rebuilds the hierarchy from scratch with the binned SAH.
+	 */
+	public void build()
+	{
+		float bounds[] = mScene.getBounds();
+
+		/* Collect the geometry objects which have any extent; empty ones can never be hit or seen. */
+		int geometryCount = mScene.getGeometryCount();
+
+		if (mCandidates.length < geometryCount)
+		{
+			mCandidates = new int[geometryCount];
+		}
+
+		int objectCount = 0;
+
+		for (int i = 0; i < geometryCount; ++i)
+		{
+			int node = mScene.getGeometryIndex(i);
+
+			if (bounds[6 * node] <= bounds[6 * node + 3])
+			{
+				mCandidates[objectCount++] = node;
+			}
+		}
+
+		mTree.build(bounds, mCandidates, objectCount);
+
+		mBuiltForSceneRebuild = mScene.getRebuildCount();
+		mBuildCost = mCost = mTree.computeCost();
+		++mBuildCount;
+	}
+
+	/**
+	 * Recomputes all node bounds from the scene's current object bounds, keeping the topology.
+	 */
+	public void refit()
+	{
+		mTree.refit(mScene.getBounds());
+		mCost = mTree.computeCost();
+	}
+
+	/**
+	 * Finds all objects whose bounds pass the given test, and stores their scene node indices in
+	 * `result`, which must have room for `getObjectCount()` entries. Queries share one traversal
+	 * stack, so only one may run at a time.
+	 *
+	 * @return The number of objects found.
+	 */
+	public int query(BoundsTest test, int result[])
+	{
+		if (mTree.getNodeCount() == 0)
+		{
+			return 0;
+		}
+
+		float bounds[] = mScene.getBounds();
+		float nodeBounds[] = mTree.getNodeBounds();
+		int nodeFirst[] = mTree.getNodeFirst();
+		int nodeObjectCounts[] = mTree.getNodeObjectCounts();
+		int objects[] = mTree.getObjects();
+
+		if (mStack.length < mTree.getDepth() + 1)
+		{
+			mStack = new int[mTree.getDepth() + 1];
+		}
+
+		int stack[] = mStack;
+		int stackSize = 0;
+		int found = 0;
+
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0)
+		{
+			int node = stack[--stackSize];
+
+			if (!test.intersectsBox(nodeBounds, 6 * node))
+			{
+				continue;
+			}
+
+			int count = nodeObjectCounts[node];
+
+			if (count > 0)
+			{
+				int first = nodeFirst[node];
+
+				for (int i = first; i < first + count; ++i)
+				{
+					/* A leaf's box tests all its objects at once; check each one only if there are several. */
+					if (count == 1 || test.intersectsBox(bounds, 6 * objects[i]))
+					{
+						result[found++] = objects[i];
+					}
+				}
+			}
+			else
+			{
+				stack[stackSize++] = nodeFirst[node] + 1;
+				stack[stackSize++] = nodeFirst[node];
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns the number of objects in the hierarchy.
+	 */
+	public int getObjectCount()
+	{
+		return mTree.getObjectCount();
+	}
+
+	/**
+	 * Returns the number of tree nodes.
+	 */
+	public int getNodeCount()
+	{
+		return mTree.getNodeCount();
+	}
+
+	/**
+	 * Returns the number of levels in the tree.
+	 */
+	public int getDepth()
+	{
+		return mTree.getDepth();
+	}
+
+	/**
+	 * Returns the SAH cost of the tree as of the last build or refit.
+	 */
+	public float getCost()
+	{
+		return mCost;
+	}
+
+	/**
+	 * Returns how many times the tree has been built from scratch.
+	 */
+	public int getBuildCount()
+	{
+		return mBuildCount;
+	}
+
+	/**
+	 * Returns the tree itself, for other traversals in this package. Its objects are scene node indices.
+	 */
+	BoundingVolumeHierarchy getTree()
+	{
+		return mTree;
+	}
+}
@@ -1,10 +1,14 @@
 package cs5625.deferred.scenegraph;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 
 import javax.media.opengl.GL2;
 import javax.vecmath.Matrix3f;
+import javax.vecmath.Matrix4f;
 import javax.vecmath.Point3f;
 import javax.vecmath.Quat4f;
 import javax.vecmath.Vector3f;
@@ -36,14 +40,79 @@ public class SceneObject implements OpenGLResourceObject
 	private SceneObject mParent = null;
 	private boolean mIsVisible = true;
 	private boolean mIsDynamic = false;
+	private boolean mIsAnimatedSerially = false;
 	
 	/* List of child nodes. */
 	private ArrayList<SceneObject> mChildren = new ArrayList<SceneObject>();
 	
+	/* Root of the tree this object is in, and this object's position in its parent's child list. Both are 
+	 * kept up to date by addChild() and removeChild(). */
+	private SceneObject mRoot = this;
+	private int mSiblingIndex = 0;
+	
+	/* Name -> children index of this node's direct children, used by findChildByName(). Each list is in 
+	 * child order. Created by the first addChild(), and kept up to date by addChild(), removeChild(), and 
+	 * the children's setName(). */
+	private HashMap<String, ArrayList<SceneObject>> mChildrenByName = null;
+	
+	/* Name -> objects index of this node's whole tree, used by the find*ByName() methods. Only root nodes
+	 * have one, and only once it has been searched; after that, addChild(), removeChild(), and setName() keep 
+	 * it up to date. Each list holds every object in the tree with that name, in no particular order. */
+	private HashMap<String, ArrayList<SceneObject>> mNameIndex = null;
+	
+	/* Bumped whenever a child is added or removed anywhere, so flattened copies of 
+	 * the scenegraph (see `FlattenedScene`) know to rebuild themselves. */
+	private static int sStructureVersion = 0;
+	
+	/* Number of objects in this subtree, valid while mSubtreeSizeVersion equals sStructureVersion. */
+	private int mSubtreeSize = 1;
+	private int mSubtreeSizeVersion = -1;
+	
+	/* Preorder and postorder numbers of this object within its tree, valid while the root's 
+	 * mTreeOrderVersion equals sStructureVersion. They make ancestry and search order tests O(1). */
+	private int mPreorderIndex = 0;
+	private int mPostorderIndex = 0;
+	private int mTreeOrderVersion = -1;
+	
+	/* Cached local (object to parent) and world (object to world) transforms, their inverses, and the
+	 * world-space orientation and scale. These are rebuilt lazily, when queried:
+	 * 
+	 * - The local matrix is rebuilt if a setter marked it dirty, or if the position, orientation, or scale 
+	 *   differ from the values it was built from (kept in mLocalSnapshot). The snapshot is needed because 
+	 *   the getters return the live objects, and callers commonly modify them in place.
+	 * - The world matrix is rebuilt if the local matrix, the parent, or the parent's world matrix changed 
+	 *   since it was built. Each rebuild bumps a version number, so children can tell that their parent 
+	 *   changed without the parent having to visit them.
+	 * 
+	 * So a world-space query checks a few floats per ancestor and allocates nothing. */
+	private Matrix4f mLocalMatrix = new Matrix4f();
+	private Matrix4f mInverseLocalMatrix = new Matrix4f();
+	private Matrix4f mWorldMatrix = new Matrix4f();
+	private Matrix4f mInverseWorldMatrix = new Matrix4f();
+	private Quat4f mWorldOrientation = new Quat4f(0.0f, 0.0f, 0.0f, 1.0f);
+	private Quat4f mInverseWorldOrientation = new Quat4f(0.0f, 0.0f, 0.0f, 1.0f);
+	private float mWorldScale = 1.0f;
+	
+	private Quat4f mNormalizedOrientation = new Quat4f();
+	private Vector3f mTranslation = new Vector3f();
+	
+	private float mLocalSnapshot[] = new float[8];
+	private boolean mLocalDirty = true;
+	private int mLocalVersion = 0;
+	private int mWorldVersion = 0;
+	private int mWorldBuiltFromLocalVersion = -1;
+	private int mWorldBuiltFromParentVersion = -1;
+	private SceneObject mWorldBuiltFromParent = null;
+	
 	/**
 	 * Updates any animation for this node at each frame, if any.
 	 * Default implementation calls `animate(dt)` on children.
 	 * 
+	 * `ParallelAnimator` may run this concurrently for different subtrees, so overrides should 
+	 * only modify this object and its descendants. Animations which depend on the order siblings 
+	 * are animated in should opt out with `setAnimatedSerially()`; scenes whose animations add, 
+	 * remove, or rename objects should turn parallel animation off altogether.
+	 * 
 	 * @param dt The time delta (in seconds) since the last frame.
 	 */
 	public void animate(float dt)
@@ -75,6 +144,25 @@ public class SceneObject implements OpenGLResourceObject
 		mIsVisible = visible;
 	}
 	
+	/**
+	 * Returns whether `ParallelAnimator` must animate this object's whole subtree on one thread, 
+	 * by calling `animate()` on it.
+	 */
+	public boolean isAnimatedSerially()
+	{
+		return mIsAnimatedSerially;
+	}
+	
+	/**
+	 * Opts this object's subtree out of parallel animation (see `ParallelAnimator`). Set this on the 
+	 * closest common ancestor of objects whose animations depend on each other, so that its children 
+	 * are animated one after another, in order.
+	 */
+	public void setAnimatedSerially(boolean serial)
+	{
+		mIsAnimatedSerially = serial;
+	}
+	
 	/**
 	 * Returns whether or not the object is in motion
 	 */
@@ -84,7 +172,40 @@ public class SceneObject implements OpenGLResourceObject
 	}
 
 	/**
-	 * Returns all direct child nodes of this node.
+	 * Returns a number which changes whenever a child is added to or removed from any node. 
+	 * Code caching the structure of a scenegraph can compare it against the value the 
+	 * cache was built with to know when to rebuild.
+	 */
+	public static int getStructureVersion()
+	{
+		return sStructureVersion;
+	}
+
+	/**
+	 * Returns the number of objects in the subtree rooted at this object, including itself. 
+	 * Cached until the next structural change anywhere.
+	 */
+	public int getSubtreeSize()
+	{
+		if (mSubtreeSizeVersion != sStructureVersion)
+		{
+			int size = 1;
+			
+			for (SceneObject child : mChildren)
+			{
+				size += child.getSubtreeSize();
+			}
+			
+			mSubtreeSize = size;
+			mSubtreeSizeVersion = sStructureVersion;
+		}
+		
+		return mSubtreeSize;
+	}
+	
+	/**
+	 * Returns all direct child nodes of this node. Add and remove children with `addChild()` 
+	 * and `removeChild()`, not by modifying this list.
 	 */
 	public List<SceneObject> getChildren()
 	{
@@ -103,8 +224,28 @@ public class SceneObject implements OpenGLResourceObject
 			throw new ScenegraphException("Cannot add child to multiple parents.");
 		}
 		
+		child.mSiblingIndex = mChildren.size();
 		mChildren.add(child);
 		child.mParent = this;
+		child.setSubtreeRoot(mRoot);
+		++sStructureVersion;
+		
+		/* The new child comes last, so appending keeps its name list in child order. */
+		if (mChildrenByName == null)
+		{
+			mChildrenByName = new HashMap<String, ArrayList<SceneObject>>();
+		}
+		
+		child.addToNameIndex(mChildrenByName);
+		
+		/* The child's tree joins ours, so its names move into our index. */
+		child.mNameIndex = null;
+		HashMap<String, ArrayList<SceneObject>> index = mRoot.mNameIndex;
+		
+		if (index != null)
+		{
+			child.addSubtreeToNameIndex(index);
+		}
 	}
 
 	/**
@@ -147,12 +288,33 @@ public class SceneObject implements OpenGLResourceObject
 			throw new ScenegraphException("Object to remove doesn't have parent of this node.");
 		}
 		
-		if (!mChildren.remove(child))
+		if (mChildren.get(child.mSiblingIndex) != child)
 		{
 			throw new ScenegraphException("Object to remove is not a child of this ScenegraphObject.");
 		}
-
+		
+		/* Later children move up one place; their relative order, and so the name lists, are unchanged. */
+		mChildren.remove(child.mSiblingIndex);
+		
+		for (int i = child.mSiblingIndex; i < mChildren.size(); ++i)
+		{
+			mChildren.get(i).mSiblingIndex = i;
+		}
+		
+		child.removeFromNameIndex(mChildrenByName);
+		
+		/* The child becomes the root of its own tree; its index is built if and when it is searched. */
+		HashMap<String, ArrayList<SceneObject>> index = mRoot.mNameIndex;
+		
+		if (index != null)
+		{
+			child.removeSubtreeFromNameIndex(index);
+		}
+		
 		child.mParent = null;
+		child.mSiblingIndex = 0;
+		child.setSubtreeRoot(child);
+		++sStructureVersion;
 	}
 	
 	/**
@@ -173,40 +335,229 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public SceneObject findChildByName(String name)
 	{
-		for (SceneObject child : mChildren)
+		if (mChildrenByName == null)
 		{
-			if (child.getName().equals(name))
-			{
-				return child;
-			}
+			return null;
 		}
 		
-		return null;
+		ArrayList<SceneObject> children = mChildrenByName.get(name);
+		return (children == null ? null : children.get(0));
 	}
 	
 	/**
 	 * Returns the first descendant of this object with the given name, or null if no descendant has that name.
 	 * 
-	 * Search order is depth-first.
+	 * Search order is depth-first, with each child's descendants searched before the child itself. 
+	 * Objects are found through a name index, so this doesn't actually visit the hierarchy, but it 
+	 * returns the same object a depth-first search would.
 	 */
 	public SceneObject findDescendantByName(String name)
 	{
-		for (SceneObject child : mChildren)
+		ArrayList<SceneObject> candidates = getNameIndex().get(name);
+		SceneObject result = null;
+		
+		if (candidates == null)
 		{
-			SceneObject descendant = child.findDescendantByName(name);
-			
-			if (descendant != null)
+			return null;
+		}
+		
+		updateTreeOrder();
+		
+		for (SceneObject candidate : candidates)
+		{
+			if (candidate != this && candidate.isDescendantOf(this) && 
+				(result == null || candidate.precedesInSearchOrder(result)))
 			{
-				return descendant;
+				result = candidate;
 			}
-			
-			if (child.getName().equals(name))
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns all descendants of this object with the given name, in the order `findDescendantByName()` 
+	 * would encounter them (so the first one is what it returns). The list is empty if there are none.
+	 */
+	public List<SceneObject> findAllDescendantsByName(String name)
+	{
+		ArrayList<SceneObject> candidates = getNameIndex().get(name);
+		ArrayList<SceneObject> result = new ArrayList<SceneObject>();
+		
+		if (candidates == null)
+		{
+			return result;
+		}
+		
+		updateTreeOrder();
+		
+		for (SceneObject candidate : candidates)
+		{
+			if (candidate != this && candidate.isDescendantOf(this))
 			{
-				return child;
+				result.add(candidate);
 			}
 		}
 		
-		return null;
+		Collections.sort(result, new Comparator<SceneObject>()
+		{
+			@Override
+			public int compare(SceneObject a, SceneObject b)
+			{
+				return (a == b ? 0 : (a.precedesInSearchOrder(b) ? -1 : 1));
+			}
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the root of the tree this object is in.
+	 */
+	private SceneObject getRoot()
+	{
+		return mRoot;
+	}
+	
+	/**
+	 * Sets the root pointer of this object and all its descendants.
+	 */
+	private void setSubtreeRoot(SceneObject root)
+	{
+		mRoot = root;
+		
+		for (SceneObject child : mChildren)
+		{
+			child.setSubtreeRoot(root);
+		}
+	}
+	
+	/**
+	 * Renumbers the tree this object is in if its structure changed since it was last numbered.
+	 */
+	private void updateTreeOrder()
+	{
+		if (mRoot.mTreeOrderVersion != sStructureVersion)
+		{
+			int counters[] = new int[2];
+			mRoot.numberSubtree(counters);
+			mRoot.mTreeOrderVersion = sStructureVersion;
+		}
+	}
+	
+	/**
+	 * Assigns preorder and postorder numbers to this subtree, continuing from `counters` ({preorder, 
+	 * postorder}). Subtree sizes are filled in along the way, since they come for free.
+	 */
+	private void numberSubtree(int counters[])
+	{
+		mPreorderIndex = counters[0]++;
+		
+		for (SceneObject child : mChildren)
+		{
+			child.numberSubtree(counters);
+		}
+		
+		mPostorderIndex = counters[1]++;
+		mSubtreeSize = counters[0] - mPreorderIndex;
+		mSubtreeSizeVersion = sStructureVersion;
+	}
+	
+	/**
+	 * Returns the name index of the tree this object is in, building it if this is the first search.
+	 */
+	private HashMap<String, ArrayList<SceneObject>> getNameIndex()
+	{
+		SceneObject root = getRoot();
+		
+		if (root.mNameIndex == null)
+		{
+			root.mNameIndex = new HashMap<String, ArrayList<SceneObject>>();
+			root.addSubtreeToNameIndex(root.mNameIndex);
+		}
+		
+		return root.mNameIndex;
+	}
+	
+	/**
+	 * Adds this object and all its descendants to a name index.
+	 */
+	private void addSubtreeToNameIndex(HashMap<String, ArrayList<SceneObject>> index)
+	{
+		addToNameIndex(index);
+		
+		for (SceneObject child : mChildren)
+		{
+			child.addSubtreeToNameIndex(index);
+		}
+	}
+	
+	/**
+	 * Removes this object and all its descendants from a name index.
+	 */
+	private void removeSubtreeFromNameIndex(HashMap<String, ArrayList<SceneObject>> index)
+	{
+		removeFromNameIndex(index);
+		
+		for (SceneObject child : mChildren)
+		{
+			child.removeSubtreeFromNameIndex(index);
+		}
+	}
+	
+	/**
+	 * Adds just this object to a name index.
+	 */
+	private void addToNameIndex(HashMap<String, ArrayList<SceneObject>> index)
+	{
+		ArrayList<SceneObject> objects = index.get(mName);
+		
+		if (objects == null)
+		{
+			objects = new ArrayList<SceneObject>(1);
+			index.put(mName, objects);
+		}
+		
+		objects.add(this);
+	}
+	
+	/**
+	 * Removes just this object from a name index.
+	 */
+	private void removeFromNameIndex(HashMap<String, ArrayList<SceneObject>> index)
+	{
+		ArrayList<SceneObject> objects = index.get(mName);
+		
+		if (objects != null)
+		{
+			objects.remove(this);
+			
+			if (objects.isEmpty())
+			{
+				index.remove(mName);
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if `ancestor` is above this object in the hierarchy. The tree order must be current 
+	 * (see `updateTreeOrder()`).
+	 */
+	private boolean isDescendantOf(SceneObject ancestor)
+	{
+		return ancestor.mRoot == mRoot && ancestor.mPreorderIndex < mPreorderIndex && 
+			mPreorderIndex < ancestor.mPreorderIndex + ancestor.mSubtreeSize;
+	}
+	
+	/**
+	 * Returns true if the depth-first search in `findDescendantByName()` reaches this object before `other`, 
+	 * which must be a different object in the same tree. Descendants come before their ancestors, and 
+	 * otherwise the subtree of the earlier child of the closest common ancestor comes first; that is 
+	 * exactly postorder. The tree order must be current (see `updateTreeOrder()`).
+	 */
+	private boolean precedesInSearchOrder(SceneObject other)
+	{
+		return mPostorderIndex < other.mPostorderIndex;
 	}
 	
 	/**
@@ -214,6 +565,8 @@ public class SceneObject implements OpenGLResourceObject
 	 * storing the result in each mesh's attributes array under the name "VertexTangent". This is 
 	 * useful for loading a bunch of geometry and making it normal-mapping-ready in one method
 	 * call, but it can be expensive for large meshes.
+	 * 
+	 * Only meshes whose material requires "VertexTangent" are processed, so set materials first.
 	 */
 	public void calculateTangentVectorsForAllGeometry()
 	{
@@ -223,6 +576,45 @@ public class SceneObject implements OpenGLResourceObject
 		}
 	}
 
+	/**
+	 * Traverses the hierarchy rooted at this node and builds compressed vertex and index buffers 
+	 * for all meshes (see `Mesh.quantize()`). Call this after `calculateTangentVectorsForAllGeometry()`, 
+	 * if you need tangents, so that they get compressed as well.
+	 */
+	public void quantizeAllGeometry()
+	{
+		for (SceneObject child : mChildren)
+		{
+			child.quantizeAllGeometry();
+		}
+	}
+
+	/**
+	 * Traverses the hierarchy rooted at this node and generates levels of detail for all triangle 
+	 * meshes (see `Trimesh.generateLevelsOfDetail()`). The renderer switches between them based on 
+	 * how big each mesh appears on screen.
+	 */
+	public void generateLevelsOfDetailForAllGeometry(int levelCount, float reductionPerLevel)
+	{
+		for (SceneObject child : mChildren)
+		{
+			child.generateLevelsOfDetailForAllGeometry(levelCount, reductionPerLevel);
+		}
+	}
+
+	/**
+	 * Traverses the hierarchy rooted at this node and partitions every triangle mesh with at least 
+	 * `MeshletSet.MIN_CLUSTERED_TRIANGLES` triangles into clusters of the default size (see 
+	 * `Trimesh.buildMeshlets()`), so the renderer can skip the parts that are off-screen or facing away.
+	 */
+	public void buildMeshletsForAllGeometry()
+	{
+		for (SceneObject child : mChildren)
+		{
+			child.buildMeshletsForAllGeometry();
+		}
+	}
+
 	/**
 	 * Returns the position of this object in its parent's space.
 	 */
@@ -237,6 +629,7 @@ public class SceneObject implements OpenGLResourceObject
 	public void setPosition(Point3f position)
 	{
 		mPosition = position;
+		mLocalDirty = true;
 	}
 	
 	/**
@@ -269,6 +662,7 @@ public class SceneObject implements OpenGLResourceObject
 	public void setOrientation(Quat4f orientation)
 	{
 		mOrientation = orientation;
+		mLocalDirty = true;
 	}
 	
 	/**
@@ -285,6 +679,7 @@ public class SceneObject implements OpenGLResourceObject
 	public void setScale(float scale)
 	{
 		mScale = scale;
+		mLocalDirty = true;
 	}
 	
 	/**
@@ -305,9 +700,192 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public void setName(String name)
 	{
+		HashMap<String, ArrayList<SceneObject>> index = mRoot.mNameIndex;
+		
+		if (index != null)
+		{
+			removeFromNameIndex(index);
+		}
+		
+		if (mParent != null)
+		{
+			removeFromNameIndex(mParent.mChildrenByName);
+		}
+		
 		mName = name;
+		
+		if (index != null)
+		{
+			addToNameIndex(index);
+		}
+		
+		if (mParent != null)
+		{
+			insertIntoChildNameIndex(mParent.mChildrenByName);
+		}
+	}
+	
+	/**
+	 * Adds this object to its parent's child name index, keeping the list for its name in child order.
+	 */
+	private void insertIntoChildNameIndex(HashMap<String, ArrayList<SceneObject>> index)
+	{
+		ArrayList<SceneObject> siblings = index.get(mName);
+		
+		if (siblings == null)
+		{
+			siblings = new ArrayList<SceneObject>(1);
+			index.put(mName, siblings);
+		}
+		
+		/* Binary search for the first sibling after this one. */
+		int low = 0;
+		int high = siblings.size();
+		
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			
+			if (siblings.get(middle).mSiblingIndex < mSiblingIndex)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		
+		siblings.add(low, this);
 	}
 
+	/**
+	 * Returns the matrix transforming this object's local space into its parent's space. 
+	 * The matrix is cached and owned by this object; don't modify it.
+	 */
+	public Matrix4f getLocalMatrix()
+	{
+		updateLocalMatrix();
+		return mLocalMatrix;
+	}
+	
+	/**
+	 * Returns the matrix transforming this object's parent's space into its local space. 
+	 * The matrix is cached and owned by this object; don't modify it.
+	 */
+	public Matrix4f getInverseLocalMatrix()
+	{
+		updateLocalMatrix();
+		return mInverseLocalMatrix;
+	}
+	
+	/**
+	 * Returns the matrix transforming this object's local space into world space. 
+	 * The matrix is cached and owned by this object; don't modify it.
+	 */
+	public Matrix4f getWorldMatrix()
+	{
+		updateWorldMatrix();
+		return mWorldMatrix;
+	}
+	
+	/**
+	 * Returns the matrix transforming world space into this object's local space. 
+	 * The matrix is cached and owned by this object; don't modify it.
+	 */
+	public Matrix4f getInverseWorldMatrix()
+	{
+		updateWorldMatrix();
+		return mInverseWorldMatrix;
+	}
+	
+	/**
+	 * Rebuilds the local matrix and its inverse if the position, orientation, or scale changed.
+	 */
+	private void updateLocalMatrix()
+	{
+		float snapshot[] = mLocalSnapshot;
+		
+		if (!mLocalDirty &&
+			snapshot[0] == mPosition.x && snapshot[1] == mPosition.y && snapshot[2] == mPosition.z &&
+			snapshot[3] == mOrientation.x && snapshot[4] == mOrientation.y && 
+			snapshot[5] == mOrientation.z && snapshot[6] == mOrientation.w &&
+			snapshot[7] == mScale)
+		{
+			return;
+		}
+		
+		snapshot[0] = mPosition.x;
+		snapshot[1] = mPosition.y;
+		snapshot[2] = mPosition.z;
+		snapshot[3] = mOrientation.x;
+		snapshot[4] = mOrientation.y;
+		snapshot[5] = mOrientation.z;
+		snapshot[6] = mOrientation.w;
+		snapshot[7] = mScale;
+		mLocalDirty = false;
+		
+		/* M = T * R * S. `Util.rotateTuple()` effectively normalizes the orientation, so do the same here. */
+		mNormalizedOrientation.normalize(mOrientation);
+		mTranslation.set(mPosition);
+		mLocalMatrix.set(mNormalizedOrientation, mTranslation, mScale);
+		
+		mInverseLocalMatrix.invert(mLocalMatrix);
+		++mLocalVersion;
+	}
+	
+	/**
+	 * Rebuilds the world matrix (and world orientation and scale) if this object's local 
+	 * transform or any ancestor's changed since it was last built.
+	 */
+	private void updateWorldMatrix()
+	{
+		updateLocalMatrix();
+		
+		if (mParent != null)
+		{
+			mParent.updateWorldMatrix();
+		}
+		
+		rebuildWorldMatrixIfStale();
+	}
+	
+	/**
+	 * Rebuilds the world matrix from the local matrix and the parent's world matrix if either changed 
+	 * since it was last built. Both must already be up to date.
+	 */
+	private void rebuildWorldMatrixIfStale()
+	{
+		int parentVersion = (mParent == null ? 0 : mParent.mWorldVersion);
+		
+		if (mWorldBuiltFromLocalVersion == mLocalVersion && mWorldBuiltFromParent == mParent && 
+			mWorldBuiltFromParentVersion == parentVersion)
+		{
+			return;
+		}
+		
+		if (mParent == null)
+		{
+			mWorldMatrix.set(mLocalMatrix);
+			mWorldOrientation.set(mOrientation);
+			mWorldScale = mScale;
+		}
+		else
+		{
+			mWorldMatrix.mul(mParent.mWorldMatrix, mLocalMatrix);
+			mWorldOrientation.mul(mParent.mWorldOrientation, mOrientation);
+			mWorldScale = mParent.mWorldScale * mScale;
+		}
+		
+		mInverseWorldMatrix.invert(mWorldMatrix);
+		mInverseWorldOrientation.inverse(mWorldOrientation);
+		
+		mWorldBuiltFromLocalVersion = mLocalVersion;
+		mWorldBuiltFromParent = mParent;
+		mWorldBuiltFromParentVersion = parentVersion;
+		++mWorldVersion;
+	}
+	
 	/**
 	 * Transforms a point in this object's local space into its parent's space.
 	 */
@@ -344,14 +922,17 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f transformPointToWorldSpace(Point3f point)
 	{
-		if (mParent == null)
-		{
-			return transformPointToParentSpace(point);
-		}
-		else
-		{
-			return mParent.transformPointToWorldSpace(transformPointToParentSpace(point));
-		}
+		return transformPointToWorldSpace(point, new Point3f());
+	}
+	
+	/**
+	 * Transforms a point in this object's local space into world space, storing it in `result` 
+	 * (which may be `point`) and returning `result`. Doesn't allocate.
+	 */
+	public Point3f transformPointToWorldSpace(Point3f point, Point3f result)
+	{
+		getWorldMatrix().transform(point, result);
+		return result;
 	}
 	
 	/**
@@ -359,14 +940,17 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f transformPointFromWorldSpace(Point3f point)
 	{
-		if (mParent == null)
-		{
-			return transformPointFromParentSpace(point);
-		}
-		else
-		{
-			return transformPointFromParentSpace(mParent.transformPointFromWorldSpace(point));
-		}
+		return transformPointFromWorldSpace(point, new Point3f());
+	}
+	
+	/**
+	 * Transforms a point in world space into this object's local space, storing it in `result` 
+	 * (which may be `point`) and returning `result`. Doesn't allocate.
+	 */
+	public Point3f transformPointFromWorldSpace(Point3f point, Point3f result)
+	{
+		getInverseWorldMatrix().transform(point, result);
+		return result;
 	}
 	
 	/**
@@ -403,14 +987,17 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Vector3f transformVectorToWorldSpace(Vector3f direction)
 	{
-		if (mParent == null)
-		{
-			return transformVectorToParentSpace(direction);
-		}
-		else
-		{
-			return mParent.transformVectorToWorldSpace(transformVectorToParentSpace(direction));
-		}
+		return transformVectorToWorldSpace(direction, new Vector3f());
+	}
+	
+	/**
+	 * Transforms a direction in this object's local space into world space, storing it in `result` 
+	 * (which may be `direction`) and returning `result`. Doesn't allocate.
+	 */
+	public Vector3f transformVectorToWorldSpace(Vector3f direction, Vector3f result)
+	{
+		getWorldMatrix().transform(direction, result);
+		return result;
 	}
 	
 	/**
@@ -418,14 +1005,17 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Vector3f transformVectorFromWorldSpace(Vector3f direction)
 	{
-		if (mParent == null)
-		{
-			return transformVectorFromParentSpace(direction);
-		}
-		else
-		{
-			return transformVectorFromParentSpace(mParent.transformVectorFromWorldSpace(direction));
-		}
+		return transformVectorFromWorldSpace(direction, new Vector3f());
+	}
+	
+	/**
+	 * Transforms a direction in world space into this object's local space, storing it in `result` 
+	 * (which may be `direction`) and returning `result`. Doesn't allocate.
+	 */
+	public Vector3f transformVectorFromWorldSpace(Vector3f direction, Vector3f result)
+	{
+		getInverseWorldMatrix().transform(direction, result);
+		return result;
 	}
 	
 	/**
@@ -449,14 +1039,8 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public float transformDistanceToWorldSpace(float distance)
 	{
-		if (mParent == null)
-		{
-			return transformDistanceToParentSpace(distance);
-		}
-		else
-		{
-			return mParent.transformDistanceToWorldSpace(transformDistanceToParentSpace(distance));
-		}
+		updateWorldMatrix();
+		return distance * mWorldScale;
 	}
 	
 	/**
@@ -464,14 +1048,8 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public float transformDistanceFromWorldSpace(float distance)
 	{
-		if (mParent == null)
-		{
-			return transformDistanceFromParentSpace(distance);
-		}
-		else
-		{
-			return transformDistanceFromParentSpace(mParent.transformDistanceFromWorldSpace(distance));
-		}
+		updateWorldMatrix();
+		return distance / mWorldScale;
 	}
 	
 	/**
@@ -500,14 +1078,18 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Quat4f transformOrientationToWorldSpace(Quat4f orientation)
 	{
-		if (mParent == null)
-		{
-			return transformOrientationToParentSpace(orientation);
-		}
-		else
-		{
-			return mParent.transformOrientationToWorldSpace(transformOrientationToParentSpace(orientation));
-		}
+		return transformOrientationToWorldSpace(orientation, new Quat4f());
+	}
+	
+	/**
+	 * Transforms an orientation in this object's local space into world space, storing it in `result` 
+	 * (which may be `orientation`) and returning `result`. Doesn't allocate.
+	 */
+	public Quat4f transformOrientationToWorldSpace(Quat4f orientation, Quat4f result)
+	{
+		updateWorldMatrix();
+		result.mul(mWorldOrientation, orientation);
+		return result;
 	}
 	
 	/**
@@ -515,14 +1097,18 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Quat4f transformOrientationFromWorldSpace(Quat4f orientation)
 	{
-		if (mParent == null)
-		{
-			return transformOrientationFromParentSpace(orientation);
-		}
-		else
-		{
-			return transformOrientationFromParentSpace(mParent.transformOrientationFromWorldSpace(orientation));
-		}
+		return transformOrientationFromWorldSpace(orientation, new Quat4f());
+	}
+	
+	/**
+	 * Transforms an orientation in world space into this object's local space, storing it in `result` 
+	 * (which may be `orientation`) and returning `result`. Doesn't allocate.
+	 */
+	public Quat4f transformOrientationFromWorldSpace(Quat4f orientation, Quat4f result)
+	{
+		updateWorldMatrix();
+		result.mul(mInverseWorldOrientation, orientation);
+		return result;
 	}
 
 	/**
@@ -1,8 +1,12 @@
 package cs5625.deferred.scenegraph;
 
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 
+import com.jogamp.common.nio.Buffers;
+
 import cs5625.deferred.misc.OpenGLResourceObject;
 
 /**
@@ -18,6 +22,14 @@ import cs5625.deferred.misc.OpenGLResourceObject;
  */
 public class Trimesh extends Mesh implements OpenGLResourceObject
 {
+	/* Projected size (as a fraction of viewport height) below which `generateLevelsOfDetail()` starts 
+	 * using coarser levels. */
+	public static final float LOD_FULL_DETAIL_SCREEN_SIZE = 0.5f;
+	
+	/* Meshes with at least this many triangles which `generateLevelsOfDetail()` can't simplify at all 
+	 * are reported, since that usually means they are flat shaded (see `MeshSimplifier`). */
+	private static final int LOD_WARNING_TRIANGLES = 1024;
+	
 	@Override
 	public int getVerticesPerPolygon()
 	{
@@ -33,30 +45,92 @@ public class Trimesh extends Mesh implements OpenGLResourceObject
 	@Override
 	public FloatBuffer calculateTangentVectors()
 	{
-		if (getVertexCount() == 0 || getPolygonCount() == 0)
+		/* Shared with Quadmesh; see `Mesh.calculatePolygonFanTangentVectors()`. */
+		return calculatePolygonFanTangentVectors();
+	}
+	
+	/**
+	 * Generates coarser levels of detail for this mesh with `MeshSimplifier`, each with about 
+	 * `reductionPerLevel` times the triangles of the previous one, and installs them with 
+	 * `setLevelsOfDetail()`. All levels share this mesh's vertex buffers. Generation stops early 
+	 * once simplification stops making progress (e.g. when only seams are left). Flat-shaded meshes get 
+	 * no levels at all; see `MeshSimplifier`.
+	 * 
+	 * Each level is used while the mesh's projected size is below `LOD_FULL_DETAIL_SCREEN_SIZE` 
+	 * times the square root of its fraction of the full triangle count, so triangles stay roughly 
+	 * the same size on screen.
+	 * 
+	 * @param levelCount Maximum number of levels to generate, not counting the full-detail mesh.
+	 * @param reductionPerLevel Triangle count ratio between successive levels, in (0, 1).
+	 */
+	public void generateLevelsOfDetail(int levelCount, float reductionPerLevel)
+	{
+		ArrayList<IntBuffer> levels = new ArrayList<IntBuffer>();
+		ArrayList<Float> screenSizes = new ArrayList<Float>();
+		
+		int fullCount = getPolygonCount();
+		int previous[] = new int[3 * fullCount];
+		mPolygonData.rewind();
+		mPolygonData.get(previous);
+		mPolygonData.rewind();
+		
+		for (int level = 1; level <= levelCount && previous.length > 0; ++level)
+		{
+			int previousCount = previous.length / 3;
+			int target = (int)(previousCount * reductionPerLevel);
+			int simplified[] = MeshSimplifier.simplify(mVertexData, previous, mEdgeData, target);
+			
+			/* Not worth another level if it barely got any simpler. */
+			if (simplified.length / 3 > previousCount * (1.0f + reductionPerLevel) / 2.0f)
+			{
+				break;
+			}
+			
+			simplified = VertexCacheOptimizer.optimizePolygonOrder(simplified, getVertexCount(), 3);
+			
+			levels.add(Buffers.newDirectIntBuffer(simplified));
+			screenSizes.add(LOD_FULL_DETAIL_SCREEN_SIZE * (float)Math.sqrt((float)(simplified.length / 3) / fullCount));
+			previous = simplified;
+		}
+		
+		if (levels.isEmpty() && fullCount >= LOD_WARNING_TRIANGLES)
 		{
-			return null;
+			System.err.println("Mesh '" + getName() + "' (" + fullCount + " triangles) could not be simplified; " 
+					+ "if it is flat shaded, every vertex is a seam and is kept.");
 		}
 		
-		/* This is a very direct port of Eric Lengyel's code, so I leave most of the explanation
-		 * to him. Go read his page if you don't understand! */
+		float sizes[] = new float[screenSizes.size()];
+		for (int i = 0; i < sizes.length; ++i)
+		{
+			sizes[i] = screenSizes.get(i);
+		}
 		
-		/* Allocate temporary buffers and loop over triangles. */
-		float tan1[] = new float[getVertexCount() * 3];
-		float tan2[] = new float[getVertexCount() * 3];
+		setLevelsOfDetail(levels.toArray(new IntBuffer[levels.size()]), sizes);
+	}
+	
+	/**
+	 * Partitions this mesh's triangles into clusters (see `MeshletSet`) so the renderer can cull them 
+	 * individually. This reorders the polygon buffer so that each cluster is contiguous.
+	 * 
+	 * @param maxVertices Maximum distinct vertices per cluster.
+	 * @param maxTriangles Maximum triangles per cluster.
+	 */
+	public void buildMeshlets(int maxVertices, int maxTriangles)
+	{
+		int triangles[] = new int[mPolygonData.capacity()];
+		mPolygonData.rewind();
+		mPolygonData.get(triangles);
+		mPolygonData.rewind();
+		
+		MeshletSet meshlets = MeshletSet.build(mVertexData, triangles, getVertexCount(), maxVertices, maxTriangles);
 		
-		for (int triIndex = 0; triIndex < getPolygonCount(); ++triIndex)
+		setPolygonData(Buffers.newDirectIntBuffer(triangles));
+		mMeshlets = meshlets;
+		
+		if (isQuantized())
 		{
-			/* Get vertex indices of this triangle. */
-			int i1 = mPolygonData.get(3 * triIndex + 0);
-			int i2 = mPolygonData.get(3 * triIndex + 1);
-			int i3 = mPolygonData.get(3 * triIndex + 2);
-			
-			computeAndAccumulateTangentVectors(i1, i2, i3, tan1, tan2);			
+			mQuantizedPolygonData = quantizeIndices(mPolygonData, getVertexCount());
 		}
-
-		/* Average and normalize the accumulated tangent vectors. */
-		return averageAndNormalizeAllTangentVectors(tan1, tan2);
 	}
 	
 	/**
@@ -76,6 +150,9 @@ public class Trimesh extends Mesh implements OpenGLResourceObject
 		copy.setVertexData(getVertexData());
 		copy.setNormalData(getNormalData());
 		copy.vertexAttribData = (HashMap<String, FloatBuffer>) vertexAttribData.clone();
+		copy.copyQuantizedDataFrom(this);
+		copy.copyLevelsOfDetailFrom(this);
+		copy.mMeshlets = mMeshlets;
 		
 		return copy;
 	}
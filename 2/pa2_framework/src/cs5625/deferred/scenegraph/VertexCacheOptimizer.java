@@ -0,0 +1,371 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.Arrays;
+
+/**
+ * VertexCacheOptimizer.java
+ *
+ * Reorders mesh index buffers for better post-transform vertex cache reuse, and computes
+ * the vertex ordering which makes vertex fetches sequential.
+ *
+ * Polygon reordering uses Tom Forsyth's linear-speed greedy algorithm: every vertex gets a score
+ * based on its position in a simulated LRU cache and on how many unemitted polygons still use it,
+ * and the polygon with the highest total score is emitted next. Only polygons touching the cache
+ * need rescoring after each step, so the whole thing is linear in the polygon count.
+ * Source: Forsyth, T. "Linear-Speed Vertex Cache Optimisation." 2006.
+ * https://tomforsyth1000.github.io/papers/fast_vert_cache_opt.html
+ *
+ * The algorithm works for any number of vertices per polygon, so it is used for both triangle
+ * and quad meshes.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class VertexCacheOptimizer
+{
+	/* Size of the simulated LRU cache used for scoring. */
+	private static final int CACHE_SIZE = 32;
+
+	/* Scoring constants from Forsyth's paper. */
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_POLYGON_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	/* Size of the FIFO cache simulated when measuring ACMR and ATVR. */
+	public static final int DEFAULT_MEASURE_CACHE_SIZE = 16;
+
+	/**
+	 * Before/after cache statistics for one optimization run.
+	 *
+	 * ACMR (average cache miss ratio) is the number of transformed vertices per polygon;
+	 * ATVR (average transform to vertex ratio) is the number of transformed vertices per
+	 * referenced vertex, where 1.0 is optimal.
+	 */
+	public static class Statistics
+	{
+		public float acmrBefore, acmrAfter;
+		public float atvrBefore, atvrAfter;
+
+		@Override
+		public String toString()
+		{
+			return String.format("ACMR %.3f -> %.3f, ATVR %.3f -> %.3f", acmrBefore, acmrAfter, atvrBefore, atvrAfter);
+		}
+	}
+
+	/**
+	 * Returns a reordering of the given polygons which should transform fewer vertices on hardware
+	 * with a post-transform vertex cache. The vertices within each polygon keep their order, so
+	 * winding is preserved.
+	 *
+	 * @param indices Polygon index data, `verticesPerPolygon` indices per polygon.
+	 * @param vertexCount The number of vertices the indices refer to.
+	 * @param verticesPerPolygon 3 for triangles, 4 for quads, etc.
+	 *
+	 * @return A new index array containing the same polygons in optimized order.
+	 */
+	public static int[] optimizePolygonOrder(int indices[], int vertexCount, int verticesPerPolygon)
+	{
+		int polygonCount = indices.length / verticesPerPolygon;
+		int result[] = new int[polygonCount * verticesPerPolygon];
+
+		if (polygonCount == 0)
+		{
+			return result;
+		}
+
+		/* Build vertex -> polygon adjacency in compressed (offset + list) form. */
+		int remainingValence[] = new int[vertexCount];
+		for (int i = 0; i < polygonCount * verticesPerPolygon; ++i)
+		{
+			++remainingValence[indices[i]];
+		}
+
+		int adjacencyOffset[] = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			adjacencyOffset[v + 1] = adjacencyOffset[v] + remainingValence[v];
+		}
+
+		int adjacency[] = new int[adjacencyOffset[vertexCount]];
+		int fill[] = Arrays.copyOf(adjacencyOffset, vertexCount);
+		for (int p = 0; p < polygonCount; ++p)
+		{
+			for (int k = 0; k < verticesPerPolygon; ++k)
+			{
+				int v = indices[p * verticesPerPolygon + k];
+				adjacency[fill[v]++] = p;
+			}
+		}
+
+		/* Initial vertex and polygon scores. Nothing is in the cache yet. */
+		int cachePosition[] = new int[vertexCount];
+		Arrays.fill(cachePosition, -1);
+
+		float vertexScore[] = new float[vertexCount];
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			vertexScore[v] = scoreVertex(cachePosition[v], remainingValence[v]);
+		}
+
+		float polygonScore[] = new float[polygonCount];
+		boolean emitted[] = new boolean[polygonCount];
+		for (int p = 0; p < polygonCount; ++p)
+		{
+			for (int k = 0; k < verticesPerPolygon; ++k)
+			{
+				polygonScore[p] += vertexScore[indices[p * verticesPerPolygon + k]];
+			}
+		}
+
+		/* The simulated LRU cache, with room for the polygon being added to push entries off the end. */
+		int cache[] = new int[CACHE_SIZE + verticesPerPolygon];
+		int newCache[] = new int[CACHE_SIZE + verticesPerPolygon];
+		int cacheCount = 0;
+
+		/* Position to resume the fallback scan for unemitted polygons, which keeps the fallback linear overall. */
+		int scanCursor = 0;
+		int bestPolygon = -1;
+
+		for (int output = 0; output < polygonCount; ++output)
+		{
+			/* If the last update didn't leave us a candidate, take the next unemitted polygon in the input. */
+			if (bestPolygon < 0)
+			{
+				while (emitted[scanCursor])
+				{
+					++scanCursor;
+				}
+
+				bestPolygon = scanCursor;
+			}
+
+			/* Emit the polygon. */
+			int p = bestPolygon;
+			emitted[p] = true;
+			System.arraycopy(indices, p * verticesPerPolygon, result, output * verticesPerPolygon, verticesPerPolygon);
+
+			/* Remove it from its vertices' adjacency lists. */
+			for (int k = 0; k < verticesPerPolygon; ++k)
+			{
+				int v = indices[p * verticesPerPolygon + k];
+				int start = adjacencyOffset[v];
+				int end = start + remainingValence[v];
+
+				for (int a = start; a < end; ++a)
+				{
+					if (adjacency[a] == p)
+					{
+						adjacency[a] = adjacency[end - 1];
+						break;
+					}
+				}
+
+				--remainingValence[v];
+			}
+
+			/* Move the polygon's vertices to the front of the cache; everything else shifts back. */
+			int newCount = 0;
+			for (int k = 0; k < verticesPerPolygon; ++k)
+			{
+				int v = indices[p * verticesPerPolygon + k];
+				boolean duplicate = false;
+
+				for (int j = 0; j < newCount; ++j)
+				{
+					duplicate |= (newCache[j] == v);
+				}
+
+				if (!duplicate)
+				{
+					newCache[newCount++] = v;
+				}
+			}
+
+			for (int c = 0; c < cacheCount; ++c)
+			{
+				int v = cache[c];
+				boolean inPolygon = false;
+
+				for (int k = 0; k < verticesPerPolygon; ++k)
+				{
+					inPolygon |= (indices[p * verticesPerPolygon + k] == v);
+				}
+
+				if (!inPolygon)
+				{
+					newCache[newCount++] = v;
+				}
+			}
+
+			/* Swap buffers. */
+			int swap[] = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = newCount;
+
+			/* Rescore every vertex in the (oversized) cache, then rescore their polygons and pick the best. */
+			for (int c = 0; c < cacheCount; ++c)
+			{
+				int v = cache[c];
+				cachePosition[v] = (c < CACHE_SIZE ? c : -1);
+
+				float newScore = scoreVertex(cachePosition[v], remainingValence[v]);
+				float delta = newScore - vertexScore[v];
+				vertexScore[v] = newScore;
+
+				for (int a = adjacencyOffset[v]; a < adjacencyOffset[v] + remainingValence[v]; ++a)
+				{
+					polygonScore[adjacency[a]] += delta;
+				}
+			}
+
+			bestPolygon = -1;
+			float bestScore = -1.0f;
+
+			for (int c = 0; c < cacheCount; ++c)
+			{
+				int v = cache[c];
+
+				for (int a = adjacencyOffset[v]; a < adjacencyOffset[v] + remainingValence[v]; ++a)
+				{
+					int candidate = adjacency[a];
+
+					if (polygonScore[candidate] > bestScore)
+					{
+						bestScore = polygonScore[candidate];
+						bestPolygon = candidate;
+					}
+				}
+			}
+
+			/* Vertices pushed off the end are no longer cached. */
+			if (cacheCount > CACHE_SIZE)
+			{
+				cacheCount = CACHE_SIZE;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Forsyth's vertex score: favors vertices recently used (but not by the last polygon, which would
+	 * make long thin strips) and vertices with few remaining polygons, so they can be retired.
+	 */
+	private static float scoreVertex(int cachePosition, int remainingValence)
+	{
+		if (remainingValence == 0)
+		{
+			/* No polygons left, so it doesn't matter. */
+			return -1.0f;
+		}
+
+		float score = 0.0f;
+
+		if (cachePosition >= 0)
+		{
+			if (cachePosition < 3)
+			{
+				score = LAST_POLYGON_SCORE;
+			}
+			else
+			{
+				float scaler = 1.0f / (CACHE_SIZE - 3);
+				score = 1.0f - (cachePosition - 3) * scaler;
+				score = (float)Math.pow(score, CACHE_DECAY_POWER);
+			}
+		}
+
+		score += VALENCE_BOOST_SCALE * (float)Math.pow(remainingValence, -VALENCE_BOOST_POWER);
+		return score;
+	}
+
+	/**
+	 * Computes the vertex ordering in which the given indices first reference each vertex,
+	 * so that vertex fetches walk through memory sequentially. Unreferenced vertices are
+	 * placed at the end, in their original order.
+	 *
+	 * @return An array mapping each old vertex index to its new index.
+	 */
+	public static int[] computeFetchRemap(int indices[], int vertexCount)
+	{
+		int remap[] = new int[vertexCount];
+		Arrays.fill(remap, -1);
+
+		int next = 0;
+		for (int index : indices)
+		{
+			if (remap[index] < 0)
+			{
+				remap[index] = next++;
+			}
+		}
+
+		for (int v = 0; v < vertexCount; ++v)
+		{
+			if (remap[v] < 0)
+			{
+				remap[v] = next++;
+			}
+		}
+
+		return remap;
+	}
+
+	/**
+	 * Simulates a FIFO post-transform cache (like most real hardware) and returns the number of
+	 * vertex shader invocations needed to draw the given indices.
+	 */
+	public static int countTransforms(int indices[], int vertexCount, int cacheSize)
+	{
+		/* Each vertex remembers the "time" it entered the cache; it is still cached if fewer
+		 * than `cacheSize` misses happened since. */
+		int insertedAt[] = new int[vertexCount];
+		Arrays.fill(insertedAt, Integer.MIN_VALUE / 2);
+
+		int misses = 0;
+		for (int index : indices)
+		{
+			if (misses - insertedAt[index] >= cacheSize)
+			{
+				++misses;
+				insertedAt[index] = misses;
+			}
+		}
+
+		return misses;
+	}
+
+	/**
+	 * Average cache miss ratio: vertex transforms per polygon.
+	 */
+	public static float computeACMR(int indices[], int vertexCount, int verticesPerPolygon, int cacheSize)
+	{
+		int polygonCount = indices.length / verticesPerPolygon;
+		return (polygonCount == 0 ? 0.0f : (float)countTransforms(indices, vertexCount, cacheSize) / polygonCount);
+	}
+
+	/**
+	 * Average transform to vertex ratio: vertex transforms per distinct referenced vertex.
+	 */
+	public static float computeATVR(int indices[], int vertexCount, int cacheSize)
+	{
+		boolean referenced[] = new boolean[vertexCount];
+		int referencedCount = 0;
+
+		for (int index : indices)
+		{
+			if (!referenced[index])
+			{
+				referenced[index] = true;
+				++referencedCount;
+			}
+		}
+
+		return (referencedCount == 0 ? 0.0f : (float)countTransforms(indices, vertexCount, cacheSize) / referencedCount);
+	}
+}
@@ -41,10 +41,16 @@ varying vec2 TexCoord;
 varying vec3 EyespaceTangent;
 varying vec3 EyespaceBiTangent;
 
-/* Encodes a normalized vector as a vec2. See Renderer.java for more info. */
+/* Octahedrally encodes a normalized vector into [0, 1]^2. See Renderer.java for more info. */
 vec2 encode(vec3 n)
 {
-	return normalize(n.xy) * sqrt(0.5 * n.z + 0.5);
+	n /= abs(n.x) + abs(n.y) + abs(n.z);
+	vec2 e = n.xy;
+	if (n.z < 0.0)
+	{
+		e = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return 0.5 * e + 0.5;
 }
 
 void main()
@@ -78,7 +84,6 @@ void main()
 	
 	/* Store:
 	 *	Diffuse			3
-	 *	Position		3
 	 *	Specular		3
 	 *	Material_ID		1
 	 *		& Bitangent Sign
@@ -86,7 +91,7 @@ void main()
 	 *	ENC Tangent		2 <= (3)
 	 *	AlphaX			1
 	 *	AlphaY			1
-	 					= 16
+	 					= 13
 	 */
 	 
 	 /* Encode. */
@@ -97,11 +102,11 @@ void main()
 	
 	float ID = float(ANISOTROPIC_WARD_MATERIAL_ID);
 	if(dot(Bi_Cross, EyespaceBiTangent) < 0){
-		ID = -1.0 * ID;
+		ID += 128.0;
 	}
 	
-	gl_FragData[0] = vec4(DColor, enc_N.x);
-	gl_FragData[1] = vec4(EyespacePosition, enc_N.y);
-	gl_FragData[2] = vec4(ID, AX, AY, enc_T.x);
+	gl_FragData[0] = vec4(DColor, 0.0);
+	gl_FragData[1] = vec4(enc_N, 0.0, 0.0);
+	gl_FragData[2] = vec4(ID / 255.0, AX, AY, enc_T.x);
 	gl_FragData[3] = vec4(SColor, enc_T.y);
 }
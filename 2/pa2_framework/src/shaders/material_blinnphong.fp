@@ -34,10 +34,16 @@ varying vec3 EyespacePosition;
 varying vec3 EyespaceNormal;
 varying vec2 TexCoord;
 
-/* Encodes a normalized vector as a vec2. See Renderer.java for more info. */
+/* Octahedrally encodes a normalized vector into [0, 1]^2. See Renderer.java for more info. */
 vec2 encode(vec3 n)
 {
-	return normalize(n.xy) * sqrt(0.5 * n.z + 0.5);
+	n /= abs(n.x) + abs(n.y) + abs(n.z);
+	vec2 e = n.xy;
+	if (n.z < 0.0)
+	{
+		e = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return 0.5 * e + 0.5;
 }
 
 void main()
@@ -47,9 +53,9 @@ void main()
 	/* Encode the eyespace normal. */
 	vec2 enc = encode(normalize(EyespaceNormal));
 	
-	/* Store diffuse, position, encoded normal, and the material ID into the gbuffer. Position
-	 * and normal aren't used for shading, but they might be required by a post-processing effect,
-	 * so we still have to write them out. */
+	/* Store diffuse, encoded normal, and the material ID into the gbuffer. Positions are read
+	 * back from the depth buffer. Normal isn't used for shading, but it might be required by a
+	 * post-processing effect, so we still have to write it out. */
 	 
 	 vec3 DColor = DiffuseColor;
 	 vec3 SColor = SpecularColor;
@@ -70,8 +76,8 @@ void main()
 		PExponent = 255.0 * texExponent.x;
 	}
 	
-	gl_FragData[0] = vec4(DColor, enc.x);
-	gl_FragData[1] = vec4(EyespacePosition, enc.y);
-	gl_FragData[2] = vec4(float(BLINNPHONG_MATERIAL_ID), 0.0, 0.0, 0.0);
-	gl_FragData[3] = vec4(SColor, PExponent);
+	gl_FragData[0] = vec4(DColor, 0.0);
+	gl_FragData[1] = vec4(enc, 0.0, 0.0);
+	gl_FragData[2] = vec4(float(BLINNPHONG_MATERIAL_ID) / 255.0, 0.0, 0.0, 0.0);
+	gl_FragData[3] = vec4(SColor, log2(PExponent + 1.0) / 10.0);
 }
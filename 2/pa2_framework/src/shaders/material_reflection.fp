@@ -21,10 +21,16 @@ uniform int CubeMapIndex;
 varying vec3 EyespacePosition;
 varying vec3 EyespaceNormal;
 
-/* Encodes a normalized vector as a vec2. See Renderer.java for more info. */
+/* Octahedrally encodes a normalized vector into [0, 1]^2. See Renderer.java for more info. */
 vec2 encode(vec3 n)
 {
-	return normalize(n.xy) * sqrt(0.5 * n.z + 0.5);
+	n /= abs(n.x) + abs(n.y) + abs(n.z);
+	vec2 e = n.xy;
+	if (n.z < 0.0)
+	{
+		e = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return 0.5 * e + 0.5;
 }
 
 void main()
@@ -34,9 +40,9 @@ void main()
 	/* Encode the eyespace normal. */
 	vec2 enc = encode(normalize(EyespaceNormal));
 	
-	gl_FragData[0] = vec4(0.0,0.0,0.0, enc.x);
-	gl_FragData[1] = vec4(EyespacePosition, enc.y);	
-	gl_FragData[2] = vec4(float(REFLECTION_MATERIAL_ID), 0.0, 0.0, CubeMapIndex);
+	gl_FragData[0] = vec4(0.0);
+	gl_FragData[1] = vec4(enc, 0.0, 0.0);
+	gl_FragData[2] = vec4(float(REFLECTION_MATERIAL_ID) / 255.0, 0.0, 0.0, float(CubeMapIndex) / 255.0);
 	gl_FragData[3] = vec4(0.0);
 
 }
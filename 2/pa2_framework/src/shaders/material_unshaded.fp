@@ -15,17 +15,23 @@
  * this pixel is. */
 const int UNSHADED_MATERIAL_ID = 1;
 
-/* Material properties passed from the application. */
-uniform vec3 Color;
+/* Material color, from the application or the instance, passed from the vertex shader. */
+varying vec3 MaterialColor;
 
 /* Fragment position and normal passed from the vertex shader. */
 varying vec3 EyespacePosition;
 varying vec3 EyespaceNormal;
 
-/* Encodes a normalized vector as a vec2. See Renderer.java for more info. */
+/* Octahedrally encodes a normalized vector into [0, 1]^2. See Renderer.java for more info. */
 vec2 encode(vec3 n)
 {
-	return normalize(n.xy) * sqrt(0.5 * n.z + 0.5);
+	n /= abs(n.x) + abs(n.y) + abs(n.z);
+	vec2 e = n.xy;
+	if (n.z < 0.0)
+	{
+		e = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return 0.5 * e + 0.5;
 }
 
 void main()
@@ -33,11 +39,11 @@ void main()
 	/* Encode the eyespace normal. */
 	vec2 enc = encode(normalize(EyespaceNormal));
 	
-	/* Store diffuse, position, encoded normal, and the material ID into the gbuffer. Position
-	 * and normal aren't used for shading, but they might be required by a post-processing effect,
-	 * so we still have to write them out. */
-	gl_FragData[0] = vec4(Color, enc.x);
-	gl_FragData[1] = vec4(EyespacePosition, enc.y);
-	gl_FragData[2] = vec4(float(UNSHADED_MATERIAL_ID), 0.0, 0.0, 0.0);
+	/* Store diffuse, encoded normal, and the material ID into the gbuffer. Positions are read
+	 * back from the depth buffer. Normal isn't used for shading, but it might be required by a
+	 * post-processing effect, so we still have to write it out. */
+	gl_FragData[0] = vec4(MaterialColor, 0.0);
+	gl_FragData[1] = vec4(enc, 0.0, 0.0);
+	gl_FragData[2] = vec4(float(UNSHADED_MATERIAL_ID) / 255.0, 0.0, 0.0, 0.0);
 	gl_FragData[3] = vec4(0.0);
 }
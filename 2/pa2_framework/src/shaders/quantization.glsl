@@ -0,0 +1,28 @@
+/**
+ * quantization.glsl
+ * 
+ * Decoders for the compressed vertex formats written by Mesh.quantize(), included by the material 
+ * vertex shaders (see ShaderProgram for the #include syntax). See Quantization.java for more info.
+ * 
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ * 
+ * @date 2026-10-19
+ */
+
+/* Decodes an octahedrally encoded unit vector. */
+vec3 decodeOctahedral(vec2 e)
+{
+	vec3 v = vec3(e.xy, 1.0 - abs(e.x) - abs(e.y));
+	if (v.z < 0.0)
+	{
+		v.xy = (1.0 - abs(v.yx)) * vec2(v.x >= 0.0 ? 1.0 : -1.0, v.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return normalize(v);
+}
+
+/* Decodes a tangent whose handedness is folded into the sign of its octahedral encoding. */
+vec4 decodeTangent(vec2 e)
+{
+	return vec4(decodeOctahedral(abs(e) * 2.0 - 1.0), (e.x < 0.0 ? -1.0 : 1.0));
+}
@@ -10,25 +10,34 @@
  * @date 2012-04-01
  */
 
-uniform sampler2DRect DiffuseBuffer;
-uniform sampler2DRect PositionBuffer;
+uniform sampler2DRect NormalBuffer;
+uniform sampler2DRect DepthBuffer;
 
-/* Decodes a vec2 into a normalized vector See Renderer.java for more info. */
+/* Inverse projection matrix and viewport size, to turn depths back into eyespace positions. */
+uniform mat4 InverseProjectionMatrix;
+uniform vec2 ViewportSize;
+
+/* Decodes a normalized vector octahedrally encoded into [0, 1]^2. See Renderer.java for more info. */
 vec3 decode(vec2 v)
 {
-	vec3 n;
-	n.z = 2.0 * dot(v.xy, v.xy) - 1.0;
-	n.xy = normalize(v.xy) * sqrt(1.0 - n.z*n.z);
-	return n;
+	vec2 e = 2.0 * v - 1.0;
+	vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+	if (n.z < 0.0)
+	{
+		n.xy = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return normalize(n);
 }
 
 /**
- * Samples from position and normal buffer and returns (nx, ny, nz, depth) packed into one vec4.
+ * Samples from depth and normal buffer and returns (nx, ny, nz, eyespace z) packed into one vec4.
  */
 vec4 sample(vec2 coord)
 {
-	vec3 n = decode(vec2(texture2DRect(DiffuseBuffer, coord).a, texture2DRect(PositionBuffer, coord).a));
-	return vec4(n, texture2DRect(PositionBuffer, coord).z);
+	vec3 n = decode(texture2DRect(NormalBuffer, coord).xy);
+	float depth = texture2DRect(DepthBuffer, coord).r;
+	vec4 position = InverseProjectionMatrix * vec4(2.0 * coord / ViewportSize - 1.0, 2.0 * depth - 1.0, 1.0);
+	return vec4(n, position.z / position.w);
 }
 
 void main()
@@ -0,0 +1,160 @@
+/**
+ * tiled_light_culling.cp
+ *
+ * Compute shader which finds the lights reaching each 16x16 tile of the gbuffer, for tiled deferred
+ * lighting. Each work group handles one tile: it finds the nearest and farthest geometry in the tile,
+ * tests every light's sphere of influence against the frustum of the tile bounded by those depths,
+ * and writes the indices of the lights which pass into the tile's list. The ubershader, compiled with
+ * TILED_LIGHTING, then shades each pixel with its tile's lights only.
+ *
+ * Each tile's list takes MAX_LIGHTS_PER_TILE + 1 entries of TileLights: the light count, then the
+ * light indices. Lights past MAX_LIGHTS_PER_TILE in one tile are dropped.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+
+#version 430
+
+/* Constants which Java and the ubershader have to agree on. */
+#define TILE_SIZE 16
+#define MAX_LIGHTS_PER_TILE 255
+
+layout(local_size_x = TILE_SIZE, local_size_y = TILE_SIZE) in;
+
+/* Samplers for the gbuffer's depth buffer and the texture holding material IDs. */
+uniform sampler2DRect DepthBuffer;
+uniform sampler2DRect MaterialParams1Buffer;
+
+uniform ivec2 ViewportSize;
+uniform mat4 ProjectionMatrix;
+uniform int NumLights;
+
+/* Eyespace light positions with their range in w, colors and (constant, linear, quadratic) attenuations. */
+struct Light
+{
+	vec4 positionRange;
+	vec4 color;
+	vec4 attenuation;
+};
+
+layout(std430, binding = 0) readonly buffer LightBuffer
+{
+	Light Lights[];
+};
+
+layout(std430, binding = 1) writeonly buffer TileLightBuffer
+{
+	uint TileLights[];
+};
+
+/* Depth bounds of the tile (as float bits, which order like the floats since depths are positive), and its light count. */
+shared uint MinDepth;
+shared uint MaxDepth;
+shared uint TileLightCount;
+
+/**
+ * Returns the eyespace point at z = -1 which projects to the given pixel position.
+ */
+vec3 getViewDirection(vec2 pixel)
+{
+	vec2 ndc = 2.0 * pixel / vec2(ViewportSize) - 1.0;
+	return vec3((ndc.x + ProjectionMatrix[2][0]) / ProjectionMatrix[0][0],
+	            (ndc.y + ProjectionMatrix[2][1]) / ProjectionMatrix[1][1], -1.0);
+}
+
+/**
+ * Returns the normal of the plane through the eye and two corners of a tile, facing into the tile.
+ */
+vec3 getSidePlane(vec3 corner0, vec3 corner1, vec3 center)
+{
+	vec3 normal = normalize(cross(corner0, corner1));
+	return (dot(normal, center) < 0.0 ? -normal : normal);
+}
+
+void main()
+{
+	ivec2 pixel = ivec2(gl_GlobalInvocationID.xy);
+	uint listStart = (gl_WorkGroupID.y * gl_NumWorkGroups.x + gl_WorkGroupID.x) * uint(MAX_LIGHTS_PER_TILE + 1);
+
+	if (gl_LocalInvocationIndex == 0u)
+	{
+		MinDepth = floatBitsToUint(3.402823e38);
+		MaxDepth = 0u;
+		TileLightCount = 0u;
+	}
+
+	memoryBarrierShared();
+	barrier();
+
+	/* Sky pixels (material 0) and pixels past the edge of the viewport don't bound the tile. */
+	if (all(lessThan(pixel, ViewportSize)) && texelFetch(MaterialParams1Buffer, pixel).x > 0.0)
+	{
+		/* Distance in front of the eye, from the depth buffer value. */
+		float ndcDepth = 2.0 * texelFetch(DepthBuffer, pixel).r - 1.0;
+		uint depth = floatBitsToUint(max(ProjectionMatrix[3][2] / (ndcDepth + ProjectionMatrix[2][2]), 0.0));
+		atomicMin(MinDepth, depth);
+		atomicMax(MaxDepth, depth);
+	}
+
+	memoryBarrierShared();
+	barrier();
+
+	float minDepth = uintBitsToFloat(MinDepth);
+	float maxDepth = uintBitsToFloat(MaxDepth);
+
+	/* Tiles showing only sky keep an empty list. */
+	if (minDepth <= maxDepth)
+	{
+		vec2 tileMin = vec2(gl_WorkGroupID.xy * uint(TILE_SIZE));
+		vec2 tileMax = tileMin + vec2(TILE_SIZE);
+
+		vec3 center = getViewDirection(0.5 * (tileMin + tileMax));
+		vec3 bottomLeft = getViewDirection(tileMin);
+		vec3 bottomRight = getViewDirection(vec2(tileMax.x, tileMin.y));
+		vec3 topLeft = getViewDirection(vec2(tileMin.x, tileMax.y));
+		vec3 topRight = getViewDirection(tileMax);
+
+		vec3 planes[4] = vec3[4](getSidePlane(bottomLeft, topLeft, center),
+		                         getSidePlane(topRight, bottomRight, center),
+		                         getSidePlane(bottomRight, bottomLeft, center),
+		                         getSidePlane(topLeft, topRight, center));
+
+		/* The threads of the tile split the lights between them. */
+		for (uint i = gl_LocalInvocationIndex; i < uint(NumLights); i += uint(TILE_SIZE * TILE_SIZE))
+		{
+			vec4 light = Lights[i].positionRange;
+			float depth = -light.z;
+
+			if (depth + light.w < minDepth || depth - light.w > maxDepth)
+			{
+				continue;
+			}
+
+			bool inside = true;
+			for (int p = 0; p < 4; ++p)
+			{
+				inside = inside && (dot(planes[p], light.xyz) >= -light.w);
+			}
+
+			if (inside)
+			{
+				uint slot = atomicAdd(TileLightCount, 1u);
+				if (slot < uint(MAX_LIGHTS_PER_TILE))
+				{
+					TileLights[listStart + 1u + slot] = i;
+				}
+			}
+		}
+	}
+
+	memoryBarrierShared();
+	barrier();
+
+	if (gl_LocalInvocationIndex == 0u)
+	{
+		TileLights[listStart] = min(TileLightCount, uint(MAX_LIGHTS_PER_TILE));
+	}
+}
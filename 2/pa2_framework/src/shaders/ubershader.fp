@@ -5,6 +5,14 @@
  * samples from the gbuffer and then computes lighting depending on the material type of this 
  * fragment.
  * 
+ * Compiled with TILED_LIGHTING defined, lights come from storage buffers instead, and each fragment
+ * only loops over the lights listed for its 16x16 tile (see tiled_light_culling.cp). Compiled with
+ * CLUSTERED_LIGHTING defined, lights come from float textures, and each fragment only loops over
+ * the lights listed for its view-space cluster (see LightClusters.java). Compiled with LIGHT_VOLUMES
+ * defined, the shader runs in two passes (see Renderer.java): a fullscreen pass with no lights,
+ * adding everything lights don't affect (the sky, unshaded materials and reflections), then one
+ * pass per light, drawing its bounding volume and adding just its light.
+ * 
  * Written for Cornell CS 5625 (Interactive Computer Graphics).
  * Copyright (c) 2012, Computer Science Department, Cornell University.
  * 
@@ -26,12 +34,17 @@ const int REFLECTION_MATERIAL_ID = 7;
 /* Some constant maximum number of lights which GLSL and Java have to agree on. */
 #define MAX_LIGHTS 40
 
-/* Samplers for each texture of the GBuffer. */
+/* Samplers for each texture of the GBuffer, and its depth buffer. */
 uniform sampler2DRect DiffuseBuffer;
-uniform sampler2DRect PositionBuffer;
+uniform sampler2DRect NormalBuffer;
 uniform sampler2DRect MaterialParams1Buffer;
 uniform sampler2DRect MaterialParams2Buffer;
 uniform sampler2DRect SilhouetteBuffer;
+uniform sampler2DRect DepthBuffer;
+
+/* Inverse projection matrix and viewport size, to turn depths back into eyespace positions. */
+uniform mat4 InverseProjectionMatrix;
+uniform vec2 ViewportSize;
 
 /* Pass the inverse eye/camera matrix, that can transform points from eye to world space. */
 uniform mat3 CameraInverseRotation;
@@ -51,19 +64,229 @@ uniform bool EnableToonShading;
 /* Uniform specifying the sky (background) color. */
 uniform vec3 SkyColor;
 
-/* Uniforms describing the lights. */
+#if defined(TILED_LIGHTING)
+
+/* Constants which Java and tiled_light_culling.cp have to agree on. */
+#define TILE_SIZE 16
+#define MAX_LIGHTS_PER_TILE 255
+
+/* Eyespace light positions with their range in w, colors and (constant, linear, quadratic) attenuations. */
+struct Light
+{
+	vec4 positionRange;
+	vec4 color;
+	vec4 attenuation;
+};
+
+layout(std430, binding = 0) readonly buffer LightBuffer
+{
+	Light Lights[];
+};
+
+/* Per-tile light lists written by tiled_light_culling.cp: a count, then light indices. */
+layout(std430, binding = 1) readonly buffer TileLightBuffer
+{
+	uint TileLights[];
+};
+
+uniform int TileCountX;
+
+/* Where this fragment's tile list starts; set in main(). */
+int TileListStart = 0;
+
+int getLightCount()
+{
+	return int(TileLights[TileListStart]);
+}
+
+int getLightIndex(int k)
+{
+	return int(TileLights[TileListStart + 1 + k]);
+}
+
+vec3 getLightPosition(int i)
+{
+	return Lights[i].positionRange.xyz;
+}
+
+vec3 getLightColor(int i)
+{
+	return Lights[i].color.rgb;
+}
+
+vec3 getLightAttenuation(int i)
+{
+	return Lights[i].attenuation.xyz;
+}
+
+#elif defined(CLUSTERED_LIGHTING)
+
+/* Constants which Java (see LightClusters.java and Renderer.java) has to agree on. */
+#define CLUSTERS_X 16.0
+#define CLUSTERS_Y 9.0
+#define CLUSTERS_Z 24.0
+#define LIGHTS_PER_ROW 256.0
+#define INDICES_PER_ROW 1024.0
+
+/* The (offset, count) of each cluster's light indices, slice after slice; the light indices of all
+ * clusters; and the lights as three texels each: eyespace position and range, color, and attenuation. */
+uniform sampler2DRect ClusterTexture;
+uniform sampler2DRect ClusterLightIndexTexture;
+uniform sampler2DRect LightTexture;
+
+/* Near plane, and the scale from log(depth / near) to depth slices. */
+uniform float ClusterNear;
+uniform float ClusterDepthScale;
+
+/* Where this fragment's cluster's light indices start, and how many there are; set in main(). */
+float ClusterOffset = 0.0;
+int ClusterLightCount = 0;
+
+/**
+ * Looks up the cluster of this fragment from its screen position and eyespace depth.
+ */
+void findCluster(vec3 position)
+{
+	vec2 cell = floor(gl_FragCoord.xy / ViewportSize * vec2(CLUSTERS_X, CLUSTERS_Y));
+	float slice = clamp(floor(log(-position.z / ClusterNear) * ClusterDepthScale), 0.0, CLUSTERS_Z - 1.0);
+	vec4 cluster = texture2DRect(ClusterTexture, vec2(cell.x, slice * CLUSTERS_Y + cell.y) + 0.5);
+
+	ClusterOffset = cluster.r;
+	ClusterLightCount = int(cluster.g);
+}
+
+int getLightCount()
+{
+	return ClusterLightCount;
+}
+
+int getLightIndex(int k)
+{
+	float i = ClusterOffset + float(k);
+	return int(texture2DRect(ClusterLightIndexTexture, vec2(mod(i, INDICES_PER_ROW), floor(i / INDICES_PER_ROW)) + 0.5).r);
+}
+
+vec4 getLightTexel(int i, float texel)
+{
+	float light = float(i);
+	return texture2DRect(LightTexture, vec2(3.0 * mod(light, LIGHTS_PER_ROW) + texel, floor(light / LIGHTS_PER_ROW)) + 0.5);
+}
+
+vec3 getLightPosition(int i)
+{
+	return getLightTexel(i, 0.0).xyz;
+}
+
+vec3 getLightColor(int i)
+{
+	return getLightTexel(i, 1.0).rgb;
+}
+
+vec3 getLightAttenuation(int i)
+{
+	return getLightTexel(i, 2.0).xyz;
+}
+
+#elif defined(LIGHT_VOLUMES)
+
+/* False in the fullscreen pass, true while drawing light volumes. */
+uniform bool LightVolumePass;
+
+/* The light of the volume being drawn (see ubershader.vp). */
+varying vec4 VolumeLightPositionRange;
+varying vec3 VolumeLightColor;
+varying vec3 VolumeLightAttenuation;
+
+int getLightCount()
+{
+	return (LightVolumePass ? 1 : 0);
+}
+
+int getLightIndex(int k)
+{
+	return k;
+}
+
+vec3 getLightPosition(int i)
+{
+	return VolumeLightPositionRange.xyz;
+}
+
+vec3 getLightColor(int i)
+{
+	return VolumeLightColor;
+}
+
+vec3 getLightAttenuation(int i)
+{
+	return VolumeLightAttenuation;
+}
+
+#else
+
+/* Uniforms describing the lights, three vec4s each as Java packs them: eyespace position and range,
+ * color, and attenuation. */
 uniform int NumLights;
-uniform vec3 LightPositions[MAX_LIGHTS];
-uniform vec3 LightAttenuations[MAX_LIGHTS];
-uniform vec3 LightColors[MAX_LIGHTS];
+uniform vec4 Lights[3 * MAX_LIGHTS];
+
+int getLightCount()
+{
+	return NumLights;
+}
 
-/* Decodes a vec2 into a normalized vector See Renderer.java for more info. */
+int getLightIndex(int k)
+{
+	return k;
+}
+
+vec3 getLightPosition(int i)
+{
+	return Lights[3 * i].xyz;
+}
+
+vec3 getLightColor(int i)
+{
+	return Lights[3 * i + 1].rgb;
+}
+
+vec3 getLightAttenuation(int i)
+{
+	return Lights[3 * i + 2].xyz;
+}
+
+#endif
+
+/* Decodes a normalized vector octahedrally encoded into [0, 1]^2. See Renderer.java for more info. */
 vec3 decode(vec2 v)
 {
-	vec3 n;
-	n.z = 2.0 * dot(v.xy, v.xy) - 1.0;
-	n.xy = normalize(v.xy) * sqrt(1.0 - n.z*n.z);
-	return n;
+	vec2 e = 2.0 * v - 1.0;
+	vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+	if (n.z < 0.0)
+	{
+		n.xy = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return normalize(n);
+}
+
+/* Decodes an integer the gbuffer stores divided by 255, such as a material or cube map ID. */
+int decodeByte(float v)
+{
+	return int(floor(v * 255.0 + 0.5));
+}
+
+/* Decodes a Phong exponent, stored as log2(exponent + 1) / 10. */
+float decodeExponent(float v)
+{
+	return exp2(10.0 * v) - 1.0;
+}
+
+/* Reconstructs the eyespace position of this fragment's surface from the depth buffer. */
+vec3 getPosition()
+{
+	float depth = texture2DRect(DepthBuffer, gl_FragCoord.xy).r;
+	vec4 ndc = vec4(2.0 * gl_FragCoord.xy / ViewportSize - 1.0, 2.0 * depth - 1.0, 1.0);
+	vec4 position = InverseProjectionMatrix * ndc;
+	return position.xyz / position.w;
 }
 
 float getSchlickApprox(float theta, float N){
@@ -130,9 +353,15 @@ vec3 view = normalize(position);
 	float schlick = getSchlickApprox(theta, n);
 	
 	vec3 reflected = CameraInverseRotation * normalize(2.0 * ndotv * normal - view);
-	vec3 sample = sampleCubeMap(reflected, cubeMapIndex);
+	vec3 sampled = sampleCubeMap(reflected, cubeMapIndex);
+
+#ifdef LIGHT_VOLUMES
+	/* The reflection is added once, by the fullscreen pass; the light passes only add their share of the base color. */
+	if (LightVolumePass)
+		sampled = vec3(0.0);
+#endif
 	
-	vec3 result = mix(baseColor, sample, 1.0 - schlick);
+	vec3 result = mix(baseColor, sampled, 1.0 - schlick);
 
 	return result;
 
@@ -501,17 +730,33 @@ void main()
 	/* Initialize fragment to black. */
 	gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);
 
+#ifdef TILED_LIGHTING
+	/* Find this fragment's tile list. */
+	ivec2 tile = ivec2(gl_FragCoord.xy) / TILE_SIZE;
+	TileListStart = (tile.y * TileCountX + tile.x) * (MAX_LIGHTS_PER_TILE + 1);
+#endif
+
 	vec3 diffuse         = texture2DRect(DiffuseBuffer, gl_FragCoord.xy).xyz;
-	vec3 position        = texture2DRect(PositionBuffer, gl_FragCoord.xy).xyz;
+	vec3 position        = getPosition();
 	vec4 materialParams1 = texture2DRect(MaterialParams1Buffer, gl_FragCoord.xy);
 	vec4 materialParams2 = texture2DRect(MaterialParams2Buffer, gl_FragCoord.xy);
-	vec3 normal          = decode(vec2(texture2DRect(DiffuseBuffer, gl_FragCoord.xy).a,
-	                                   texture2DRect(PositionBuffer, gl_FragCoord.xy).a));
+	vec3 normal          = decode(texture2DRect(NormalBuffer, gl_FragCoord.xy).xy);
+
+#ifdef CLUSTERED_LIGHTING
+	findCluster(position);
+#endif
+
+#ifdef LIGHT_VOLUMES
+	/* The volume bounds the light's sphere of influence loosely, and the stencil marks pixels inside any volume. */
+	if (LightVolumePass && distance(position, VolumeLightPositionRange.xyz) > VolumeLightPositionRange.w)
+		discard;
+#endif
 	
 
 
-	/* Branch on material ID and shade as appropriate. */
-	int materialID = int(materialParams1.x);
+	/* Branch on material ID and shade as appropriate. IDs of 128 and up flag a flipped bitangent. */
+	int materialCode = decodeByte(materialParams1.x);
+	int materialID = (materialCode >= 128 ? materialCode - 128 : materialCode);
 
 	vec3 result = vec3(0.0);
 
@@ -526,15 +771,17 @@ void main()
 	
 	// DONE PA1: Add logic to handle all other material IDs. Remember to loop over all NumLights.
 	else if(materialID == BLINNPHONG_MATERIAL_ID) {
-		for(int i = 0; i < NumLights; i++){
-			vec3 shade = shadeBlinnPhong(diffuse, materialParams2.rgb, materialParams2.a, position, normal, LightPositions[i], LightColors[i], LightAttenuations[i]);
+		for(int k = 0; k < getLightCount(); k++){
+			int i = getLightIndex(k);
+			vec3 shade = shadeBlinnPhong(diffuse, materialParams2.rgb, decodeExponent(materialParams2.a), position, normal, getLightPosition(i), getLightColor(i), getLightAttenuation(i));
 			result +=  shade;
 		}
 		gl_FragColor.rgb = result; 
 	}
 	else if(materialID == LAMBERTIAN_MATERIAL_ID) {
-		for(int i = 0; i < NumLights; i++){
-			vec3 shade = shadeLambertian(diffuse, position, normal, LightPositions[i], LightColors[i], LightAttenuations[i]);
+		for(int k = 0; k < getLightCount(); k++){
+			int i = getLightIndex(k);
+			vec3 shade = shadeLambertian(diffuse, position, normal, getLightPosition(i), getLightColor(i), getLightAttenuation(i));
 			result +=  shade;
 		}
 		gl_FragColor.rgb =  result;
@@ -542,12 +789,13 @@ void main()
 		 //monkey
 	}
 	else if (materialID == COOKTORRANCE_MATERIAL_ID) {
-		for(int i = 0; i < NumLights; i++){
-			vec3 shade = shadeCookTorrance(diffuse,  materialParams2.xyz, materialParams1.y, materialParams1.z, position, normal,
-				LightPositions[i], LightColors[i], LightAttenuations[i]);
+		for(int k = 0; k < getLightCount(); k++){
+			int i = getLightIndex(k);
+			vec3 shade = shadeCookTorrance(diffuse,  materialParams2.xyz, 255.0 * materialParams1.y, 255.0 * materialParams1.z, position, normal,
+				getLightPosition(i), getLightColor(i), getLightAttenuation(i));
 			result += shade;
 		}
-		int index = int(materialParams1.w);
+		int index = decodeByte(materialParams1.w);
 		if(index > 0) {
 			result = mixEnvMapWithBaseColor(index, result, position, normal, 14.0);
 		}
@@ -556,9 +804,10 @@ void main()
 		
 	}
 	else if(materialID == ISOTROPIC_WARD_MATERIAL_ID) {
-		for(int i = 0; i < NumLights; i++){
+		for(int k = 0; k < getLightCount(); k++){
+			int i = getLightIndex(k);
 			vec3 shade = shadeIsotropicWard(diffuse, materialParams2.rgb, materialParams2.a, position,
-				normal, LightPositions[i], LightColors[i], LightAttenuations[i]);
+				normal, getLightPosition(i), getLightColor(i), getLightAttenuation(i));
 			result += shade;
 		}
 		gl_FragColor.rgb = result;
@@ -570,13 +819,14 @@ void main()
 	    
 		vec3 bitangent = cross(normal, tangent);
 		 
-		if(int(materialParams1.x) < 0){
+		if(materialCode >= 128){
 			bitangent = bitangent * -1.0;
 		}
 		
-		for(int i = 0; i < NumLights; i++){
+		for(int k = 0; k < getLightCount(); k++){
+			int i = getLightIndex(k);
 			vec3 shade = shadeAnisotropicWard(diffuse, materialParams2.rgb, materialParams1.g, materialParams1.b, position,
-										normal, tangent, bitangent, LightPositions[i], LightColors[i], LightAttenuations[i]);
+										normal, tangent, bitangent, getLightPosition(i), getLightColor(i), getLightAttenuation(i));
 			result += shade;
 		}  
 		gl_FragColor.rgb = result;
@@ -584,7 +834,7 @@ void main()
 
 	}	else if(materialID == REFLECTION_MATERIAL_ID){
 	
-			result = shadeReflective( position, normal, materialParams1.w);	
+			result = shadeReflective( position, normal, decodeByte(materialParams1.w));	
 			
 			gl_FragColor.rgb = result;
 	}
@@ -596,6 +846,12 @@ void main()
 		gl_FragColor.rgb = diffuse;
 	}
 
+#ifdef LIGHT_VOLUMES
+	/* Materials which aren't lit were done by the fullscreen pass. */
+	if (LightVolumePass && (materialID < LAMBERTIAN_MATERIAL_ID || materialID > ANISOTROPIC_WARD_MATERIAL_ID))
+		gl_FragColor.rgb = vec3(0.0);
+#endif
+
 	if(EnableToonShading)
 		gl_FragColor.rgb = mix(gl_FragColor.rgb,vec3(0.0),silhouetteStrength());
 }
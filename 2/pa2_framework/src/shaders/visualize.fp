@@ -15,7 +15,7 @@ const int ANISOTROPIC_WARD_MATERIAL_ID = 6;
 
 /* Samplers for each texture of the GBuffer. */
 uniform sampler2DRect DiffuseBuffer;
-uniform sampler2DRect PositionBuffer;
+uniform sampler2DRect NormalBuffer;
 uniform sampler2DRect MaterialParams1Buffer;
 uniform sampler2DRect MaterialParams2Buffer;
 
@@ -25,22 +25,26 @@ const int TANGENTS_MODE = 1;
 const int BITANGENTS_MODE = 2;
 uniform int VisMode;
 
-/* Decodes a vec2 into a normalized vector See Renderer.java for more info. */
+/* Decodes a normalized vector octahedrally encoded into [0, 1]^2. See Renderer.java for more info. */
 vec3 decode(vec2 v)
 {
-	vec3 n;
-	n.z = 2.0 * length(v.xy) - 1.0;
-	n.xy = normalize(v.xy) * sqrt(1.0 - n.z*n.z);
-	return n;
+	vec2 e = 2.0 * v - 1.0;
+	vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+	if (n.z < 0.0)
+	{
+		n.xy = (1.0 - abs(n.yx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.y >= 0.0 ? 1.0 : -1.0);
+	}
+	return normalize(n);
 }
 
 void main()
 {
-	vec3 normal = decode(vec2(texture2DRect(DiffuseBuffer,  gl_FragCoord.xy).a,
-	                          texture2DRect(PositionBuffer, gl_FragCoord.xy).a));
+	vec3 normal = decode(texture2DRect(NormalBuffer, gl_FragCoord.xy).xy);
 	vec4 materialParams1 = texture2DRect(MaterialParams1Buffer, gl_FragCoord.xy);
 	vec4 materialParams2 = texture2DRect(MaterialParams2Buffer, gl_FragCoord.xy);
-	int materialID = int(materialParams1.x);
+	
+	/* Material IDs are stored divided by 255, plus 128 / 255 for a flipped bitangent. */
+	int materialCode = int(floor(materialParams1.x * 255.0 + 0.5));
 	
 	/* DONE PA1: Output a color to visualize the g-buffer data at the given pixel.
 	 *           You should visualize the data indicated by VisMode.
@@ -50,7 +54,7 @@ void main()
 	 							texture2DRect(MaterialParams2Buffer, gl_FragCoord.xy).a));
 	 vec3 bitangent = cross(normal, tangent);
 	 
-	 if(materialID < 0) {
+	 if(materialCode >= 128) {
 	 	bitangent = bitangent * -1.0;
 	 }
 	 
@@ -0,0 +1,198 @@
+package cs5625.deferred.rendering;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * LightClustersTest.java
+ *
+ * Checks that `LightClusters` is conservative: for 200,000 random points in the view frustum, every
+ * light whose range reaches the point must be listed in the cluster the ubershader looks up for it
+ * (from the point's screen position and depth, as in `findCluster()`). Runs with a normal projection
+ * and with the mirrored one of the cube map passes, and checks that binning across threads lists the
+ * same lights per cluster as binning on one thread.
+ *
+ * Needs no OpenGL context. Run it as a Java application; it exits with status 1 on a mismatch.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LightClustersTest
+{
+	private static final int LIGHT_COUNT = 1000;
+	private static final int POINT_COUNT = 200000;
+	private static final int STRIDE = 12;
+	private static final float NEAR = 0.1f;
+	private static final float FAR = 100.0f;
+
+	public static void main(String args[])
+	{
+		Random rand = new Random(5625);
+		float lights[] = createLights(rand);
+
+		/* A 16:9 view, then the same view mirrored left to right like the cube map faces. */
+		float tanY = (float)Math.tan(Math.toRadians(30.0));
+		float tanX = tanY * 16.0f / 9.0f;
+		int failures = 0;
+
+		for (int mirrored = 0; mirrored < 2; ++mirrored)
+		{
+			float side = (mirrored == 0 ? 1.0f : -1.0f);
+			float projection[] = createFrustumMatrix(-side * tanX * NEAR, side * tanX * NEAR, -tanY * NEAR, tanY * NEAR, NEAR, FAR);
+			String name = (mirrored == 0 ? "normal" : "mirrored");
+
+			LightClusters parallel = new LightClusters();
+			parallel.build(lights, STRIDE, LIGHT_COUNT, projection, NEAR, FAR);
+
+			int missing = checkConservative(parallel, lights, projection, rand);
+			System.out.printf("%s projection: %d light indices, %d lights missing from clusters.\n", name, parallel.getIndexCount(), missing);
+
+			LightClusters serial = new LightClusters();
+			serial.setParallel(false);
+			serial.build(lights, STRIDE, LIGHT_COUNT, projection, NEAR, FAR);
+
+			int differing = compareClusters(parallel, serial);
+
+			if (differing > 0)
+			{
+				System.out.printf("%s projection: %d clusters differ between parallel and serial binning.\n", name, differing);
+			}
+
+			failures += missing + differing;
+		}
+
+		if (failures > 0)
+		{
+			System.out.println("FAILED: " + failures + " mismatches.");
+			System.exit(1);
+		}
+
+		System.out.println("PASSED: every light reaching a point is in its cluster.");
+	}
+
+	/**
+	 * Returns LIGHT_COUNT lights laid out as the renderer packs them: eyespace position and range first.
+	 * Most are around the view frustum, some behind the camera or past the far plane, and a few reach
+	 * nothing.
+	 */
+	private static float[] createLights(Random rand)
+	{
+		float lights[] = new float[STRIDE * LIGHT_COUNT];
+
+		for (int i = 0; i < LIGHT_COUNT; ++i)
+		{
+			float depth = -5.0f + rand.nextFloat() * (FAR + 10.0f);
+			float spread = 1.5f * Math.max(Math.abs(depth), 1.0f);
+
+			lights[STRIDE * i + 0] = (rand.nextFloat() - 0.5f) * 2.0f * spread;
+			lights[STRIDE * i + 1] = (rand.nextFloat() - 0.5f) * spread;
+			lights[STRIDE * i + 2] = -depth;
+			lights[STRIDE * i + 3] = (rand.nextInt(20) == 0 ? 0.0f : (float)Math.pow(10.0, -1.5 + 2.5 * rand.nextFloat()));
+		}
+
+		return lights;
+	}
+
+	/**
+	 * Returns the number of (point, light) pairs where the light reaches a random point in the frustum
+	 * but isn't listed in the point's cluster.
+	 */
+	private static int checkConservative(LightClusters clusters, float lights[], float projection[], Random rand)
+	{
+		int indices[] = clusters.getIndices();
+		int missing = 0;
+
+		for (int p = 0; p < POINT_COUNT; ++p)
+		{
+			/* A random pixel position and depth, unprojected back to eyespace. */
+			float screenX = rand.nextFloat();
+			float screenY = rand.nextFloat();
+			float depth = NEAR * (float)Math.pow(FAR / NEAR, rand.nextDouble());
+
+			float x = ((2.0f * screenX - 1.0f) + projection[8]) * depth / projection[0];
+			float y = ((2.0f * screenY - 1.0f) + projection[9]) * depth / projection[5];
+			float z = -depth;
+
+			/* The cluster the ubershader looks up. */
+			int cellX = (int)Math.floor(screenX * LightClusters.CLUSTERS_X);
+			int cellY = (int)Math.floor(screenY * LightClusters.CLUSTERS_Y);
+			int slice = (int)Math.floor(Math.log(depth / NEAR) * clusters.getDepthScale());
+			slice = Math.min(Math.max(slice, 0), LightClusters.CLUSTERS_Z - 1);
+
+			int cluster = LightClusters.getCluster(cellX, cellY, slice);
+			int offset = clusters.getOffset(cluster);
+			int count = clusters.getCount(cluster);
+
+			for (int light = 0; light < LIGHT_COUNT; ++light)
+			{
+				float dx = lights[STRIDE * light + 0] - x;
+				float dy = lights[STRIDE * light + 1] - y;
+				float dz = lights[STRIDE * light + 2] - z;
+				float range = lights[STRIDE * light + 3];
+
+				if (range <= 0.0f || dx * dx + dy * dy + dz * dz > range * range)
+				{
+					continue;
+				}
+
+				boolean listed = false;
+
+				for (int i = offset; i < offset + count && !listed; ++i)
+				{
+					listed = (indices[i] == light);
+				}
+
+				if (!listed)
+				{
+					++missing;
+				}
+			}
+		}
+
+		return missing;
+	}
+
+	/**
+	 * Returns the number of clusters whose lights differ between two binnings, ignoring their order.
+	 */
+	private static int compareClusters(LightClusters a, LightClusters b)
+	{
+		int differing = 0;
+
+		for (int cluster = 0; cluster < LightClusters.CLUSTER_COUNT; ++cluster)
+		{
+			int listA[] = Arrays.copyOfRange(a.getIndices(), a.getOffset(cluster), a.getOffset(cluster) + a.getCount(cluster));
+			int listB[] = Arrays.copyOfRange(b.getIndices(), b.getOffset(cluster), b.getOffset(cluster) + b.getCount(cluster));
+
+			Arrays.sort(listA);
+			Arrays.sort(listB);
+
+			if (!Arrays.equals(listA, listB))
+			{
+				++differing;
+			}
+		}
+
+		return differing;
+	}
+
+	/**
+	 * Returns the column-major projection matrix glFrustum builds from the same arguments.
+	 */
+	private static float[] createFrustumMatrix(float left, float right, float bottom, float top, float near, float far)
+	{
+		float m[] = new float[16];
+
+		m[0] = 2.0f * near / (right - left);
+		m[5] = 2.0f * near / (top - bottom);
+		m[8] = (right + left) / (right - left);
+		m[9] = (top + bottom) / (top - bottom);
+		m[10] = -(far + near) / (far - near);
+		m[11] = -1.0f;
+		m[14] = -2.0f * far * near / (far - near);
+
+		return m;
+	}
+}
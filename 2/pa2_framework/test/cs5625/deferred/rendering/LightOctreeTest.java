@@ -0,0 +1,155 @@
+package cs5625.deferred.rendering;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.vecmath.AxisAngle4f;
+import javax.vecmath.Color3f;
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Quat4f;
+
+import cs5625.deferred.misc.ScenegraphException;
+import cs5625.deferred.scenegraph.PointLight;
+import cs5625.deferred.scenegraph.SceneObject;
+
+/**
+ * LightOctreeTest.java
+ *
+ * Checks the lights `LightOctree` culls against a view frustum, on 2,000 point lights which are
+ * children of one parent object, as in the many lights scene. Only the parent is rotated between
+ * snapshots, so the lights' own transforms never change; after every update the lights the octree
+ * finds must match a brute-force test of every light's range around its current world position.
+ *
+ * Needs no OpenGL context. Run it as a Java application; it exits with status 1 on a mismatch.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LightOctreeTest
+{
+	private static final int LIGHT_COUNT = 2000;
+	private static final int ROTATION_STEPS = 24;
+	private static final float CUTOFF = 1.0f / 256.0f;
+
+	public static void main(String args[]) throws ScenegraphException
+	{
+		Random rand = new Random(5625);
+		SceneObject root = new SceneObject();
+		SceneObject cloud = new SceneObject();
+		PointLight lights[] = new PointLight[LIGHT_COUNT];
+
+		/* Lights in a ball around the cloud's center, which is off the origin so rotating it moves them far. */
+		cloud.setPosition(new Point3f(0.0f, 0.0f, -40.0f));
+		root.addChild(cloud);
+
+		for (int i = 0; i < LIGHT_COUNT; ++i)
+		{
+			lights[i] = new PointLight();
+			lights[i].setPosition(new Point3f((rand.nextFloat() - 0.5f) * 80.0f, (rand.nextFloat() - 0.5f) * 80.0f,
+					(rand.nextFloat() - 0.5f) * 80.0f));
+			lights[i].setColor(new Color3f(rand.nextFloat(), rand.nextFloat(), rand.nextFloat()));
+			lights[i].setQuadraticAttenuation(0.05f + rand.nextFloat());
+			cloud.addChild(lights[i]);
+		}
+
+		/* A narrow view from the origin down -z, which sees only part of the cloud. */
+		Frustum frustum = new Frustum();
+		Matrix4f worldToEye = new Matrix4f();
+		worldToEye.setIdentity();
+		frustum.set(worldToEye, 0.3f, 0.2f, 0.1f, 60.0f);
+
+		RenderSnapshot snapshot = new RenderSnapshot();
+		LightOctree octree = new LightOctree(CUTOFF);
+		int found[] = new int[LIGHT_COUNT];
+		int expected[] = new int[LIGHT_COUNT];
+		int mismatches = 0;
+
+		for (int step = 0; step <= ROTATION_STEPS; ++step)
+		{
+			if (step > 0)
+			{
+				Quat4f rotation = new Quat4f();
+				rotation.set(new AxisAngle4f(0.3f, 1.0f, 0.2f, (float)(2.0 * Math.PI * step / ROTATION_STEPS)));
+				cloud.setOrientation(rotation);
+			}
+
+			snapshot.capture(root, new Camera());
+			octree.update(snapshot);
+
+			int foundCount = octree.query(frustum, found);
+			int expectedCount = 0;
+
+			for (int i = 0; i < LIGHT_COUNT; ++i)
+			{
+				if (frustum.intersectsBox(computeBounds(lights[i]), 0))
+				{
+					expected[expectedCount++] = findLight(snapshot, lights[i]);
+				}
+			}
+
+			Arrays.sort(found, 0, foundCount);
+			Arrays.sort(expected, 0, expectedCount);
+
+			boolean matches = Arrays.equals(Arrays.copyOf(found, foundCount), Arrays.copyOf(expected, expectedCount));
+			System.out.printf("Step %d: %d lights moved, %d found, %d expected.\n", step, octree.getUpdatedCount(),
+					foundCount, expectedCount);
+
+			/* Every step but the first moves every light, through their parent alone. */
+			if (!matches || (step > 0 && octree.getUpdatedCount() != LIGHT_COUNT))
+			{
+				++mismatches;
+			}
+		}
+
+		/* Capturing an unchanged scene moves nothing. */
+		snapshot.capture(root, new Camera());
+		octree.update(snapshot);
+
+		if (octree.getUpdatedCount() != 0)
+		{
+			System.out.println("An unchanged scene moved " + octree.getUpdatedCount() + " lights.");
+			++mismatches;
+		}
+
+		if (mismatches > 0)
+		{
+			System.out.println("FAILED: " + mismatches + " mismatches against brute force.");
+			System.exit(1);
+		}
+
+		System.out.println("PASSED: culled lights match brute force as their parent rotates.");
+	}
+
+	/**
+	 * Returns the world-space box around a light's range, from the live scenegraph.
+	 */
+	private static float[] computeBounds(PointLight light)
+	{
+		Point3f position = light.transformPointToWorldSpace(new Point3f(0.0f, 0.0f, 0.0f));
+		Color3f color = light.getColor();
+		float range = PointLight.getRange(Math.max(color.x, Math.max(color.y, color.z)), light.getConstantAttenuation(),
+				light.getLinearAttenuation(), light.getQuadraticAttenuation(), CUTOFF);
+
+		return new float[] { position.x - range, position.y - range, position.z - range, position.x + range,
+				position.y + range, position.z + range };
+	}
+
+	/**
+	 * Returns the index of a light in the snapshot's light order.
+	 */
+	private static int findLight(RenderSnapshot snapshot, PointLight light)
+	{
+		for (int i = 0; i < snapshot.getScene().getLightCount(); ++i)
+		{
+			if (snapshot.getScene().getNode(snapshot.getScene().getLightIndex(i)) == light)
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+}
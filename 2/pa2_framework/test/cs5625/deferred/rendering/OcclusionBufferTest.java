@@ -0,0 +1,381 @@
+package cs5625.deferred.rendering;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import javax.vecmath.AxisAngle4f;
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Quat4f;
+import javax.vecmath.Vector3f;
+
+/**
+ * OcclusionBufferTest.java
+ *
+ * Checks `OcclusionBuffer` without an OpenGL context:
+ *
+ * - Simple cases with known answers: boxes behind, in front of, and straddling a wall, and boxes
+ *   below and above a floor which reaches behind the camera (so it is clipped to the near plane).
+ * - The same wall seen through a moved and rotated camera, with the occluder given its own transform.
+ * - Conservativeness against ray casting: random occluder triangles are rasterized, and for every box
+ *   reported hidden, the ray through each pixel center must hit an occluder before reaching the box.
+ *   Coverage is sampled at pixel centers, so this is exactly the guarantee the buffer makes.
+ * - Rasterizing across threads gives the same depth values as rasterizing serially.
+ *
+ * Run it as a Java application; it exits with status 1 on a failure.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class OcclusionBufferTest
+{
+	private static final int WIDTH = 256;
+	private static final int HEIGHT = 128;
+	private static final float TAN_X = 1.0f;
+	private static final float TAN_Y = 0.5f;
+	private static final float NEAR = 0.1f;
+
+	private static final float IDENTITY[] = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+	private static final int QUAD[] = {0, 1, 2, 3};
+
+	private static int sFailures = 0;
+
+	public static void main(String args[])
+	{
+		Random rand = new Random(5625);
+
+		checkSimpleCases();
+		checkTransformedView();
+		checkAgainstRays(rand);
+		checkParallel(rand);
+
+		if (sFailures > 0)
+		{
+			System.out.println("FAILED: " + sFailures + " checks failed.");
+			System.exit(1);
+		}
+
+		System.out.println("PASSED: all checks passed.");
+	}
+
+	/**
+	 * A wall facing the camera, and a floor running from behind the camera into the distance.
+	 */
+	private static void checkSimpleCases()
+	{
+		Matrix4f view = new Matrix4f();
+		view.setIdentity();
+		OcclusionBuffer buffer = new OcclusionBuffer(WIDTH, HEIGHT);
+
+		float wall[] = {-100, -100, -5, 100, -100, -5, 100, 100, -5, -100, 100, -5};
+		buffer.begin(view, TAN_X, TAN_Y, NEAR);
+		buffer.addOccluder(IDENTITY, 0, FloatBuffer.wrap(wall), IntBuffer.wrap(QUAD), 4);
+		buffer.rasterize();
+
+		check("box behind wall is hidden", !buffer.isVisible(new float[] {-1, -1, -8, 1, 1, -6}, 0));
+		check("box in front of wall is visible", buffer.isVisible(new float[] {-1, -1, -4, 1, 1, -3}, 0));
+		check("box straddling wall is visible", buffer.isVisible(new float[] {-1, -1, -6, 1, 1, -4}, 0));
+		check("box off screen is hidden", !buffer.isVisible(new float[] {100, 100, -4, 101, 101, -3}, 0));
+		check("empty box is hidden", !buffer.isVisible(new float[] {1, 1, -4, -1, -1, -3}, 0));
+		check("box crossing near plane is visible", buffer.isVisible(new float[] {-1, -1, -8, 1, 1, 1}, 0));
+
+		float floor[] = {-50, -1, 10, 50, -1, 10, 50, -1, -50, -50, -1, -50};
+		buffer.begin(view, TAN_X, TAN_Y, NEAR);
+		buffer.addOccluder(IDENTITY, 0, FloatBuffer.wrap(floor), IntBuffer.wrap(QUAD), 4);
+		buffer.rasterize();
+
+		check("box below floor is hidden", !buffer.isVisible(new float[] {-1, -3, -8, 1, -2, -6}, 0));
+		check("box above floor is visible", buffer.isVisible(new float[] {-1, 0, -8, 1, 1, -6}, 0));
+	}
+
+	/**
+	 * The wall case again, with the camera and the wall both moved and rotated the same way, so the
+	 * picture on screen is unchanged.
+	 */
+	private static void checkTransformedView()
+	{
+		Quat4f orientation = new Quat4f();
+		orientation.set(new AxisAngle4f(0.3f, 1.0f, 0.2f, 0.7f));
+		Matrix4f cameraToWorld = new Matrix4f(orientation, new Vector3f(10.0f, -3.0f, 4.0f), 1.0f);
+		Matrix4f worldToEye = new Matrix4f();
+		worldToEye.invert(cameraToWorld);
+
+		/* The wall is given in camera space, and placed with cameraToWorld as its object matrix. */
+		float wallToWorld[] = new float[16];
+
+		for (int column = 0; column < 4; ++column)
+		{
+			for (int row = 0; row < 4; ++row)
+			{
+				wallToWorld[4 * column + row] = cameraToWorld.getElement(row, column);
+			}
+		}
+
+		OcclusionBuffer buffer = new OcclusionBuffer(WIDTH, HEIGHT);
+		float wall[] = {-100, -100, -5, 100, -100, -5, 100, 100, -5, -100, 100, -5};
+		buffer.begin(worldToEye, TAN_X, TAN_Y, NEAR);
+		buffer.addOccluder(wallToWorld, 0, FloatBuffer.wrap(wall), IntBuffer.wrap(QUAD), 4);
+		buffer.rasterize();
+
+		/* Small boxes around points on the view axis, in world space. */
+		check("transformed: box behind wall is hidden", !buffer.isVisible(boxAround(cameraToWorld, 0, 0, -8, 0.5f), 0));
+		check("transformed: box in front of wall is visible", buffer.isVisible(boxAround(cameraToWorld, 0, 0, -3, 0.5f), 0));
+	}
+
+	/**
+	 * Random occluder triangles and boxes, checked against rays through every pixel center.
+	 */
+	private static void checkAgainstRays(Random rand)
+	{
+		Matrix4f view = new Matrix4f();
+		view.setIdentity();
+		OcclusionBuffer buffer = new OcclusionBuffer(WIDTH, HEIGHT);
+
+		double occluderDistances[] = new double[WIDTH * HEIGHT];
+		float direction[] = new float[3];
+		int tested = 0, culled = 0, falseCulls = 0;
+
+		for (int trial = 0; trial < 100; ++trial)
+		{
+			/* Some trials have triangles spanning a wide depth range, some crossing the near plane. */
+			int triangleCount = 1 + rand.nextInt(30);
+			float vertices[] = new float[9 * triangleCount];
+			int triangles[] = new int[3 * triangleCount];
+
+			for (int t = 0; t < triangleCount; ++t)
+			{
+				float cx = (rand.nextFloat() - 0.5f) * 10.0f;
+				float cy = (rand.nextFloat() - 0.5f) * 5.0f;
+				float cz = -1.0f - rand.nextFloat() * 10.0f;
+				float depthRange = (trial % 3 == 0 ? 30.0f : 4.0f);
+
+				for (int k = 0; k < 3; ++k)
+				{
+					vertices[9 * t + 3 * k + 0] = cx + (rand.nextFloat() - 0.5f) * 8.0f;
+					vertices[9 * t + 3 * k + 1] = cy + (rand.nextFloat() - 0.5f) * 8.0f;
+					vertices[9 * t + 3 * k + 2] = cz + (rand.nextFloat() - 0.5f) * depthRange;
+					triangles[3 * t + k] = 3 * t + k;
+				}
+			}
+
+			buffer.begin(view, TAN_X, TAN_Y, NEAR);
+			buffer.addOccluder(IDENTITY, 0, FloatBuffer.wrap(vertices), IntBuffer.wrap(triangles), 3);
+			buffer.rasterize();
+
+			/* Distance to the nearest occluder in front of the near plane, through each pixel center. */
+			for (int py = 0; py < HEIGHT; ++py)
+			{
+				for (int px = 0; px < WIDTH; ++px)
+				{
+					pixelDirection(px, py, direction);
+					double nearest = Double.POSITIVE_INFINITY;
+
+					for (int t = 0; t < triangleCount; ++t)
+					{
+						nearest = Math.min(nearest, intersectTriangle(vertices, 9 * t, direction));
+					}
+
+					occluderDistances[py * WIDTH + px] = nearest;
+				}
+			}
+
+			for (int b = 0; b < 100; ++b)
+			{
+				float box[] = new float[6];
+
+				for (int c = 0; c < 3; ++c)
+				{
+					float low = (c == 2 ? -1.0f - rand.nextFloat() * 20.0f : (rand.nextFloat() - 0.5f) * (c == 0 ? 20.0f : 10.0f));
+					box[c] = low;
+					box[3 + c] = low + rand.nextFloat() * (c == 2 ? 3.0f : 2.0f);
+				}
+
+				++tested;
+
+				if (buffer.isVisible(box, 0))
+				{
+					continue;
+				}
+
+				++culled;
+
+				/* Hidden means every pixel center ray reaching the box hits an occluder first. */
+				boolean seen = false;
+
+				for (int py = 0; py < HEIGHT && !seen; ++py)
+				{
+					for (int px = 0; px < WIDTH && !seen; ++px)
+					{
+						pixelDirection(px, py, direction);
+						double boxDistance = intersectBox(box, direction);
+
+						seen = (boxDistance != Double.POSITIVE_INFINITY && !(occluderDistances[py * WIDTH + px] < boxDistance));
+					}
+				}
+
+				if (seen)
+				{
+					++falseCulls;
+				}
+			}
+		}
+
+		System.out.println("Ray comparison: " + culled + " of " + tested + " boxes hidden, " + falseCulls + " of them wrongly.");
+		check("no visible box is reported hidden", falseCulls == 0);
+		check("some boxes are reported hidden", culled > 0);
+	}
+
+	/**
+	 * Rasterizes a large occluder set serially and in parallel and compares every pixel.
+	 */
+	private static void checkParallel(Random rand)
+	{
+		Matrix4f view = new Matrix4f();
+		view.setIdentity();
+
+		int triangleCount = 20000;
+		float vertices[] = new float[9 * triangleCount];
+		int triangles[] = new int[3 * triangleCount];
+
+		for (int t = 0; t < triangleCount; ++t)
+		{
+			float cx = (rand.nextFloat() - 0.5f) * 40.0f;
+			float cy = (rand.nextFloat() - 0.5f) * 20.0f;
+			float cz = -5.0f - rand.nextFloat() * 30.0f;
+
+			for (int k = 0; k < 3; ++k)
+			{
+				vertices[9 * t + 3 * k + 0] = cx + (rand.nextFloat() - 0.5f) * 2.0f;
+				vertices[9 * t + 3 * k + 1] = cy + (rand.nextFloat() - 0.5f) * 2.0f;
+				vertices[9 * t + 3 * k + 2] = cz + (rand.nextFloat() - 0.5f) * 2.0f;
+				triangles[3 * t + k] = 3 * t + k;
+			}
+		}
+
+		OcclusionBuffer serial = new OcclusionBuffer(WIDTH, HEIGHT);
+		OcclusionBuffer parallel = new OcclusionBuffer(WIDTH, HEIGHT);
+		serial.setParallel(false);
+		parallel.setParallel(true);
+
+		for (OcclusionBuffer buffer : new OcclusionBuffer[] {serial, parallel})
+		{
+			buffer.begin(view, TAN_X, TAN_Y, NEAR);
+			buffer.addOccluder(IDENTITY, 0, FloatBuffer.wrap(vertices), IntBuffer.wrap(triangles), 3);
+			buffer.rasterize();
+		}
+
+		int differences = 0;
+
+		for (int y = 0; y < HEIGHT; ++y)
+		{
+			for (int x = 0; x < WIDTH; ++x)
+			{
+				if (serial.getInverseDepth(x, y) != parallel.getInverseDepth(x, y))
+				{
+					++differences;
+				}
+			}
+		}
+
+		check("parallel rasterization matches serial", differences == 0);
+	}
+
+	/**
+	 * Sets `direction` to the eye-space direction through the center of a pixel, with z = -1 so
+	 * that distances along it are eye-space depths. Pixel (0, 0) is the bottom left.
+	 */
+	private static void pixelDirection(int px, int py, float direction[])
+	{
+		direction[0] = ((px + 0.5f) / WIDTH * 2.0f - 1.0f) * TAN_X;
+		direction[1] = ((py + 0.5f) / HEIGHT * 2.0f - 1.0f) * TAN_Y;
+		direction[2] = -1.0f;
+	}
+
+	/**
+	 * Returns the depth at which a ray from the eye hits the triangle at `vertices[offset]`, or infinity
+	 * if it misses or the hit is in front of the near plane (which clips occluders). Möller–Trumbore.
+	 */
+	private static double intersectTriangle(float vertices[], int offset, float direction[])
+	{
+		int o = offset;
+		double e1x = vertices[o + 3] - vertices[o], e1y = vertices[o + 4] - vertices[o + 1], e1z = vertices[o + 5] - vertices[o + 2];
+		double e2x = vertices[o + 6] - vertices[o], e2y = vertices[o + 7] - vertices[o + 1], e2z = vertices[o + 8] - vertices[o + 2];
+		double dx = direction[0], dy = direction[1], dz = direction[2];
+
+		double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+		double determinant = e1x * px + e1y * py + e1z * pz;
+
+		if (determinant == 0.0)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double sx = -vertices[o], sy = -vertices[o + 1], sz = -vertices[o + 2];
+		double u = (sx * px + sy * py + sz * pz) / determinant;
+		double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+		double v = (dx * qx + dy * qy + dz * qz) / determinant;
+
+		if (u < 0.0 || v < 0.0 || u + v > 1.0)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double depth = (e2x * qx + e2y * qy + e2z * qz) / determinant;
+		return (depth >= NEAR ? depth : Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the depth at which a ray from the eye enters a box (0 if it starts inside), or infinity if it misses.
+	 */
+	private static double intersectBox(float box[], float direction[])
+	{
+		double near = 0.0, far = Double.POSITIVE_INFINITY;
+
+		for (int c = 0; c < 3; ++c)
+		{
+			double t0 = box[c] / direction[c];
+			double t1 = box[3 + c] / direction[c];
+			near = Math.max(near, Math.min(t0, t1));
+			far = Math.min(far, Math.max(t0, t1));
+		}
+
+		return (near <= far ? near : Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns the world-space bounding box of a cube of half-size `extent` around an eye-space point.
+	 */
+	private static float[] boxAround(Matrix4f eyeToWorld, float x, float y, float z, float extent)
+	{
+		float box[] = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		Point3f corner = new Point3f();
+
+		for (int i = 0; i < 8; ++i)
+		{
+			corner.set(x + ((i & 1) == 0 ? -extent : extent), y + ((i & 2) == 0 ? -extent : extent), z + ((i & 4) == 0 ? -extent : extent));
+			eyeToWorld.transform(corner);
+
+			box[0] = Math.min(box[0], corner.x);
+			box[1] = Math.min(box[1], corner.y);
+			box[2] = Math.min(box[2], corner.z);
+			box[3] = Math.max(box[3], corner.x);
+			box[4] = Math.max(box[4], corner.y);
+			box[5] = Math.max(box[5], corner.z);
+		}
+
+		return box;
+	}
+
+	private static void check(String description, boolean passed)
+	{
+		if (!passed)
+		{
+			System.out.println("Failed: " + description);
+			++sFailures;
+		}
+	}
+}
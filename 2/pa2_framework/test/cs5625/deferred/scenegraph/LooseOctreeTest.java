@@ -0,0 +1,196 @@
+package cs5625.deferred.scenegraph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * LooseOctreeTest.java
+ *
+ * Checks `LooseOctree.query()` against a brute-force test of every object's box, on 50,000 random
+ * boxes of widely varying size which are then moved, grown, shrunk and removed over several rounds.
+ * After every round each object must also sit as deep as it would if it were inserted into a fresh
+ * tree, so that moving an object up and back down the tree leaves it where it belongs.
+ *
+ * Needs no OpenGL context. Run it as a Java application; it exits with status 1 on a mismatch.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class LooseOctreeTest
+{
+	private static final int OBJECT_COUNT = 50000;
+	private static final float SCENE_SIZE = 1000.0f;
+	private static final int QUERIES_PER_CHECK = 200;
+	private static final int MOVE_STEPS = 8;
+
+	public static void main(String args[])
+	{
+		Random rand = new Random(5625);
+		float bounds[] = new float[6 * OBJECT_COUNT];
+		boolean present[] = new boolean[OBJECT_COUNT];
+		LooseOctree octree = new LooseOctree(0.5f * SCENE_SIZE, 0.5f * SCENE_SIZE, 0.5f * SCENE_SIZE, 0.5f * SCENE_SIZE);
+
+		for (int i = 0; i < OBJECT_COUNT; ++i)
+		{
+			randomBox(rand, bounds, i);
+			octree.update(i, bounds, 6 * i);
+			present[i] = true;
+		}
+
+		int mismatches = checkQueries(octree, bounds, present, rand);
+		mismatches += checkDepths(octree, bounds, present);
+
+		for (int step = 0; step < MOVE_STEPS; ++step)
+		{
+			long start = System.nanoTime();
+
+			for (int i = 0; i < OBJECT_COUNT; ++i)
+			{
+				float choice = rand.nextFloat();
+
+				if (choice < 0.02f)
+				{
+					/* Remove, or put back a removed object somewhere else. */
+					if (present[i])
+					{
+						octree.remove(i);
+					}
+					else
+					{
+						randomBox(rand, bounds, i);
+						octree.update(i, bounds, 6 * i);
+					}
+
+					present[i] = !present[i];
+				}
+				else if (present[i])
+				{
+					/* Mostly small moves, with some objects resized or moved across the scene. */
+					float shift = (choice < 0.1f ? SCENE_SIZE : 10.0f);
+					float scale = (choice < 0.2f ? 0.25f + 2.0f * rand.nextFloat() : 1.0f);
+
+					for (int c = 0; c < 3; ++c)
+					{
+						float center = 0.5f * (bounds[6 * i + c] + bounds[6 * i + 3 + c]) + (rand.nextFloat() - 0.5f) * shift;
+						float half = 0.5f * (bounds[6 * i + 3 + c] - bounds[6 * i + c]) * scale;
+						bounds[6 * i + c] = center - half;
+						bounds[6 * i + 3 + c] = center + half;
+					}
+
+					octree.update(i, bounds, 6 * i);
+				}
+			}
+
+			System.out.printf("Step %d: updated %d objects in %.1f ms, %d cells.\n", step, octree.getObjectCount(),
+					(System.nanoTime() - start) / 1.0e6, octree.getCellCount());
+
+			mismatches += checkQueries(octree, bounds, present, rand);
+			mismatches += checkDepths(octree, bounds, present);
+		}
+
+		if (mismatches > 0)
+		{
+			System.out.println("FAILED: " + mismatches + " mismatches against brute force.");
+			System.exit(1);
+		}
+
+		System.out.println("PASSED: all queries and object depths match brute force.");
+	}
+
+	/**
+	 * Stores a random box in slot `i` of `bounds`, with sizes spread over several octree levels.
+	 */
+	private static void randomBox(Random rand, float bounds[], int i)
+	{
+		float size = (float)Math.pow(2.0, -2.0 + 9.0 * rand.nextFloat());
+
+		for (int c = 0; c < 3; ++c)
+		{
+			float min = rand.nextFloat() * SCENE_SIZE;
+			bounds[6 * i + c] = min;
+			bounds[6 * i + 3 + c] = min + size * (0.5f + rand.nextFloat());
+		}
+	}
+
+	/**
+	 * Runs random box and sphere queries and compares each result against testing every object.
+	 * Returns the number of queries whose results differ.
+	 */
+	private static int checkQueries(LooseOctree octree, float bounds[], boolean present[], Random rand)
+	{
+		int found[] = new int[OBJECT_COUNT];
+		int expected[] = new int[OBJECT_COUNT];
+		int mismatches = 0;
+
+		for (int q = 0; q < 2 * QUERIES_PER_CHECK; ++q)
+		{
+			float x = rand.nextFloat() * SCENE_SIZE;
+			float y = rand.nextFloat() * SCENE_SIZE;
+			float z = rand.nextFloat() * SCENE_SIZE;
+			float size = rand.nextFloat() * 100.0f;
+
+			SceneBVH.BoundsTest test;
+
+			if (q < QUERIES_PER_CHECK)
+			{
+				test = new SceneBVH.BoxOverlap(x - size, y - size, z - size, x + size, y + size, z + size);
+			}
+			else
+			{
+				test = new SceneBVH.SphereOverlap(x, y, z, size);
+			}
+
+			int foundCount = octree.query(test, found);
+			int expectedCount = 0;
+
+			for (int i = 0; i < OBJECT_COUNT; ++i)
+			{
+				if (present[i] && test.intersectsBox(bounds, 6 * i))
+				{
+					expected[expectedCount++] = i;
+				}
+			}
+
+			Arrays.sort(found, 0, foundCount);
+
+			if (foundCount != expectedCount ||
+				!Arrays.equals(Arrays.copyOf(found, foundCount), Arrays.copyOf(expected, expectedCount)))
+			{
+				++mismatches;
+			}
+		}
+
+		return mismatches;
+	}
+
+	/**
+	 * Compares the depth of every object against where a fresh tree puts it. Returns the number of
+	 * objects at the wrong depth or missing.
+	 */
+	private static int checkDepths(LooseOctree octree, float bounds[], boolean present[])
+	{
+		LooseOctree fresh = new LooseOctree(0.5f * SCENE_SIZE, 0.5f * SCENE_SIZE, 0.5f * SCENE_SIZE, 0.5f * SCENE_SIZE);
+		int mismatches = 0;
+
+		for (int i = 0; i < OBJECT_COUNT; ++i)
+		{
+			if (octree.contains(i) != present[i])
+			{
+				++mismatches;
+			}
+			else if (present[i])
+			{
+				fresh.update(i, bounds, 6 * i);
+
+				if (octree.getDepth(i) != fresh.getDepth(i))
+				{
+					++mismatches;
+				}
+			}
+		}
+
+		return mismatches;
+	}
+}
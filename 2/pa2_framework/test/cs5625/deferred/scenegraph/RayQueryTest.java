@@ -0,0 +1,518 @@
+package cs5625.deferred.scenegraph;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.Random;
+
+import javax.vecmath.AxisAngle4f;
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Quat4f;
+
+import cs5625.deferred.misc.ScenegraphException;
+
+/**
+ * RayQueryTest.java
+ *
+ * Checks ray casting against brute-force Möller–Trumbore intersection of every triangle, at three
+ * levels:
+ *
+ * - `BoundingVolumeHierarchy`: a traversal of a tree built over triangle boxes, using its slab test.
+ * - `MeshBVH.intersect()`: closest hits against single triangle and quad meshes, in object space.
+ * - `RayQuery.cast()`: closest hits in a scene of transformed, nested, and partly hidden objects,
+ *   both split across threads and not.
+ *
+ * Brute force runs in double precision, so hits are compared with a small relative tolerance on the
+ * distance; a different triangle at the same distance (a shared edge) counts as a match.
+ *
+ * Needs no OpenGL context. Run it as a Java application; it exits with status 1 on a mismatch.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class RayQueryTest
+{
+	private static final int RAY_COUNT = 2000;
+	private static final float MAX_DISTANCE = 500.0f;
+	private static final double TOLERANCE = 1.0e-4;
+
+	public static void main(String args[]) throws ScenegraphException
+	{
+		Random rand = new Random(5625);
+		int failures = 0;
+
+		failures += checkHierarchy(rand);
+		failures += checkMeshBVH(rand, false);
+		failures += checkMeshBVH(rand, true);
+		failures += checkRayQuery(rand);
+
+		if (failures > 0)
+		{
+			System.out.println("FAILED: " + failures + " rays differ from brute force.");
+			System.exit(1);
+		}
+
+		System.out.println("PASSED: all rays match brute force.");
+	}
+
+	/**
+	 * Builds a `BoundingVolumeHierarchy` over the triangles of a random mesh, finds the closest hit of
+	 * random rays by traversing it (testing triangles in leaves the ray's slab test lets through), and
+	 * compares with testing every triangle.
+	 */
+	private static int checkHierarchy(Random rand)
+	{
+		Mesh mesh = createSoup(rand, false, 5000, 10.0f);
+		float triangles[] = getTriangles(mesh);
+		int triangleCount = triangles.length / 9;
+
+		float boxes[] = new float[6 * triangleCount];
+		int indices[] = new int[triangleCount];
+
+		for (int t = 0; t < triangleCount; ++t)
+		{
+			for (int c = 0; c < 3; ++c)
+			{
+				boxes[6 * t + c] = Math.min(triangles[9 * t + c], Math.min(triangles[9 * t + 3 + c], triangles[9 * t + 6 + c]));
+				boxes[6 * t + 3 + c] = Math.max(triangles[9 * t + c], Math.max(triangles[9 * t + 3 + c], triangles[9 * t + 6 + c]));
+			}
+
+			indices[t] = t;
+		}
+
+		BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy();
+		tree.build(boxes, indices, triangleCount);
+
+		float nodeBounds[] = tree.getNodeBounds();
+		int nodeFirst[] = tree.getNodeFirst();
+		int nodeObjectCounts[] = tree.getNodeObjectCounts();
+		int objects[] = tree.getObjects();
+		int stack[] = new int[tree.getDepth() + 1];
+		float ray[] = new float[6];
+		int failures = 0;
+
+		for (int r = 0; r < RAY_COUNT; ++r)
+		{
+			randomRay(rand, 10.0f, ray);
+			float invDx = 1.0f / ray[3], invDy = 1.0f / ray[4], invDz = 1.0f / ray[5];
+
+			double closest = Double.POSITIVE_INFINITY;
+			int stackSize = 0;
+			stack[stackSize++] = 0;
+
+			while (stackSize > 0)
+			{
+				int node = stack[--stackSize];
+
+				if (BoundingVolumeHierarchy.intersectBox(nodeBounds, 6 * node, ray[0], ray[1], ray[2],
+						invDx, invDy, invDz, MAX_DISTANCE) == Float.POSITIVE_INFINITY)
+				{
+					continue;
+				}
+
+				if (nodeObjectCounts[node] > 0)
+				{
+					for (int i = nodeFirst[node]; i < nodeFirst[node] + nodeObjectCounts[node]; ++i)
+					{
+						closest = Math.min(closest, intersectTriangle(triangles, objects[i], ray, MAX_DISTANCE));
+					}
+				}
+				else
+				{
+					stack[stackSize++] = nodeFirst[node] + 1;
+					stack[stackSize++] = nodeFirst[node];
+				}
+			}
+
+			double expected = Double.POSITIVE_INFINITY;
+
+			for (int t = 0; t < triangleCount; ++t)
+			{
+				expected = Math.min(expected, intersectTriangle(triangles, t, ray, MAX_DISTANCE));
+			}
+
+			if (!sameDistance(closest, expected))
+			{
+				++failures;
+			}
+		}
+
+		System.out.println("BoundingVolumeHierarchy: " + failures + " of " + RAY_COUNT + " rays differ.");
+		return failures;
+	}
+
+	/**
+	 * Casts random rays at a random triangle or quad mesh with `MeshBVH.intersect()`, and compares
+	 * with testing every triangle.
+	 */
+	private static int checkMeshBVH(Random rand, boolean quads)
+	{
+		Mesh mesh = createSoup(rand, quads, 5000, 10.0f);
+		float triangles[] = getTriangles(mesh);
+		int triangleCount = triangles.length / 9;
+		MeshBVH bvh = mesh.getTriangleBVH();
+
+		int stack[] = new int[bvh.getStackSize()];
+		float distanceStack[] = new float[bvh.getStackSize()];
+		float result[] = new float[3];
+		float ray[] = new float[6];
+		int failures = 0;
+
+		for (int r = 0; r < RAY_COUNT; ++r)
+		{
+			randomRay(rand, 10.0f, ray);
+			int hit = bvh.intersect(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], MAX_DISTANCE, stack, distanceStack, result);
+
+			double expected = Double.POSITIVE_INFINITY;
+
+			for (int t = 0; t < triangleCount; ++t)
+			{
+				expected = Math.min(expected, intersectTriangle(triangles, t, ray, MAX_DISTANCE));
+			}
+
+			if (!sameDistance(hit < 0 ? Double.POSITIVE_INFINITY : result[0], expected) ||
+				(hit >= 0 && !consistentHit(triangles, hit, result, ray)))
+			{
+				++failures;
+			}
+		}
+
+		System.out.println("MeshBVH (" + (quads ? "quads" : "triangles") + "): " + failures + " of " + RAY_COUNT + " rays differ.");
+		return failures;
+	}
+
+	/**
+	 * Casts random rays into a scene of transformed objects with `RayQuery`, in parallel and serially, and
+	 * compares with testing every world-space triangle of every visible object.
+	 */
+	private static int checkRayQuery(Random rand) throws ScenegraphException
+	{
+		SceneObject root = new SceneObject();
+		Geometry objects[] = new Geometry[100];
+
+		for (int i = 0; i < objects.length; ++i)
+		{
+			objects[i] = new Geometry();
+			objects[i].addMesh(createSoup(rand, false, 300, 2.0f));
+
+			if (rand.nextInt(3) == 0)
+			{
+				objects[i].addMesh(createSoup(rand, true, 100, 2.0f));
+			}
+
+			objects[i].setPosition(new Point3f(rand.nextFloat() * 100.0f, rand.nextFloat() * 100.0f, rand.nextFloat() * 100.0f));
+			objects[i].setOrientation(randomOrientation(rand));
+			objects[i].setScale(0.5f + rand.nextFloat());
+			objects[i].setVisible(rand.nextInt(10) != 0);
+
+			/* Nest some objects under earlier ones, so world matrices compose. */
+			if (i > 0 && rand.nextInt(4) == 0)
+			{
+				objects[rand.nextInt(i)].addChild(objects[i]);
+				objects[i].getPosition().scale(0.1f);
+			}
+			else
+			{
+				root.addChild(objects[i]);
+			}
+		}
+
+		FlattenedScene scene = new FlattenedScene(root);
+		scene.update();
+		SceneBVH sceneBVH = new SceneBVH(scene);
+		sceneBVH.update();
+		RayQuery query = new RayQuery(sceneBVH);
+		query.prepare();
+
+		/* Aim most rays at objects, so that most of them hit something. */
+		float origins[] = new float[3 * RAY_COUNT];
+		float directions[] = new float[3 * RAY_COUNT];
+
+		for (int r = 0; r < RAY_COUNT; ++r)
+		{
+			Point3f target = objects[rand.nextInt(objects.length)].transformPointToWorldSpace(new Point3f());
+			float length = 0.2f + rand.nextFloat();
+
+			origins[3 * r + 0] = rand.nextFloat() * 120.0f - 10.0f;
+			origins[3 * r + 1] = rand.nextFloat() * 120.0f - 10.0f;
+			origins[3 * r + 2] = rand.nextFloat() * 120.0f - 10.0f;
+			directions[3 * r + 0] = (target.x + (float)rand.nextGaussian() - origins[3 * r + 0]) * length;
+			directions[3 * r + 1] = (target.y + (float)rand.nextGaussian() - origins[3 * r + 1]) * length;
+			directions[3 * r + 2] = (target.z + (float)rand.nextGaussian() - origins[3 * r + 2]) * length;
+		}
+
+		RayQuery.Hits parallelHits = new RayQuery.Hits();
+		RayQuery.Hits serialHits = new RayQuery.Hits();
+		query.setParallel(true);
+		query.cast(origins, directions, RAY_COUNT, MAX_DISTANCE, parallelHits);
+		query.setParallel(false);
+		query.cast(origins, directions, RAY_COUNT, MAX_DISTANCE, serialHits);
+
+		/* World-space triangles of every visible object, per mesh. */
+		int geometryCount = scene.getGeometryCount();
+		float worldTriangles[][][] = new float[geometryCount][][];
+
+		for (int i = 0; i < geometryCount; ++i)
+		{
+			int node = scene.getGeometryIndex(i);
+			List<Mesh> meshes = ((Geometry)scene.getNode(node)).getMeshes();
+			worldTriangles[i] = new float[meshes.size()][];
+
+			for (int m = 0; m < meshes.size(); ++m)
+			{
+				worldTriangles[i][m] = transformTriangles(getTriangles(meshes.get(m)), scene.getNode(node).getWorldMatrix());
+			}
+		}
+
+		float ray[] = new float[6];
+		int failures = 0;
+		int hitCount = 0;
+
+		for (int r = 0; r < RAY_COUNT; ++r)
+		{
+			System.arraycopy(origins, 3 * r, ray, 0, 3);
+			System.arraycopy(directions, 3 * r, ray, 3, 3);
+
+			double expected = Double.POSITIVE_INFINITY;
+
+			for (int i = 0; i < geometryCount; ++i)
+			{
+				if (!scene.isVisible(scene.getGeometryIndex(i)))
+				{
+					continue;
+				}
+
+				for (float triangles[] : worldTriangles[i])
+				{
+					for (int t = 0; t < triangles.length / 9; ++t)
+					{
+						expected = Math.min(expected, intersectTriangle(triangles, t, ray, MAX_DISTANCE));
+					}
+				}
+			}
+
+			if (expected != Double.POSITIVE_INFINITY)
+			{
+				++hitCount;
+			}
+
+			boolean sameAsSerial = parallelHits.getObject(r) == serialHits.getObject(r) &&
+					parallelHits.getTriangle(r) == serialHits.getTriangle(r) &&
+					parallelHits.getDistance(r) == serialHits.getDistance(r);
+
+			if (!sameDistance(parallelHits.getDistance(r), expected) || !sameAsSerial)
+			{
+				++failures;
+			}
+		}
+
+		System.out.println("RayQuery: " + failures + " of " + RAY_COUNT + " rays differ (" + hitCount + " hit something).");
+		return failures;
+	}
+
+	/**
+	 * Returns the distance along `ray` (origin, direction) to triangle `t` of `triangles`, or infinity
+	 * if it misses or the hit is beyond `maxDistance`. Double-sided Möller–Trumbore, in double precision.
+	 */
+	private static double intersectTriangle(float triangles[], int t, float ray[], float maxDistance)
+	{
+		int o = 9 * t;
+		double e1x = triangles[o + 3] - triangles[o], e1y = triangles[o + 4] - triangles[o + 1], e1z = triangles[o + 5] - triangles[o + 2];
+		double e2x = triangles[o + 6] - triangles[o], e2y = triangles[o + 7] - triangles[o + 1], e2z = triangles[o + 8] - triangles[o + 2];
+		double dx = ray[3], dy = ray[4], dz = ray[5];
+
+		double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+		double determinant = e1x * px + e1y * py + e1z * pz;
+
+		if (determinant == 0.0)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double sx = ray[0] - triangles[o], sy = ray[1] - triangles[o + 1], sz = ray[2] - triangles[o + 2];
+		double u = (sx * px + sy * py + sz * pz) / determinant;
+
+		if (u < 0.0 || u > 1.0)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+		double v = (dx * qx + dy * qy + dz * qz) / determinant;
+
+		if (v < 0.0 || u + v > 1.0)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double distance = (e2x * qx + e2y * qy + e2z * qz) / determinant;
+		return (distance >= 0.0 && distance <= maxDistance ? distance : Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns true if two hit distances agree (both misses, or both hits within tolerance).
+	 */
+	private static boolean sameDistance(double a, double b)
+	{
+		if (a == Double.POSITIVE_INFINITY || b == Double.POSITIVE_INFINITY)
+		{
+			return a == b;
+		}
+
+		return Math.abs(a - b) <= TOLERANCE * Math.max(1.0, Math.abs(b));
+	}
+
+	/**
+	 * Returns true if a `MeshBVH` hit is on the triangle it names: its barycentrics are inside the
+	 * triangle and give the point at its distance along the ray. The triangle may differ from the one
+	 * brute force found first, if both are at the same distance.
+	 */
+	private static boolean consistentHit(float triangles[], int t, float result[], float ray[])
+	{
+		float u = result[1], v = result[2];
+
+		if (u < -1.0e-4f || v < -1.0e-4f || u + v > 1.0f + 1.0e-4f)
+		{
+			return false;
+		}
+
+		int o = 9 * t;
+
+		for (int c = 0; c < 3; ++c)
+		{
+			double onTriangle = (1.0 - u - v) * triangles[o + c] + u * triangles[o + 3 + c] + v * triangles[o + 6 + c];
+			double onRay = ray[c] + result[0] * ray[3 + c];
+
+			if (Math.abs(onTriangle - onRay) > 1.0e-3)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the corners of every triangle of a mesh, 9 floats each, numbered as `MeshBVH` numbers
+	 * them (polygons are split into fans).
+	 */
+	private static float[] getTriangles(Mesh mesh)
+	{
+		FloatBuffer vertices = mesh.getVertexData();
+		IntBuffer polygons = mesh.getPolygonData();
+		int verticesPerPolygon = mesh.getVerticesPerPolygon();
+		int trianglesPerPolygon = verticesPerPolygon - 2;
+		float triangles[] = new float[9 * trianglesPerPolygon * mesh.getPolygonCount()];
+
+		for (int p = 0; p < mesh.getPolygonCount(); ++p)
+		{
+			for (int k = 0; k < trianglesPerPolygon; ++k)
+			{
+				int t = p * trianglesPerPolygon + k;
+				int corners[] = {polygons.get(p * verticesPerPolygon), polygons.get(p * verticesPerPolygon + k + 1),
+						polygons.get(p * verticesPerPolygon + k + 2)};
+
+				for (int j = 0; j < 3; ++j)
+				{
+					for (int c = 0; c < 3; ++c)
+					{
+						triangles[9 * t + 3 * j + c] = vertices.get(3 * corners[j] + c);
+					}
+				}
+			}
+		}
+
+		return triangles;
+	}
+
+	/**
+	 * Returns a copy of triangle corners transformed by a matrix.
+	 */
+	private static float[] transformTriangles(float triangles[], Matrix4f matrix)
+	{
+		float result[] = new float[triangles.length];
+		Point3f point = new Point3f();
+
+		for (int i = 0; i < triangles.length; i += 3)
+		{
+			point.set(triangles[i], triangles[i + 1], triangles[i + 2]);
+			matrix.transform(point);
+			result[i] = point.x;
+			result[i + 1] = point.y;
+			result[i + 2] = point.z;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a mesh of unconnected random triangles or (planar) quads of about a fifth of `extent`,
+	 * centered in a cube of size `extent`.
+	 */
+	private static Mesh createSoup(Random rand, boolean quads, int polygonCount, float extent)
+	{
+		int verticesPerPolygon = (quads ? 4 : 3);
+		float vertices[] = new float[3 * verticesPerPolygon * polygonCount];
+		int polygons[] = new int[verticesPerPolygon * polygonCount];
+
+		for (int p = 0; p < polygonCount; ++p)
+		{
+			int base = p * verticesPerPolygon;
+
+			for (int c = 0; c < 3; ++c)
+			{
+				float center = (rand.nextFloat() - 0.5f) * extent;
+
+				for (int k = 0; k < 3; ++k)
+				{
+					vertices[3 * (base + k) + c] = center + (rand.nextFloat() - 0.5f) * 0.2f * extent;
+				}
+
+				/* Complete a parallelogram, so the quad is planar. */
+				if (quads)
+				{
+					vertices[3 * (base + 3) + c] = vertices[3 * base + c] + vertices[3 * (base + 2) + c] - vertices[3 * (base + 1) + c];
+				}
+			}
+
+			for (int k = 0; k < verticesPerPolygon; ++k)
+			{
+				polygons[base + k] = base + k;
+			}
+		}
+
+		Mesh mesh = (quads ? new Quadmesh() : new Trimesh());
+		mesh.setVertexData(FloatBuffer.wrap(vertices));
+		mesh.setPolygonData(IntBuffer.wrap(polygons));
+		return mesh;
+	}
+
+	/**
+	 * Fills `ray` with a random origin around a cube of size `extent` and a random, unnormalized direction
+	 * towards a point inside it.
+	 */
+	private static void randomRay(Random rand, float extent, float ray[])
+	{
+		float length = 0.1f + rand.nextFloat();
+
+		for (int c = 0; c < 3; ++c)
+		{
+			ray[c] = (rand.nextFloat() - 0.5f) * 3.0f * extent;
+			ray[3 + c] = ((rand.nextFloat() - 0.5f) * extent - ray[c]) * length;
+		}
+	}
+
+	/**
+	 * Returns a uniformly distributed random rotation.
+	 */
+	private static Quat4f randomOrientation(Random rand)
+	{
+		Quat4f orientation = new Quat4f();
+		orientation.set(new AxisAngle4f((float)rand.nextGaussian(), (float)rand.nextGaussian(), (float)rand.nextGaussian(),
+				(float)(rand.nextFloat() * 2.0 * Math.PI)));
+		return orientation;
+	}
+}
@@ -0,0 +1,186 @@
+package cs5625.deferred.scenegraph;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.vecmath.AxisAngle4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Quat4f;
+
+import cs5625.deferred.misc.ScenegraphException;
+
+/**
+ * SceneBVHTest.java
+ *
+ * Checks `SceneBVH.query()` against a brute-force test of every object's bounds, on a scene of
+ * 200,000 randomly placed, rotated and scaled boxes. The hierarchy is checked right after it is
+ * built, and again after several rounds of moving every object, which exercise both refitting
+ * and the cost-triggered rebuild.
+ *
+ * Needs no OpenGL context. Run it as a Java application; it exits with status 1 on a mismatch.
+ *
+ * Written for Cornell CS 5625 (Interactive Computer Graphics).
+ * Copyright (c) 2012, Computer Science Department, Cornell University.
+ *
+ * @date 2026-10-19
+ */
+public class SceneBVHTest
+{
+	private static final int OBJECT_COUNT = 200000;
+	private static final float SCENE_SIZE = 1000.0f;
+	private static final int QUERIES_PER_CHECK = 100;
+	private static final int MOVE_STEPS = 8;
+
+	public static void main(String args[]) throws ScenegraphException
+	{
+		Random rand = new Random(5625);
+
+		/* All objects share one unit cube; only their transforms differ. */
+		Trimesh cube = createCube();
+		SceneObject root = new SceneObject();
+		Geometry objects[] = new Geometry[OBJECT_COUNT];
+
+		for (int i = 0; i < OBJECT_COUNT; ++i)
+		{
+			objects[i] = new Geometry();
+			objects[i].addMesh(cube);
+			objects[i].setPosition(new Point3f(rand.nextFloat() * SCENE_SIZE, rand.nextFloat() * SCENE_SIZE, rand.nextFloat() * SCENE_SIZE));
+			objects[i].setOrientation(randomOrientation(rand));
+			objects[i].setScale(0.5f + 1.5f * rand.nextFloat());
+			root.addChild(objects[i]);
+		}
+
+		FlattenedScene scene = new FlattenedScene(root);
+		SceneBVH bvh = new SceneBVH(scene);
+
+		long start = System.nanoTime();
+		scene.update();
+		bvh.update();
+		System.out.printf("Built hierarchy over %d objects in %.1f ms: %d nodes, depth %d.\n",
+				bvh.getObjectCount(), (System.nanoTime() - start) / 1.0e6, bvh.getNodeCount(), bvh.getDepth());
+
+		int mismatches = checkQueries(scene, bvh, rand);
+
+		for (int step = 0; step < MOVE_STEPS; ++step)
+		{
+			for (Geometry object : objects)
+			{
+				Point3f position = object.getPosition();
+				position.x += (rand.nextFloat() - 0.5f) * 20.0f;
+				position.y += (rand.nextFloat() - 0.5f) * 20.0f;
+				position.z += (rand.nextFloat() - 0.5f) * 20.0f;
+			}
+
+			int buildCount = bvh.getBuildCount();
+			start = System.nanoTime();
+			scene.update();
+			bvh.update();
+			System.out.printf("Step %d: updated in %.1f ms (%s), cost %.1f.\n", step, (System.nanoTime() - start) / 1.0e6,
+					(bvh.getBuildCount() == buildCount ? "refit" : "rebuilt"), bvh.getCost());
+
+			mismatches += checkQueries(scene, bvh, rand);
+		}
+
+		if (mismatches > 0)
+		{
+			System.out.println("FAILED: " + mismatches + " queries differ from brute force.");
+			System.exit(1);
+		}
+
+		System.out.println("PASSED: all queries match brute force.");
+	}
+
+	/**
+	 * Runs random box and sphere queries and compares each result against testing every object.
+	 * Returns the number of queries whose results differ.
+	 */
+	private static int checkQueries(FlattenedScene scene, SceneBVH bvh, Random rand)
+	{
+		float bounds[] = scene.getBounds();
+		int found[] = new int[scene.getGeometryCount()];
+		int expected[] = new int[scene.getGeometryCount()];
+		int mismatches = 0;
+
+		for (int q = 0; q < 2 * QUERIES_PER_CHECK; ++q)
+		{
+			float x = rand.nextFloat() * SCENE_SIZE;
+			float y = rand.nextFloat() * SCENE_SIZE;
+			float z = rand.nextFloat() * SCENE_SIZE;
+			float size = rand.nextFloat() * 50.0f;
+
+			SceneBVH.BoundsTest test;
+
+			if (q < QUERIES_PER_CHECK)
+			{
+				test = new SceneBVH.BoxOverlap(x - size, y - size, z - size, x + size, y + size, z + size);
+			}
+			else
+			{
+				test = new SceneBVH.SphereOverlap(x, y, z, size);
+			}
+
+			int foundCount = bvh.query(test, found);
+			int expectedCount = 0;
+
+			for (int i = 0; i < scene.getGeometryCount(); ++i)
+			{
+				int node = scene.getGeometryIndex(i);
+
+				if (bounds[6 * node] <= bounds[6 * node + 3] && test.intersectsBox(bounds, 6 * node))
+				{
+					expected[expectedCount++] = node;
+				}
+			}
+
+			Arrays.sort(found, 0, foundCount);
+			Arrays.sort(expected, 0, expectedCount);
+
+			if (foundCount != expectedCount ||
+				!Arrays.equals(Arrays.copyOf(found, foundCount), Arrays.copyOf(expected, expectedCount)))
+			{
+				++mismatches;
+			}
+		}
+
+		return mismatches;
+	}
+
+	/**
+	 * Returns a uniformly distributed random rotation.
+	 */
+	private static Quat4f randomOrientation(Random rand)
+	{
+		Quat4f orientation = new Quat4f();
+		orientation.set(new AxisAngle4f((float)rand.nextGaussian(), (float)rand.nextGaussian(), (float)rand.nextGaussian(),
+				(float)(rand.nextFloat() * 2.0 * Math.PI)));
+		return orientation;
+	}
+
+	/**
+	 * Returns a cube from (-0.5, -0.5, -0.5) to (0.5, 0.5, 0.5).
+	 */
+	private static Trimesh createCube()
+	{
+		float vertices[] = new float[3 * 8];
+
+		for (int v = 0; v < 8; ++v)
+		{
+			vertices[3 * v + 0] = ((v & 1) == 0 ? -0.5f : 0.5f);
+			vertices[3 * v + 1] = ((v & 2) == 0 ? -0.5f : 0.5f);
+			vertices[3 * v + 2] = ((v & 4) == 0 ? -0.5f : 0.5f);
+		}
+
+		int triangles[] = {
+			0, 2, 1,  1, 2, 3,  4, 5, 6,  5, 7, 6,
+			0, 1, 4,  1, 5, 4,  2, 6, 3,  3, 6, 7,
+			0, 4, 2,  2, 4, 6,  1, 3, 5,  3, 7, 5
+		};
+
+		Trimesh cube = new Trimesh();
+		cube.setVertexData(FloatBuffer.wrap(vertices));
+		cube.setPolygonData(IntBuffer.wrap(triangles));
+		return cube;
+	}
+}